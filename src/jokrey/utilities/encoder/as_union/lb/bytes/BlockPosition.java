@@ -1,26 +1,34 @@
 package jokrey.utilities.encoder.as_union.lb.bytes;
 
+import jokrey.utilities.bitsandbytes.BitHelper;
 import jokrey.utilities.encoder.as_union.Position;
 import jokrey.utilities.transparent_storage.TransparentStorage;
-
-import static jokrey.utilities.encoder.as_union.lb.bytes.LBLIbae.BLOCK_SIZE;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
 
 /**
  * @author jokrey
  */
 public class BlockPosition extends Position {
     public int pointer;
-    public BlockPosition(int pointer) {
+    public final int block_size;
+    public BlockPosition(int pointer, int block_size) {
         this.pointer = pointer;
+        this.block_size = block_size;
     }
 
+    /** True if the pointer points to the start of a sequence, i.e. a used block (or 0 and there is at least one sequence). Reads 4 bytes. */
     @Override public boolean hasNext(TransparentStorage storage) {
-        return pointer*BLOCK_SIZE < storage.contentSize();
+        long start = (long) pointer*block_size;
+        if(pointer < 0 || start + block_size > storage.contentSize())
+            return false;
+        int nextPointer = BitHelper.getInt32From(((TransparentBytesStorage) storage).sub(start, start + 4), 0);
+        return pointer == 0 ? nextPointer != 0 : nextPointer != Integer.MIN_VALUE;
     }
 
     @Override public String toString() {
         return "BlockPosition{" +
                 "pointer=" + pointer +
+                ", block_size=" + block_size +
                 '}';
     }
 
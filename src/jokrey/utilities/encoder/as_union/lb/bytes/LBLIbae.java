@@ -2,15 +2,18 @@ package jokrey.utilities.encoder.as_union.lb.bytes;
 
 import jokrey.utilities.bitsandbytes.BitHelper;
 import jokrey.utilities.encoder.as_union.AsUnionEncoder;
-import jokrey.utilities.transparent_storage.TransparentStorage;
+import jokrey.utilities.transparent_storage.StorageSystemException;
 import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorage;
 
 import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 
 /**
  * Idea:
- *    There are blocks of size 1024 (max is 2^16).
+ *    There are blocks of a power of two size between 512 and 2^16 (by default the os page size, the examples below assume 1024).
+ *        The block size is chosen when the first entry is encoded and persisted in the 0Block, so every block starts at a page boundary (or within a single page).
+ *        Files written before the block size was persisted have a 0 there and use 1024.
  *        1020 bytes are for data,
  *            the first 4 bytes[0:3] are a pointer to the next start block (big-endian, signed)
  *              ! A  0 (or 0x00000000) as a pointer here indicates end-of-all
@@ -18,7 +21,6 @@ import java.util.Arrays;
  *                    On end of sequence it is possible that not all bytes in the last block where used.
  *                    So this last block is special, in it we can only store 1018 bytes as data:
  *                   -> The next 2 bytes are used to indicate the length of this block (interpreted unsigned)
- *              !       A 0 (or 0x0000= here indicates that the block is deleted/unused/invalid
  *            The next block(start index) can be efficiently found using: pointer_value * 1024
  *        This entails that there is a maximum number of (Integer.MAX_VALUE) blocks allocated at any time.
  *            With block size of 1020 * Integer.MAX*2 + 1 - 2, that is roughly 2,000 Giga Bytes
@@ -38,23 +40,21 @@ import java.util.Arrays;
  *    Deleting:
  *        pretty simple:
  *           while(next_start_block_pointer > 0)
- *               writeNextBlockPointer(-next_start_block_pointer)
- *               writeBlockLength(0)
+ *               markUnused(currentBlock) and push it onto the free block index
+ *           relink the previous sequence to the next sequence
  *    Appending(Encoding):
- *        1 - QuickAndDIRTY-Version - 1: PROBLEM: If exclusively used it HEAVILY segments the data, and it reallocates a ton of data
- *          Append blocks in sequence to the end of the data structure.
- *        2 - Simple-Version: PROBLEM: In O(n)
- *          Jump block by block until an empty block is found
- *          write block(though obviously wait until writing jump-to information)
- *          Continue jumping.
- *          on end of file, just keep appending block.
- *
- *     TODO CURRENTLY MISSING 3 - Smart(?)-Version: PROBLEM: Does this regularly work(?)
- *          0 - Jump block by block until an empty block is found, or eof
- *           1 - on eof -> just append blocks
- *           2 - on empty block -> fill block(but wait with writing until jump-to is confirmed)
- *              jump to the block that is stored as the next_block_pointer (its negative, but indicates the previously stored next block value - see deletion)
- *              if that block is also empty continue with 2, otherwise with 0
+ *        Blocks are taken from the free block index, only if it is empty are new blocks appended to the end of the data structure.
+ *        The free block index is an in memory stack of the ids of all unused blocks.
+ *            It is rebuilt at open (one 4 byte read per block) and maintained incrementally by encode and delete.
+ *            So encode reuses deleted blocks in O(1) amortized, instead of searching for them.
+ *        The new sequence is linked behind the last sequence (which is known from the 0Block).
+ *    Defragmenting:
+ *        Reusing freed blocks scatters the blocks of a sequence over the whole storage.
+ *        defragment relocates the blocks, one at a time, so that all sequences are stored in order and contiguous starting at block 1.
+ *            Each relocated block is copied to its target (after the block occupying the target was moved out of the way)
+ *            and the single pointer to it (and the previous pointer of the following sequence) is rewritten.
+ *        Afterwards all unused blocks are at the end and are cut off.
+ *        The encoder remains usable throughout, but positions obtained before are invalidated.
  *
  *
  * There are 4 types of block:
@@ -62,9 +62,9 @@ import java.util.Arrays;
  *        reserved: completely
  *        identified by: index (==0)
  *        only exists once - it's one mostly empty block containing header information
- *            the first 4 bytes are the address of the first block of the first sequence
- *            the next  4 bytes are the address of the first block of the last sequence
- *            the next  4 bytes are the address of the last block of the last sequence
+ *            the first 4 bytes are the address of the first block of the first sequence (0 if there is none)
+ *            the next  4 bytes are the address of the last block of the last sequence (0 if there is none)
+ *            the next  4 bytes are the block size (0 is interpreted as 1024)
  *    FBlock
  *        reserved: first 10 bytes
  *        identified by: pointed to by MBlock or 0Block
@@ -81,486 +81,530 @@ import java.util.Arrays;
  *            the next block in the sequence (which can either be an MBlock or an FBlock) - when int32 is positive
  *            the next sequence's first block (which is an FBlock) - when int32 is negative (and != Integer.MIN_VALUE, could not really be that anyways)
  *    UnusedBlock
- *        reserved: first 8 bytes
+ *        reserved: first 4 bytes
  *        identified by: first 4 bytes interpreted as int32 are exactly Integer.MIN_VALUE
- *        next 4 bytes are the previous next block address (an address likely to be unused also).
  *
  *
  *
- * The system has to only hold three times BLOCK_SIZE of memory at any time during the algorithm.
+ * The system has to only hold three times block size of memory at any time during the algorithm.
  *     In addition to user-data, surrounding stack data, etc.
- *
- *
- * BUG::
- *
+ * {@link LBLIbae_cache} additionally keeps all block headers in memory, so that following pointers does not require storage reads.
  *
  * @author jokrey
  */
 public class LBLIbae implements AsUnionEncoder<byte[], BlockPosition> {
-    private static final int UNUSED_MARKER = Integer.MIN_VALUE;
-
-    public static final int BLOCK_SIZE = 1024;
+    static final int UNUSED_MARKER = Integer.MIN_VALUE;
+
+    public static final int MIN_BLOCK_SIZE = 512;
+    public static final int MAX_BLOCK_SIZE = 64 * 1024;
+    /** The block size of files that were written before the block size was persisted (those have a 0 in its place). */
+    public static final int LEGACY_BLOCK_SIZE = 1024;
+    /** The (assumed) os page size, if it is a valid block size. */
+    public static final int DEFAULT_BLOCK_SIZE = isValidBlockSize(ByteArrayStorage.getAssumedPageSize())? ByteArrayStorage.getAssumedPageSize() : 4096;
     private static final int BLOCK_POINTER_SIZE = 4;
-    private static final int BLOCK_LENGTH_INDICATOR_SIZE = (int) (Math.ceil( (Math.log(BLOCK_SIZE) / Math.log(2) ) / 8.0 ) );
-    {
-        System.out.println("BLOCK_SIZE = " + BLOCK_SIZE);
-        System.out.println("BLOCK_POINTER_SIZE = " + BLOCK_POINTER_SIZE);
-        System.out.println("BLOCK_LENGTH_INDICATOR_SIZE = " + BLOCK_LENGTH_INDICATOR_SIZE);
-    }
+    private static final int BLOCK_LENGTH_INDICATOR_SIZE = 2; //the last block length is at most MAX_block_size - 4
+
+    private static final int FIRST_OF_FIRST_OFFSET = 0; //in block 0
+    private static final int LAST_OF_LAST_OFFSET = 4; //in block 0
+    private static final int BLOCK_SIZE_OFFSET = 8; //in block 0
 
     final TransparentBytesStorage storage;
+    private int block_size;
+    private int[] free_blocks = new int[16]; //stack, lowest ids on top
+    private int free_count = 0;
+
+    /**
+     * Block size is {@link #DEFAULT_BLOCK_SIZE}
+     * @see #LBLIbae(TransparentBytesStorage, int)
+     */
     public LBLIbae(TransparentBytesStorage storage) {
+        this(storage, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * If the storage already contains data, the block size persisted in it is used (and the parameter is ignored).
+     * @param storage underlying storage
+     * @param block_size power of two between {@link #MIN_BLOCK_SIZE} and {@link #MAX_BLOCK_SIZE}
+     */
+    public LBLIbae(TransparentBytesStorage storage, int block_size) {
+        if(!isValidBlockSize(block_size))
+            throw new IllegalArgumentException("block_size("+block_size+") has to be a power of two between "+MIN_BLOCK_SIZE+" and "+MAX_BLOCK_SIZE);
         this.storage = storage;
+        this.block_size = block_size;
+        open();
+    }
+
+    public static boolean isValidBlockSize(int block_size) {
+        return block_size >= MIN_BLOCK_SIZE && block_size <= MAX_BLOCK_SIZE && Integer.bitCount(block_size) == 1;
+    }
+
+    public int getBlockSize() {
+        return block_size;
     }
 
     public LBLIbae encode(byte[] data) {
         int blockCount = blockCount();
-        byte[] block0 = loadBlock0();
-        int firstBlockOfFirstSequence = getFirstBlockOfFirstSequence(block0);
-        if(blockCount<=0) {
-            byte[] gen = new byte[BLOCK_SIZE];
-            writeFirstBlockOfFirstSequence(gen, 1);
-            storeBlock0(gen);
-            block0=gen;
+        if(blockCount == 0) {
+            byte[] block0 = new byte[block_size];
+            BitHelper.writeInt32(block0, BLOCK_SIZE_OFFSET, block_size);
+            storage.set(0, block0);
+            blockWritten(0, block0);
             blockCount = 1;
         }
-        int previousLastBlockOfLastSequence = getLastBlockOfLastSequence(block0);
-
-
-        int currentBlock = linearSearchNextEmptyBlockId(1, blockCount);
-        int firstBlockId = currentBlock;
-        int dataWritten = 0;
-        while (true) {
-            int nextBlock;
-            boolean isFirstBlock = dataWritten == 0;
-            boolean isLastBlock = dataWritten + (BLOCK_SIZE-(isFirstBlock?getFBlockHeaderSize():getMBlockHeaderSize())) >= data.length;
-            System.out.println("1 - firstBlock="+isFirstBlock+", lastBlock="+isLastBlock+", currentBlock="+currentBlock);
-            debugPrintAllBlocks();
-            if (isFirstBlock) { //first block
-                if(isLastBlock) {
-                    writeFBlock(currentBlock, data, previousLastBlockOfLastSequence, 0);
-                    break;
-                } else {
-                    nextBlock = linearSearchNextEmptyBlockId(currentBlock + 1, blockCount);
-                    dataWritten = writeFBlock(currentBlock, data, previousLastBlockOfLastSequence, nextBlock);
-                }
-            } else if(isLastBlock) { //last block
-                writeMBlock(currentBlock, data, dataWritten, 0);
-                break;
-            } else {
-                nextBlock = linearSearchNextEmptyBlockId(currentBlock + 1, blockCount);
-                dataWritten = writeMBlock(currentBlock, data, dataWritten, nextBlock);
-            }
-            currentBlock = nextBlock;
-            blockCount = Math.max(blockCount, nextBlock);
+        int previousLastBlockOfLastSequence = loadTail();
+
+        int[] blockIds = new int[getRequiredBlockCount(data.length)];
+        for(int i=0;i<blockIds.length;i++) {
+            if(free_count > 0)
+                blockIds[i] = free_blocks[--free_count];
+            else
+                blockIds[i] = blockCount++;
         }
-        System.out.println("2");
-        debugPrintAllBlocks();
 
-        writeLastBlockOfLastSequence(block0, currentBlock);
-        if(firstBlockOfFirstSequence == 0) {
-            writeFirstBlockOfFirstSequence(block0, firstBlockId);
-        }
-
-        if(previousLastBlockOfLastSequence != 0) {
-            storage.set(getRawBlockStart(previousLastBlockOfLastSequence), BitHelper.getBytes(-firstBlockId));
+        int dataWritten = 0;
+        for(int i=0;i<blockIds.length;i++) {
+            boolean isLastBlock = i == blockIds.length-1;
+            int nextBlock = isLastBlock ? 0 : blockIds[i+1];
+            if(i == 0)
+                dataWritten = writeFBlock(blockIds[i], data, previousLastBlockOfLastSequence, nextBlock);
+            else
+                dataWritten = writeMBlock(blockIds[i], data, dataWritten, nextBlock);
         }
 
-        storeBlock0(block0);
-
-        System.out.println("3");
-        debugPrintAllBlocks();
+        if(previousLastBlockOfLastSequence == 0)
+            storeHead(blockIds[0]);
+        else
+            setNextPointer(previousLastBlockOfLastSequence, -blockIds[0]);
+        storeTail(blockIds[blockIds.length-1]);
         return this;
     }
 
     public byte[] decode(BlockPosition pos) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        if(pos.pointer < 0 || !pos.hasNext(storage))
+        int blockId = resolve(pos);
+        if(blockId <= 0)
             return null;
-        if(pos.pointer==0) {
-            byte[] block0 = loadBlock0();
-            pos.pointer = getFirstBlockOfFirstSequence(block0);
-        }
-        byte[] block = loadBlock(pos.pointer);
+        byte[] block = loadBlock(blockId, new byte[block_size]);
+        int nextPointer = getNextPointer(block);
+        checkUsed(nextPointer);
         int blockLength = getBlockLength(block);
-        pos.pointer= getNextPointer(block);
-        if(pos.pointer <= 0) {
-            out.write(block, getFBlockHeaderSize(), blockLength);
 
-            validatePointerIsInNextSequence(pos, blockCount());
-            return out.toByteArray();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if(nextPointer <= 0) {
+            out.write(block, getFBlockHeaderSize(), blockLength);
         } else {
-            out.write(block, getFBlockHeaderSize(), BLOCK_SIZE-getFBlockHeaderSize());
-        }
-        while(true) {
-            block = loadBlock(pos.pointer);
-            pos.pointer = getNextPointer(block);
-            if(pos.pointer <= 0) {
-                out.write(block, getMBlockHeaderSize(), blockLength);
-
-                validatePointerIsInNextSequence(pos, blockCount());
-                return out.toByteArray();
-            } else {
-                out.write(block, getMBlockHeaderSize(), block.length-getMBlockHeaderSize());
+            out.write(block, getFBlockHeaderSize(), block_size-getFBlockHeaderSize());
+            while(true) {
+                loadBlock(nextPointer, block);
+                nextPointer = getNextPointer(block);
+                if(nextPointer <= 0) {
+                    out.write(block, getMBlockHeaderSize(), blockLength);
+                    break;
+                } else {
+                    out.write(block, getMBlockHeaderSize(), block_size-getMBlockHeaderSize());
+                }
             }
         }
+        pos.pointer = getNextSequence(nextPointer);
+        return out.toByteArray();
     }
 
-    //SAME CODE AS DECODE; BUT ONLY COUNTS THE SKIPPED BYTES
+    //SAME WALK AS DECODE; BUT ONLY READS THE POINTERS AND COUNTS THE SKIPPED BYTES
     @Override public long skipEntry(BlockPosition pos) {
-        long bytesSkipped = 0;
-        if(pos.pointer < 0 || !pos.hasNext(storage))
+        int blockId = resolve(pos);
+        if(blockId <= 0)
             return -1;
-        if(pos.pointer==0) {
-            byte[] block0 = loadBlock0();
-            pos.pointer = getFirstBlockOfFirstSequence(block0);
-        }
-        byte[] block = loadBlock(pos.pointer);
-        int blockLength = getBlockLength(block);
-        pos.pointer= getNextPointer(block);
-        if(pos.pointer <= 0) {
-            bytesSkipped += blockLength;
-
-            validatePointerIsInNextSequence(pos, blockCount());
-            return bytesSkipped;
-        } else {
-            bytesSkipped += BLOCK_SIZE-getFBlockHeaderSize();
-        }
-        while(true) {
-            block = loadBlock(pos.pointer);
-            pos.pointer = getNextPointer(block);
-            if(pos.pointer <= 0) {
-                bytesSkipped += blockLength;
-
-                validatePointerIsInNextSequence(pos, blockCount());
-                return bytesSkipped;
-            } else {
-                bytesSkipped += block.length-getMBlockHeaderSize();
-            }
+        int[] header = loadFBlockHeader(blockId);
+        int nextPointer = header[0];
+        checkUsed(nextPointer);
+        long bytesSkipped = header[2];
+        if(nextPointer > 0) {
+            bytesSkipped += block_size-getFBlockHeaderSize();
+            while((nextPointer = loadNextPointer(nextPointer)) > 0)
+                bytesSkipped += block_size-getMBlockHeaderSize();
         }
+        pos.pointer = getNextSequence(nextPointer);
+        return bytesSkipped;
     }
 
-
-
     @Override public byte[] deleteEntry(BlockPosition pos) {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
-        if(pos.pointer < 0 || !pos.hasNext(storage))
+        if(deleteSequence(pos, out) < 0)
             return null;
-        int virtualPointer = pos.pointer;
-        byte[] block0 = loadBlock0();
-        if(virtualPointer==0) {
-            virtualPointer = getFirstBlockOfFirstSequence(block0);
-        }
-        int startBlock = virtualPointer;
-
-        byte[] block = loadBlock(virtualPointer);
-        int previousLastBlock = getPreviousPointer(block); //get the block who's pointer was previously pointing to this block/sequence
-        int blockLength = getBlockLength(block);
-        setUnused(virtualPointer);
-        virtualPointer = getNextPointer(block);
+        return out.toByteArray();
+    }
 
-        //FBlock
-        if(virtualPointer <= 0) {
-            if(virtualPointer == UNUSED_MARKER)
-                throw new IllegalStateException("Blocks at requested position has been deleted or does not exist, consider calling reset.");
-            out.write(block, getFBlockHeaderSize(), blockLength);
+    @Override public long delete(BlockPosition pos) {
+        return deleteSequence(pos, null);
+    }
 
-            if(previousLastBlock != 0)
-                setNextPointer(previousLastBlock, virtualPointer); //relink previous block to next block(essentially skipping the deleted block.
-                                                                   //important: virtualPointer is negative here, so that the previous last block is still a 'last' block
+    @Override public BlockPosition forIndex(int index) {
+        BlockPosition pos = reset();
+        int blockId = resolve(pos);
+        for(int counter=0; blockId > 0 && counter < index;) {
+            blockId = loadNextPointer(blockId);
+            if(blockId <= 0) {
+                blockId = -blockId;
+                counter++;
+            }
+        }
+        pos.pointer = blockId > 0 ? blockId : getNextEncodedBlock();
+        return pos;
+    }
 
-            virtualPointer = -virtualPointer; //important, pointer is required to have a valid position after
-            if(virtualPointer!=0)
-                setPreviousPointer(virtualPointer, previousLastBlock); //relink previousPointer of nextBlock(pointing to this block, to out previous)
-            updateBlock0AfterSequenceDeletion(block0, startBlock, startBlock, virtualPointer, previousLastBlock);
+    @Override public LBLIbae clear() {
+        storage.clear();
+        free_count = 0;
+        return this;
+    }
 
-            pos.pointer = virtualPointer; //valid, hopefully not deleted position after
-            validatePointerIsInNextSequence(pos, blockCount());
-            return out.toByteArray();
-        } else {
-            out.write(block, getFBlockHeaderSize(), BLOCK_SIZE-getFBlockHeaderSize());
-        }
+    @Override public LBLIbae readFromEncoded(byte[] encoded) {
+        storage.setContent(encoded);
+        open();
+        return this;
+    }
 
-        //MBlocks
-        while(true) {
-            block = loadBlock(virtualPointer);
-            setUnused(virtualPointer);
-            int previousVirtualPointer = virtualPointer;
-            virtualPointer = getNextPointer(block);
-            if(virtualPointer <= 0) {
-                out.write(block, getMBlockHeaderSize(), blockLength);
-                if(previousLastBlock != 0)
-                    setNextPointer(previousLastBlock, virtualPointer); //relink previous block to next block(essentially skipping the deleted block.
-                                                                       //important: virtualPointer is negative here, so that the previous last block is still a 'last' block
-
-                virtualPointer = -virtualPointer; //important, pointer is required to have a valid position after
-                if(virtualPointer!=0)
-                    setPreviousPointer(virtualPointer, previousLastBlock); //relink previousPointer of nextBlock(pointing to this block, to out previous)
-                updateBlock0AfterSequenceDeletion(block0, startBlock, previousVirtualPointer, virtualPointer, previousLastBlock);
-
-                pos.pointer = virtualPointer; //valid, hopefully not deleted position after
-                validatePointerIsInNextSequence(pos, blockCount());
-                return out.toByteArray();
-            } else {
-                out.write(block, getMBlockHeaderSize(), block.length-getMBlockHeaderSize());
-            }
-        }
+    /** Defragments, see {@link #defragment()}. */
+    @Override public void trim() {
+        defragment();
     }
 
-    @Override public long delete(BlockPosition pos) {
-        long bytesDeleted = 0;
-        if(pos.pointer < 0 || !pos.hasNext(storage))
-            return -1;
-        int virtualPointer = pos.pointer;
-        byte[] block0 = loadBlock0();
-        if(virtualPointer==0) {
-            virtualPointer = getFirstBlockOfFirstSequence(block0);
+    /**
+     * Relocates blocks so that all sequences are stored in order and contiguous, starting at block 1.
+     * Unused blocks are cut off afterwards.
+     * Only one block is held in memory at a time (plus two ints per block for the pointer bookkeeping).
+     * The encoder remains usable, but positions obtained before this call are invalidated.
+     * @return number of relocated blocks
+     */
+    public int defragment() {
+        int blockCount = blockCount();
+        if(blockCount == 0) return 0;
+
+        //predecessor[b] is the block whose next pointer points to b (0 if b is the first block of the first sequence)
+        //owner[b] is 1 + the index of b in the logical order of all used blocks (0 if b is unused)
+        int[] predecessor = new int[blockCount + 1];
+        int[] owner = new int[blockCount + 1];
+        int[] order = new int[blockCount];
+        int used = 0;
+        int previousBlock = 0;
+        int blockId = loadHead();
+        while(blockId > 0) {
+            predecessor[blockId] = previousBlock;
+            order[used++] = blockId;
+            owner[blockId] = used;
+            previousBlock = blockId;
+            blockId = loadNextPointer(blockId);
+            if(blockId < 0) blockId = -blockId;
         }
-        int startBlock = virtualPointer;
-
-        byte[] block = loadBlock(virtualPointer);
-        int previousLastBlock = getPreviousPointer(block); //get the block who's pointer was previously pointing to this block/sequence
-        int blockLength = getBlockLength(block);
-        setUnused(virtualPointer);
-        virtualPointer = getNextPointer(block);
-
-        //FBlock
-        if(virtualPointer <= 0) {
-            if(virtualPointer == UNUSED_MARKER)
-                throw new IllegalStateException("Blocks at requested position has been deleted or does not exist, consider calling reset.");
-            bytesDeleted += blockLength;
-
-            if(previousLastBlock != 0)
-                setNextPointer(previousLastBlock, virtualPointer); //relink previous block to next block(essentially skipping the deleted block.
-                                                                   // important: virtualPointer is negative here, so that the previous last block is still a 'last' block
-
-            virtualPointer = -virtualPointer; //important, pointer is required to have a valid position after
-            if(virtualPointer!=0)
-                setPreviousPointer(virtualPointer, previousLastBlock); //relink previousPointer of nextBlock(pointing to this block, to out previous)
-            updateBlock0AfterSequenceDeletion(block0, startBlock, startBlock, virtualPointer, previousLastBlock);
-
-            pos.pointer = virtualPointer; //valid, hopefully not deleted position after
-            validatePointerIsInNextSequence(pos, blockCount());
-            return bytesDeleted;
-        } else {
-            bytesDeleted += BLOCK_SIZE-getFBlockHeaderSize();
+        if(used == 0) {
+            clear();
+            return 0;
         }
 
-        //MBlocks
-        while(true) {
-            block = loadBlock(virtualPointer);
-            setUnused(virtualPointer);
-            int previousVirtualPointer = virtualPointer;
-            virtualPointer = getNextPointer(block);
-            if(virtualPointer <= 0) {
-                bytesDeleted += blockLength;
-
-                if(previousLastBlock != 0)
-                    setNextPointer(previousLastBlock, virtualPointer); //relink previous block to next block(essentially skipping the deleted block.
-                                                                       // important: virtualPointer is negative here, so that the previous last block is still a 'last' block
-
-                virtualPointer = -virtualPointer; //important, pointer is required to have a valid position after
-                if(virtualPointer!=0)
-                    setPreviousPointer(virtualPointer, previousLastBlock); //relink previousPointer of nextBlock(pointing to this block, to out previous)
-                updateBlock0AfterSequenceDeletion(block0, startBlock, previousVirtualPointer, virtualPointer, previousLastBlock);
-
-                pos.pointer = virtualPointer; //valid, hopefully not deleted position after
-                validatePointerIsInNextSequence(pos, blockCount());
-                return bytesDeleted;
-            } else {
-                bytesDeleted += BLOCK_SIZE-getMBlockHeaderSize();
+        int relocated = 0;
+        int spare = used + 1;
+        for(int i=0;i<used;i++) {
+            int target = i + 1;
+            if(order[i] == target) continue;
+            if(owner[target] != 0) { //target is used by a block that comes later in the order - move it out of the way
+                while(spare < owner.length && owner[spare] != 0) spare++;
+                if(spare >= owner.length) {
+                    predecessor = Arrays.copyOf(predecessor, spare + 1);
+                    owner = Arrays.copyOf(owner, spare + 1);
+                }
+                int displacedIndex = owner[target] - 1;
+                relocate(target, spare, predecessor);
+                order[displacedIndex] = spare;
+                owner[spare] = displacedIndex + 1;
+                relocated++;
             }
+            owner[order[i]] = 0;
+            relocate(order[i], target, predecessor);
+            order[i] = target;
+            owner[target] = i + 1;
+            relocated++;
         }
+
+        if(storage.contentSize() > getRawBlockStart(used + 1))
+            storage.delete(getRawBlockStart(used + 1), storage.contentSize());
+        free_count = 0;
+        return relocated;
     }
 
-    public BlockPosition forIndex(int index) {
-        byte[] block0 = loadBlock0();
-        int blockCount = blockCount();
-        if(index>blockCount) throw new IndexOutOfBoundsException();
-        int counter = 0;
-
-        int currentBlockId = getFirstBlockOfFirstSequence(block0);
-        while(currentBlockId != 0 && index != counter) {
-            currentBlockId = loadNextPointer(currentBlockId);
-            if(currentBlockId < 0) {
-                currentBlockId = -currentBlockId;
-                counter++;
-            }
-        }
-        return new BlockPosition(currentBlockId);
+    /** @return the number of unused blocks that will be reused by the next encodes (before the storage grows) */
+    public int getFreeBlockCount() {
+        return free_count;
     }
 
 
 
 
+    @Override public BlockPosition reset() {
+        return new BlockPosition(0, block_size);
+    }
+    @Override public TransparentBytesStorage getRawStorage() {
+        return storage;
+    }
+
 
-    private void validatePointerIsInNextSequence(BlockPosition pos, int blockCount) {
-        if(pos.pointer < 0)
-            pos.pointer = -pos.pointer;
-        else if(pos.pointer == 0) {
-            pos.pointer = linearSearchNextEmptyBlockId(1, blockCount);
+
+    //returns the start block of the sequence at the given position or -1 if there is none
+    private int resolve(BlockPosition pos) {
+        if(pos.pointer < 0 || pos.pointer >= blockCount())
+            return -1;
+        if(pos.pointer == 0) {
+            int firstBlockOfFirstSequence = loadHead();
+            return firstBlockOfFirstSequence == 0 ? -1 : firstBlockOfFirstSequence;
         }
+        return loadNextPointer(pos.pointer) == UNUSED_MARKER ? -1 : pos.pointer;
+    }
+    //the position after the last sequence is the block the next encode will start at - so that the position remains valid after the next encode (just like with LIbae)
+    private int getNextSequence(int lastNextPointer) {
+        return lastNextPointer == 0 ? getNextEncodedBlock() : -lastNextPointer;
+    }
+    private int getNextEncodedBlock() {
+        return free_count > 0 ? free_blocks[free_count-1] : Math.max(1, blockCount());
+    }
+    private static void checkUsed(int nextPointer) {
+        if(nextPointer == UNUSED_MARKER)
+            throw new IllegalStateException("Blocks at requested position has been deleted or does not exist, consider calling reset.");
     }
-    private void updateBlock0AfterSequenceDeletion(byte[] block0, int deletedSequenceStartBlockId, int deletedSequenceLastBlockId,
-                                                   int deletedSequenceLastBlock_NextPointer, int deletedSequence_previousSequenceLastBlock) {
-        int previousFirstBlockOfFirstSequence = getFirstBlockOfFirstSequence(block0);
-        int previousLastBlockOfLastSequence = getLastBlockOfLastSequence(block0);
 
-        boolean changed = false;
-        if(deletedSequenceStartBlockId == previousFirstBlockOfFirstSequence) { // deleted sequence was first
-            writeFirstBlockOfFirstSequence(block0, deletedSequenceLastBlock_NextPointer);
-            changed=true;
+    private long deleteSequence(BlockPosition pos, ByteArrayOutputStream out) {
+        int startBlock = resolve(pos);
+        if(startBlock <= 0)
+            return -1;
+        byte[] block = null;
+        int[] header;
+        if(out == null) {
+            header = loadFBlockHeader(startBlock);
+        } else {
+            block = loadBlock(startBlock, new byte[block_size]);
+            header = new int[] {getNextPointer(block), getPreviousPointer(block), getBlockLength(block)};
+        }
+        int nextPointer = header[0];
+        checkUsed(nextPointer);
+        int previousLastBlock = header[1]; //the block who's pointer was previously pointing to this sequence
+        int blockLength = header[2];
+
+        long bytesDeleted;
+        int[] freed = new int[] {startBlock};
+        int freedCount = 1;
+        setUnused(startBlock);
+        if(nextPointer <= 0) {
+            bytesDeleted = blockLength;
+            if(out != null) out.write(block, getFBlockHeaderSize(), blockLength);
+        } else {
+            bytesDeleted = block_size-getFBlockHeaderSize();
+            if(out != null) out.write(block, getFBlockHeaderSize(), block_size-getFBlockHeaderSize());
+            while(true) {
+                int currentBlock = nextPointer;
+                if(out == null) {
+                    nextPointer = loadNextPointer(currentBlock);
+                } else {
+                    loadBlock(currentBlock, block);
+                    nextPointer = getNextPointer(block);
+                }
+                setUnused(currentBlock);
+                if(freedCount == freed.length)
+                    freed = Arrays.copyOf(freed, freed.length * 2);
+                freed[freedCount++] = currentBlock;
+                if(nextPointer <= 0) {
+                    bytesDeleted += blockLength;
+                    if(out != null) out.write(block, getMBlockHeaderSize(), blockLength);
+                    break;
+                } else {
+                    bytesDeleted += block_size-getMBlockHeaderSize();
+                    if(out != null) out.write(block, getMBlockHeaderSize(), block_size-getMBlockHeaderSize());
+                }
+            }
         }
-        if(deletedSequenceLastBlockId == previousLastBlockOfLastSequence) { //deleted sequence was last
-            writeLastBlockOfLastSequence(block0, deletedSequence_previousSequenceLastBlock);
-            changed=true;
+
+        for(int i=freedCount-1;i>=0;i--)
+            pushFreeBlock(freed[i]);
+
+        int nextSequence = -nextPointer;
+        if(previousLastBlock == 0 && nextSequence == 0) { //deleted the only remaining sequence
+            clear();
+        } else {
+            //relink the previous sequence to the next sequence (essentially skipping the deleted sequence)
+            if(previousLastBlock == 0)
+                storeHead(nextSequence);
+            else
+                setNextPointer(previousLastBlock, nextPointer); //important: nextPointer is <= 0 here, so that the previous last block is still a 'last' block
+            if(nextSequence == 0)
+                storeTail(previousLastBlock);
+            else
+                setPreviousPointer(nextSequence, previousLastBlock);
         }
-        if(changed)
-            storeBlock0(block0);
+        pos.pointer = getNextSequence(nextPointer); //valid position after
+        return bytesDeleted;
+    }
+
+    //copies block 'from' to the unused block 'to' and rewrites all pointers to it
+    private void relocate(int from, int to, int[] predecessor) {
+        byte[] block = loadBlock(from, new byte[block_size]);
+        storage.set(getRawBlockStart(to), block);
+        blockWritten(to, block);
+        int previous = predecessor[from];
+        if(previous == 0)
+            storeHead(to);
+        else
+            setNextPointer(previous, loadNextPointer(previous) < 0 ? -to : to);
+
+        int nextPointer = getNextPointer(block);
+        if(nextPointer > 0) {
+            predecessor[nextPointer] = to;
+        } else if(nextPointer < 0) {
+            predecessor[-nextPointer] = to;
+            setPreviousPointer(-nextPointer, to);
+        } else {
+            storeTail(to);
+        }
+        predecessor[to] = previous;
+        setUnused(from);
     }
 
 
 
 
-    @Override public BlockPosition reset() {
-        return new BlockPosition(0);
+    //reads the persisted block size and rebuilds the free block index
+    private void open() {
+        if(storage.contentSize() >= BLOCK_SIZE_OFFSET + 4) {
+            int persisted_block_size = loadInt(0, BLOCK_SIZE_OFFSET);
+            block_size = persisted_block_size == 0 ? LEGACY_BLOCK_SIZE : persisted_block_size;
+            if(!isValidBlockSize(block_size))
+                throw new StorageSystemException("Internal LBLIbae-Error(invalid persisted block size: "+block_size+")");
+        }
+        rebuildFreeBlockIndex();
     }
-    @Override public TransparentBytesStorage getRawStorage() {
-        return storage;
+
+    //Free block index::
+    //all unused blocks are found by reading the next pointer of each block, ids are pushed in descending order so that the lowest ids are reused first
+    void rebuildFreeBlockIndex() {
+        free_count = 0;
+        for(int i=blockCount()-1;i>=1;i--)
+            if(loadNextPointer(i) == UNUSED_MARKER)
+                pushFreeBlock(i);
     }
+    private void pushFreeBlock(int blockId) {
+        if(free_count == free_blocks.length)
+            free_blocks = Arrays.copyOf(free_blocks, free_blocks.length * 2);
+        free_blocks[free_count++] = blockId;
+    }
+
 
 
 
+    //Block header access::
+    //all reads and writes of pointers and lengths go through the following methods, so that LBLIbae_cache can serve them from memory
 
-    private int blockCount() {
+    protected int blockCount() {
         long storageSize = storage.contentSize();
-        if(storageSize % BLOCK_SIZE != 0) throw new IllegalStateException(String.valueOf(storageSize % BLOCK_SIZE));
-        return (int) (storageSize / BLOCK_SIZE);
+        if(storageSize % block_size != 0) throw new IllegalStateException(String.valueOf(storageSize % block_size));
+        return (int) (storageSize / block_size);
     }
-    private byte[] loadBlock(int blockId) {
-        return storage.sub(getRawBlockStart(blockId), getRawBlockEnd(blockId) );
+    private int getRequiredBlockCount(int dataLength) {
+        if(dataLength <= block_size - getFBlockHeaderSize())
+            return 1;
+        int remaining = dataLength - (block_size - getFBlockHeaderSize());
+        return 1 + (remaining + block_size - getMBlockHeaderSize() - 1) / (block_size - getMBlockHeaderSize());
     }
-    private int linearSearchNextEmptyBlockId(int searchStart, int blockCount) {
-        for(int i=searchStart;i<blockCount;i++)
-            if(isUnused(i))
-                return i;
-        return Math.max(1, Math.max(searchStart, blockCount));
-        //TODO: BETTER SEARCH; WHEN UNUSED WAS FOUND
+    //block starts are multiples of the (power of two) block size, so whole blocks are always page aligned reads (or multiple blocks lie within one page)
+    private byte[] loadBlock(int blockId, byte[] into) {
+        storage.copyInto(getRawBlockStart(blockId), into, 0, block_size);
+        return into;
     }
-    private int getRawBlockStart(int blockNumber) {
-        return blockNumber * BLOCK_SIZE;
+    private long getRawBlockStart(int blockNumber) {
+        return (long) blockNumber * block_size;
     }
-    private int getRawBlockEnd(int blockNumber) {
-        return (blockNumber + 1) * BLOCK_SIZE;
+    private int loadInt(int blockNumber, int offset) {
+        long start = getRawBlockStart(blockNumber) + offset;
+        return BitHelper.getInt32From(storage.sub(start, start + 4), 0);
     }
-    private int loadNextPointer(int blockNumber) {
-        return BitHelper.getInt32From(storage.sub(getRawBlockStart(blockNumber), getRawBlockStart(blockNumber)+4), 0);
+    private void storeInt(int blockNumber, int offset, int value) {
+        storage.set(getRawBlockStart(blockNumber) + offset, BitHelper.getBytes(value));
     }
-    private void setNextPointer(int blockNumber, int newNextPointer) {
-        storage.set(getRawBlockStart(blockNumber), BitHelper.getBytes(newNextPointer));
+    protected int loadHead() {
+        return loadInt(0, FIRST_OF_FIRST_OFFSET);
     }
-    private void setPreviousPointer(int blockNumber, int newPreviousLastBlockPointer) {
-        storage.set(getRawBlockStart(blockNumber)+4, BitHelper.getBytes(newPreviousLastBlockPointer));
+    protected void storeHead(int firstBlockOfFirstSequence) {
+        storeInt(0, FIRST_OF_FIRST_OFFSET, firstBlockOfFirstSequence);
     }
-    private int getNextPointer(byte[] block) {
-        return BitHelper.getInt32From(block, 0);
+    protected int loadTail() {
+        return loadInt(0, LAST_OF_LAST_OFFSET);
     }
-    private int getPreviousPointer(byte[] block) {
-        return BitHelper.getInt32From(block, 4);
+    protected void storeTail(int lastBlockOfLastSequence) {
+        storeInt(0, LAST_OF_LAST_OFFSET, lastBlockOfLastSequence);
     }
-    private int getBlockLength(byte[] block) {
-        return (int) BitHelper.getIntFromNBytes(block, 8, BLOCK_LENGTH_INDICATOR_SIZE);
+    protected int loadNextPointer(int blockNumber) {
+        return loadInt(blockNumber, 0);
     }
-    private void overwritePreviousPointer(byte[] block, int newPointer) {
-        BitHelper.writeInt32(block, 4, newPointer);
+    protected void setNextPointer(int blockNumber, int newNextPointer) {
+        storeInt(blockNumber, 0, newNextPointer);
     }
-    private void overwriteNextPointer(byte[] block, int newPointer) {
-        BitHelper.writeInt32(block, 0, newPointer);
+    protected void setPreviousPointer(int blockNumber, int newPreviousLastBlockPointer) {
+        storeInt(blockNumber, 4, newPreviousLastBlockPointer);
     }
-    private void overwriteBlockLength(byte[] block, int newLength) {
-        BitHelper.writeInNBytes(block, 8, newLength, BLOCK_LENGTH_INDICATOR_SIZE);
+    /** @return {next pointer, previous pointer, last block length} of the given FBlock */
+    protected int[] loadFBlockHeader(int blockNumber) {
+        byte[] header = storage.sub(getRawBlockStart(blockNumber), getRawBlockStart(blockNumber) + getFBlockHeaderSize());
+        return new int[] {getNextPointer(header), getPreviousPointer(header), getBlockLength(header)};
     }
+    /** Called after a whole block (including its header) was written. */
+    protected void blockWritten(int blockNumber, byte[] block) {}
 
-
-    //0-Block functionality::
-    private int getFirstBlockOfFirstSequence(byte[] block0) {
-        return block0.length==0?0:BitHelper.getInt32From(block0, 0);
-    }
-    private int getLastBlockOfLastSequence(byte[] block0) {
-        return BitHelper.getInt32From(block0, 4);
-    }
-    private void writeFirstBlockOfFirstSequence(byte[] block0, int blockId) {
-        BitHelper.writeInt32(block0, 0, blockId);
-    }
-    private void writeLastBlockOfLastSequence(byte[] block0, int blockId) {
-        BitHelper.writeInt32(block0, 4, blockId);
+    static int getNextPointer(byte[] block) {
+        return BitHelper.getInt32From(block, 0);
     }
-    private byte[] loadBlock0() {
-        return storage.sub(0, BLOCK_SIZE);
+    static int getPreviousPointer(byte[] block) {
+        return BitHelper.getInt32From(block, 4);
     }
-    private void storeBlock0(byte[] block0) {
-        storage.set(0, block0);
+    static int getBlockLength(byte[] block) {
+        return (int) BitHelper.getIntFromNBytes(block, 8, BLOCK_LENGTH_INDICATOR_SIZE) & 0xFFFF; //unsigned
     }
 
 
     //FBlock functionality::
     private int writeFBlock(int blockNumber, byte[] data, int previousBlockAddress, int nextBlockAddress) {
-        byte[] header = createFBlockHeader(data.length, previousBlockAddress, nextBlockAddress);
-        storage.set(getRawBlockStart(blockNumber), header);
-        storage.set(getRawBlockStart(blockNumber) + header.length, data, 0, BLOCK_SIZE - header.length);
-        return BLOCK_SIZE - header.length;
+        byte[] block = new byte[block_size]; //always whole blocks, so that the storage size remains a multiple of block_size
+        BitHelper.writeInt32(block, 0, nextBlockAddress);
+        BitHelper.writeInt32(block, 4, previousBlockAddress);
+        BitHelper.writeInNBytes(block, 8, getLastBlockLength(data.length), BLOCK_LENGTH_INDICATOR_SIZE);
+        int dataLength = Math.min(data.length, block_size - getFBlockHeaderSize());
+        System.arraycopy(data, 0, block, getFBlockHeaderSize(), dataLength);
+        storage.set(getRawBlockStart(blockNumber), block);
+        blockWritten(blockNumber, block);
+        return dataLength;
     }
     private static int getFBlockHeaderSize() {
         return BLOCK_POINTER_SIZE*2 + BLOCK_LENGTH_INDICATOR_SIZE;
     }
-    private byte[] createFBlockHeader(int totalDataLength, int previousBlockAddress, int nextBlockAddress) {
-        byte[] header_LBlock = new byte[getFBlockHeaderSize()];
-        int bytesInLastBlock;
-        if(totalDataLength <= BLOCK_SIZE - getFBlockHeaderSize()) { //fits into first block
-            bytesInLastBlock = totalDataLength;
-        } else {
-            bytesInLastBlock = totalDataLength;
-            bytesInLastBlock-=(BLOCK_SIZE - getFBlockHeaderSize());
-            bytesInLastBlock %= (BLOCK_SIZE - getMBlockHeaderSize());
-            if(bytesInLastBlock == 0)
-                bytesInLastBlock = (BLOCK_SIZE - 4);
-        }
-
-        overwriteNextPointer(header_LBlock, nextBlockAddress);
-        overwritePreviousPointer(header_LBlock, previousBlockAddress);
-        overwriteBlockLength(header_LBlock, bytesInLastBlock);
-        return header_LBlock;
+    private int getLastBlockLength(int totalDataLength) {
+        int blockCount = getRequiredBlockCount(totalDataLength);
+        if(blockCount == 1)
+            return totalDataLength;
+        return totalDataLength - (block_size - getFBlockHeaderSize()) - (blockCount-2) * (block_size - getMBlockHeaderSize());
     }
 
 
     //MBlock functionality::
     private int writeMBlock(int blockNumber, byte[] data, int dataPartStart, int nextBlockAddress) {
-        byte[] header = createMBlockHeader(nextBlockAddress);
-        storage.set(getRawBlockStart(blockNumber), header);
-        storage.set(getRawBlockStart(blockNumber)+header.length, data, dataPartStart, dataPartStart + BLOCK_SIZE - header.length);
-        return dataPartStart + BLOCK_SIZE - header.length;
+        byte[] block = new byte[block_size];
+        BitHelper.writeInt32(block, 0, nextBlockAddress);
+        int dataLength = Math.min(data.length - dataPartStart, block_size - getMBlockHeaderSize());
+        System.arraycopy(data, dataPartStart, block, getMBlockHeaderSize(), dataLength);
+        storage.set(getRawBlockStart(blockNumber), block);
+        blockWritten(blockNumber, block);
+        return dataPartStart + dataLength;
     }
     private static int getMBlockHeaderSize() {
         return BLOCK_POINTER_SIZE;
     }
-    private byte[] createMBlockHeader(int nextBlockAddress) {
-        byte[] header_MBlock = new byte[getMBlockHeaderSize()];
-        overwriteNextPointer(header_MBlock, nextBlockAddress);
-        return header_MBlock;
-    }
 
 
     //UnusedBlock functionality::
-    private boolean isUnused(int blockId) {
-        int rawBlockBoundsStart = getRawBlockStart(blockId);
-        byte[] block = storage.sub(rawBlockBoundsStart, rawBlockBoundsStart+4);
-        int nextPointer = getNextPointer(block);
-        return nextPointer==UNUSED_MARKER;
-    }
     private void setUnused(int blockId) {
-        int rawBlockBoundsStart = getRawBlockStart(blockId);
-        storage.set(rawBlockBoundsStart, BitHelper.getBytes(UNUSED_MARKER));
-        //TODO: fulfill contract
+        setNextPointer(blockId, UNUSED_MARKER);
     }
 
 
@@ -570,10 +614,13 @@ public class LBLIbae implements AsUnionEncoder<byte[], BlockPosition> {
 
     public void debugPrintAllBlocks() {
         System.out.println("allBlocks:");
-        byte[] block0 = loadBlock0();
-        debugPrintlnBlock0(block0);
+        if(blockCount() == 0) {
+            System.out.println("[BLOCK0: EMPTY]");
+            return;
+        }
+        System.out.println("[BLOCK0: fofP: "+loadHead()+", lolP: "+loadTail()+"]");
         for(int i=1;i<blockCount();i++) {
-            byte[] blocki = loadBlock(i);
+            byte[] blocki = loadBlock(i, new byte[block_size]);
             int nxtP = getNextPointer(blocki);
             if(nxtP == UNUSED_MARKER)
                 System.out.println("[UNUSED("+i+")]");
@@ -583,11 +630,4 @@ public class LBLIbae implements AsUnionEncoder<byte[], BlockPosition> {
             }
         }
     }
-
-    private void debugPrintlnBlock0(byte[] block0) {
-        if(block0.length==BLOCK_SIZE)
-            System.out.println("[BLOCK0: fofP: "+getFirstBlockOfFirstSequence(block0)+", lolP: "+getLastBlockOfLastSequence(block0)+"]");
-        else
-            System.out.println("[BLOCK0: EMPTY]");
-    }
-}
\ No newline at end of file
+}
@@ -17,6 +17,12 @@ public class LIPosition extends Position {
         return pointer < storage.contentSize();
     }
 
+    /**
+     * Called after the storage was altered using this position.
+     * Positions that cache storage content have to drop that cache here.
+     */
+    public void storageAltered() {}
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
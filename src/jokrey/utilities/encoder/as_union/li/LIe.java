@@ -5,6 +5,11 @@ import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator
 import jokrey.utilities.transparent_storage.StorageSystemException;
 import jokrey.utilities.transparent_storage.TransparentStorage;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
 /**
  * Non thread safe, but non altering methods are reentrant and thread safe(for readers only).
  *     As long as the underlying {@link TransparentStorage} system is reentrant and thread safe in it's non altering methods.
@@ -46,6 +51,7 @@ public abstract class LIe<SF> implements AsUnionEncoder<SF, LIPosition> {
      * Same as: new LIe(storage).encode(initial_values);
      * @param initial_values values to be encoded
      */
+    @SafeVarargs
     public LIe(TransparentStorage<SF> storage, SF... initial_values) {
         this(storage);
         encode(initial_values);
@@ -69,6 +75,22 @@ public abstract class LIe<SF> implements AsUnionEncoder<SF, LIPosition> {
      */
     protected abstract long[] get_next_li_bounds(LIPosition start_pos, TransparentStorage<SF> current);
 
+    /**
+     * Reads the decoded element [start, end) for the given position.
+     * Only used internally (protected) - allows positions to serve reads from content they already read.
+     */
+    protected SF sub(LIPosition pos, long start, long end) {
+        return storage.sub(start, end);
+    }
+
+    /**
+     * Only used internally (protected) - by default decodes the range and compares.
+     * @return whether the encoded element in [start, end) equals expected
+     */
+    protected boolean rangeEquals(LIPosition pos, long start, long end, SF expected) {
+        return Objects.deepEquals(sub(pos, start, end), expected);
+    }
+
     //LI - OVERRIDE OVERRIDE OVERRIDE OVERRIDE OVERRIDE OVERRIDE OVERRIDE OVERRIDE
 
 
@@ -87,14 +109,76 @@ public abstract class LIe<SF> implements AsUnionEncoder<SF, LIPosition> {
         return decode_single(pos, false);
     }
 
+    /**
+     * Compares the next element with the given value, without decoding it where possible - and moves the position behind that element.
+     * @param pos position to read from, will point behind the compared element afterwards
+     * @param expected value to compare with
+     * @return null if there is no next element, otherwise whether the next element equals expected
+     */
+    public Boolean decodeEquals(LIPosition pos, SF expected) {
+        long[] startIndex_endIndex_ofNextLI = get_next_li_bounds(pos, storage);
+        if(startIndex_endIndex_ofNextLI == null)
+            return null;
+        boolean equals = rangeEquals(pos, startIndex_endIndex_ofNextLI[0], startIndex_endIndex_ofNextLI[1], expected);
+        pos.pointer = startIndex_endIndex_ofNextLI[1];
+        return equals;
+    }
+
     public LIPosition reset() {
         return new LIPosition(0);
     }
 
+    /**
+     * Returns a start position for a forward scan (a series of decode and skipEntry calls) over the entire storage.
+     * Implementations may return a position that reads ahead (see {@link jokrey.utilities.encoder.as_union.li.bytes.ReadAheadLIPosition}).
+     *   Such a position is only valid as long as the storage is not altered - other than through itself.
+     * Default returns {@link #reset()}.
+     * @return a start position for a forward scan
+     */
+    public LIPosition scan() {
+        return reset();
+    }
+
+
+    /**
+     * Appends all given parts (in order) to the end of the storage.
+     * Only used internally (protected) - by default one append call per part, overridden by storages that can write all parts in a single call.
+     */
+    protected void appendAll(List<SF> parts) {
+        for(SF part:parts)
+            storage.append(part);
+    }
 
     //"SAFE" WRITE OPERATIONS::
     public LIe<SF> encode(SF val) {
-        storage.append(getLengthIndicatorFor(val)).append(val);
+        appendAll(Arrays.asList(getLengthIndicatorFor(val), val));
+        return this;
+    }
+
+    /**
+     * Encodes both vals with a single write to the storage (where the storage supports it)
+     * Same as {@link #encode(Object[])} with two values, but without creating a generic varargs array (used for tag-value pairs).
+     * @param first first value to be encoded
+     * @param second value to be encoded directly after first
+     * @return this
+     */
+    public LIe<SF> encode(SF first, SF second) {
+        appendAll(Arrays.asList(getLengthIndicatorFor(first), first, getLengthIndicatorFor(second), second));
+        return this;
+    }
+
+    /**
+     * Encodes all vals with a single write to the storage (where the storage supports it)
+     * {@inheritDoc}
+     */
+    @SafeVarargs
+    @Override public final LIe<SF> encode(SF... vals) {
+        ArrayList<SF> parts = new ArrayList<>(vals.length * 2);
+        for(SF val:vals) {
+            parts.add(getLengthIndicatorFor(val));
+            parts.add(val);
+        }
+        appendAll(parts);
         return this;
     }
 
@@ -106,6 +190,7 @@ public abstract class LIe<SF> implements AsUnionEncoder<SF, LIPosition> {
         long[] startIndex_endIndex_ofNextLI = get_next_li_bounds(pos, storage);
         if(startIndex_endIndex_ofNextLI != null) {
             storage.delete(pos.pointer, startIndex_endIndex_ofNextLI[1]);
+            pos.storageAltered();
             //do not set read pointer, because it will now automatically point to the next item
             return startIndex_endIndex_ofNextLI[1] - startIndex_endIndex_ofNextLI[0];
         } else
@@ -124,9 +209,10 @@ public abstract class LIe<SF> implements AsUnionEncoder<SF, LIPosition> {
     private SF decode_single(LIPosition pos, boolean delete_decoded) {
         long[] startIndex_endIndex_ofNextLI = get_next_li_bounds(pos, storage);
         if(startIndex_endIndex_ofNextLI != null) {
-            SF decoded = storage.sub(startIndex_endIndex_ofNextLI[0], startIndex_endIndex_ofNextLI[1]);
+            SF decoded = sub(pos, startIndex_endIndex_ofNextLI[0], startIndex_endIndex_ofNextLI[1]);
             if(delete_decoded) {
                 storage.delete(pos.pointer, startIndex_endIndex_ofNextLI[1]);
+                pos.storageAltered();
             } else {
                 pos.pointer = startIndex_endIndex_ofNextLI[1];
             }
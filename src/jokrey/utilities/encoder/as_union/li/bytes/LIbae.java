@@ -13,7 +13,9 @@ import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorag
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 
@@ -152,6 +154,12 @@ public class LIbae extends LIe<byte[]> implements EncodableAsBytes {
     //ACTUAL LIBAE FUNCTIONALITY
 
 
+    /** Single (gather) write of all parts, see {@link TransparentBytesStorage#set(long, byte[]...)} */
+    @Override protected void appendAll(List<byte[]> parts) {
+        TransparentBytesStorage storage = getStorageSystem();
+        storage.set(storage.contentSize(), parts.toArray(new byte[parts.size()][]));
+    }
+
     @Override protected byte[] getLengthIndicatorFor(byte[] arr) {
         return getLengthIndicatorFor(arr.length);
     }
@@ -159,8 +167,53 @@ public class LIbae extends LIe<byte[]> implements EncodableAsBytes {
         return generateLI(length);
     }
 
+    /**
+     * Returns a {@link ReadAheadLIPosition} that reads 4KB to 1MB windows, unless the storage is a plain {@link ByteArrayStorage} (where reading ahead would only add a copy).
+     * {@inheritDoc}
+     */
+    @Override public LIPosition scan() {
+        if(getStorageSystem() instanceof ByteArrayStorage)
+            return reset();
+        return new ReadAheadLIPosition(0, 1 << 12, 1 << 20);
+    }
+
+    @Override protected byte[] sub(LIPosition pos, long start, long end) {
+        if(pos instanceof ReadAheadLIPosition) {
+            ReadAheadLIPosition rpos = (ReadAheadLIPosition) pos;
+            if(rpos.ensure(getStorageSystem(), start, end)) {
+                int offset = rpos.offsetInWindow(start);
+                return Arrays.copyOfRange(rpos.window(), offset, offset + (int) (Math.min(end, rpos.contentSize()) - start));
+            }
+        }
+        return super.sub(pos, start, end);
+    }
+
+    /** Compares lengths first, then without copying: in the read ahead window or in a {@link TransparentBytesStorage#view(long, long)} */
+    @Override protected boolean rangeEquals(LIPosition pos, long start, long end, byte[] expected) {
+        if(end - start != expected.length) return false;
+        if(pos instanceof ReadAheadLIPosition) {
+            ReadAheadLIPosition rpos = (ReadAheadLIPosition) pos;
+            if(rpos.ensure(getStorageSystem(), start, end)) {
+                int offset = rpos.offsetInWindow(start);
+                byte[] window = rpos.window();
+                for(int i=0;i<expected.length;i++)
+                    if(window[offset+i] != expected[i])
+                        return false;
+                return true;
+            }
+        }
+        return getStorageSystem().view(start, end).equals(ByteBuffer.wrap(expected));
+    }
+
     @Override protected long[] get_next_li_bounds(LIPosition start_pos, TransparentStorage<byte[]> contentBuilder) throws StorageSystemException {
         long i = start_pos.pointer;
+        if(start_pos instanceof ReadAheadLIPosition && contentBuilder == getStorageSystem()) {
+            ReadAheadLIPosition rpos = (ReadAheadLIPosition) start_pos;
+            rpos.ensure(getStorageSystem(), i, i + 9); //9 is always smaller than the window
+            if(i+1>rpos.contentSize())
+                return null;
+            return get_next_li_bounds(rpos.window(), rpos.offsetInWindow(i), i, rpos.contentSize());
+        }
         long content_size = contentBuilder.contentSize();
         if(i+1>content_size)
             return null;
@@ -0,0 +1,89 @@
+package jokrey.utilities.encoder.as_union.li.bytes;
+
+import jokrey.utilities.encoder.as_union.li.LIPosition;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+
+/**
+ * Position for forward scans (see {@link LIbae#scan()}), that reads the underlying storage in large windows.
+ *
+ * Instead of one small sub call for each length indicator and each decoded element, a window of bytes is read at once.
+ *    Subsequent length indicators and elements within that window are served from memory.
+ * The window size adapts:
+ *    As long as reads are sequential (i.e. the next read starts within or shortly after the current window), every refill doubles the window - up to max_window_size.
+ *    After a jump (backwards or far ahead, for example when skipping a very large entry), the window starts at min_window_size again.
+ *    This way skipping large entries does not read them.
+ *
+ * The window is a snapshot: it is only valid as long as the storage is not altered.
+ *    Positions used by LIe's altering operations drop their window automatically.
+ *    If the storage is altered otherwise, call {@link #storageAltered()}.
+ *
+ * @author jokrey
+ */
+public class ReadAheadLIPosition extends LIPosition {
+    private final int min_window_size;
+    private final int max_window_size;
+    private int next_window_size;
+
+    private byte[] window = new byte[0];
+    private long window_start = 0;
+    private int window_length = 0;
+    private long content_size = -1;
+
+    /**
+     * @param pointer start position
+     * @param min_window_size size of the first window and the window after a non sequential access
+     * @param max_window_size maximum window size
+     */
+    public ReadAheadLIPosition(long pointer, int min_window_size, int max_window_size) {
+        super(pointer);
+        if(min_window_size <= 0 || max_window_size < min_window_size)
+            throw new IllegalArgumentException("min_window_size("+min_window_size+"), max_window_size("+max_window_size+")");
+        this.min_window_size = min_window_size;
+        this.max_window_size = max_window_size;
+        this.next_window_size = min_window_size;
+    }
+
+    /** Drops the window, the next read will refill it from the storage */
+    @Override public void storageAltered() {
+        window_length = 0;
+        content_size = -1;
+        next_window_size = min_window_size;
+    }
+
+    /**
+     * Ensures that the window contains [start, end) (or [start, content size) if end is larger).
+     * @return false if the range is larger than the maximum window, in which case the caller should read directly
+     */
+    boolean ensure(TransparentBytesStorage storage, long start, long end) {
+        if(content_size == -1) content_size = storage.contentSize();
+        end = Math.min(end, content_size);
+        if(start >= window_start && end <= window_start + window_length)
+            return true;
+        if(end - start > max_window_size)
+            return false;
+
+        long window_end = window_start + window_length;
+        boolean sequential = window_length > 0 && start >= window_start && start <= window_end + next_window_size;
+        next_window_size = sequential ? Math.min(max_window_size, next_window_size * 2) : min_window_size;
+
+        int new_length = (int) Math.min(Math.max(next_window_size, end - start), content_size - start);
+        if(window.length < new_length)
+            window = new byte[Math.max(new_length, Math.min(max_window_size, window.length * 2))];
+        if(new_length > 0)
+            storage.copyInto(start, window, 0, new_length);
+        window_start = start;
+        window_length = Math.max(0, new_length);
+        return true;
+    }
+
+    /** @return cached content size of the storage - valid after the first call to ensure */
+    long contentSize() {
+        return content_size;
+    }
+    byte[] window() {
+        return window;
+    }
+    int offsetInWindow(long index) {
+        return (int) (index - window_start);
+    }
+}
@@ -1,9 +1,16 @@
 package jokrey.utilities.encoder.as_union.tests;
 
+import jokrey.utilities.encoder.as_union.li.LIPosition;
 import jokrey.utilities.encoder.as_union.li.bytes.LIbae;
+import jokrey.utilities.encoder.as_union.li.bytes.ReadAheadLIPosition;
+import jokrey.utilities.transparent_storage.bytes.file.FileStorage;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -70,4 +77,35 @@ public class LIbaeTest {
         encoder.encode(toEncode);
         assertArrayEquals(toEncode, encoder.decodeFirst());
     }
+
+    @Test
+    public void readAheadScanTest() throws IOException {
+        try(FileStorage storage = new FileStorage(new File(System.getProperty("user.home")+"/Desktop/libae_read_ahead_test.libae"))) {
+            storage.clear();
+            LIbae lie = new LIbae(storage);
+            Random r = new Random(3);
+            ArrayList<byte[]> encoded = new ArrayList<>();
+            for(int i=0;i<500;i++) {
+                byte[] val = new byte[i % 50 == 0 ? (1 << 20) + r.nextInt(1 << 16) : r.nextInt(300)]; //some larger than the maximum window
+                r.nextBytes(val);
+                lie.encode(val);
+                encoded.add(val);
+            }
+
+            LIPosition pos = lie.scan();
+            assertTrue(pos instanceof ReadAheadLIPosition);
+            for(int i=0;i<encoded.size();i++) {
+                if(i % 3 == 0)
+                    assertArrayEquals(encoded.get(i), lie.decode(pos));
+                else
+                    assertEquals(encoded.get(i).length, lie.skipEntry(pos));
+            }
+            assertNull(lie.decode(pos));
+
+            pos = lie.scan(); //altering through the position drops the window
+            lie.skipEntry(pos);
+            lie.deleteEntry(pos);
+            assertArrayEquals(encoded.get(2), lie.decode(pos));
+        }
+    }
 }
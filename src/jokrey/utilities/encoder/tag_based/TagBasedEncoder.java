@@ -7,7 +7,11 @@ import jokrey.utilities.transparent_storage.TransparentStorage;
 import jokrey.utilities.encoder.type_transformer.TypeToFromRawTransformer;
 
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Allows for a simple data to be encoded using tags.
@@ -72,6 +76,74 @@ public interface TagBasedEncoder<SF> extends EncodableAsBytes, EncodableAsString
      */
     String[] getTags();
 
+    /**
+     * Returns all the tags in the system that start with the given prefix, in ascending (String natural) order.
+     * Default runs through all tags. Implementations with an ordered tag index should override this to be O(log n + k).
+     *
+     * @param prefix prefix of the returned tags (empty string for all tags)
+     * @return sorted tags with the given prefix
+     */
+    default String[] getTags(String prefix) {
+        String[] all = getTags();
+        int count = 0;
+        for(String tag:all)
+            if(tag.startsWith(prefix))
+                all[count++] = tag;
+        String[] with_prefix = Arrays.copyOf(all, count);
+        Arrays.sort(with_prefix);
+        return with_prefix;
+    }
+
+    /**
+     * Returns all the tags in the system with from_tag &lt;= tag &lt; to_tag, in ascending (String natural) order.
+     * Default runs through all tags. Implementations with an ordered tag index should override this to be O(log n + k).
+     *
+     * @param from_tag inclusive lower bound
+     * @param to_tag exclusive upper bound
+     * @return sorted tags in the range
+     */
+    default String[] getTags(String from_tag, String to_tag) {
+        String[] all = getTags();
+        int count = 0;
+        for(String tag:all)
+            if(tag.compareTo(from_tag) >= 0 && tag.compareTo(to_tag) < 0)
+                all[count++] = tag;
+        String[] in_range = Arrays.copyOf(all, count);
+        Arrays.sort(in_range);
+        return in_range;
+    }
+
+    /**
+     * Provides an iterator over each tagged entry with from_tag &lt;= tag &lt; to_tag, in ascending tag order.
+     * The tags are determined using {@link #getTags(String, String)} when this method is called, entries are read lazily by next.
+     * Supports remove.
+     *
+     * @param from_tag inclusive lower bound
+     * @param to_tag exclusive upper bound
+     * @return iterator over the tag range
+     */
+    default Iterator<TaggedEntry<SF>> iterator(String from_tag, String to_tag) {
+        String[] tags = getTags(from_tag, to_tag);
+        return new Iterator<TaggedEntry<SF>>() {
+            int index = 0;
+            String last = null;
+            @Override public boolean hasNext() {
+                return index < tags.length;
+            }
+            @Override public TaggedEntry<SF> next() {
+                if(!hasNext()) throw new NoSuchElementException();
+                last = tags[index++];
+                return new TaggedEntry<>(last, getEntry(last));
+            }
+            @Override public void remove() {
+                if(last == null)
+                    throw new IllegalStateException("No last element to be removed is known at this time (no first next call or multiple remove calls).");
+                deleteEntry_noReturn(last);
+                last=null; //cannot remove twice
+            }
+        };
+    }
+
 
     /**
      * Deletes all contents and resets them to re encode
@@ -181,6 +253,42 @@ public interface TagBasedEncoder<SF> extends EncodableAsBytes, EncodableAsString
         else              return entry;
     }
 
+    /**
+     * Returns the entries for all given tags.
+     * Default calls {@link #getEntry(String)} for each tag. Implementations that have to scan for each lookup should override this to find all tags in a single pass.
+     *
+     * @param tags the tags identifying the entries
+     * @return map of tag to entry, tags that could not be found are not contained
+     * @throws RuntimeException any kind of RuntimeException if the working string has been altered externally (and the system is therefore in an undefined state)
+     */
+    default Map<String, SF> getEntries(Collection<String> tags) {
+        HashMap<String, SF> entries = new HashMap<>();
+        for(String tag:tags) {
+            SF entry = getEntry(tag);
+            if(entry != null)
+                entries.put(tag, entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Deletes the entries for all given tags.
+     * Default calls {@link #deleteEntry(String)} for each tag. Implementations that have to scan for each lookup should override this to find all tags in a single pass.
+     *
+     * @param tags the tags identifying the entries
+     * @return map of tag to deleted entry, tags that could not be found are not contained
+     * @throws RuntimeException any kind of RuntimeException if the working string has been altered externally (and the system is therefore in an undefined state)
+     */
+    default Map<String, SF> deleteEntries(Collection<String> tags) {
+        HashMap<String, SF> deleted = new HashMap<>();
+        for(String tag:tags) {
+            SF entry = deleteEntry(tag);
+            if(entry != null)
+                deleted.put(tag, entry);
+        }
+        return deleted;
+    }
+
 
     //TYPE METHODS
     /**
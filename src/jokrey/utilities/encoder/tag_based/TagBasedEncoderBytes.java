@@ -137,6 +137,20 @@ public interface TagBasedEncoderBytes extends TagBasedEncoder<byte[]> {
 //        };
     }
 
+    /**
+     * Creates an immutable, point in time snapshot of this encoder.
+     * The snapshot can be read (for example iterated or exported using getEncodedBytes) for as long as required,
+     *    without holding any locks on this encoder and without seeing any later changes to it.
+     * Altering methods of the snapshot throw an {@link UnsupportedOperationException}.
+     *
+     * Implementations over a {@link jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorage} can share memory (copy on write),
+     *    all others have to copy their entries.
+     *
+     * @return an immutable snapshot
+     * @throws StorageSystemException if something with the underlying storage system fails
+     */
+    TagBasedEncoderBytes snapshot() throws StorageSystemException;
+
     /**
      * Tuple of String and InputStream. Yes. Java kinda sucks sometimes.
      */
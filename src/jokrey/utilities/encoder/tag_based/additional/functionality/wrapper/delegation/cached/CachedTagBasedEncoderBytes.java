@@ -3,6 +3,8 @@ package jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.dele
 import jokrey.utilities.simple.data_structure.pairs.Pair;
 import jokrey.utilities.encoder.tag_based.TagBasedEncoderBytes;
 import jokrey.utilities.encoder.tag_based.TagEntryObservable;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
+import jokrey.utilities.transparent_storage.StorageSystemException;
 import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
 import jokrey.utilities.encoder.type_transformer.TypeToFromRawTransformer;
 
@@ -161,6 +163,12 @@ public class CachedTagBasedEncoderBytes implements TagBasedEncoderBytes {
     @Override public String[] getTags() {
         return delegation.getTags();
     }
+    @Override public String[] getTags(String prefix) {
+        return delegation.getTags(prefix);
+    }
+    @Override public String[] getTags(String from_tag, String to_tag) {
+        return delegation.getTags(from_tag, to_tag);
+    }
 
     @Override public Iterator<TaggedEntry<byte[]>> iterator() {
         return delegation.iterator();
@@ -183,6 +191,9 @@ public class CachedTagBasedEncoderBytes implements TagBasedEncoderBytes {
     @Override public TransparentBytesStorage getRawStorageSystem() {
         return delegation.getRawStorageSystem();
     }
+    @Override public LITagBytesEncoder snapshot() throws StorageSystemException {
+        return LITagBytesEncoder.snapshotOf(this);
+    }
     @Override public int hashCode() {
         return delegation.hashCode();
     }
@@ -1,5 +1,6 @@
 package jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.compression.deflate;
 
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
 import jokrey.utilities.simple.data_structure.pairs.Pair;
 import jokrey.utilities.bitsandbytes.BitHelper;
 import jokrey.utilities.encoder.tag_based.TagBasedEncoderBytes;
@@ -162,6 +163,9 @@ public class DeflateContentCompressingBytesEncoder implements TagBasedEncoderByt
     @Override public TransparentBytesStorage getRawStorageSystem() {
         return delegation.getRawStorageSystem();
     }
+    @Override public LITagBytesEncoder snapshot() throws StorageSystemException {
+        return LITagBytesEncoder.snapshotOf(this);
+    }
     @Override public TypeToFromRawTransformer<byte[]> createTypeTransformer() {
         return delegation.getTypeTransformer();
     }
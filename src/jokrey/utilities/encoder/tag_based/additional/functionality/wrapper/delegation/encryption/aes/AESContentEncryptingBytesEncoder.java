@@ -1,5 +1,6 @@
 package jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.encryption.aes;
 
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
 import jokrey.utilities.simple.data_structure.pairs.Pair;
 import jokrey.utilities.encoder.tag_based.TagBasedEncoderBytes;
 import jokrey.utilities.encoder.tag_based.TagBasedEncoder;
@@ -163,6 +164,9 @@ public class AESContentEncryptingBytesEncoder implements TagBasedEncoderBytes {
     @Override public TransparentBytesStorage getRawStorageSystem() {
         return delegation.getRawStorageSystem();
     }
+    @Override public LITagBytesEncoder snapshot() throws StorageSystemException {
+        return LITagBytesEncoder.snapshotOf(this);
+    }
     @Override public TypeToFromRawTransformer<byte[]> createTypeTransformer() {
         return delegation.getTypeTransformer();
     }
@@ -1,5 +1,6 @@
 package jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.encryption.aes;
 
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
 import jokrey.utilities.simple.data_structure.pairs.Pair;
 import jokrey.utilities.encoder.tag_based.TagBasedEncoderBytes;
 import jokrey.utilities.encoder.helper.AESHelper;
@@ -165,6 +166,9 @@ public class AESTagEncryptingBytesEncoder implements TagBasedEncoderBytes {
     @Override public TransparentBytesStorage getRawStorageSystem() {
         return delegation.getRawStorageSystem();
     }
+    @Override public LITagBytesEncoder snapshot() throws StorageSystemException {
+        return LITagBytesEncoder.snapshotOf(this);
+    }
     @Override public AESTagEncryptingBytesEncoder clear() {
         delegation.clear();
         return this;
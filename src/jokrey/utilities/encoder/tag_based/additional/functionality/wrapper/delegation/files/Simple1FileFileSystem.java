@@ -1,6 +1,7 @@
 package jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.files;
 
 import jokrey.utilities.encoder.tag_based.TagBasedEncoderBytes;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.LITagCachedEncoderBytes;
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
 import jokrey.utilities.transparent_storage.StorageSystemException;
 import jokrey.utilities.transparent_storage.bytes.file.FileStorage;
@@ -65,7 +66,7 @@ public class Simple1FileFileSystem implements AutoCloseable {
      */
     public void open(String file_path) throws FileNotFoundException {
         try {
-            open(new LITagBytesEncoder(new FileStorage(new File(file_path), 16384, "rw")), file_path);
+            open(new LITagCachedEncoderBytes(new LITagBytesEncoder(new FileStorage(new File(file_path), 16384, "rw"))), file_path);
         } catch (FileNotFoundException e) {
             throw e;
         } catch(Exception e) {
@@ -145,6 +146,20 @@ public class Simple1FileFileSystem implements AutoCloseable {
         }
     }
 
+    /**
+     * Returns the 'internal path's starting with the given prefix, sorted.
+     * O(log n + k) if the encoder keeps a sorted tag index (the default encoder does, after its first full scan).
+     * @param prefix prefix of the internal paths
+     * @return an array of internal paths
+     */
+    public String[] getStoredInternalPaths(String prefix) {
+        try {
+            return encoder.getTags(prefix);
+        } catch (StorageSystemException e) {
+            return new String[0];
+        }
+    }
+
     /**
      * @param internal_path internal path (as received by for example {@link #getStoredInternalPaths()})
      * @return Whether the internal path exist
@@ -280,17 +295,14 @@ public class Simple1FileFileSystem implements AutoCloseable {
 
         Set<String> virtual = new HashSet<>();
 
-        String[] allInternalPaths = getStoredInternalPaths(); //todo: too memory straining, allow a getTags(regex) search..
-        for(String s:allInternalPaths) {
-            if(s.startsWith(inner_dir_path)) {
-                s = s.substring(inner_dir_path.length());
-                if(s.startsWith("/")) s=s.substring(1);
+        for(String s:getStoredInternalPaths(inner_dir_path)) {
+            s = s.substring(inner_dir_path.length());
+            if(s.startsWith("/")) s=s.substring(1);
 
-                if (s.contains("/")) {
-                    virtual.add(file_path + "/" + inner_dir_path + "/" + s.substring(0, s.indexOf("/") + 1));
-                } else {
-                    virtual.add(file_path + "/" + inner_dir_path + "/" + s);
-                }
+            if (s.contains("/")) {
+                virtual.add(file_path + "/" + inner_dir_path + "/" + s.substring(0, s.indexOf("/") + 1));
+            } else {
+                virtual.add(file_path + "/" + inner_dir_path + "/" + s);
             }
         }
 
@@ -305,9 +317,8 @@ public class Simple1FileFileSystem implements AutoCloseable {
         if(virtual_dir_path.startsWith("/"))
             virtual_dir_path = virtual_dir_path.substring(1);
 
-        String[] allInternalPaths = getStoredInternalPaths(); //todo: too memory straining, allow a getTags(regex) search..
-        for(String s:allInternalPaths) {
-            if(s.startsWith(virtual_dir_path) && s.length() > virtual_dir_path.length()) {
+        for(String s:getStoredInternalPaths(virtual_dir_path)) {
+            if(s.length() > virtual_dir_path.length()) {
                 return true;
             }
         }
@@ -1,5 +1,6 @@
 package jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.remote;
 
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
 import jokrey.utilities.simple.data_structure.pairs.Pair;
 import jokrey.utilities.encoder.tag_based.TagBasedEncoderBytes;
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.type.transformer.LITypeToBytesTransformer;
@@ -63,6 +64,9 @@ public class RemoteEncoderBytes implements TagBasedEncoderBytes, AutoCloseable {
     @Override public TransparentBytesStorage getRawStorageSystem() {
         throw new UnsupportedOperationException("remote storage system is remote");
     }
+    @Override public LITagBytesEncoder snapshot() throws StorageSystemException {
+        return LITagBytesEncoder.snapshotOf(this);
+    }
 
     private TypeToFromRawTransformer<byte[]> transformer = null;
     @Override public TypeToFromRawTransformer<byte[]> getTypeTransformer() {
@@ -1,5 +1,6 @@
 package jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.remote.authenticated;
 
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
 import jokrey.utilities.simple.data_structure.pairs.Pair;
 import jokrey.utilities.encoder.tag_based.TagBasedEncoderBytes;
 import jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.remote.RemoteEncoderMCNPCauses;
@@ -74,6 +75,9 @@ public class AuthenticatedRemoteEncoderBytes implements TagBasedEncoderBytes, Au
     @Override public TransparentBytesStorage getRawStorageSystem() {
         throw new UnsupportedOperationException("remote storage system is remote");
     }
+    @Override public LITagBytesEncoder snapshot() throws StorageSystemException {
+        return LITagBytesEncoder.snapshotOf(this);
+    }
     /** Unsupported. */
     @Override public Iterator<TaggedEntry<byte[]>> iterator() {
         throw new UnsupportedOperationException("iterator not supported within RBAE");
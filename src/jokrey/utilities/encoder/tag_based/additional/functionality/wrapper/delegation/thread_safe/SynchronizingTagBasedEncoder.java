@@ -5,7 +5,9 @@ import jokrey.utilities.encoder.tag_based.TagBasedEncoder;
 import jokrey.utilities.transparent_storage.TransparentStorage;
 import jokrey.utilities.encoder.type_transformer.TypeToFromRawTransformer;
 
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -77,6 +79,12 @@ public class SynchronizingTagBasedEncoder<SF> implements SynchronizedTagBasedEnc
             return delegation.deleteEntry_noReturn(tag);
         } finally { w.unlock(); }
     }
+    @Override public Map<String, SF> deleteEntries(Collection<String> tags) {
+        w.lock();
+        try {
+            return delegation.deleteEntries(tags);
+        } finally { w.unlock(); }
+    }
     @Override public SynchronizingTagBasedEncoder<SF> clear() {
         w.lock();
         try {
@@ -113,6 +121,12 @@ public class SynchronizingTagBasedEncoder<SF> implements SynchronizedTagBasedEnc
             return delegation.getEntry(tag);
         } finally { r.unlock(); }
     }
+    @Override public Map<String, SF> getEntries(Collection<String> tags) {
+        r.lock();
+        try {
+            return delegation.getEntries(tags);
+        } finally { r.unlock(); }
+    }
     @Override public boolean exists(String tag) {
         r.lock();
         try {
@@ -131,6 +145,18 @@ public class SynchronizingTagBasedEncoder<SF> implements SynchronizedTagBasedEnc
             return delegation.getTags();
         } finally { r.unlock(); }
     }
+    @Override public String[] getTags(String prefix) {
+        r.lock();
+        try {
+            return delegation.getTags(prefix);
+        } finally { r.unlock(); }
+    }
+    @Override public String[] getTags(String from_tag, String to_tag) {
+        r.lock();
+        try {
+            return delegation.getTags(from_tag, to_tag);
+        } finally { r.unlock(); }
+    }
     @Override public byte[] getEncodedBytes() {
         r.lock();
         try {
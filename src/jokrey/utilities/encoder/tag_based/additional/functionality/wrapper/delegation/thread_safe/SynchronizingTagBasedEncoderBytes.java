@@ -63,5 +63,17 @@ public class SynchronizingTagBasedEncoderBytes extends SynchronizingTagBasedEnco
     @Override public Iterable<TaggedStream> getEntryIterator_stream() {
         return delegation.getEntryIterator_stream();
     }
+
+    /**
+     * Read locked only while the snapshot is created. The snapshot itself can then be read without any locking,
+     *    so long exports of the snapshot do not block writers.
+     * {@inheritDoc}
+     */
+    @Override public TagBasedEncoderBytes snapshot() {
+        r.lock();
+        try {
+            return delegation.snapshot();
+        } finally { r.unlock(); }
+    }
     //most other methods already properly overridden in SynchronizingTagBasedEncoder
 }
@@ -0,0 +1,371 @@
+package jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.tiered;
+
+import jokrey.utilities.bitsandbytes.BitHelper;
+import jokrey.utilities.encoder.tag_based.TagBasedEncoderBytes;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.LITagCachedEncoderBytes;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
+import jokrey.utilities.encoder.type_transformer.TypeToFromRawTransformer;
+import jokrey.utilities.simple.data_structure.pairs.Pair;
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Two tier tag based encoder for skewed access patterns: a small, fast in memory tier (hot) in front of a large, slow (typically file backed) tier (cold).
+ *
+ * Promotion: Reads of cold entries are counted. Once a tag was read promotion_threshold times, its entry is copied into the hot tier.
+ *    The counts age (they are halved regularly), so only tags that are frequently used now are promoted - a single scan over all tags promotes nothing.
+ * Demotion: The hot tier has a memory budget. When it is exceeded, the least recently used hot entries are removed from the hot tier.
+ * New entries are added to the hot tier (if they are small enough, see max_hot_entry_size).
+ *
+ * Entries in the hot tier are either clean (the cold tier contains the same entry) or dirty (the cold tier does not contain the tag at all - it was added, but not yet written to the cold tier).
+ *    So promotion and the demotion of clean entries never alter the cold tier, only dirty entries are written into the cold tier when demoted.
+ *    Dirty entries are lost if the program terminates without {@link #flush()} or {@link #close()} - just like with a write-back cache.
+ *
+ * Hit ratios of the tiers are available through {@link #hotHits()}, {@link #coldHits()} and {@link #misses()}.
+ *
+ * The cold tier may not be altered directly while wrapped.
+ *
+ * Thread safe, all methods synchronize on this.
+ *
+ * @author jokrey
+ */
+public class TieredTagBasedEncoderBytes implements TagBasedEncoderBytes, AutoCloseable {
+    private static final int AGING_INTERVAL = 4096; //number of counted reads after which all counts are halved
+
+    private final TagBasedEncoderBytes hot;
+    private final TagBasedEncoderBytes cold;
+    private final long memory_budget;
+    private final long max_hot_entry_size;
+    private final int promotion_threshold;
+
+    private final LinkedHashMap<String, HotEntry> hot_entries = new LinkedHashMap<>(16, 0.75f, true); //access order == lru order
+    private final HashMap<String, Integer> cold_read_counts = new HashMap<>();
+    private long hot_bytes = 0;
+    private int reads_since_aging = 0;
+
+    private long hot_hits = 0;
+    private long cold_hits = 0;
+    private long misses = 0;
+    private long promotions = 0;
+    private long demotions = 0;
+
+    /**
+     * @param hot fast, in memory tier (has to be empty)
+     * @param cold slow, large tier - keeps its content
+     * @param memory_budget maximum number of entry bytes in the hot tier
+     * @param max_hot_entry_size larger entries are never stored in the hot tier
+     * @param promotion_threshold number of reads after which a cold entry is promoted
+     */
+    public TieredTagBasedEncoderBytes(TagBasedEncoderBytes hot, TagBasedEncoderBytes cold, long memory_budget, long max_hot_entry_size, int promotion_threshold) {
+        if(memory_budget < 0 || max_hot_entry_size < 0 || promotion_threshold <= 0)
+            throw new IllegalArgumentException("memory_budget("+memory_budget+"), max_hot_entry_size("+max_hot_entry_size+"), promotion_threshold("+promotion_threshold+")");
+        this.hot = hot;
+        this.cold = cold;
+        this.memory_budget = memory_budget;
+        this.max_hot_entry_size = Math.min(max_hot_entry_size, memory_budget);
+        this.promotion_threshold = promotion_threshold;
+        hot.clear();
+    }
+
+    /**
+     * Uses a ram based, position cached {@link LITagBytesEncoder} as the hot tier.
+     * Entries larger than an eighth of the budget are never hot and tags are promoted on their third read.
+     * @param cold slow, large tier - keeps its content
+     * @param memory_budget maximum number of entry bytes in the hot tier
+     */
+    public TieredTagBasedEncoderBytes(TagBasedEncoderBytes cold, long memory_budget) {
+        this(new LITagCachedEncoderBytes(new LITagBytesEncoder()), cold, memory_budget, memory_budget / 8, 3);
+    }
+
+    /**
+     * Writes all dirty hot entries into the cold tier. They remain in the hot tier (now clean).
+     */
+    public synchronized void flush() {
+        for(Map.Entry<String, HotEntry> e : hot_entries.entrySet()) {
+            if(e.getValue().dirty) {
+                cold.addEntry_nocheck(e.getKey(), hot.getEntry(e.getKey()));
+                e.getValue().dirty = false;
+            }
+        }
+    }
+
+    /**
+     * Flushes and closes the raw storage system of the cold tier.
+     * @throws Exception if the raw storage system throws on close
+     */
+    @Override public synchronized void close() throws Exception {
+        flush();
+        cold.getRawStorageSystem().close();
+    }
+
+    /** @return number of reads answered by the hot tier */
+    public synchronized long hotHits() {
+        return hot_hits;
+    }
+    /** @return number of reads answered by the cold tier */
+    public synchronized long coldHits() {
+        return cold_hits;
+    }
+    /** @return number of reads of tags that did not exist */
+    public synchronized long misses() {
+        return misses;
+    }
+    /** @return hot hits / all reads (0 if nothing was read yet) */
+    public synchronized double hotHitRatio() {
+        long reads = hot_hits + cold_hits + misses;
+        return reads == 0 ? 0 : hot_hits / (double) reads;
+    }
+    /** @return number of entries copied from the cold into the hot tier */
+    public synchronized long promotions() {
+        return promotions;
+    }
+    /** @return number of entries removed from the hot tier to stay within the memory budget */
+    public synchronized long demotions() {
+        return demotions;
+    }
+    /** @return number of entry bytes currently in the hot tier */
+    public synchronized long hotBytes() {
+        return hot_bytes;
+    }
+    /** @return whether the tag is currently in the hot tier */
+    public synchronized boolean isHot(String tag) {
+        return hot_entries.containsKey(tag);
+    }
+
+
+    @Override public synchronized byte[] getEntry(String tag) {
+        if(hot_entries.get(tag) != null) { //get updates the lru order
+            hot_hits++;
+            return hot.getEntry(tag);
+        }
+        byte[] entry = cold.getEntry(tag);
+        if(entry == null) {
+            misses++;
+        } else {
+            cold_hits++;
+            if(countRead(tag) && entry.length <= max_hot_entry_size)
+                promote(tag, entry);
+        }
+        return entry;
+    }
+
+    @Override public synchronized Pair<Long, InputStream> getEntry_asLIStream(String tag) {
+        if(hot_entries.get(tag) != null) {
+            hot_hits++;
+            return hot.getEntry_asLIStream(tag);
+        }
+        Pair<Long, InputStream> entry = cold.getEntry_asLIStream(tag);
+        if(entry == null) {
+            misses++;
+        } else {
+            cold_hits++;
+            if(countRead(tag) && entry.l <= max_hot_entry_size) {
+                try {
+                    byte[] read = BitHelper.toByteArray(entry.r);
+                    promote(tag, read);
+                    return new Pair<>((long) read.length, new ByteArrayInputStream(read));
+                } catch (IOException e) {
+                    throw new StorageSystemException("Internal TieredTagBasedEncoderBytes-Error("+e.getMessage()+").");
+                }
+            }
+        }
+        return entry;
+    }
+
+    @Override public synchronized TieredTagBasedEncoderBytes addEntry_nocheck(String tag, byte[] entry) {
+        if(entry.length <= max_hot_entry_size) {
+            hot.addEntry_nocheck(tag, entry);
+            hot_entries.put(tag, new HotEntry(entry.length, true));
+            hot_bytes += entry.length;
+            demoteToFitBudget();
+        } else {
+            cold.addEntry_nocheck(tag, entry);
+        }
+        return this;
+    }
+
+    @Override public synchronized TieredTagBasedEncoderBytes addEntry_nocheck(String tag, InputStream content, long content_length) {
+        if(content_length <= max_hot_entry_size) {
+            try {
+                byte[] entry = BitHelper.toByteArray(content);
+                if(entry.length < content_length)
+                    throw new StorageSystemException("The provided stream failed to deliver the promised number of bytes(missing: " + (content_length - entry.length) + " of expected " + content_length + ")");
+                addEntry_nocheck(tag, Arrays.copyOf(entry, (int) content_length));
+            } catch (IOException e) {
+                throw new StorageSystemException("IO Exception thrown by provided InputStream(" + e.getMessage() + ").");
+            }
+        } else {
+            cold.addEntry_nocheck(tag, content, content_length);
+        }
+        return this;
+    }
+
+    @Override public synchronized byte[] deleteEntry(String tag) {
+        HotEntry h = hot_entries.remove(tag);
+        cold_read_counts.remove(tag);
+        if(h == null)
+            return cold.deleteEntry(tag);
+        hot_bytes -= h.length;
+        byte[] entry = hot.deleteEntry(tag);
+        if(!h.dirty)
+            cold.deleteEntry_noReturn(tag);
+        return entry;
+    }
+
+    @Override public synchronized boolean deleteEntry_noReturn(String tag) {
+        HotEntry h = hot_entries.remove(tag);
+        cold_read_counts.remove(tag);
+        if(h == null)
+            return cold.deleteEntry_noReturn(tag);
+        hot_bytes -= h.length;
+        hot.deleteEntry_noReturn(tag);
+        if(!h.dirty)
+            cold.deleteEntry_noReturn(tag);
+        return true;
+    }
+
+    @Override public synchronized boolean exists(String tag) {
+        return hot_entries.containsKey(tag) || cold.exists(tag);
+    }
+
+    @Override public synchronized long length(String tag) {
+        HotEntry h = hot_entries.get(tag);
+        return h != null ? h.length : cold.length(tag);
+    }
+
+    @Override public synchronized String[] getTags() {
+        ArrayList<String> tags = new ArrayList<>(Arrays.asList(cold.getTags()));
+        for(Map.Entry<String, HotEntry> e : hot_entries.entrySet())
+            if(e.getValue().dirty) //clean entries are in the cold tier already
+                tags.add(e.getKey());
+        return tags.toArray(new String[0]);
+    }
+
+    /**
+     * Iteration reads the entries from whichever tier holds them, without counting the reads (so a full iteration does not promote anything).
+     * {@inheritDoc}
+     */
+    @Override public Iterator<TaggedEntry<byte[]>> iterator() {
+        Iterator<String> tags = Arrays.asList(getTags()).iterator();
+        return new Iterator<TaggedEntry<byte[]>>() {
+            String last = null;
+            @Override public boolean hasNext() {
+                return tags.hasNext();
+            }
+            @Override public TaggedEntry<byte[]> next() {
+                last = tags.next();
+                synchronized (TieredTagBasedEncoderBytes.this) {
+                    return new TaggedEntry<>(last, hot_entries.containsKey(last) ? hot.getEntry(last) : cold.getEntry(last));
+                }
+            }
+            @Override public void remove() {
+                if(last == null)
+                    throw new IllegalStateException("No last element to be removed is known at this time (no first next call or multiple remove calls).");
+                deleteEntry_noReturn(last);
+                last = null;
+            }
+        };
+    }
+
+    @Override public synchronized TieredTagBasedEncoderBytes clear() {
+        resetHotTier();
+        cold.clear();
+        return this;
+    }
+
+    @Override public synchronized void readFromEncodedBytes(byte[] encoded_bytes) {
+        resetHotTier();
+        cold.readFromEncodedBytes(encoded_bytes);
+    }
+
+    /** Flushes first, then returns the encoded cold tier */
+    @Override public synchronized byte[] getEncodedBytes() {
+        flush();
+        return cold.getEncodedBytes();
+    }
+
+    /** Flushes first, then returns the raw storage system of the cold tier */
+    @Override public synchronized TransparentBytesStorage getRawStorageSystem() {
+        flush();
+        return cold.getRawStorageSystem();
+    }
+    @Override public synchronized LITagBytesEncoder snapshot() throws StorageSystemException {
+        return LITagBytesEncoder.snapshotOf(this);
+    }
+
+    @Override public TypeToFromRawTransformer<byte[]> createTypeTransformer() {
+        return cold.getTypeTransformer();
+    }
+
+    @Override public synchronized String toString() {
+        return "["+getClass().getSimpleName()+": hot_entries="+hot_entries.size()+", hot_bytes="+hot_bytes+"/"+memory_budget+
+                ", hot_hits="+hot_hits+", cold_hits="+cold_hits+", misses="+misses+", cold=\""+cold+"\"]";
+    }
+
+
+
+    //INTERNAL - callers hold the monitor
+
+    private static class HotEntry {
+        final long length;
+        boolean dirty;
+        HotEntry(long length, boolean dirty) {
+            this.length = length;
+            this.dirty = dirty;
+        }
+    }
+
+    //returns whether the tag reached the promotion threshold
+    private boolean countRead(String tag) {
+        if(++reads_since_aging >= AGING_INTERVAL) {
+            reads_since_aging = 0;
+            Iterator<Map.Entry<String, Integer>> it = cold_read_counts.entrySet().iterator();
+            while(it.hasNext()) {
+                Map.Entry<String, Integer> e = it.next();
+                if(e.getValue() <= 1) it.remove();
+                else e.setValue(e.getValue() / 2);
+            }
+        }
+        Integer count = cold_read_counts.get(tag);
+        count = count == null ? 1 : count + 1;
+        cold_read_counts.put(tag, count);
+        return count >= promotion_threshold;
+    }
+
+    private void promote(String tag, byte[] entry) {
+        cold_read_counts.remove(tag);
+        hot.addEntry_nocheck(tag, entry);
+        hot_entries.put(tag, new HotEntry(entry.length, false));
+        hot_bytes += entry.length;
+        promotions++;
+        demoteToFitBudget();
+    }
+
+    private void demoteToFitBudget() {
+        Iterator<Map.Entry<String, HotEntry>> it = hot_entries.entrySet().iterator();
+        while(hot_bytes > memory_budget && it.hasNext()) {
+            Map.Entry<String, HotEntry> eldest = it.next();
+            String tag = eldest.getKey();
+            if(eldest.getValue().dirty)
+                cold.addEntry_nocheck(tag, hot.deleteEntry(tag)); //the cold tier does not contain dirty tags
+            else
+                hot.deleteEntry_noReturn(tag);
+            it.remove();
+            hot_bytes -= eldest.getValue().length;
+            demotions++;
+        }
+    }
+
+    private void resetHotTier() {
+        hot.clear();
+        hot_entries.clear();
+        cold_read_counts.clear();
+        hot_bytes = 0;
+        reads_since_aging = 0;
+    }
+}
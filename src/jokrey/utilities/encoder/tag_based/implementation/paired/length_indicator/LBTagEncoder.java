@@ -5,6 +5,7 @@ import jokrey.utilities.encoder.as_union.lb.bytes.LBLIbae;
 import jokrey.utilities.encoder.as_union.lb.bytes.LBLIbae_cache;
 import jokrey.utilities.encoder.tag_based.TagBasedEncoder;
 import jokrey.utilities.encoder.tag_based.TagBasedEncoderBytes;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.type.transformer.LITypeToBytesTransformer;
 import jokrey.utilities.encoder.type_transformer.TypeToFromRawTransformer;
 import jokrey.utilities.simple.data_structure.ExtendedIterator;
@@ -15,7 +16,6 @@ import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorag
 
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Objects;
 
@@ -30,6 +30,18 @@ public class LBTagEncoder implements TagBasedEncoderBytes {
     public LBTagEncoder(TransparentBytesStorage storage) {
         lb = new LBLIbae(storage);
     }
+    /** @see LBLIbae#LBLIbae(TransparentBytesStorage, int) */
+    public LBTagEncoder(TransparentBytesStorage storage, int block_size) {
+        this(storage, block_size, false);
+    }
+    /**
+     * @param cache_block_headers whether all block headers are kept in memory (see {@link LBLIbae_cache}),
+     *                            recommended for slow storages (for example file or remote storages), where searching would otherwise read every header
+     * @see LBLIbae#LBLIbae(TransparentBytesStorage, int)
+     */
+    public LBTagEncoder(TransparentBytesStorage storage, int block_size, boolean cache_block_headers) {
+        lb = cache_block_headers? new LBLIbae_cache(storage, block_size) : new LBLIbae(storage, block_size);
+    }
 
 
     protected BlockPosition[] search(String tag) {
@@ -41,7 +53,7 @@ public class LBTagEncoder implements TagBasedEncoderBytes {
             int old_position = local_position.pointer;
             dec_tag = getTag(lb.decode(local_position));
             if (Objects.equals(dec_tag, tag))
-                return new BlockPosition[] {new BlockPosition(old_position), local_position};
+                return new BlockPosition[] {new BlockPosition(old_position, local_position.block_size), local_position};
             else
                 lb.skipEntry(local_position);
         } while (dec_tag != null);
@@ -94,8 +106,6 @@ public class LBTagEncoder implements TagBasedEncoderBytes {
     @Override public byte[] getEntry(String tag) {
         BlockPosition[] search = search(tag);
         if(search==null)return null;
-        lb.debugPrintAllBlocks();
-        System.out.println("search = " + Arrays.toString(search));
         return lb.decode(search[1]);
     }
 
@@ -113,6 +123,9 @@ public class LBTagEncoder implements TagBasedEncoderBytes {
     @Override public TransparentBytesStorage getRawStorageSystem() {
         return lb.getRawStorage();
     }
+    @Override public LITagBytesEncoder snapshot() throws StorageSystemException {
+        return LITagBytesEncoder.snapshotOf(this);
+    }
 
     @Override public byte[] getEncodedBytes() {
         return lb.getEncoded();
@@ -0,0 +1,91 @@
+package jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator;
+
+/**
+ * Internal usage only
+ *
+ * Counting bloom filter over tags. Answers whether a tag might be contained (false positives possible) or is definitely not contained.
+ *    Each tag increments HASH_COUNT cells chosen by double hashing, removing it decrements them again.
+ *    Cells saturate at 255 and are never decremented after that - so a remove can never produce a false negative.
+ *
+ * The number of cells is a power of 2 and at least CELLS_PER_TAG times the number of tags it was built for.
+ *    Once more tags are added the false positive rate grows, {@link #is_overfull()} tells the owner to rebuild it larger.
+ *    With 4 hashes and 8 to 16 cells per tag the false positive rate is below ~2.5%.
+ *
+ * @author jokrey
+ */
+class LITagBloomFilter {
+    private static final int HASH_COUNT = 4;
+    private static final int CELLS_PER_TAG = 8;
+    private static final int MIN_CELLS = 1 << 10;
+
+    private final byte[] cells;
+    private final int mask;
+    private int tag_count = 0;
+
+    /** @param expected_tags number of tags the filter should hold with its designated false positive rate */
+    LITagBloomFilter(int expected_tags) {
+        int cell_count = MIN_CELLS;
+        while(cell_count < (long) expected_tags * CELLS_PER_TAG && cell_count < (1 << 30))
+            cell_count <<= 1;
+        cells = new byte[cell_count];
+        mask = cell_count - 1;
+    }
+
+    void add(String tag) {
+        int h1 = tag.hashCode();
+        int h2 = second_hash(tag);
+        for(int i=0;i<HASH_COUNT;i++) {
+            int cell = (h1 + i * h2) & mask;
+            if(cells[cell] != (byte) 0xFF)
+                cells[cell]++;
+        }
+        tag_count++;
+    }
+
+    /** Has to only be called for tags that were previously added (and not yet removed) */
+    void remove(String tag) {
+        int h1 = tag.hashCode();
+        int h2 = second_hash(tag);
+        for(int i=0;i<HASH_COUNT;i++) {
+            int cell = (h1 + i * h2) & mask;
+            if(cells[cell] != (byte) 0xFF && cells[cell] != 0) //saturated cells are sticky, the true count is unknown
+                cells[cell]--;
+        }
+        tag_count--;
+    }
+
+    /** @return false if the tag is definitely not contained, true if it might be */
+    boolean might_contain(String tag) {
+        int h1 = tag.hashCode();
+        int h2 = second_hash(tag);
+        for(int i=0;i<HASH_COUNT;i++)
+            if(cells[(h1 + i * h2) & mask] == 0)
+                return false;
+        return true;
+    }
+
+    /** @return whether the filter holds more tags than it was sized for */
+    boolean is_overfull() {
+        return (long) tag_count * CELLS_PER_TAG > cells.length;
+    }
+
+    int tag_count() {
+        return tag_count;
+    }
+
+    @Override public String toString() {
+        return "LITagBloomFilter{cells=" + cells.length + ", tag_count=" + tag_count + "}";
+    }
+
+
+
+    //fnv-1a over the chars - independent of String.hashCode, forced odd so that all cells can be reached with the power of 2 mask
+    private static int second_hash(String tag) {
+        int h = 0x811C9DC5;
+        for(int i=0;i<tag.length();i++) {
+            h ^= tag.charAt(i);
+            h *= 0x01000193;
+        }
+        return h | 1;
+    }
+}
@@ -0,0 +1,165 @@
+package jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator;
+
+import jokrey.utilities.encoder.as_union.li.LISearchResult;
+import jokrey.utilities.encoder.type_transformer.TypeToFromRawTransformer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Bloom filtered wrapper for a {@link LITagEncoder}.
+ * Lookups of tags that do not exist (exists, getEntry, length, deletes and therefore also the checked add of a new tag) return in O(1) without any storage access.
+ *    Lookups of existing tags (and rare false positives ~2.5%) still search the li stream in O(n).
+ *    So unlike {@link LITagCachedEncoder} this does not help hits, but it only requires a few bytes per tag (and no tag strings) in memory.
+ *
+ * The filter (see {@link LITagBloomFilter}) is built by a full scan on the first lookup.
+ *    It is kept up to date on adds and deletes (it is a counting filter, so deletes do not require a rebuild).
+ *    Once it holds more tags than it was sized for it is rebuilt, with twice the current number of tags as capacity, on the next lookup.
+ *    Removing through an iterator also causes a rebuild on the next lookup.
+ *
+ * Not thread safe out of the box
+ *
+ * @author jokrey
+ */
+public class LITagBloomFilteredEncoder<SF> extends LITagEncoder<SF> {
+    private final LITagEncoder<SF> delegation;
+    private LITagBloomFilter filter = null; //null == has to be built on next lookup
+
+    public LITagBloomFilteredEncoder(LITagEncoder<SF> delegation) {
+        super(delegation.lie); //no double storage, and any operations will be executed there.
+        this.delegation=delegation;
+    }
+
+
+    //updated search algorithm
+    @Override protected LISearchResult search(String tag) {
+        if(filter == null)
+            build_filter();
+        if(!filter.might_contain(tag))
+            return null; //MOST IMPORTANT PART - a miss does not touch the storage
+        return super.search(tag);
+    }
+
+    private void build_filter() {
+        String[] tags = super.getTags(); //the one and only full scan
+        LITagBloomFilter new_filter = new LITagBloomFilter(Math.max(16, tags.length * 2));
+        for(String tag:tags)
+            new_filter.add(tag);
+        filter = new_filter;
+    }
+
+
+//changed wrapping:::
+
+    //also add tag to filter
+    @Override public LITagBloomFilteredEncoder<SF> addEntry_nocheck(String tag, SF arr) {
+        super.addEntry_nocheck(tag, arr);
+        filter_add(tag);
+        return this;
+    }
+    void filter_add(String tag) {
+        if(filter != null) { //otherwise the tag will be found by the next build
+            filter.add(tag);
+            if(filter.is_overfull())
+                filter = null;
+        }
+    }
+
+    //also remove tag from filter - search guarantees that the filter is built
+    @Override public SF deleteEntry(String tag) {
+        SF entry = super.deleteEntry(tag);
+        if(entry != null) filter.remove(tag);
+        return entry;
+    }
+    @Override public boolean deleteEntry_noReturn(String tag) {
+        boolean deleted = super.deleteEntry_noReturn(tag);
+        if(deleted) filter.remove(tag);
+        return deleted;
+    }
+
+    //only the tags that might exist are searched for (in a single pass)
+    @Override public Map<String, SF> getEntries(Collection<String> tags) {
+        ArrayList<String> candidates = filter_candidates(tags);
+        return candidates.isEmpty()? new HashMap<>() : super.getEntries(candidates);
+    }
+    @Override public Map<String, SF> deleteEntries(Collection<String> tags) {
+        ArrayList<String> candidates = filter_candidates(tags);
+        if(candidates.isEmpty()) return new HashMap<>();
+        Map<String, SF> deleted = super.deleteEntries(candidates);
+        for(String tag:deleted.keySet())
+            filter.remove(tag);
+        return deleted;
+    }
+    private ArrayList<String> filter_candidates(Collection<String> tags) {
+        if(filter == null)
+            build_filter();
+        ArrayList<String> candidates = new ArrayList<>(tags.size());
+        for(String tag:tags)
+            if(filter.might_contain(tag))
+                candidates.add(tag);
+        return candidates;
+    }
+
+    //removing through the iterator bypasses the filter, it has to be rebuilt on demand
+    @Override public Iterator<TaggedEntry<SF>> iterator() {
+        Iterator<TaggedEntry<SF>> iterator = super.iterator();
+        return new Iterator<TaggedEntry<SF>>() {
+            @Override public boolean hasNext() {
+                return iterator.hasNext();
+            }
+            @Override public TaggedEntry<SF> next() {
+                return iterator.next();
+            }
+            @Override public void remove() {
+                iterator.remove();
+                reset_filter();
+            }
+        };
+    }
+    void reset_filter() {
+        filter = null;
+    }
+
+    //reset the filter here...
+    @Override public LITagEncoder<SF> readFromEncoded(SF encoded_raw) {
+        reset_filter();
+        return super.readFromEncoded(encoded_raw);
+    }
+    @Override public LITagBloomFilteredEncoder<SF> clear() {
+        reset_filter();
+        super.clear();
+        return this;
+    }
+
+
+
+
+
+
+
+
+
+
+    //required delegation overrides...
+
+    @Override public TypeToFromRawTransformer<SF> createTypeTransformer() {
+        return delegation.getTypeTransformer();
+    }
+    @Override public byte[] getEncodedBytes() {
+        return delegation.getEncodedBytes();
+    }
+    @Override public void readFromEncodedBytes(byte[] encoded_bytes) {
+        reset_filter();
+        delegation.readFromEncodedBytes(encoded_bytes);
+    }
+    @Override public String getEncodedString() {
+        return delegation.getEncodedString();
+    }
+    @Override public void readFromEncodedString(String encoded_string) {
+        reset_filter();
+        delegation.readFromEncodedString(encoded_string);
+    }
+}
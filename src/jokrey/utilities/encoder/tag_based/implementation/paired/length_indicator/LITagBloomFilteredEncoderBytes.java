@@ -0,0 +1,64 @@
+package jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator;
+
+import jokrey.utilities.encoder.as_union.li.LISearchResult;
+import jokrey.utilities.simple.data_structure.pairs.Pair;
+import jokrey.utilities.encoder.tag_based.TagBasedEncoderBytes;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Version of {@link LITagBloomFilteredEncoder} that additionally implements {@link TagBasedEncoderBytes} and supports it's methods.
+ *
+ * @author jokrey
+ */
+public class LITagBloomFilteredEncoderBytes extends LITagBloomFilteredEncoder<byte[]> implements TagBasedEncoderBytes {
+    private final LITagBytesEncoder delegation;
+
+    public LITagBloomFilteredEncoderBytes(LITagBytesEncoder delegation) {
+        super(delegation);
+        this.delegation=delegation;
+    }
+
+
+    @Override public Pair<Long, InputStream> getEntry_asLIStream(String tag) throws StorageSystemException {
+        LISearchResult sr = search(tag);
+        if(sr == null) return null;
+        return new Pair<>(sr.entry_end_index-sr.entry_start_index, getRawStorageSystem().substream(sr.entry_start_index, sr.entry_end_index));
+    }
+    @Override public TagBasedEncoderBytes addEntry_nocheck(String tag, InputStream content, long content_length) throws StorageSystemException {
+        delegation.addEntry_nocheck(tag, content, content_length);
+        filter_add(tag);
+        return this;
+    }
+
+
+    //required simple delegation
+    @Override public TransparentBytesStorage getRawStorageSystem() {
+        return delegation.getRawStorageSystem();
+    }
+    @Override public Iterable<TaggedStream> getEntryIterator_stream() {
+        Iterable<TaggedStream> iterable = delegation.getEntryIterator_stream();
+        return () -> {
+            Iterator<TaggedStream> iterator = iterable.iterator();
+            return new Iterator<TaggedStream>() {
+                @Override public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+                @Override public TaggedStream next() {
+                    return iterator.next();
+                }
+                @Override public void remove() {
+                    iterator.remove();
+                    reset_filter(); //removing bypasses the filter
+                }
+            };
+        };
+    }
+    @Override public LITagBytesEncoder snapshot() throws StorageSystemException {
+        return delegation.snapshot();
+    }
+}
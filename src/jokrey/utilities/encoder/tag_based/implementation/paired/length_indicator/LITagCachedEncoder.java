@@ -4,17 +4,22 @@ import jokrey.utilities.encoder.as_union.li.LIPosition;
 import jokrey.utilities.encoder.as_union.li.LISearchResult;
 import jokrey.utilities.encoder.type_transformer.TypeToFromRawTransformer;
 
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Cached wrapper for a {@link LITagEncoder}.
  * Over time decreases search, delete and checked-add complexity to O(log2(n))  [HashMap complexity]
  *    There is very little added space complexity.
+ *    Deletes (and therefore overwrites) do not invalidate the cache. The positions shifted by a delete are resolved through a fenwick tree (see {@link LITagPositionCache}).
  *
  * It works by caching completed li searches. (Their get_next_li_bounds results, not the actually stored values).
  *    It will NOT pre-cache searches in the constructor. Or anywhere else.
  *    It will only search over elements when that was necessary anyways.
+ *    Cached entries always form a prefix of the stream, a search for an uncached element continues the scan where the previous one stopped.
  *    If you do require pre-caching then call getTags. It will have to run through all elements and therefore cache them.
+ *    The cache also keeps the tags sorted, so that prefix and range queries ({@link #getTags(String)}, {@link #iterator(String, String)}) are O(log n + k).
  *
  * Not thread safe out of the box
  *
@@ -48,8 +53,9 @@ public class LITagCachedEncoder<SF> extends LITagEncoder<SF> {
         //if we happen upon this line, then either cache isn't fully filled yet
         //   therefore everything that follows is just a result of the fact that we do not precache
 
-        LIPosition search_pos = lie.reset();
-        long last_read_pointer = 0;
+        LIPosition search_pos = lie.scan();
+        search_pos.pointer = cache.cached_end(); //everything before was already cached
+        long last_read_pointer = search_pos.pointer;
         String dec_tag;
         long entry_length;
         while((dec_tag = getTag(lie.decode(search_pos))) != null &&
@@ -59,7 +65,6 @@ public class LITagCachedEncoder<SF> extends LITagEncoder<SF> {
             LISearchResult sr = new LISearchResult(entry_end_index-entry_length, entry_end_index, last_read_pointer);
 
             //always cache also not only our cache miss(maybe we can precache some without much cost and avoid a future search).
-            //   May produce some redundant calls, but at some point the cache is filled and no more calls will be made
             cache.cache_search(dec_tag, sr);
 
             last_read_pointer = search_pos.pointer;
@@ -88,6 +93,8 @@ public class LITagCachedEncoder<SF> extends LITagEncoder<SF> {
         return this;
     }
     void cache_add(String tag, long old_length_before_add) {
+        if(cache.cached_end() != old_length_before_add)
+            return; //the cache has to stay a prefix, the next search will reach the added entry
         //minimal, optimal performance, fake search  (no checked search, but guaranteed fine)
         LIPosition fake_search_pos = new LIPosition(old_length_before_add);
         lie.skip(fake_search_pos); //skip tag
@@ -123,12 +130,24 @@ public class LITagCachedEncoder<SF> extends LITagEncoder<SF> {
 
     //use this opportunity to fully fill the cache
     @Override public String[] getTags() {
-        if(cache.is_fully_cached()) {
-            return cache.getCachedTags();
-        } else { //damn now we have to iterate all of them anyways. Well -> we'll use that chance to cache everything (close to no cost anyways)
-            ArrayList<String> toReturn = new ArrayList<>();
-            LIPosition search_pos = lie.reset();
-            long last_raw_read_pointer = 0;
+        fill_cache();
+        return cache.getCachedTags();
+    }
+    /** Uses the sorted tag index of the (filled) cache - O(log n + k) once the cache is full */
+    @Override public String[] getTags(String prefix) {
+        fill_cache();
+        return cache.getCachedTags(prefix);
+    }
+    /** Uses the sorted tag index of the (filled) cache - O(log n + k) once the cache is full */
+    @Override public String[] getTags(String from_tag, String to_tag) {
+        fill_cache();
+        return cache.getCachedTags(from_tag, to_tag);
+    }
+    private void fill_cache() {
+        if(!cache.is_fully_cached()) { //damn now we have to iterate the rest anyways. Well -> we'll use that chance to cache everything (close to no cost anyways)
+            LIPosition search_pos = lie.scan();
+            search_pos.pointer = cache.cached_end();
+            long last_raw_read_pointer = search_pos.pointer;
             String dec_tag;
             long entry_length;
             while ((dec_tag = getTag(lie.decode(search_pos))) != null &&
@@ -140,14 +159,39 @@ public class LITagCachedEncoder<SF> extends LITagEncoder<SF> {
                 cache.cache_search(dec_tag, sr);
 
                 last_raw_read_pointer = search_pos.pointer;
-
-                toReturn.add(dec_tag);
             }
             cache.set_fully_cached();
-            return toReturn.toArray(new String[0]);
         }
     }
 
+    //cached lookups - since the cache is a prefix, the searches for uncached tags together still run through the stream at most once
+    @Override public Map<String, SF> getEntries(Collection<String> tags) {
+        return getEntries_individually(tags);
+    }
+    @Override public Map<String, SF> deleteEntries(Collection<String> tags) {
+        return deleteEntries_individually(tags);
+    }
+
+    //removing through the iterator bypasses the cache, it has to be rebuilt on demand
+    @Override public Iterator<TaggedEntry<SF>> iterator() {
+        Iterator<TaggedEntry<SF>> iterator = super.iterator();
+        return new Iterator<TaggedEntry<SF>>() {
+            @Override public boolean hasNext() {
+                return iterator.hasNext();
+            }
+            @Override public TaggedEntry<SF> next() {
+                return iterator.next();
+            }
+            @Override public void remove() {
+                iterator.remove();
+                cache.reset();
+            }
+        };
+    }
+    void reset_cache() {
+        cache.reset();
+    }
+
     //clear the cache here...
     @Override public LITagEncoder<SF> readFromEncoded(SF encoded_raw) {
         cache.reset();
@@ -8,6 +8,7 @@ import jokrey.utilities.transparent_storage.StorageSystemException;
 import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
 
 import java.io.InputStream;
+import java.util.Iterator;
 
 /**
  * Version of {@link LITagCachedEncoderBytes} that Additionally, implements {@link TagBasedEncoderBytes} and supports it's methods.
@@ -42,6 +43,24 @@ public class LITagCachedEncoderBytes extends LITagCachedEncoder<byte[]> implemen
         return delegation.getRawStorageSystem();
     }
     @Override public Iterable<TaggedStream> getEntryIterator_stream() {
-        return delegation.getEntryIterator_stream();
+        Iterable<TaggedStream> iterable = delegation.getEntryIterator_stream();
+        return () -> {
+            Iterator<TaggedStream> iterator = iterable.iterator();
+            return new Iterator<TaggedStream>() {
+                @Override public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+                @Override public TaggedStream next() {
+                    return iterator.next();
+                }
+                @Override public void remove() {
+                    iterator.remove();
+                    reset_cache(); //removing bypasses the cache
+                }
+            };
+        };
+    }
+    @Override public LITagBytesEncoder snapshot() throws StorageSystemException {
+        return delegation.snapshot();
     }
 }
\ No newline at end of file
@@ -9,8 +9,11 @@ import jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.deleg
 import jokrey.utilities.transparent_storage.TransparentStorage;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Objects;
+import java.util.Map;
 
 /**
  * Non altering methods are reentrant and thread safe.
@@ -77,23 +80,24 @@ public abstract class LITagEncoder<SF> implements TagBasedEncoder<SF> {
         if(tag == null) throw new NullPointerException();
 //        TODO: search from old position, implemented but it has thread safety issues for some reason.
 
-        LIPosition local_position = lie.reset();
+        LIPosition local_position = lie.scan();
 //        LIPosition local_position = position.get().copy(); //copy so that the member variable isn't changed before completing the search
                                                        //   would cause an issue if another thread was altering it, then we'd be jumping all over.
 //        LIPosition start_search_position = local_position.copy(); // copy so that it isn't changed
 
+        SF raw_tag = getTypeTransformer().transform(tag); //compare the raw tags, so that no tag has to be decoded during the search
         long last_raw_position = local_position.pointer;
-        String dec_tag;
+        Boolean tag_equals;
         do {
-            dec_tag = getTag(lie.decode(local_position));
+            tag_equals = lie.decodeEquals(local_position, raw_tag);
             long entry_length = lie.skipEntry(local_position); //skip also required to obtain a new valid pre-tag position.. ((%2==0))
-            if (Objects.equals(tag, dec_tag)) {
+            if (tag_equals != null && tag_equals) {
                 long entry_end_index = local_position.pointer;
 //                    position.set(local_position);
                 return new LISearchResult(entry_end_index - entry_length, entry_end_index, last_raw_position);
             }
             last_raw_position = local_position.pointer;
-        } while (dec_tag != null);
+        } while (tag_equals != null);
 //        } while (!start_search_position.equals(local_position));
 //        position.set(lie.reset());
         return null;
@@ -105,7 +109,7 @@ public abstract class LITagEncoder<SF> implements TagBasedEncoder<SF> {
     }
 
     @Override public LITagEncoder<SF> addEntry_nocheck(String tag, SF entry) {
-        lie.encode(getTypeTransformer().transform(tag)).encode(entry);
+        lie.encode(getTypeTransformer().transform(tag), entry); //tag li, tag, value li and value in a single write
         return this;
     }
 
@@ -142,6 +146,75 @@ public abstract class LITagEncoder<SF> implements TagBasedEncoder<SF> {
     }
 
 
+    /**
+     * Finds all tags in a single forward pass over the li stream, that stops as soon as every tag was found.
+     * So k lookups cost O(n) instead of O(k*n).
+     */
+    @Override public Map<String, SF> getEntries(Collection<String> tags) {
+        HashSet<String> remaining = new HashSet<>(tags);
+        HashMap<String, SF> entries = new HashMap<>();
+        LIPosition pos = lie.scan();
+        String dec_tag;
+        while(!remaining.isEmpty() && (dec_tag = getTag(lie.decode(pos))) != null) {
+            if(remaining.remove(dec_tag)) { //only the first occurrence of a tag - as in search
+                SF entry = lie.decode(pos);
+                if(entry == null) break;
+                entries.put(dec_tag, entry);
+            } else if(lie.skipEntry(pos) == -1) {
+                break;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Finds all tags in a single forward pass over the li stream (see {@link #getEntries(Collection)}).
+     * The found entries are then deleted from back to front (so that the found positions remain valid), directly adjacent entries with a single delete.
+     */
+    @Override public Map<String, SF> deleteEntries(Collection<String> tags) {
+        HashSet<String> remaining = new HashSet<>(tags);
+        HashMap<String, SF> deleted = new HashMap<>();
+        ArrayList<long[]> ranges = new ArrayList<>(); //[raw storage start, entry end] in ascending order, adjacent ranges merged
+        LIPosition pos = lie.scan();
+        long last_raw_position = pos.pointer;
+        String dec_tag;
+        long entry_length;
+        while(!remaining.isEmpty() &&
+                (dec_tag = getTag(lie.decode(pos))) != null &&
+                (entry_length = lie.skipEntry(pos)) != -1) {
+            long entry_end_index = pos.pointer;
+            if(remaining.remove(dec_tag)) {
+                deleted.put(dec_tag, lie.getRawStorage().sub(entry_end_index - entry_length, entry_end_index));
+                long[] last = ranges.isEmpty()? null : ranges.get(ranges.size() - 1);
+                if(last != null && last[1] == last_raw_position)
+                    last[1] = entry_end_index;
+                else
+                    ranges.add(new long[] {last_raw_position, entry_end_index});
+            }
+            last_raw_position = entry_end_index;
+        }
+        for(int i=ranges.size()-1;i>=0;i--)
+            lie.getRawStorage().delete(ranges.get(i)[0], ranges.get(i)[1]);
+        return deleted;
+    }
+
+
+    /**
+     * The per tag lookups of {@link TagBasedEncoder#getEntries(Collection)}, instead of the single pass over the li stream.
+     * For subclasses whose search does not have to scan (cache, index) - their lookups are faster and keep their structures up to date.
+     */
+    protected final Map<String, SF> getEntries_individually(Collection<String> tags) {
+        return TagBasedEncoder.super.getEntries(tags);
+    }
+    /**
+     * The per tag deletes of {@link TagBasedEncoder#deleteEntries(Collection)}, instead of the single pass over the li stream.
+     * For subclasses whose search does not have to scan (cache, index) - their deletes are faster and keep their structures up to date.
+     */
+    protected final Map<String, SF> deleteEntries_individually(Collection<String> tags) {
+        return TagBasedEncoder.super.deleteEntries(tags);
+    }
+
+
     @Override public boolean exists(String tag) {
         return search(tag)!= null;
     }
@@ -156,7 +229,7 @@ public abstract class LITagEncoder<SF> implements TagBasedEncoder<SF> {
 
     @Override public String[] getTags() {
         ArrayList<String> toReturn = new ArrayList<>();
-        LIPosition pos = lie.reset();
+        LIPosition pos = lie.scan();
         String dec_tag;
         while((dec_tag = getTag(lie.decode(pos))) != null && lie.skipEntry(pos) != -1)
             toReturn.add(dec_tag);
@@ -2,17 +2,38 @@ package jokrey.utilities.encoder.tag_based.implementation.paired.length_indicato
 
 import jokrey.utilities.encoder.as_union.li.LISearchResult;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.TreeSet;
 
 /**
  * Internal usage only
  *
  * Caches search results for tags and handles some of the complexity of updating them on changes.
  *
+ * The cache always covers a contiguous prefix of the li stream ([0, cached end)) - entries are appended in stream order and receive increasing ordinals.
+ *    Positions are stored as logical positions, which do not change on deletes.
+ *    The bytes removed by deletes are kept in a fenwick tree over the ordinals, the true position of an entry is its logical position minus the bytes deleted before it.
+ *    So a delete is O(log n) and no cached position has to be touched or searched again.
+ * Once half of the ordinals belong to deleted entries, the cache is compacted to true positions. (O(n), but amortized O(1) per delete)
+ *
+ * Additionally the cached tags are kept in a sorted set (red-black tree), for prefix and range queries in O(log n + k).
+ *
  * @author jokrey
  */
 class LITagPositionCache {
-    private final HashMap<String, LISearchResult> tag_positions = new HashMap<>();
+    private static final int MIN_COMPACTION_SIZE = 64;
+
+    private final HashMap<String, Integer> ordinals = new HashMap<>();
+    private final TreeSet<String> sorted_tags = new TreeSet<>();
+    private String[] tags = new String[16]; //by ordinal, null for deleted entries
+    private LISearchResult[] logical_positions = new LISearchResult[16]; //by ordinal
+    private long[] deleted_bytes = new long[16 + 1]; //fenwick tree (1-indexed) over the ordinals, capacity is always a power of 2
+    private int size = 0; //number of handed out ordinals
+    private int deleted_count = 0;
+    private long total_deleted = 0;
+    private long cached_end = 0; //true end of the cached prefix
 
 
     private boolean fully_cached = false;
@@ -23,35 +44,135 @@ class LITagPositionCache {
         fully_cached = true;
     }
 
+    /** @return true position at which the next uncached entry starts, a scan for uncached entries can continue there */
+    long cached_end() {
+        return cached_end;
+    }
+
 
     LISearchResult search(String tag) {
-        return tag_positions.get(tag);
+        Integer ordinal = ordinals.get(tag);
+        if(ordinal == null) return null;
+        long shift = deleted_before(ordinal);
+        return shift == 0? logical_positions[ordinal] : logical_positions[ordinal].minus(shift);
     }
+
+    /**
+     * Appends the entry directly following the cached prefix.
+     * @param sr true position of the entry, has to start at {@link #cached_end()}
+     */
     void cache_search(String tag, LISearchResult sr) {
-        tag_positions.put(tag, sr);//only works if every entry in map is smaller than sr - this is guaranteed by application logic.
+        if(sr.raw_storage_start_index != cached_end)
+            throw new IllegalStateException("cache has to stay a contiguous prefix - cached_end("+cached_end+"), sr("+sr+")");
+        if(size == tags.length) grow();
+        tags[size] = tag;
+        logical_positions[size] = total_deleted == 0? sr : sr.minus(-total_deleted);
+        ordinals.put(tag, size);
+        sorted_tags.add(tag);
+        size++;
+        cached_end = sr.entry_end_index;
     }
+
     void remove_cache_entry(String tag) {
-        LISearchResult tag_sr = tag_positions.remove(tag);
-        if(tag_sr != null) {  //if a value was previously associated with the tag, should REALLY always be the case, but a null check doesn't cost nothing
-            //we need to update every cache tag that is stored "after" the removed tag [that way we can keep their positions without researching (as in searching again)]::
-            long tag_sr_length = tag_sr.total_length();
-            tag_positions.replaceAll((e_tag, e_sr) -> {
-                if(e_sr.largerThan(tag_sr))
-                    return e_sr.minus(tag_sr_length);
-                return e_sr;
-            });
+        Integer ordinal = ordinals.remove(tag);
+        if(ordinal != null) {  //if a value was previously associated with the tag, should REALLY always be the case, but a null check doesn't cost nothing
+            //every entry cached "after" the removed one is implicitly shifted by the fenwick tree [that way we can keep their positions without researching (as in searching again)]::
+            long removed_length = logical_positions[ordinal].total_length();
+            sorted_tags.remove(tag);
+            tags[ordinal] = null;
+            logical_positions[ordinal] = null;
+            for(int i = ordinal + 1; i < deleted_bytes.length; i += i & -i)
+                deleted_bytes[i] += removed_length;
+            total_deleted += removed_length;
+            cached_end -= removed_length;
+            deleted_count++;
+            if(deleted_count >= MIN_COMPACTION_SIZE && deleted_count * 2 >= size)
+                compact();
         }
     }
+
     void reset() {
-        tag_positions.clear();
+        ordinals.clear();
+        sorted_tags.clear();
+        tags = new String[16];
+        logical_positions = new LISearchResult[16];
+        deleted_bytes = new long[16 + 1];
+        size = 0;
+        deleted_count = 0;
+        total_deleted = 0;
+        cached_end = 0;
         fully_cached=false;
     }
 
+    /** @return cached tags in stream order */
     String[] getCachedTags() {
-        return tag_positions.keySet().toArray(new String[0]);
+        ArrayList<String> cached = new ArrayList<>(ordinals.size());
+        for(int i=0;i<size;i++)
+            if(is_live(i))
+                cached.add(tags[i]);
+        return cached.toArray(new String[0]);
+    }
+
+    /** @return cached tags starting with prefix, in ascending order */
+    String[] getCachedTags(String prefix) {
+        ArrayList<String> cached = new ArrayList<>();
+        for(String tag:sorted_tags.tailSet(prefix, true)) {
+            if(!tag.startsWith(prefix)) break;
+            cached.add(tag);
+        }
+        return cached.toArray(new String[0]);
+    }
+
+    /** @return cached tags with from_tag &lt;= tag &lt; to_tag, in ascending order */
+    String[] getCachedTags(String from_tag, String to_tag) {
+        if(from_tag.compareTo(to_tag) >= 0) return new String[0]; //subSet would throw
+        return sorted_tags.subSet(from_tag, true, to_tag, false).toArray(new String[0]);
     }
 
     @Override public String toString() {
-        return "l=\""+tag_positions.size()+"\", fully_cached=\""+ fully_cached +"\", raw_cache="+ tag_positions;
+        return "l=\""+ordinals.size()+"\", fully_cached=\""+ fully_cached +"\", cached_end=\""+cached_end+"\", deleted=\""+deleted_count+"\"";
+    }
+
+
+
+    //with duplicate tags (add_nocheck) the last one wins, as in search
+    private boolean is_live(int ordinal) {
+        return tags[ordinal] != null && Integer.valueOf(ordinal).equals(ordinals.get(tags[ordinal]));
+    }
+
+    //sum of the bytes deleted at ordinals smaller than the given ordinal
+    private long deleted_before(int ordinal) {
+        long sum = 0;
+        for(int i = ordinal; i > 0; i -= i & -i)
+            sum += deleted_bytes[i];
+        return sum;
+    }
+
+    //the new upper half of the fenwick tree only contains zeros, except for its last node - which covers the entire old tree
+    private void grow() {
+        int old_capacity = tags.length;
+        tags = Arrays.copyOf(tags, old_capacity * 2);
+        logical_positions = Arrays.copyOf(logical_positions, old_capacity * 2);
+        deleted_bytes = Arrays.copyOf(deleted_bytes, old_capacity * 2 + 1);
+        deleted_bytes[old_capacity * 2] = total_deleted;
+    }
+
+    private void compact() {
+        int live = 0;
+        for(int i=0;i<size;i++) {
+            if(is_live(i)) {
+                long shift = deleted_before(i);
+                tags[live] = tags[i];
+                logical_positions[live] = shift == 0? logical_positions[i] : logical_positions[i].minus(shift);
+                ordinals.put(tags[live], live);
+                live++;
+            }
+        }
+        Arrays.fill(tags, live, size, null);
+        Arrays.fill(logical_positions, live, size, null);
+        Arrays.fill(deleted_bytes, 0);
+        size = live;
+        deleted_count = 0;
+        total_deleted = 0;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,387 @@
+package jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes;
+
+import jokrey.utilities.bitsandbytes.BitHelper;
+import jokrey.utilities.encoder.as_union.li.LIPosition;
+import jokrey.utilities.encoder.as_union.li.LISearchResult;
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorage;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * {@link LITagBytesEncoder} with a persistent hash index in a sidecar storage.
+ *    The li encoded data is unchanged (it can still be read by a plain LITagBytesEncoder).
+ *    Search is O(1) instead of O(n) - also directly after a restart, because the index does not have to be rebuilt.
+ *    A lookup reads one small window of index slots (rarely two) and then the entry itself.
+ *
+ * Layout of the index storage:
+ *    [generation(8), synced generation(8), data size(8), capacity(4), count(4), slot 0, slot 1, ..., slot capacity-1]
+ *    slot: [tag hash(4), raw offset of the tag li + 1 (8)] - 0 as the offset marks an empty slot.
+ *    Open addressing with linear probing, the capacity is a power of two and doubled at a load factor of 3/4.
+ *    Deleted slots are closed by shifting the following slots of the probe run back (no tombstones).
+ *
+ * Staleness:
+ *    Every update increments and persists the generation before touching the data and sets synced generation (and data size) once the index is in sync again.
+ *    If, at open, the generations differ (crash in the middle of an update) or the data size does not match (altered without this index),
+ *    the index is rebuilt from the li stream. Removing through an iterator marks the index stale, it is then rebuilt on the next search.
+ *
+ * Deleting an entry moves all following bytes of the data (like in LITagBytesEncoder), so the offsets of all following entries are updated - in one sequential pass over the index.
+ * Rebuilding and growing hold the complete table in memory (12 bytes per slot).
+ *
+ * NOT THREAD SAFE - just like LITagBytesEncoder.
+ *
+ * @author jokrey
+ */
+public class HashIndexedLITagBytesEncoder extends LITagBytesEncoder implements AutoCloseable {
+    private static final int HEADER_LENGTH = 32;
+    private static final int SLOT_LENGTH = 12;
+    private static final int MIN_CAPACITY = 64;
+    private static final int PROBE_WINDOW = 8; //number of slots read at once while probing
+    private static final int PASS_CHUNK = 4096; //number of slots read at once when updating offsets
+
+    private final TransparentBytesStorage index;
+    private long generation;
+    private int capacity;
+    private int count;
+    private boolean stale = false;
+
+    /** Both the data and the index are held in RAM. */
+    public HashIndexedLITagBytesEncoder() {
+        this(new ByteArrayStorage(), new ByteArrayStorage());
+    }
+
+    /**
+     * Opens the index and rebuilds it if it is stale (or does not exist yet).
+     * @param data li encoded data (as written by {@link LITagBytesEncoder})
+     * @param index sidecar storage for the hash index, may be empty
+     */
+    public HashIndexedLITagBytesEncoder(TransparentBytesStorage data, TransparentBytesStorage index) {
+        super(data);
+        this.index = index;
+        if(!openIndex())
+            rebuildIndex();
+    }
+
+    @Override protected LISearchResult search(String tag) {
+        if(tag == null) throw new NullPointerException();
+        IndexHit hit = find(getTypeTransformer().transform(tag));
+        return hit == null ? null : hit.result;
+    }
+
+    @Override public HashIndexedLITagBytesEncoder addEntry_nocheck(String tag, byte[] entry) {
+        byte[] raw_tag = getTypeTransformer().transform(tag);
+        beginUpdate();
+        long raw_start = getRawStorageSystem().contentSize();
+        super.addEntry_nocheck(tag, entry);
+        insert(hash(raw_tag), raw_start);
+        endUpdate();
+        return this;
+    }
+
+    @Override public HashIndexedLITagBytesEncoder addEntry_nocheck(String tag, InputStream content, long content_length) throws StorageSystemException {
+        byte[] raw_tag = getTypeTransformer().transform(tag);
+        beginUpdate();
+        long raw_start = getRawStorageSystem().contentSize();
+        super.addEntry_nocheck(tag, content, content_length);
+        insert(hash(raw_tag), raw_start);
+        endUpdate();
+        return this;
+    }
+
+    @Override public byte[] deleteEntry(String tag) {
+        IndexHit hit = find(getTypeTransformer().transform(tag));
+        if(hit == null) return null;
+        byte[] val = getRawStorageSystem().sub(hit.result.entry_start_index, hit.result.entry_end_index);
+        delete(hit);
+        return val;
+    }
+
+    @Override public boolean deleteEntry_noReturn(String tag) {
+        IndexHit hit = find(getTypeTransformer().transform(tag));
+        if(hit == null) return false;
+        delete(hit);
+        return true;
+    }
+
+    //indexed lookups instead of the single pass of the li encoder (which would also bypass the index on delete)
+    @Override public Map<String, byte[]> getEntries(Collection<String> tags) {
+        return getEntries_individually(tags);
+    }
+    @Override public Map<String, byte[]> deleteEntries(Collection<String> tags) {
+        return deleteEntries_individually(tags);
+    }
+
+    @Override public HashIndexedLITagBytesEncoder clear() {
+        super.clear();
+        rebuildIndex();
+        return this;
+    }
+
+    @Override public HashIndexedLITagBytesEncoder readFromEncoded(byte[] encoded_raw) {
+        super.readFromEncoded(encoded_raw);
+        rebuildIndex();
+        return this;
+    }
+
+    @Override public Iterator<TaggedEntry<byte[]>> iterator() {
+        Iterator<TaggedEntry<byte[]>> iterator = super.iterator();
+        return new Iterator<TaggedEntry<byte[]>>() {
+            @Override public boolean hasNext() {
+                return iterator.hasNext();
+            }
+            @Override public TaggedEntry<byte[]> next() {
+                return iterator.next();
+            }
+            @Override public void remove() {
+                markStale();
+                iterator.remove();
+            }
+        };
+    }
+
+    @Override public Iterable<TaggedStream> getEntryIterator_stream() {
+        Iterable<TaggedStream> iterable = super.getEntryIterator_stream();
+        return () -> {
+            Iterator<TaggedStream> iterator = iterable.iterator();
+            return new Iterator<TaggedStream>() {
+                @Override public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+                @Override public TaggedStream next() {
+                    return iterator.next();
+                }
+                @Override public void remove() {
+                    markStale();
+                    iterator.remove();
+                }
+            };
+        };
+    }
+
+    /**
+     * Rebuilds the index from the li stream. O(n) - done automatically when the index is found to be stale.
+     */
+    public void rebuildIndex() {
+        stale = false;
+        beginUpdate();
+        int[] hashes = new int[16];
+        long[] offsets = new long[16];
+        int n = 0;
+        LIPosition pos = lie.scan();
+        while(true) {
+            long raw_start = pos.pointer;
+            byte[] raw_tag = lie.decode(pos);
+            if(raw_tag == null || lie.skipEntry(pos) < 0) break;
+            if(n == hashes.length) {
+                hashes = Arrays.copyOf(hashes, n * 2);
+                offsets = Arrays.copyOf(offsets, n * 2);
+            }
+            hashes[n] = hash(raw_tag);
+            offsets[n++] = raw_start;
+        }
+
+        capacity = MIN_CAPACITY;
+        while(capacity < n * 2) capacity *= 2;
+        byte[] table = new byte[capacity * SLOT_LENGTH];
+        for(int i=0;i<n;i++)
+            insert(table, capacity, hashes[i], offsets[i]);
+        writeTable(table);
+        count = n;
+        endUpdate();
+    }
+
+    /** @return number of indexed entries */
+    public int getIndexedCount() {
+        return count;
+    }
+
+    @Override public void close() throws Exception {
+        try {
+            getRawStorageSystem().close();
+        } finally {
+            index.close();
+        }
+    }
+
+
+
+    //returns false if the index is missing or stale
+    private boolean openIndex() {
+        if(index.contentSize() < HEADER_LENGTH) {
+            generation = 0;
+            return false;
+        }
+        byte[] header = index.sub(0, HEADER_LENGTH);
+        generation = BitHelper.getInt64From(header, 0);
+        long synced_generation = BitHelper.getInt64From(header, 8);
+        long data_size = BitHelper.getInt64From(header, 16);
+        capacity = BitHelper.getInt32From(header, 24);
+        count = BitHelper.getInt32From(header, 28);
+        return synced_generation == generation &&
+                data_size == getRawStorageSystem().contentSize() &&
+                capacity >= MIN_CAPACITY && Integer.bitCount(capacity) == 1 &&
+                index.contentSize() == HEADER_LENGTH + (long) capacity * SLOT_LENGTH;
+    }
+
+    //the persisted generation runs ahead of the synced generation until endUpdate - a crash in between is detected at the next open
+    private void beginUpdate() {
+        if(stale) rebuildIndex(); //does its own begin and end
+        generation++;
+        index.set(0, BitHelper.getBytes(generation));
+    }
+    private void endUpdate() {
+        byte[] rest = new byte[HEADER_LENGTH - 8];
+        BitHelper.writeInt64(rest, 0, generation);
+        BitHelper.writeInt64(rest, 8, getRawStorageSystem().contentSize());
+        BitHelper.writeInt32(rest, 16, capacity);
+        BitHelper.writeInt32(rest, 20, count);
+        index.set(8, rest);
+    }
+    private void markStale() {
+        if(!stale) {
+            generation++;
+            index.set(0, BitHelper.getBytes(generation));
+            stale = true;
+        }
+    }
+
+    private static class IndexHit {
+        final int slot;
+        final LISearchResult result;
+        IndexHit(int slot, LISearchResult result) {
+            this.slot = slot;
+            this.result = result;
+        }
+    }
+
+    private IndexHit find(byte[] raw_tag) {
+        if(stale) rebuildIndex();
+        int hash = hash(raw_tag);
+        int slot = hash & (capacity - 1);
+        for(int probed = 0; probed < capacity;) {
+            int window = Math.min(PROBE_WINDOW, capacity - slot);
+            byte[] slots = index.sub(slotStart(slot), slotStart(slot + window));
+            for(int i=0;i<window;i++, probed++) {
+                long offset = BitHelper.getInt64From(slots, i * SLOT_LENGTH + 4) - 1;
+                if(offset < 0)
+                    return null;
+                if(BitHelper.getInt32From(slots, i * SLOT_LENGTH) == hash) {
+                    LIPosition pos = new LIPosition(offset);
+                    Boolean tag_equals = lie.decodeEquals(pos, raw_tag);
+                    if(tag_equals != null && tag_equals) {
+                        long entry_length = lie.skipEntry(pos);
+                        return new IndexHit(slot + i, new LISearchResult(pos.pointer - entry_length, pos.pointer, offset));
+                    }
+                }
+            }
+            slot = (slot + window) & (capacity - 1);
+        }
+        return null;
+    }
+
+    private void delete(IndexHit hit) {
+        beginUpdate();
+        getRawStorageSystem().delete(hit.result.raw_storage_start_index, hit.result.entry_end_index);
+        removeSlot(hit.slot);
+        shiftOffsets(hit.result.raw_storage_start_index, hit.result.total_length());
+        endUpdate();
+    }
+
+    private void insert(int hash, long raw_start) {
+        if((count + 1) * 4L > capacity * 3L) {
+            byte[] old_table = index.sub(HEADER_LENGTH, slotStart(capacity));
+            int new_capacity = capacity * 2;
+            byte[] table = new byte[new_capacity * SLOT_LENGTH];
+            for(int i=0;i<capacity;i++) {
+                long offset = BitHelper.getInt64From(old_table, i * SLOT_LENGTH + 4) - 1;
+                if(offset >= 0)
+                    insert(table, new_capacity, BitHelper.getInt32From(old_table, i * SLOT_LENGTH), offset);
+            }
+            capacity = new_capacity;
+            writeTable(table);
+        }
+        int slot = hash & (capacity - 1);
+        while(BitHelper.getInt64From(index.sub(slotStart(slot) + 4, slotStart(slot) + SLOT_LENGTH), 0) != 0)
+            slot = (slot + 1) & (capacity - 1);
+        index.set(slotStart(slot), createSlot(hash, raw_start));
+        count++;
+    }
+    private static void insert(byte[] table, int capacity, int hash, long raw_start) {
+        int slot = hash & (capacity - 1);
+        while(BitHelper.getInt64From(table, slot * SLOT_LENGTH + 4) != 0)
+            slot = (slot + 1) & (capacity - 1);
+        BitHelper.writeInt32(table, slot * SLOT_LENGTH, hash);
+        BitHelper.writeInt64(table, slot * SLOT_LENGTH + 4, raw_start + 1);
+    }
+
+    //backward shift deletion: moves following slots of the same probe run into the hole, so that they remain reachable
+    private void removeSlot(int slot) {
+        int hole = slot;
+        int current = slot;
+        while(true) {
+            current = (current + 1) & (capacity - 1);
+            byte[] current_slot = index.sub(slotStart(current), slotStart(current) + SLOT_LENGTH);
+            if(BitHelper.getInt64From(current_slot, 4) == 0)
+                break;
+            int ideal = BitHelper.getInt32From(current_slot, 0) & (capacity - 1);
+            boolean reachable_from_current = hole <= current ? (hole < ideal && ideal <= current) : (hole < ideal || ideal <= current);
+            if(!reachable_from_current) {
+                index.set(slotStart(hole), current_slot);
+                hole = current;
+            }
+        }
+        index.set(slotStart(hole), new byte[SLOT_LENGTH]);
+        count--;
+    }
+
+    //all entries after the deleted entry moved by its length
+    private void shiftOffsets(long deleted_start, long deleted_length) {
+        for(int chunk_start = 0; chunk_start < capacity; chunk_start += PASS_CHUNK) {
+            int chunk_end = Math.min(capacity, chunk_start + PASS_CHUNK);
+            byte[] chunk = index.sub(slotStart(chunk_start), slotStart(chunk_end));
+            boolean changed = false;
+            for(int i=0;i<chunk_end-chunk_start;i++) {
+                long offset = BitHelper.getInt64From(chunk, i * SLOT_LENGTH + 4) - 1;
+                if(offset > deleted_start) {
+                    BitHelper.writeInt64(chunk, i * SLOT_LENGTH + 4, offset - deleted_length + 1);
+                    changed = true;
+                }
+            }
+            if(changed)
+                index.set(slotStart(chunk_start), chunk);
+        }
+    }
+
+    private void writeTable(byte[] table) {
+        if(index.contentSize() > HEADER_LENGTH + (long) table.length)
+            index.delete(HEADER_LENGTH + (long) table.length, index.contentSize());
+        if(index.contentSize() < HEADER_LENGTH) //the generation is already written
+            index.set(index.contentSize(), new byte[HEADER_LENGTH - (int) index.contentSize()]);
+        index.set(HEADER_LENGTH, table);
+    }
+
+    private static long slotStart(int slot) {
+        return HEADER_LENGTH + (long) slot * SLOT_LENGTH;
+    }
+    private static byte[] createSlot(int hash, long raw_start) {
+        byte[] slot = new byte[SLOT_LENGTH];
+        BitHelper.writeInt32(slot, 0, hash);
+        BitHelper.writeInt64(slot, 4, raw_start + 1);
+        return slot;
+    }
+
+    //spreads Arrays.hashCode, so that the low bits (used as the slot) depend on all bytes of the tag
+    private static int hash(byte[] raw_tag) {
+        int h = Arrays.hashCode(raw_tag);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+}
@@ -10,6 +10,7 @@ import jokrey.utilities.encoder.as_union.li.LISearchResult;
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.type.transformer.LITypeToBytesTransformer;
 import jokrey.utilities.transparent_storage.StorageSystemException;
 import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorage;
 import jokrey.utilities.encoder.type_transformer.TypeToFromRawTransformer;
 
 import java.io.IOException;
@@ -93,6 +94,33 @@ public class LITagBytesEncoder extends LITagEncoder<byte[]> implements TagBasedE
         return (TransparentBytesStorage) super.getRawStorageSystem();
     }
 
+    /**
+     * {@inheritDoc}
+     * If the raw storage is a {@link ByteArrayStorage}, the snapshot shares its memory until it is altered (see {@link ByteArrayStorage#snapshot()}).
+     * Otherwise the raw content is copied into a read only array storage.
+     */
+    @Override public LITagBytesEncoder snapshot() throws StorageSystemException {
+        TransparentBytesStorage raw = getRawStorageSystem();
+        if(lie.getClass() != LIbae.class) //different layout, not decodable by a plain LIbae
+            return snapshotOf(this);
+        if(raw instanceof ByteArrayStorage)
+            return new LITagBytesEncoder(((ByteArrayStorage) raw).snapshot());
+        return new LITagBytesEncoder(new ByteArrayStorage(raw.getContent()).snapshot());
+    }
+
+    /**
+     * Snapshot for encoders that cannot share their memory: copies all entries of the given encoder into a new, read only li encoder.
+     * @param encoder encoder to copy
+     * @return an immutable snapshot of encoder (see {@link TagBasedEncoderBytes#snapshot()})
+     * @throws StorageSystemException if something with the underlying storage system of encoder fails
+     */
+    public static LITagBytesEncoder snapshotOf(TagBasedEncoderBytes encoder) throws StorageSystemException {
+        LITagBytesEncoder copy = new LITagBytesEncoder();
+        for(TaggedEntry<byte[]> entry : encoder)
+            copy.addEntry_nocheck(entry.tag, entry.val);
+        return copy.snapshot();
+    }
+
     private TypeToFromRawTransformer<byte[]> transformer = null;
     @Override public TypeToFromRawTransformer<byte[]> getTypeTransformer() {
         if(transformer==null)
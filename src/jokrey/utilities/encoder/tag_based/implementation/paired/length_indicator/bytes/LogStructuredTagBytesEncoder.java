@@ -0,0 +1,467 @@
+package jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes;
+
+import jokrey.utilities.encoder.as_union.li.LISearchResult;
+import jokrey.utilities.encoder.as_union.li.bytes.LIbae;
+import jokrey.utilities.encoder.tag_based.TagBasedEncoderBytes;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.type.transformer.LITypeToBytesTransformer;
+import jokrey.utilities.encoder.type_transformer.TypeToFromRawTransformer;
+import jokrey.utilities.simple.data_structure.pairs.Pair;
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+import jokrey.utilities.transparent_storage.bytes.file.FileChannelStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Log structured tag based encoder.
+ *
+ * Where {@link LITagBytesEncoder} physically deletes the old entry (moving all following bytes) on every delete and every replacing add,
+ *    this encoder never alters already written bytes. Every write is an append to a log file (segment):
+ *       addEntry appends a record, deleteEntry appends a tombstone.
+ *    The last record for a tag wins. An in memory index (tag -> position of its latest record) is rebuilt from the log on open.
+ *    So writes are sequential, deletes cost the same regardless of file size and reads are a hash lookup plus a single positional read.
+ *
+ * Record layout (an li encoded pair, as in {@link LITagBytesEncoder}):
+ *    li(op + tag) li(value)
+ *    where op is a single byte: {@link #OP_PUT} or {@link #OP_TOMBSTONE} (whose value is always empty).
+ *
+ * Overwritten records and tombstones are garbage. {@link #compact()} rewrites the live records into a new segment file,
+ *    which then atomically replaces the old one. Readers and writers continue while the live records are copied,
+ *    only the final swap (replaying records written during the copy) is exclusive.
+ * A partially written record at the end of the log (for example after a crash mid-append) is cut off on open.
+ *
+ * Thread safe (reads run in parallel, writes are exclusive).
+ *    Streams obtained via {@link #getEntry_asLIStream(String)} become invalid after a compaction or close.
+ *
+ * @author jokrey
+ */
+public class LogStructuredTagBytesEncoder implements TagBasedEncoderBytes, AutoCloseable {
+    public static final byte OP_PUT = 1;
+    public static final byte OP_TOMBSTONE = 0;
+
+    private final File file;
+    private final File compaction_file;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object compaction_lock = new Object();
+    private boolean closed = false; //guarded by compaction_lock
+
+    private FileChannelStorage segment;
+    private HashMap<String, LISearchResult> index;
+    private long live_bytes;
+
+    /**
+     * Opens (or creates) the log at the given file and rebuilds the in memory index from it.
+     * @param file the log file
+     * @throws IOException if the file cannot be opened
+     */
+    public LogStructuredTagBytesEncoder(File file) throws IOException {
+        this.file = file;
+        this.compaction_file = new File(file.getPath()+".compacting");
+        Files.deleteIfExists(compaction_file.toPath()); //left over from a crash during compaction, the log itself is still intact.
+        segment = new FileChannelStorage(file);
+        rebuildIndex();
+    }
+
+    /**
+     * Appends a record for the entry. Replaces any previous entry for tag (without having to write a tombstone first).
+     * {@inheritDoc}
+     */
+    @Override public boolean addEntry(String tag, byte[] entry) {
+        lock.writeLock().lock();
+        try {
+            boolean was_replace = index.containsKey(tag);
+            append(OP_PUT, tag, entry);
+            return was_replace;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    @Override public LogStructuredTagBytesEncoder addEntry_nocheck(String tag, byte[] entry) {
+        addEntry(tag, entry);
+        return this;
+    }
+
+    /**
+     * Appends a record for the entry. Replaces any previous entry for tag (without having to write a tombstone first).
+     * {@inheritDoc}
+     */
+    @Override public boolean addEntry(String tag, InputStream content, long content_length) throws StorageSystemException {
+        lock.writeLock().lock();
+        try {
+            boolean was_replace = index.containsKey(tag);
+            long raw_start = segment.contentSize();
+            byte[] key = key(OP_PUT, tag);
+            byte[] value_li = LIbae.generateLI(content_length);
+            segment.set(raw_start, LIbae.generateLI(key.length), key, value_li);
+            try {
+                segment.append(content, content_length);
+            } catch (StorageSystemException e) {
+                //the stream failed mid record, cut the record off - otherwise a replay would find its header with a padded or missing value
+                segment.delete(raw_start, segment.contentSize());
+                throw e;
+            }
+            long entry_start = raw_start + LIbae.calculateGeneratedLISize(key.length) + key.length + value_li.length;
+            put(tag, new LISearchResult(entry_start, entry_start + content_length, raw_start));
+            return was_replace;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    @Override public LogStructuredTagBytesEncoder addEntry_nocheck(String tag, InputStream content, long content_length) throws StorageSystemException {
+        addEntry(tag, content, content_length);
+        return this;
+    }
+
+    @Override public byte[] getEntry(String tag) {
+        lock.readLock().lock();
+        try {
+            LISearchResult sr = index.get(tag);
+            if(sr == null) return null;
+            return segment.sub(sr.entry_start_index, sr.entry_end_index);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override public Pair<Long, InputStream> getEntry_asLIStream(String tag) throws StorageSystemException {
+        lock.readLock().lock();
+        try {
+            LISearchResult sr = index.get(tag);
+            if(sr == null) return null;
+            return new Pair<>(sr.entryLength(), segment.substream(sr.entry_start_index, sr.entry_end_index));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override public byte[] deleteEntry(String tag) {
+        lock.writeLock().lock();
+        try {
+            byte[] val = getEntry(tag);
+            if(val != null)
+                append(OP_TOMBSTONE, tag, new byte[0]);
+            return val;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override public boolean deleteEntry_noReturn(String tag) {
+        lock.writeLock().lock();
+        try {
+            if(!index.containsKey(tag)) return false;
+            append(OP_TOMBSTONE, tag, new byte[0]);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override public boolean exists(String tag) {
+        lock.readLock().lock();
+        try {
+            return index.containsKey(tag);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override public long length(String tag) {
+        lock.readLock().lock();
+        try {
+            LISearchResult sr = index.get(tag);
+            return sr == null ? -1 : sr.entryLength();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override public String[] getTags() {
+        lock.readLock().lock();
+        try {
+            return index.keySet().toArray(new String[0]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override public LogStructuredTagBytesEncoder clear() {
+        synchronized (compaction_lock) { //would invalidate the snapshot of a running compaction
+            lock.writeLock().lock();
+            try {
+                segment.clear();
+                index.clear();
+                live_bytes = 0;
+                return this;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+
+    /**
+     * Rewrites all live records into a new segment file and atomically replaces the current log with it.
+     * The live records are copied while readers and writers continue to use the current log.
+     * Afterwards the records appended in the meantime are replayed into the new segment - only that part blocks other callers.
+     *
+     * Only one compaction runs at a time, concurrent calls wait for the running one.
+     * @throws StorageSystemException if the new segment cannot be written or moved, or if the log was closed
+     */
+    public void compact() throws StorageSystemException {
+        synchronized (compaction_lock) {
+            if(closed) throw new StorageSystemException("Cannot compact a closed log.");
+            long snapshot_end;
+            ArrayList<Map.Entry<String, LISearchResult>> snapshot;
+            FileChannelStorage source;
+            lock.readLock().lock();
+            try {
+                snapshot_end = segment.contentSize();
+                snapshot = new ArrayList<>(index.entrySet());
+                source = segment;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            try {
+                Files.deleteIfExists(compaction_file.toPath());
+                FileChannelStorage compacted = new FileChannelStorage(compaction_file);
+                HashMap<String, LISearchResult> new_index = new HashMap<>(Math.max(16, snapshot.size() * 2));
+                long new_live_bytes = 0;
+                for (Map.Entry<String, LISearchResult> e : snapshot) {
+                    LISearchResult sr = e.getValue();
+                    LISearchResult moved = sr.minus(sr.raw_storage_start_index - compacted.contentSize());
+                    compacted.append(source.substream(sr.raw_storage_start_index, sr.entry_end_index), sr.total_length());
+                    new_index.put(e.getKey(), moved);
+                    new_live_bytes += sr.total_length();
+                }
+
+                lock.writeLock().lock();
+                try {
+                    long tail_start = compacted.contentSize();
+                    long tail_length = segment.contentSize() - snapshot_end;
+                    if (tail_length > 0)
+                        compacted.append(segment.substream(snapshot_end, snapshot_end + tail_length), tail_length);
+
+                    compacted.flush(true); //the new segment has to be durable before it replaces the log
+                    segment.close();
+                    compacted.close();
+                    Files.move(compaction_file.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    sync_directory(file.getAbsoluteFile().getParentFile().toPath()); //and the rename itself has to be durable
+                    segment = new FileChannelStorage(file);
+
+                    index = new_index;
+                    live_bytes = new_live_bytes;
+                    replay(tail_start, segment.contentSize());
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            } catch (IOException e) {
+                throw new StorageSystemException("Internal IO-Error during compaction("+e.getMessage()+").");
+            }
+        }
+    }
+
+    //not every platform allows opening (or forcing) a directory, there the rename is as durable as the platform makes it
+    private static void sync_directory(Path dir) {
+        if(dir == null) return;
+        try (FileChannel dir_channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            dir_channel.force(true);
+        } catch (IOException ignored) { }
+    }
+
+    /** @return number of bytes in the log that are no longer reachable (overwritten records and tombstones) and would be freed by {@link #compact()} */
+    public long deadBytes() {
+        lock.readLock().lock();
+        try {
+            return segment.contentSize() - live_bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the log file.
+     * Waits for a running compaction to finish, later calls to {@link #compact()} fail.
+     * @throws IOException if closing the file fails
+     */
+    @Override public void close() throws IOException {
+        synchronized (compaction_lock) { //a running compaction would otherwise copy from the closed segment or reopen the log after the close
+            lock.writeLock().lock();
+            try {
+                closed = true;
+                segment.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+
+    @Override public TransparentBytesStorage getRawStorageSystem() {
+        return segment;
+    }
+    @Override public LITagBytesEncoder snapshot() throws StorageSystemException {
+        return LITagBytesEncoder.snapshotOf(this);
+    }
+
+    private TypeToFromRawTransformer<byte[]> transformer = null;
+    @Override public TypeToFromRawTransformer<byte[]> getTypeTransformer() {
+        if(transformer==null)
+            transformer=createTypeTransformer();
+        return transformer;
+    }
+    @Override public TypeToFromRawTransformer<byte[]> createTypeTransformer() {
+        return new LITypeToBytesTransformer();
+    }
+
+    /** @return the raw log (including garbage) */
+    @Override public byte[] getEncodedBytes() throws StorageSystemException {
+        lock.readLock().lock();
+        try {
+            return segment.getContent();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    /** Replaces the log with the given raw log and rebuilds the index from it. */
+    @Override public void readFromEncodedBytes(byte[] encoded_bytes) {
+        synchronized (compaction_lock) {
+            lock.writeLock().lock();
+            try {
+                segment.setContent(encoded_bytes);
+                rebuildIndex();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /** Iterates over a snapshot of the tags, values are read lazily. Supports remove. */
+    @Override public Iterator<TaggedEntry<byte[]>> iterator() {
+        Iterator<String> tags = Arrays.asList(getTags()).iterator();
+        return new Iterator<TaggedEntry<byte[]>>() {
+            String last = null;
+            @Override public boolean hasNext() {
+                return tags.hasNext();
+            }
+            @Override public TaggedEntry<byte[]> next() {
+                last = tags.next();
+                return new TaggedEntry<>(last, getEntry(last));
+            }
+            @Override public void remove() {
+                if(last == null)
+                    throw new IllegalStateException("No last element to be removed is known at this time (no first next call or multiple remove calls).");
+                deleteEntry_noReturn(last);
+                last = null;
+            }
+        };
+    }
+
+    @Override public int hashCode() {
+        int result = 0;
+        for(TaggedEntry<byte[]> e:this)
+            result += e.tag.hashCode() ^ Arrays.hashCode(e.val);
+        return result;
+    }
+    @Override public boolean equals(Object o) {
+        if(!(o instanceof LogStructuredTagBytesEncoder)) return false;
+        LogStructuredTagBytesEncoder that = (LogStructuredTagBytesEncoder) o;
+        String[] tags = getTags();
+        if(tags.length != that.getTags().length) return false;
+        for(String tag:tags)
+            if(!Arrays.equals(getEntry(tag), that.getEntry(tag)))
+                return false;
+        return true;
+    }
+
+    @Override public String toString() {
+        return "[LogStructuredTagBytesEncoder: file=" + file + ", tags=" + index.size() + ", log_size=" + segment.contentSize() + ", dead_bytes=" + deadBytes() + "]";
+    }
+
+
+
+    //INTERNAL - callers hold the write lock
+
+    private static byte[] key(byte op, String tag) {
+        byte[] tag_bytes = tag.getBytes(StandardCharsets.UTF_8);
+        byte[] key = new byte[1 + tag_bytes.length];
+        key[0] = op;
+        System.arraycopy(tag_bytes, 0, key, 1, tag_bytes.length);
+        return key;
+    }
+
+    //a single set call, so that the record is written with a single gathered write wherever the storage supports it
+    private void append(byte op, String tag, byte[] value) {
+        long raw_start = segment.contentSize();
+        byte[] key = key(op, tag);
+        byte[] key_li = LIbae.generateLI(key.length);
+        byte[] value_li = LIbae.generateLI(value.length);
+        segment.set(raw_start, key_li, key, value_li, value);
+        long entry_start = raw_start + key_li.length + key.length + value_li.length;
+        LISearchResult sr = new LISearchResult(entry_start, entry_start + value.length, raw_start);
+        if(op == OP_PUT)
+            put(tag, sr);
+        else
+            remove(tag);
+    }
+
+    private void put(String tag, LISearchResult sr) {
+        LISearchResult old = index.put(tag, sr);
+        if(old != null) live_bytes -= old.total_length();
+        live_bytes += sr.total_length();
+    }
+    private void remove(String tag) {
+        LISearchResult old = index.remove(tag);
+        if(old != null) live_bytes -= old.total_length();
+    }
+
+    private void rebuildIndex() {
+        index = new HashMap<>();
+        live_bytes = 0;
+        long valid_end = replay(0, segment.contentSize());
+        if(valid_end < segment.contentSize()) //torn record at the end of the log
+            segment.delete(valid_end, segment.contentSize());
+    }
+
+    //applies the records in [start, end) to the index, returns the end of the last complete record
+    private long replay(long start, long end) {
+        long i = start;
+        while(i < end) {
+            long[] key_bounds = next_li_bounds(i, end);
+            if(key_bounds == null || key_bounds[1] == key_bounds[0]) break;
+            long[] value_bounds = next_li_bounds(key_bounds[1], end);
+            if(value_bounds == null) break;
+
+            byte[] key = segment.sub(key_bounds[0], key_bounds[1]);
+            String tag = new String(key, 1, key.length - 1, StandardCharsets.UTF_8);
+            if(key[0] == OP_PUT)
+                put(tag, new LISearchResult(value_bounds[0], value_bounds[1], i));
+            else
+                remove(tag);
+            i = value_bounds[1];
+        }
+        return i;
+    }
+
+    private long[] next_li_bounds(long i, long end) {
+        if(i >= end) return null;
+        long[] bounds = LIbae.get_next_li_bounds(segment.sub(i, Math.min(end, i + 9)), 0, i, end);
+        if(bounds == null || bounds[1] > end) return null;
+        return bounds;
+    }
+}
@@ -6,6 +6,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static jokrey.utilities.encoder.helper.ReflectionHelper.getWrap;
 
@@ -69,6 +70,7 @@ public class ObjectEncoderBeanish {
      * @return recreated object
      * throws IllegalArgumentException if any of the constraints above are not followed
      */
+    @SuppressWarnings("unchecked")
     public static <T> T deserialize(TagBasedEncoder encoder, Class<T> c) {
         T inst;
         try {
@@ -79,6 +81,11 @@ public class ObjectEncoderBeanish {
         }
 
         List<Method[]> getter_setter_pairs = findSuitableGetterSetterPairsForBean(c);
+        ArrayList<String> names = new ArrayList<>(getter_setter_pairs.size());
+        for(Method[] get_set:getter_setter_pairs)
+            names.add(get_set[1].getName().substring(3));//to remove prefix "set"
+        Map<String, Object> entries = encoder.getEntries(names); //one pass instead of one lookup per bean field
+
         for(Method[] get_set:getter_setter_pairs) {
             Method setter = get_set[1];
             String name = setter.getName().substring(3);//to remove prefix "set"
@@ -86,7 +93,8 @@ public class ObjectEncoderBeanish {
             try {
                 Class<?> type_class = Class.forName(type_class_name);
 
-                setter.invoke(inst, encoder.getEntryT(name, type_class));
+                Object raw = entries.get(name);
+                setter.invoke(inst, raw == null ? null : encoder.getTypeTransformer().detransform(raw, type_class));
             } catch (ClassNotFoundException e) {
                 throw new IllegalArgumentException("Object could not be deserialized, because the type for ("+name+") was not recognised within this system - "+e.getMessage());
             } catch (IllegalAccessException | InvocationTargetException e) {
@@ -4,6 +4,9 @@ import jokrey.utilities.encoder.tag_based.TagBasedEncoder;
 import jokrey.utilities.encoder.type_transformer.TypeToFromRawTransformer;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import static jokrey.utilities.encoder.helper.ReflectionHelper.getWrap;
 
@@ -88,19 +91,25 @@ public class ObjectFieldSerializer {
                         "could not be instantiated - missing no-args constructor? - " + e.getMessage());
             }
 
-            for (Field f : level0_field_supplier.fields(c)) {
+            List<Field> fields = level0_field_supplier.fields(c);
+            ArrayList<String> names = new ArrayList<>(fields.size());
+            for (Field f : fields)
+                names.add(f.getName());
+            Map<String, SF> entries = encoder.getEntries(names); //one pass instead of one lookup per field
+
+            for (Field f : fields) {
                 String name = f.getName();
                 String type_class_name = getWrap(f.getType()).getName();
                 try {
                     Class<?> type_class = Class.forName(type_class_name);
                     f.setAccessible(true);
                     if(raw_transformer.canDetransform(f.getType())) {
-                        Object o = encoder.getEntryT(name, type_class);
-                        if (o != null)  // newer version of the same class may not have that field
-                            f.set(inst, o);
+                        SF raw = entries.get(name);
+                        if (raw != null)  // newer version of the same class may not have that field
+                            f.set(inst, raw_transformer.detransform(raw, type_class));
                     } else {
                         TagBasedEncoder sub_decoder = encoder.getClass().newInstance();
-                        sub_decoder.readFromEncoded(encoder.getEntry(name));
+                        sub_decoder.readFromEncoded(entries.get(name));
                         f.set(inst, deserialize(sub_decoder, type_class, recursive_field_supplier, recursive_field_supplier));
                     }
                 } catch (ClassNotFoundException | InstantiationException e) {
@@ -3,18 +3,21 @@ package jokrey.utilities.encoder.tag_based.tests;
 import jokrey.utilities.debug_analysis_helper.AverageCallTimeMarker;
 import jokrey.utilities.encoder.as_union.AsUnionEncoder;
 import jokrey.utilities.encoder.as_union.Position;
+import jokrey.utilities.encoder.as_union.lb.bytes.BlockPosition;
 import jokrey.utilities.encoder.as_union.lb.bytes.LBLIbae;
 import jokrey.utilities.encoder.as_union.lb.bytes.LBLIbae_cache;
 import jokrey.utilities.encoder.as_union.li.bytes.LIbae;
 import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorage;
-import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Random;
 
 import static jokrey.utilities.encoder.as_union.li.bytes.LIbae.getIntFromByteArray;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author jokrey
@@ -76,16 +79,158 @@ public class AsUnionEncoder_Test {
             b.append(", ");
         }
     }
-    @Test @Ignore
+    @Test
     public void testLBlie_RAM() {
         LBLIbae lie = new LBLIbae(new ByteArrayStorage());
         genericTest(lie, true);
     }
-//    @Test
-//    public void testLBlieCACHE_RAM() {
-//        LBLIbae_cache lie = new LBLIbae_cache(new ByteArrayStorage());
-//        genericTest(lie, true);
-//    }
+    @Test
+    public void testLBlie_freeBlocksAndDefragment() {
+        ByteArrayStorage storage = new ByteArrayStorage();
+        LBLIbae lie = new LBLIbae(storage);
+        ArrayList<byte[]> expected = new ArrayList<>();
+        for(int i=0;i<60;i++) {
+            byte[] gen = randBytes((i%7) * 700);
+            expected.add(gen);
+            lie.encode(gen);
+        }
+        long sizeBefore = storage.contentSize();
+
+        ArrayList<byte[]> deleted = new ArrayList<>();
+        for(int i=expected.size()-1;i>=0;i-=2) {
+            lie.delete(lie.forIndex(i));
+            deleted.add(expected.remove(i));
+        }
+        assertEquals(sizeBefore, storage.contentSize());
+        assertTrue(lie.getFreeBlockCount() > 0);
+        for(byte[] d:deleted) { //reuses the freed blocks
+            byte[] gen = randBytes(d.length);
+            expected.add(gen);
+            lie.encode(gen);
+        }
+        assertEquals(sizeBefore, storage.contentSize());
+        assertArrayEquals(expected.toArray(), decodeAll(lie));
+
+        //the free block index is rebuilt at open
+        BlockPosition pos = lie.reset();
+        for(int i=0;pos.hasNext(storage);i++) {
+            if(i%3 == 0)
+                lie.delete(pos);
+            else
+                lie.skipEntry(pos);
+        }
+        for(int i=expected.size()-1;i>=0;i--)
+            if(i%3 == 0)
+                expected.remove(i);
+        int freeBlocks = lie.getFreeBlockCount();
+        lie = new LBLIbae(storage);
+        assertEquals(freeBlocks, lie.getFreeBlockCount());
+        assertArrayEquals(expected.toArray(), decodeAll(lie));
+
+        long usedBlocks = storage.contentSize() / lie.getBlockSize() - 1 - freeBlocks;
+        assertTrue(lie.defragment() > 0);
+        assertEquals(0, lie.getFreeBlockCount());
+        assertEquals((usedBlocks+1) * lie.getBlockSize(), storage.contentSize());
+        assertArrayEquals(expected.toArray(), decodeAll(lie));
+        assertArrayEquals(expected.toArray(), decodeAll(new LBLIbae(storage)));
+        assertEquals(0, lie.defragment()); //already contiguous
+
+        byte[] gen = randBytes(5000);
+        expected.add(gen);
+        lie.encode(gen);
+        assertArrayEquals(expected.toArray(), decodeAll(lie));
+    }
+    @Test
+    public void testLBlie_blockSizes() {
+        for(int blockSize:new int[] {LBLIbae.MIN_BLOCK_SIZE, 4096, LBLIbae.MAX_BLOCK_SIZE}) {
+            ByteArrayStorage storage = new ByteArrayStorage();
+            LBLIbae lie = new LBLIbae(storage, blockSize);
+            ArrayList<byte[]> expected = new ArrayList<>();
+            for(int size:new int[] {0, 1, blockSize - 10, blockSize - 9, blockSize * 3, 200000}) {
+                byte[] gen = randBytes(size);
+                expected.add(gen);
+                lie.encode(gen);
+            }
+            assertEquals(0, storage.contentSize() % blockSize);
+            assertArrayEquals(expected.toArray(), decodeAll(lie));
+
+            lie = new LBLIbae(storage, 1024); //persisted block size wins
+            assertEquals(blockSize, lie.getBlockSize());
+            assertArrayEquals(expected.toArray(), decodeAll(lie));
+            assertEquals(expected.get(4).length, lie.delete(lie.forIndex(4)));
+            expected.remove(4);
+            assertArrayEquals(expected.toArray(), decodeAll(lie));
+        }
+
+        //files written before the block size was persisted
+        ByteArrayStorage legacy = new ByteArrayStorage();
+        new LBLIbae(legacy, 1024).encode(new byte[] {1, 2, 3});
+        legacy.set(8, new byte[4]);
+        LBLIbae lie = new LBLIbae(legacy);
+        assertEquals(LBLIbae.LEGACY_BLOCK_SIZE, lie.getBlockSize());
+        assertArrayEquals(new byte[] {1, 2, 3}, lie.decode(lie.reset()));
+
+        for(int invalid:new int[] {256, 1000, 128 * 1024}) {
+            try {
+                new LBLIbae(new ByteArrayStorage(), invalid);
+                fail();
+            } catch (IllegalArgumentException ignored) {}
+        }
+    }
+    private static Object[] decodeAll(LBLIbae lie) {
+        ArrayList<byte[]> decoded = new ArrayList<>();
+        lie.iterator().forEachRemaining(decoded::add);
+        return decoded.toArray();
+    }
+    @Test
+    public void testLBlieCACHE_RAM() {
+        LBLIbae_cache lie = new LBLIbae_cache(new ByteArrayStorage());
+        genericTest(lie, true);
+    }
+    @Test
+    public void testLBlieCACHE_noHeaderReads() {
+        long[] bytesRead = {0};
+        ByteArrayStorage storage = new ByteArrayStorage() {
+            @Override public byte[] sub(long start, long end) {
+                bytesRead[0] += end - start;
+                return super.sub(start, end);
+            }
+            @Override public ByteArrayStorage copyInto(long start, byte[] b, int off, int len) {
+                bytesRead[0] += len;
+                return super.copyInto(start, b, off, len);
+            }
+        };
+        LBLIbae_cache lie = new LBLIbae_cache(storage, 512);
+        ArrayList<byte[]> expected = new ArrayList<>();
+        for(int i=0;i<50;i++) {
+            byte[] gen = randBytes((i%5) * 400);
+            expected.add(gen);
+            lie.encode(gen);
+        }
+        lie.delete(lie.forIndex(10));
+        expected.remove(10);
+        lie.encode(expected.get(0));
+        expected.add(expected.get(0));
+
+        bytesRead[0] = 0;
+        BlockPosition pos = lie.forIndex(3);
+        for(int i=3;i<expected.size();i++)
+            assertEquals(expected.get(i).length, lie.skipEntry(pos));
+        assertEquals(-1, lie.skipEntry(pos));
+        assertEquals(expected.get(7).length, lie.delete(lie.forIndex(7)));
+        expected.remove(7);
+        assertEquals(0, bytesRead[0]);
+
+        byte[] decoded = lie.decode(lie.forIndex(4));
+        assertArrayEquals(expected.get(4), decoded);
+        assertEquals((decoded.length / 502 + 1) * 512, bytesRead[0]); //only the data blocks
+
+        assertArrayEquals(expected.toArray(), decodeAll(lie));
+        assertArrayEquals(expected.toArray(), decodeAll(new LBLIbae(storage)));
+        lie.defragment();
+        assertArrayEquals(expected.toArray(), decodeAll(lie));
+        assertArrayEquals(expected.toArray(), decodeAll(new LBLIbae_cache(storage)));
+    }
 //    @Test
 //    public void testMDlie_RAM() {
 //        MD_LIbae lie = new MD_LIbae(new ByteArrayStorage());
@@ -0,0 +1,93 @@
+package jokrey.utilities.encoder.tag_based.tests;
+
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.LITagBloomFilteredEncoder;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.LITagBloomFilteredEncoderBytes;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.string.LITagStringEncoder;
+import jokrey.utilities.transparent_storage.bytes.file.FileStorage;
+import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorage;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jokrey
+ */
+public class BloomFilteredLITBE_Test {
+    @Test
+    public void simple_tag_system_test_ram_bytes() {
+        LITagBloomFilteredEncoderBytes filteredEncoder = new LITagBloomFilteredEncoderBytes(new LITagBytesEncoder());
+        standard_test(filteredEncoder);
+        TagSystemTestHelper.do_stream_test(filteredEncoder);
+    }
+    @Test
+    public void simple_tag_system_test_ram_string() {
+        standard_test(new LITagBloomFilteredEncoder<>(new LITagStringEncoder()));
+    }
+
+    @Test
+    public void simple_tag_system_test_file() throws IOException {
+        File f = new File(System.getProperty("user.home")+"/Desktop/litbe_bloom_filtered_file_storage_test.litbe");
+        try(
+                FileStorage storage = new FileStorage(f)
+        ) {
+            LITagBloomFilteredEncoderBytes filteredEncoder = new LITagBloomFilteredEncoderBytes(new LITagBytesEncoder(storage));
+            standard_test(filteredEncoder);
+            TagSystemTestHelper.do_stream_test(filteredEncoder);
+        }
+    }
+
+    @Test
+    public void filter_matches_li_stream_test() {
+        ByteArrayStorage storage = new ByteArrayStorage();
+        LITagBytesEncoder unfiltered = new LITagBytesEncoder(storage);
+        for(int i=0;i<500;i++)
+            unfiltered.addEntry_nocheck(String.valueOf(i), new byte[] {(byte) i});
+        LITagBloomFilteredEncoderBytes filteredEncoder = new LITagBloomFilteredEncoderBytes(new LITagBytesEncoder(storage)); //built on first lookup over existing entries
+
+        Random r = new Random(3);
+        for(int i=0;i<20000;i++) { //grows past the initial filter size (multiple rebuilds), deletes decrement the counting cells
+            String tag = String.valueOf(r.nextInt(8000));
+            switch(r.nextInt(4)) {
+                case 0:
+                    assertArrayEquals(unfiltered.getEntry(tag), filteredEncoder.deleteEntry(tag));
+                    break;
+                case 1:
+                    byte[] value = new byte[r.nextInt(10)];
+                    r.nextBytes(value);
+                    filteredEncoder.addEntry(tag, value);
+                    assertArrayEquals(value, unfiltered.getEntry(tag));
+                    break;
+                case 2:
+                    filteredEncoder.addEntry_nocheck("nocheck"+i, new byte[] {1});
+                    break;
+                default:
+                    assertEquals(unfiltered.exists(tag), filteredEncoder.exists(tag));
+                    assertEquals(unfiltered.length(tag), filteredEncoder.length(tag));
+            }
+        }
+        for(String tag:unfiltered.getTags())
+            assertArrayEquals(unfiltered.getEntry(tag), filteredEncoder.getEntry(tag));
+
+        //removal through the iterator is picked up on the next lookup
+        Iterator<?> iterator = filteredEncoder.iterator();
+        iterator.next();
+        iterator.remove();
+        for(String tag:unfiltered.getTags())
+            assertTrue(filteredEncoder.exists(tag));
+    }
+
+    private void standard_test(LITagBloomFilteredEncoder<?> filtered_encoder) {
+        TagSystemTestHelper.enter_values(filtered_encoder);
+        TagSystemTestHelper.do_tag_system_assertions_without_delete(filtered_encoder);
+        TagSystemTestHelper.do_tag_system_assertions_delete(filtered_encoder);
+        TagSystemTestHelper.basic_typed_system_test(filtered_encoder);
+
+        TagSystemTestHelper.read_encoded_test(filtered_encoder);
+    }
+}
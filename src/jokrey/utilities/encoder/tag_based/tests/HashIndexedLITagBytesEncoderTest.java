@@ -0,0 +1,107 @@
+package jokrey.utilities.encoder.tag_based.tests;
+
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.HashIndexedLITagBytesEncoder;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
+import jokrey.utilities.transparent_storage.bytes.file.FileStorage;
+import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorage;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jokrey
+ */
+public class HashIndexedLITagBytesEncoderTest {
+    private static final File data_file = new File(System.getProperty("user.home")+"/Desktop/hash_indexed_test.litbe");
+    private static final File index_file = new File(System.getProperty("user.home")+"/Desktop/hash_indexed_test.litbe.idx");
+
+    @Test
+    public void do_tag_system_test() throws Exception {
+        try(HashIndexedLITagBytesEncoder encoder = new HashIndexedLITagBytesEncoder(new FileStorage(data_file), new FileStorage(index_file))) {
+            encoder.clear();
+            TagSystemTestHelper.enter_values(encoder);
+            TagSystemTestHelper.do_tag_system_assertions_without_delete(encoder);
+        }
+        try(HashIndexedLITagBytesEncoder decoder = new HashIndexedLITagBytesEncoder(new FileStorage(data_file), new FileStorage(index_file))) {
+            TagSystemTestHelper.do_tag_system_assertions_without_delete(decoder);
+            TagSystemTestHelper.do_tag_system_assertions_delete(decoder);
+            TagSystemTestHelper.basic_typed_system_test(decoder);
+            TagSystemTestHelper.do_stream_test(decoder);
+            decoder.clear();
+            TagSystemTestHelper.read_encoded_test(decoder);
+        }
+    }
+
+    @Test
+    public void index_matches_li_stream_test() {
+        ByteArrayStorage data = new ByteArrayStorage();
+        ByteArrayStorage index = new ByteArrayStorage();
+        HashIndexedLITagBytesEncoder encoder = new HashIndexedLITagBytesEncoder(data, index);
+        HashMap<String, byte[]> expected = new HashMap<>();
+        Random r = new Random(12);
+        for(int i=0;i<5000;i++) { //grows the index multiple times, deletes shift the offsets of all later entries
+            String tag = String.valueOf(r.nextInt(1500));
+            if(r.nextInt(3) == 0) {
+                assertArrayEquals(expected.remove(tag), encoder.deleteEntry(tag));
+            } else {
+                byte[] value = new byte[r.nextInt(40)];
+                r.nextBytes(value);
+                assertEquals(expected.containsKey(tag), encoder.addEntry(tag, value));
+                expected.put(tag, value);
+            }
+        }
+        assertEquals(expected.size(), encoder.getIndexedCount());
+        for(int i=0;i<1500;i++)
+            assertArrayEquals(expected.get(String.valueOf(i)), encoder.getEntry(String.valueOf(i)));
+
+        LITagBytesEncoder plain = new LITagBytesEncoder(data);
+        for(String tag:expected.keySet())
+            assertArrayEquals(expected.get(tag), plain.getEntry(tag));
+
+        //reopened without rebuilding
+        byte[] index_before = index.getContent();
+        HashIndexedLITagBytesEncoder reopened = new HashIndexedLITagBytesEncoder(data, index);
+        assertArrayEquals(index_before, index.getContent());
+        for(String tag:expected.keySet())
+            assertArrayEquals(expected.get(tag), reopened.getEntry(tag));
+    }
+
+    @Test
+    public void staleness_test() {
+        ByteArrayStorage data = new ByteArrayStorage();
+        ByteArrayStorage index = new ByteArrayStorage();
+        HashIndexedLITagBytesEncoder encoder = new HashIndexedLITagBytesEncoder(data, index);
+        for(int i=0;i<100;i++)
+            encoder.addEntry_nocheck("tag"+i, new byte[] {(byte) i});
+
+        //data altered without the index (detected through the data size)
+        LITagBytesEncoder plain = new LITagBytesEncoder(data);
+        plain.deleteEntry_noReturn("tag3");
+        plain.addEntry_nocheck("new", new byte[] {1, 2, 3});
+        HashIndexedLITagBytesEncoder reopened = new HashIndexedLITagBytesEncoder(data, index);
+        assertNull(reopened.getEntry("tag3"));
+        assertArrayEquals(new byte[] {1, 2, 3}, reopened.getEntry("new"));
+        assertArrayEquals(new byte[] {99}, reopened.getEntry("tag99"));
+        assertEquals(100, reopened.getIndexedCount());
+
+        //update interrupted between data and index write (same data size, generation not synced)
+        byte[] generation = index.sub(0, 8);
+        generation[7]++;
+        index.set(0, generation);
+        reopened = new HashIndexedLITagBytesEncoder(data, index);
+        assertArrayEquals(new byte[] {50}, reopened.getEntry("tag50"));
+
+        //removal through the iterator - the index is rebuilt on the next search and agrees with the li stream again
+        Iterator<?> iterator = reopened.iterator();
+        iterator.next();
+        iterator.remove();
+        for(String tag:plain.getTags())
+            assertArrayEquals(plain.getEntry(tag), reopened.getEntry(tag));
+        assertEquals(plain.getTags().length, reopened.getIndexedCount());
+    }
+}
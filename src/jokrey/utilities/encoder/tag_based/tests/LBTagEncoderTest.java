@@ -3,8 +3,11 @@ package jokrey.utilities.encoder.tag_based.tests;
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.LBTagEncoder;
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
 import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorage;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
+
 /**
  * @author jokrey
  */
@@ -28,4 +31,18 @@ public class LBTagEncoderTest {
 
         TagSystemTestHelper.basic_typed_system_test(encoder);
     }
+
+    @Test
+    public void do_cached_tag_system_test() throws StorageSystemException {
+        ByteArrayStorage storage = new ByteArrayStorage();
+        LBTagEncoder encoder = new LBTagEncoder(storage, 512, true);
+        TagSystemTestHelper.enter_values(encoder);
+
+        LBTagEncoder decoder = new LBTagEncoder(storage, 512, true);
+        TagSystemTestHelper.do_tag_system_assertions_without_delete(decoder);
+        TagSystemTestHelper.do_tag_system_assertions_delete(decoder);
+        assertArrayEquals(decoder.getTags(), new LBTagEncoder(storage, 512, false).getTags());
+
+        TagSystemTestHelper.basic_typed_system_test(decoder);
+    }
 }
@@ -4,6 +4,11 @@ import jokrey.utilities.simple.data_structure.ExtendedIterator;
 import jokrey.utilities.simple.data_structure.pairs.Pair;
 import jokrey.utilities.debug_analysis_helper.TimeDiffMarker;
 import jokrey.utilities.encoder.tag_based.TagBasedEncoder;
+import jokrey.utilities.encoder.tag_based.TagBasedEncoderBytes;
+import jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.thread_safe.SynchronizingTagBasedEncoderBytes;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.LITagBloomFilteredEncoderBytes;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.LITagCachedEncoderBytes;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.HashIndexedLITagBytesEncoder;
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
 import jokrey.utilities.encoder.as_union.li.bytes.LIbae;
 import jokrey.utilities.encoder.examples.LITBE_DirectoryEncoder;
@@ -13,6 +18,9 @@ import org.junit.Test;
 
 import java.io.*;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -155,6 +163,69 @@ public class LITagBytesEncoderTest {
         fcb_for_enc.close();
     }
 
+    @Test
+    public void do_batch_entries_test() {
+        TagBasedEncoderBytes[] encoders = {
+                new LITagBytesEncoder(),
+                new LITagCachedEncoderBytes(new LITagBytesEncoder()),
+                new LITagBloomFilteredEncoderBytes(new LITagBytesEncoder()),
+                new HashIndexedLITagBytesEncoder()
+        };
+        for(TagBasedEncoderBytes encoder:encoders) {
+            LITagBytesEncoder reference = new LITagBytesEncoder();
+            for(int i=0;i<200;i++) {
+                encoder.addEntry_nocheck("t"+i, new byte[] {(byte) i, (byte) (i*3)});
+                reference.addEntry_nocheck("t"+i, new byte[] {(byte) i, (byte) (i*3)});
+            }
+
+            List<String> requested = Arrays.asList("t199", "t0", "t5", "missing", "t42", "t5", "t100");
+            Map<String, byte[]> entries = encoder.getEntries(requested);
+            assertEquals(5, entries.size());
+            for(String tag:requested)
+                assertArrayEquals(reference.getEntry(tag), entries.get(tag));
+
+            //t10 to t14 are adjacent and deleted in one go
+            List<String> to_delete = Arrays.asList("t12", "t10", "t11", "t14", "t13", "t150", "t5", "missing", "t199");
+            Map<String, byte[]> deleted = encoder.deleteEntries(to_delete);
+            for(String tag:to_delete)
+                assertArrayEquals(reference.deleteEntry(tag), deleted.get(tag));
+            assertArrayEquals(reference.getTags(), encoder.getTags());
+            for(String tag:reference.getTags())
+                assertArrayEquals(reference.getEntry(tag), encoder.getEntry(tag));
+            assertTrue(encoder.getEntries(Collections.emptyList()).isEmpty());
+            assertTrue(encoder.deleteEntries(Collections.singletonList("missing")).isEmpty());
+        }
+    }
+
+    @Test
+    public void do_snapshot_test() throws IOException, StorageSystemException {
+        LITagBytesEncoder encoder = new LITagBytesEncoder();
+        encoder.addEntry("1", new byte[] {1, 2, 3});
+        encoder.addEntry("2", new byte[] {4, 5});
+        TagBasedEncoderBytes snapshot = new SynchronizingTagBasedEncoderBytes(encoder).snapshot();
+        encoder.addEntry("3", new byte[] {6});
+        encoder.deleteEntry("1");
+        encoder.addEntry("2", new byte[] {7});
+
+        assertArrayEquals(new String[] {"1", "2"}, snapshot.getTags());
+        assertArrayEquals(new byte[] {1, 2, 3}, snapshot.getEntry("1"));
+        assertArrayEquals(new byte[] {4, 5}, snapshot.getEntry("2"));
+        assertArrayEquals(new byte[] {7}, encoder.getEntry("2"));
+        try {
+            snapshot.addEntry("4", new byte[] {8});
+            fail();
+        } catch (UnsupportedOperationException ignored) {}
+
+        FileStorage file_storage = new FileStorage(new File(System.getProperty("user.home") + "/Desktop/litbe_snapshot_test.txt"));
+        file_storage.clear();
+        LITagBytesEncoder file_encoder = new LITagBytesEncoder(file_storage);
+        file_encoder.addEntry("1", new byte[] {1, 2, 3});
+        TagBasedEncoderBytes file_snapshot = file_encoder.snapshot();
+        file_encoder.clear();
+        assertArrayEquals(new byte[] {1, 2, 3}, file_snapshot.getEntry("1"));
+        file_storage.close();
+    }
+
     @Test
     public void do_tag_system_test() throws StorageSystemException {
         //order, values and type don't matter
@@ -0,0 +1,129 @@
+package jokrey.utilities.encoder.tag_based.tests;
+
+import jokrey.utilities.debug_analysis_helper.ConcurrentPoolTester;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LogStructuredTagBytesEncoder;
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jokrey
+ */
+public class LogStructuredTagBytesEncoderTest {
+    private static final File log_file = new File(System.getProperty("user.home")+"/Desktop/log_structured_test.lstbe");
+
+    @Test
+    public void do_tag_system_test() throws IOException {
+        try(LogStructuredTagBytesEncoder encoder = new LogStructuredTagBytesEncoder(log_file)) {
+            encoder.clear();
+            TagSystemTestHelper.enter_values(encoder);
+            TagSystemTestHelper.do_tag_system_assertions_without_delete(encoder);
+        }
+        try(LogStructuredTagBytesEncoder decoder = new LogStructuredTagBytesEncoder(log_file)) { //index rebuilt from log
+            TagSystemTestHelper.do_tag_system_assertions_without_delete(decoder);
+            TagSystemTestHelper.do_tag_system_assertions_delete(decoder);
+            TagSystemTestHelper.basic_typed_system_test(decoder);
+            TagSystemTestHelper.do_stream_test(decoder);
+        }
+        try(LogStructuredTagBytesEncoder encoder = new LogStructuredTagBytesEncoder(log_file)) {
+            encoder.clear();
+            TagSystemTestHelper.read_encoded_test(encoder);
+        }
+    }
+
+    @Test
+    public void overwrite_delete_and_reopen_test() throws IOException {
+        try(LogStructuredTagBytesEncoder encoder = new LogStructuredTagBytesEncoder(log_file)) {
+            encoder.clear();
+            assertFalse(encoder.addEntry("a", new byte[] {1, 2, 3}));
+            assertTrue(encoder.addEntry("a", new byte[] {4, 5}));
+            encoder.addEntry("b", new byte[] {6});
+            assertTrue(encoder.deleteEntry_noReturn("b"));
+            assertFalse(encoder.deleteEntry_noReturn("b"));
+            assertArrayEquals(new byte[] {4, 5}, encoder.getEntry("a"));
+            assertNull(encoder.getEntry("b"));
+            assertTrue(encoder.deadBytes() > 0);
+        }
+
+        try(RandomAccessFile raf = new RandomAccessFile(log_file, "rw")) { //simulate a crash mid append: torn record at the end
+            raf.seek(raf.length());
+            raf.write(new byte[] {1, 100, 1, 'c'});
+        }
+
+        try(LogStructuredTagBytesEncoder encoder = new LogStructuredTagBytesEncoder(log_file)) {
+            assertArrayEquals(new byte[] {4, 5}, encoder.getEntry("a"));
+            assertFalse(encoder.exists("b"));
+            assertFalse(encoder.exists("c"));
+            assertEquals(1, encoder.getTags().length);
+            encoder.addEntry("c", new byte[] {7});
+            assertArrayEquals(new byte[] {7}, encoder.getEntry("c"));
+
+            long size_before = encoder.getRawStorageSystem().contentSize();
+            try { //stream delivers fewer bytes than promised: the record must not remain in the log
+                encoder.addEntry("d", new ByteArrayInputStream(new byte[] {8, 9}), 5);
+                fail();
+            } catch (StorageSystemException ignored) {}
+            assertEquals(size_before, encoder.getRawStorageSystem().contentSize());
+            assertFalse(encoder.exists("d"));
+        }
+        LogStructuredTagBytesEncoder encoder = new LogStructuredTagBytesEncoder(log_file);
+        assertFalse(encoder.exists("d"));
+        assertArrayEquals(new byte[] {7}, encoder.getEntry("c"));
+        encoder.close();
+        try { //must not reopen the log behind the closed encoder
+            encoder.compact();
+            fail();
+        } catch (StorageSystemException ignored) {}
+    }
+
+    @Test
+    public void compaction_with_concurrent_readers_and_writers_test() throws Throwable {
+        try(LogStructuredTagBytesEncoder encoder = new LogStructuredTagBytesEncoder(log_file)) {
+            encoder.clear();
+            for(int round=0;round<10;round++)
+                for(int i=0;i<100;i++)
+                    encoder.addEntry(String.valueOf(i), new byte[] {(byte) i, (byte) round});
+            for(int i=50;i<100;i++)
+                encoder.deleteEntry_noReturn(String.valueOf(i));
+            long log_size_before = encoder.getRawStorageSystem().contentSize();
+
+            ConcurrentPoolTester executor = new ConcurrentPoolTester(4);
+            for(int t=0;t<3;t++) {
+                executor.execute(() -> {
+                    for(int n=0;n<2000;n++) {
+                        int i = n % 50;
+                        byte[] val = encoder.getEntry(String.valueOf(i));
+                        assertNotNull(val);
+                        assertEquals((byte) i, val[0]);
+                    }
+                });
+            }
+            executor.execute(() -> {
+                for(int i=100;i<200;i++)
+                    encoder.addEntry(String.valueOf(i), new byte[] {(byte) i});
+            });
+            encoder.compact();
+            executor.waitForShutdownOrException();
+
+            assertEquals(150, encoder.getTags().length);
+            assertTrue(encoder.getRawStorageSystem().contentSize() < log_size_before);
+            for(int i=0;i<50;i++)
+                assertArrayEquals(new byte[] {(byte) i, 9}, encoder.getEntry(String.valueOf(i)));
+            for(int i=50;i<100;i++)
+                assertNull(encoder.getEntry(String.valueOf(i)));
+            for(int i=100;i<200;i++)
+                assertArrayEquals(new byte[] {(byte) i}, encoder.getEntry(String.valueOf(i)));
+        }
+
+        try(LogStructuredTagBytesEncoder encoder = new LogStructuredTagBytesEncoder(log_file)) {
+            assertEquals(150, encoder.getTags().length);
+            assertEquals(0, encoder.deadBytes());
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package jokrey.utilities.encoder.tag_based.tests;
 
+import jokrey.utilities.encoder.tag_based.TagBasedEncoder;
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.LITagCachedEncoder;
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.LITagCachedEncoderBytes;
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
@@ -14,6 +15,10 @@ import org.junit.runners.MethodSorters;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.*;
 
 /**
  * @author jokrey
@@ -62,6 +67,68 @@ public class SearchCachedLITBE_Test {
         }
     }
 
+    @Test
+    public void a5_mixed_add_delete_keeps_cache_test() {
+        ByteArrayStorage storage = new ByteArrayStorage();
+        LITagBytesEncoder uncached = new LITagBytesEncoder(storage);
+        for(int i=0;i<300;i++)
+            uncached.addEntry_nocheck(String.valueOf(i), new byte[] {(byte) i});
+        LITagCachedEncoderBytes cachedEncoder = new LITagCachedEncoderBytes(new LITagBytesEncoder(storage)); //starts with an empty cache over existing entries
+
+        Random r = new Random(42);
+        for(int i=0;i<20000;i++) { //deletes and overwrites (delete + add), enough to trigger compaction multiple times
+            String tag = String.valueOf(r.nextInt(600));
+            switch(r.nextInt(3)) {
+                case 0:
+                    assertArrayEquals(uncached.getEntry(tag), cachedEncoder.deleteEntry(tag));
+                    break;
+                case 1:
+                    byte[] value = new byte[r.nextInt(20)];
+                    r.nextBytes(value);
+                    cachedEncoder.addEntry(tag, value);
+                    assertArrayEquals(value, uncached.getEntry(tag));
+                    break;
+                default:
+                    assertArrayEquals(uncached.getEntry(tag), cachedEncoder.getEntry(tag));
+            }
+        }
+        assertArrayEquals(uncached.getTags(), cachedEncoder.getTags());
+        for(String tag:uncached.getTags())
+            assertArrayEquals(uncached.getEntry(tag), cachedEncoder.getEntry(tag));
+    }
+
+    @Test
+    public void a6_sorted_prefix_and_range_test() {
+        ByteArrayStorage storage = new ByteArrayStorage();
+        LITagBytesEncoder uncached = new LITagBytesEncoder(storage); //uses the default implementations
+        LITagCachedEncoderBytes cachedEncoder = new LITagCachedEncoderBytes(new LITagBytesEncoder(storage));
+        Random r = new Random(7);
+        for(int i=0;i<2000;i++) {
+            String tag = "dir"+r.nextInt(5)+"/sub"+r.nextInt(5)+"/file"+r.nextInt(20);
+            if(r.nextInt(4) == 0)
+                cachedEncoder.deleteEntry_noReturn(tag);
+            else
+                cachedEncoder.addEntry(tag, new byte[] {(byte) i});
+        }
+
+        for(String prefix:new String[] {"", "dir", "dir1", "dir1/", "dir2/sub3/", "dir4/sub4/file1", "x"})
+            assertArrayEquals(uncached.getTags(prefix), cachedEncoder.getTags(prefix));
+        assertArrayEquals(uncached.getTags("dir1/sub2", "dir3"), cachedEncoder.getTags("dir1/sub2", "dir3"));
+        assertArrayEquals(new String[0], cachedEncoder.getTags("dir3", "dir1"));
+
+        String[] expected = uncached.getTags("dir2/", "dir2/sub3");
+        Iterator<TagBasedEncoder.TaggedEntry<byte[]>> iterator = cachedEncoder.iterator("dir2/", "dir2/sub3");
+        for(String tag:expected) {
+            TagBasedEncoder.TaggedEntry<byte[]> entry = iterator.next();
+            assertEquals(tag, entry.tag);
+            assertArrayEquals(uncached.getEntry(tag), entry.val);
+            iterator.remove();
+        }
+        assertFalse(iterator.hasNext());
+        assertArrayEquals(new String[0], cachedEncoder.getTags("dir2/", "dir2/sub3"));
+        assertArrayEquals(uncached.getTags("dir2"), cachedEncoder.getTags("dir2"));
+    }
+
     private void standard_test(LITagCachedEncoder<?> cached_encoder) {
         TagSystemTestHelper.enter_values(cached_encoder);
         TagSystemTestHelper.do_tag_system_assertions_without_delete(cached_encoder);
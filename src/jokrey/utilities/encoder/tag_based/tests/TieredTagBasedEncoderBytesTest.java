@@ -0,0 +1,74 @@
+package jokrey.utilities.encoder.tag_based.tests;
+
+import jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.tiered.TieredTagBasedEncoderBytes;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
+import jokrey.utilities.transparent_storage.bytes.file.FileStorage;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author jokrey
+ */
+public class TieredTagBasedEncoderBytesTest {
+    private static final File cold_file = new File(System.getProperty("user.home")+"/Desktop/tiered_cold_test.litbe");
+
+    @Test
+    public void do_tag_system_test() throws Exception {
+        try(TieredTagBasedEncoderBytes encoder = new TieredTagBasedEncoderBytes(new LITagBytesEncoder(new FileStorage(cold_file)), 1 << 20)) {
+            encoder.clear();
+            TagSystemTestHelper.enter_values(encoder);
+            TagSystemTestHelper.do_tag_system_assertions_without_delete(encoder);
+        }
+        try(TieredTagBasedEncoderBytes decoder = new TieredTagBasedEncoderBytes(new LITagBytesEncoder(new FileStorage(cold_file)), 1 << 20)) { //flushed on close
+            TagSystemTestHelper.do_tag_system_assertions_without_delete(decoder);
+            TagSystemTestHelper.do_tag_system_assertions_delete(decoder);
+            TagSystemTestHelper.basic_typed_system_test(decoder);
+            TagSystemTestHelper.do_stream_test(decoder);
+            decoder.clear();
+            TagSystemTestHelper.read_encoded_test(decoder);
+        }
+    }
+
+    @Test
+    public void promotion_demotion_and_metrics_test() throws Exception {
+        try(TieredTagBasedEncoderBytes encoder = new TieredTagBasedEncoderBytes(new LITagBytesEncoder(), new LITagBytesEncoder(new FileStorage(cold_file)), 500, 100, 2)) {
+            encoder.clear();
+            for(int i=0;i<50;i++)
+                encoder.addEntry(String.valueOf(i), new byte[] {(byte) i, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19});
+            assertTrue(encoder.hotBytes() <= 500);
+            assertTrue(encoder.demotions() > 0);
+            assertTrue(encoder.isHot("49")); //most recently added
+            assertFalse(encoder.isHot("0")); //demoted to stay within budget
+            encoder.addEntry("large", new byte[101]);
+            assertFalse(encoder.isHot("large"));
+            assertEquals(51, encoder.getTags().length);
+
+            assertEquals(0, encoder.getEntry("0")[0]);
+            assertFalse(encoder.isHot("0"));
+            assertEquals(0, encoder.getEntry("0")[0]); //second read reaches the threshold
+            assertTrue(encoder.isHot("0"));
+            assertEquals(1, encoder.promotions());
+            for(int n=0;n<10;n++)
+                assertEquals(0, encoder.getEntry("0")[0]);
+            assertEquals(2, encoder.coldHits());
+            assertEquals(10, encoder.hotHits());
+            assertNull(encoder.getEntry("does not exist"));
+            assertEquals(1, encoder.misses());
+            assertEquals(10 / 13d, encoder.hotHitRatio(), 0.0001);
+
+            assertTrue(encoder.deleteEntry_noReturn("0")); //clean hot entry - deleted from both tiers
+            assertTrue(encoder.deleteEntry_noReturn("49")); //dirty hot entry
+            assertFalse(encoder.exists("0"));
+            assertEquals(49, encoder.getTags().length);
+        }
+        LITagBytesEncoder cold = new LITagBytesEncoder(new FileStorage(cold_file));
+        assertEquals(49, cold.getTags().length);
+        for(int i=1;i<49;i++)
+            assertEquals((byte) i, cold.getEntry(String.valueOf(i))[0]);
+        assertNull(cold.getEntry("0"));
+        cold.getRawStorageSystem().close();
+    }
+}
@@ -3,12 +3,16 @@ package jokrey.utilities.encoder.tag_based.tests.performance;
 import jokrey.utilities.date_time.ExactDateTime;
 import jokrey.utilities.debug_analysis_helper.AverageCallTimeMarker;
 import jokrey.utilities.debug_analysis_helper.TimeDiffMarker;
+import jokrey.utilities.encoder.as_union.li.LIPosition;
+import jokrey.utilities.encoder.as_union.li.bytes.LIbae;
 import jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.cached.CachedTagBasedEncoderBytes;
 import jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.remote.RemoteEncoderBytes;
 import jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.remote.RemoteEncoderServer;
 import jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.remote.authenticated.AuthenticatedRemoteEncoderBytes;
 import jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.remote.authenticated.AuthenticatedRemoteEncoderServer;
 import jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.thread_safe.SynchronizingTagBasedEncoder;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.LBTagEncoder;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.LITagBloomFilteredEncoder;
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.LITagCachedEncoder;
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.remote.encoder.LIRemoteEncoderServer;
@@ -17,11 +21,15 @@ import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator
 import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.string.LITagStringEncoder;
 import jokrey.utilities.debug_analysis_helper.ConcurrentPoolTester;
 import jokrey.utilities.encoder.tag_based.tests.AuthenticatedRemoteEncoderTest;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+import jokrey.utilities.transparent_storage.bytes.file.FileChannelStorage;
 import jokrey.utilities.transparent_storage.bytes.file.FileStorage;
 import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorage;
 import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorageLegacy;
 import jokrey.utilities.transparent_storage.bytes.remote.RemoteStorage;
 import jokrey.utilities.transparent_storage.bytes.remote.server.RemoteStorageServer;
+import jokrey.utilities.transparent_storage.bytes.wrapper.CachingBytesStorage;
+import jokrey.utilities.transparent_storage.bytes.wrapper.PieceTableStorage;
 import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
@@ -31,6 +39,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
@@ -108,6 +117,155 @@ public class PerformanceTests {
         }
     }
 
+    @Test
+    public void x3_litbe_fileStorage_vs_fileChannelStorage_concurrent_reads() throws Throwable {
+        File f = new File(System.getProperty("user.home")+"/Desktop/litbe_concurrent_read_perf_test.litbe");
+        int[] thread_counts = {1, 2, 4, 8};
+        for(int threads : thread_counts) {
+            try(FileStorage storage = new FileStorage(f)) {
+                run_concurrent_read_test("LITagBytesEncoder | FILE storage | "+threads+" reader threads", storage, threads);
+            }
+            try(FileChannelStorage storage = new FileChannelStorage(f)) {
+                run_concurrent_read_test("LITagBytesEncoder | FILE CHANNEL storage | "+threads+" reader threads", storage, threads);
+            }
+        }
+    }
+    private static void run_concurrent_read_test(String description, TransparentBytesStorage storage, int threads) throws Throwable {
+        int tag_count = 250;
+        int reads_per_thread = 1000;
+        LITagBytesEncoder litbe = new LITagBytesEncoder(storage);
+        litbe.clear();
+        byte[] value = GenericPerformanceTest.generate_utf8_conform_byte_array(1000);
+        for(int i=0;i<tag_count;i++)
+            litbe.addEntry_nocheck(String.valueOf(i), value);
+
+        long start = System.nanoTime();
+        ConcurrentPoolTester executor = new ConcurrentPoolTester(threads);
+        for(int t=0;t<threads;t++) {
+            executor.execute(() -> {
+                for(int i=0;i<reads_per_thread;i++)
+                    if(litbe.getEntry(String.valueOf(ThreadLocalRandom.current().nextInt(tag_count))) == null)
+                        throw new IllegalStateException("read failed");
+            });
+        }
+        executor.waitForShutdownOrException();
+        long took_ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+        String result = description+" - "+(threads*reads_per_thread)+" reads took "+took_ms+"ms ("+(threads*reads_per_thread*1000L/took_ms)+" reads/s)";
+        System.out.println(result);
+        if(result_writer!=null)
+            result_writer.append(result).append("\n").flush();
+    }
+
+    @Test
+    public void x3_litbe_delete_heavy_pieceTable_vs_byteArray_vs_file() throws Exception {
+        File f = new File(System.getProperty("user.home")+"/Desktop/litbe_delete_heavy_perf_test.litbe");
+        File f_pt = new File(System.getProperty("user.home")+"/Desktop/litbe_delete_heavy_perf_test_piece_table.litbe");
+        run_delete_heavy_test("LITagBytesEncoder | RAM storage", new ByteArrayStorage());
+        try(FileStorage storage = new FileStorage(f)) {
+            run_delete_heavy_test("LITagBytesEncoder | FILE storage", storage);
+        }
+        try(PieceTableStorage storage = new PieceTableStorage(new ByteArrayStorage())) {
+            run_delete_heavy_test("LITagBytesEncoder | PIECE TABLE over RAM storage", storage);
+        }
+        try(PieceTableStorage storage = new PieceTableStorage(new FileStorage(f_pt))) {
+            run_delete_heavy_test("LITagBytesEncoder | PIECE TABLE over FILE storage", storage);
+            long start = System.nanoTime();
+            storage.compact();
+            String result = "LITagBytesEncoder | PIECE TABLE over FILE storage - compact took "+((System.nanoTime() - start) / 1000000)+"ms";
+            System.out.println(result);
+            if(result_writer!=null)
+                result_writer.append(result).append("\n").flush();
+        }
+    }
+    //replaces (i.e. deletes and re-adds) tags near the front of a large encoder - every replace has to move (almost) all bytes in non piece table storages
+    private static void run_delete_heavy_test(String description, TransparentBytesStorage storage) throws IOException {
+        int tag_count = 2000;
+        int replace_count = 2000;
+        LITagBytesEncoder litbe = new LITagBytesEncoder(storage);
+        litbe.clear();
+        byte[] value = GenericPerformanceTest.generate_utf8_conform_byte_array(2000);
+        for(int i=0;i<tag_count;i++)
+            litbe.addEntry_nocheck(String.valueOf(i), value);
+
+        long start = System.nanoTime();
+        for(int i=0;i<replace_count;i++) {
+            String tag = String.valueOf(i % 20);
+            litbe.deleteEntry_noReturn(tag);
+            litbe.addEntry_nocheck(tag, value);
+        }
+        long took_ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+        if(litbe.getEntry("1999") == null)
+            throw new IllegalStateException("read failed");
+
+        String result = description+" - "+replace_count+" replaces in "+storage.contentSize()+" bytes took "+took_ms+"ms";
+        System.out.println(result);
+        if(result_writer!=null)
+            result_writer.append(result).append("\n").flush();
+    }
+
+    @Test
+    public void x3_litbe_fileStorage_vs_cached_fileStorage_scans() throws Exception {
+        File f = new File(System.getProperty("user.home")+"/Desktop/litbe_cached_scan_perf_test.litbe");
+        try(FileStorage storage = new FileStorage(f)) {
+            run_scan_test("LITagBytesEncoder | FILE storage", storage);
+        }
+        try(CachingBytesStorage storage = new CachingBytesStorage(new FileStorage(f))) {
+            run_scan_test("LITagBytesEncoder | CACHED FILE storage", storage);
+            String result = "LITagBytesEncoder | CACHED FILE storage - page hits="+storage.hitCount()+", misses="+storage.missCount();
+            System.out.println(result);
+            if(result_writer!=null)
+                result_writer.append(result).append("\n").flush();
+        }
+    }
+    //every getEntry is a linear search, i.e. a sequential scan over the length indicators of all preceding entries
+    private static void run_scan_test(String description, TransparentBytesStorage storage) throws IOException {
+        int tag_count = 1000;
+        int reads = 1000;
+        LITagBytesEncoder litbe = new LITagBytesEncoder(storage);
+        litbe.clear();
+        byte[] value = GenericPerformanceTest.generate_utf8_conform_byte_array(100);
+        for(int i=0;i<tag_count;i++)
+            litbe.addEntry_nocheck(String.valueOf(i), value);
+
+        long start = System.nanoTime();
+        for(int i=0;i<reads;i++)
+            if(litbe.getEntry(String.valueOf(ThreadLocalRandom.current().nextInt(tag_count))) == null)
+                throw new IllegalStateException("read failed");
+        long took_ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+        String result = description+" - "+reads+" searches over "+tag_count+" entries took "+took_ms+"ms";
+        System.out.println(result);
+        if(result_writer!=null)
+            result_writer.append(result).append("\n").flush();
+    }
+
+    @Test
+    public void x3_litbe_fileStorage_full_scan_read_ahead() throws Exception {
+        File f = new File(System.getProperty("user.home")+"/Desktop/litbe_read_ahead_scan_perf_test.litbe");
+        try(FileStorage storage = new FileStorage(f)) {
+            LITagBytesEncoder litbe = new LITagBytesEncoder(storage);
+            litbe.clear();
+            byte[] value = GenericPerformanceTest.generate_utf8_conform_byte_array(200);
+            for(int i=0;i<20000;i++)
+                litbe.addEntry_nocheck(String.valueOf(i), value);
+
+            LIbae lie = new LIbae(storage);
+            for(boolean read_ahead : new boolean[] {false, true}) {
+                long start = System.nanoTime();
+                int count = 0;
+                LIPosition pos = read_ahead ? lie.scan() : lie.reset();
+                while(lie.decode(pos) != null && lie.skipEntry(pos) != -1)
+                    count++;
+                long took_ms = Math.max(1, (System.nanoTime() - start) / 1000000);
+                String result = "LIbae | FILE storage | full scan over "+count+" entries("+storage.contentSize()+" bytes) "+(read_ahead?"WITH":"WITHOUT")+" read ahead took "+took_ms+"ms";
+                System.out.println(result);
+                if(result_writer!=null)
+                    result_writer.append(result).append("\n").flush();
+            }
+        }
+    }
+
     @Test
     public void x6_litbe_remoteStorage_ram() throws IOException {
         int port = getNextPort();
@@ -275,6 +433,13 @@ public class PerformanceTests {
         GenericPerformanceTest.run_standard_test_short("LITagCachedEncoder | LIPositionCached | FILE storage", PerformanceTests::writeResults, new LITagCachedEncoder<>(new LITagBytesEncoder(new FileStorage(f))));
     }
 
+    @Test
+    public void x5_litbe_bloomFiltered_fileStorage_short() throws FileNotFoundException {
+        //checked adds of new tags and other misses do not scan the file
+        File f = new File(System.getProperty("user.home")+"/Desktop/litbe_bloomfiltered_file_storage_perf_test.litbe");
+        GenericPerformanceTest.run_standard_test_short("LITagBloomFilteredEncoder | FILE storage", PerformanceTests::writeResults, new LITagBloomFilteredEncoder<>(new LITagBytesEncoder(new FileStorage(f))));
+    }
+
     @Test
     public void x6_litbe_liPositionCached_remoteStorage_ram_short() throws IOException {
         int port = getNextPort();
@@ -325,6 +490,19 @@ public class PerformanceTests {
     }
 
 
+    @Test
+    public void x7_lbtbe_fileStorage_blockSizes() throws IOException {
+        //small entries waste most of a large block, large entries need fewer pointer jumps (and reads) with large blocks
+        for(int block_size:new int[] {512, 1024, 4096, 16 * 1024, 64 * 1024}) {
+            File f = new File(System.getProperty("user.home")+"/Desktop/lbtbe_block_size_"+block_size+"_perf_test.lbtbe");
+            try(FileStorage storage = new FileStorage(f)) {
+                storage.clear();
+                GenericPerformanceTest.run_standard_test_short("LBTagEncoder | FILE storage | block size "+block_size, PerformanceTests::writeResults, new LBTagEncoder(storage, block_size));
+            }
+        }
+    }
+
+
     private static void writeResults(String introduction, AverageCallTimeMarker.Call_Count_Average_Min_Max[] combined_res) {
         if(result_writer!=null) {
             try {
@@ -173,6 +173,9 @@ public interface TupleTagBasedEncoderBytes extends TupleTagBasedEncoder<byte[]>
             @Override public byte[] getEncodedBytes() {
                 throw new UnsupportedOperationException("getEncodedBytes not supported for tuple encoder");
             }
+            @Override public TagBasedEncoderBytes snapshot() {
+                throw new UnsupportedOperationException("snapshot not supported for tuple encoder");
+            }
             @Override public void readFromEncodedBytes(byte[] encoded_bytes) {
                 throw new UnsupportedOperationException("readFromEncodedBytes not supported for tuple encoder");
             }
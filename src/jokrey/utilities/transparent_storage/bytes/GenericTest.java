@@ -1,20 +1,47 @@
 package jokrey.utilities.transparent_storage.bytes;
 
+import jokrey.utilities.bitsandbytes.BitHelper;
+import jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder;
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.async.AsyncFileStorage;
+import jokrey.utilities.transparent_storage.bytes.async.BlockingBytesStorage;
+import jokrey.utilities.transparent_storage.bytes.block.FixedBlockBytesStorage;
+import jokrey.utilities.transparent_storage.bytes.file.FileChannelStorage;
 import jokrey.utilities.transparent_storage.bytes.file.FileStorage;
+import jokrey.utilities.transparent_storage.bytes.file.JournaledFileStorage;
+import jokrey.utilities.transparent_storage.bytes.file.MappedFileStorage;
+import jokrey.utilities.transparent_storage.bytes.file.StripedFileStorage;
 import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorage;
 import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorageLegacy;
+import jokrey.utilities.transparent_storage.bytes.non_persistent.OffHeapStorage;
 import jokrey.utilities.transparent_storage.bytes.remote.RemoteStorage;
 import jokrey.utilities.transparent_storage.bytes.remote.server.RemoteStorageServer;
+import jokrey.utilities.transparent_storage.bytes.wrapper.CachingBytesStorage;
+import jokrey.utilities.transparent_storage.bytes.wrapper.ChecksummedStorage;
+import jokrey.utilities.transparent_storage.bytes.wrapper.CompressedBlockStorage;
+import jokrey.utilities.transparent_storage.bytes.wrapper.PieceTableStorage;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.Deflater;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author jokrey
@@ -26,11 +53,121 @@ public class GenericTest {
         insertTest(new ByteArrayStorage());
     }
     @Test
+    public void byteArrayStorage_snapshotTest() {
+        ByteArrayStorage storage = new ByteArrayStorage();
+        storage.append(new byte[] {1,2,3,4,5});
+        ByteArrayStorage snapshot = storage.snapshot();
+        storage.append(new byte[] {6,7}); //append past snapshot - no copy required
+        assertArrayEquals(new byte[] {1,2,3,4,5}, snapshot.getContent());
+        storage.set(1, new byte[] {9,9}); //overwrite within snapshot - copy on write
+        assertArrayEquals(new byte[] {1,2,3,4,5}, snapshot.getContent());
+        assertArrayEquals(new byte[] {1,9,9,4,5,6,7}, storage.getContent());
+        ByteArrayStorage second = storage.snapshot();
+        storage.delete(0, 2);
+        storage.insert(0, new byte[] {8});
+        assertArrayEquals(new byte[] {1,2,3,4,5}, snapshot.getContent());
+        assertArrayEquals(new byte[] {1,9,9,4,5,6,7}, second.getContent());
+        assertArrayEquals(new byte[] {8,9,4,5,6,7}, storage.getContent());
+        assertTrue(snapshot.isReadOnly());
+        try {
+            snapshot.append(new byte[] {1});
+            fail();
+        } catch (UnsupportedOperationException ignored) {}
+    }
+    @Test
     public void byteArrayStorageLegacy_Test() {
         test(new ByteArrayStorageLegacy());
 //        insertTest(new ByteArrayStorageLegacy()); //UNSUPPORTED
     }
     @Test
+    public void offHeapStorage_Test() {
+        try(OffHeapStorage storage = new OffHeapStorage(4096)) {
+            test(storage);
+            insertTest(storage);
+        }
+        try(OffHeapStorage storage = new OffHeapStorage(16)) { //bytes past the end of kept chunks must not reappear when growing again
+            byte[] ones = new byte[40];
+            Arrays.fill(ones, (byte) 1);
+            storage.setContent(ones);
+            storage.delete(20, 40);
+            storage.set(39, (byte) 2);
+            byte[] expected = new byte[40];
+            Arrays.fill(expected, 0, 20, (byte) 1);
+            expected[39] = 2;
+            assertArrayEquals(expected, storage.getContent());
+        }
+    }
+    @Test
+    public void pieceTableStorage_Test() throws Exception {
+        try(PieceTableStorage storage = new PieceTableStorage(new ByteArrayStorage())) {
+            test(storage);
+            insertTest(storage);
+        }
+    }
+    @Test
+    public void pieceTableStorage_compactTest() throws Exception {
+        Random r = new Random(1337);
+        byte[] initial = new byte[5000];
+        r.nextBytes(initial);
+        ByteArrayStorage original = new ByteArrayStorage(initial.clone());
+        ByteArrayStorage reference = new ByteArrayStorage(initial.clone());
+        PieceTableStorage storage = new PieceTableStorage(original);
+        for(int i=0;i<2000;i++) {
+            long size = reference.contentSize();
+            int op = r.nextInt(3);
+            if(op == 0 && size > 0) {
+                long start = r.nextInt((int) size);
+                long end = start + 1 + r.nextInt((int) Math.min(100, size - start));
+                reference.delete(start, end);
+                storage.delete(start, end);
+            } else if(op == 1) {
+                byte[] val = new byte[r.nextInt(100)];
+                r.nextBytes(val);
+                long at = r.nextInt((int) size + 1);
+                reference.insert(at, val);
+                storage.insert(at, val);
+            } else {
+                byte[] val = new byte[1 + r.nextInt(100)];
+                r.nextBytes(val);
+                long at = r.nextInt((int) size + 1);
+                reference.set(at, val);
+                storage.set(at, val);
+            }
+            if(i % 250 == 0)
+                storage.compact();
+            assertEquals(reference.contentSize(), storage.contentSize());
+        }
+        assertArrayEquals(reference.getContent(), storage.getContent());
+        storage.compact();
+        assertEquals(1, storage.pieceCount());
+        assertArrayEquals(reference.getContent(), original.getContent());
+    }
+    @Test
+    public void cachingBytesStorage_writeThrough_Test() throws Exception {
+        try(CachingBytesStorage storage = new CachingBytesStorage(new FileStorage(new File(System.getProperty("user.home")+"/Desktop/storageTestCaching.nothing")), 64, 64*8, false)) {
+            test(storage);
+            insertTest(storage);
+        }
+    }
+    @Test
+    public void cachingBytesStorage_writeBack_Test() throws Exception {
+        ByteArrayStorage delegate = new ByteArrayStorage();
+        try(CachingBytesStorage storage = new CachingBytesStorage(delegate, 64, 64*8, true)) {
+            test(storage);
+            insertTest(storage);
+
+            storage.clear();
+            byte[] written = new byte[64*20 + 13];
+            new Random(7).nextBytes(written);
+            storage.append(written); //more than fit into the cache, so dirty pages are evicted (and written back) along the way
+            storage.set(5, new byte[] {1, 2, 3});
+            System.arraycopy(new byte[] {1, 2, 3}, 0, written, 5, 3);
+            assertArrayEquals(written, storage.getContent());
+            storage.flush();
+            assertArrayEquals(written, delegate.getContent());
+        }
+    }
+    @Test
     public void fileStorage_Test() throws IOException {
         try(FileStorage storage = new FileStorage(new File(System.getProperty("user.home")+"/Desktop/storageTestRemoteServer.nothing"))) {
             test(storage);
@@ -38,6 +175,310 @@ public class GenericTest {
         }
     }
     @Test
+    public void mappedFileStorage_Test() throws IOException {
+        try(MappedFileStorage storage = new MappedFileStorage(new File(System.getProperty("user.home")+"/Desktop/storageTestMapped.nothing"), 4096)) {
+            test(storage);
+            insertTest(storage);
+        }
+    }
+    @Test
+    public void mappedFileStorage_appendTest() throws IOException {
+        File f = new File(System.getProperty("user.home")+"/Desktop/storageTestMapped.nothing");
+        try(MappedFileStorage storage = new MappedFileStorage(f, 1 << 20)) {
+            storage.clear();
+            for(int i=0;i<200_000;i++) //used to remap on every append, exhausting the mappings of the process
+                storage.append(BitHelper.getBytes((long) i));
+            assertEquals(200_000 * 8, storage.contentSize());
+
+            storage.delete(100, 200); //stale bytes past the end must not reappear when growing again
+            storage.set(storage.contentSize() + 99, (byte) 1);
+            assertArrayEquals(new byte[99], storage.sub(200_000 * 8 - 100, 200_000 * 8 - 1));
+            storage.flush();
+            assertEquals(200_000 * 8, f.length());
+            storage.append(new byte[] {2});
+        }
+        assertEquals(200_000 * 8 + 1, f.length());
+        try(MappedFileStorage storage = new MappedFileStorage(f, 1 << 20)) {
+            assertEquals(200_000 * 8 + 1, storage.contentSize());
+            assertEquals(5, BitHelper.getInt64From(storage.sub(5 * 8, 6 * 8)));
+            assertEquals(2, storage.getByte(200_000 * 8));
+        }
+    }
+    @Test
+    public void fileChannelStorage_Test() throws IOException {
+        try(FileChannelStorage storage = new FileChannelStorage(new File(System.getProperty("user.home")+"/Desktop/storageTestChannel.nothing"))) {
+            test(storage);
+            insertTest(storage);
+        }
+    }
+    @Test
+    public void asyncFileStorage_Test() throws Exception {
+        try(BlockingBytesStorage storage = new BlockingBytesStorage(new AsyncFileStorage(new File(System.getProperty("user.home")+"/Desktop/storageTestAsync.nothing")))) {
+            test(storage);
+            insertTest(storage);
+        }
+    }
+    @Test
+    public void asyncFileStorage_batchTest() throws Exception {
+        try(AsyncFileStorage storage = new AsyncFileStorage(new File(System.getProperty("user.home")+"/Desktop/storageTestAsync.nothing"), 64, 16, null)) {
+            storage.clear();
+            Random r = new Random(1337);
+            ByteArrayStorage reference = new ByteArrayStorage();
+            ArrayList<CompletableFuture<?>> submitted = new ArrayList<>();
+            for(int i=0;i<500;i++) { //nothing waits, so requests queue up and are batched
+                byte[] val = new byte[r.nextInt(50)];
+                r.nextBytes(val);
+                long at = reference.contentSize();
+                reference.append(val);
+                submitted.add(storage.append(val).thenAccept(pos -> assertEquals(at, (long) pos)));
+                if(i % 50 == 49) {
+                    long start = r.nextInt((int) reference.contentSize() - 10);
+                    byte[] expected = reference.sub(start, start + 10);
+                    submitted.add(storage.sub(start, start + 10).thenAccept(sub -> assertArrayEquals(expected, sub)));
+                }
+                if(i % 100 == 99) {
+                    long start = r.nextInt((int) reference.contentSize() - 100);
+                    reference.delete(start, start + 100);
+                    submitted.add(storage.delete(start, start + 100));
+                }
+            }
+            assertEquals(reference.contentSize(), storage.contentSize());
+            for(CompletableFuture<?> f : submitted)
+                f.join();
+            assertArrayEquals(reference.getContent(), storage.sub(0, storage.contentSize()).join());
+        }
+    }
+    @Test
+    public void stripedFileStorage_Test() throws IOException {
+        File[] files = new File[3];
+        for(int i=0;i<files.length;i++)
+            files[i] = new File(System.getProperty("user.home")+"/Desktop/storageTestStriped.nothing"+i);
+        try(StripedFileStorage storage = new StripedFileStorage(files, 4096, 8192)) {
+            test(storage);
+            insertTest(storage);
+
+            byte[] large = new byte[100_000];
+            new Random().nextBytes(large);
+            storage.set(0, new ByteArrayInputStream(large), large.length);
+            storage.delete(5, 5000);
+            storage.insert(5, Arrays.copyOfRange(large, 5, 5000));
+            assertArrayEquals(large, storage.getContent());
+            storage.delete(large.length - 1000, large.length);
+        }
+        try(StripedFileStorage storage = new StripedFileStorage(files, 4096, 8192)) { //reopened
+            assertEquals(99_000, storage.contentSize());
+            assertEquals(99_000, files[0].length() + files[1].length() + files[2].length());
+            storage.clear();
+        }
+    }
+    @Test
+    public void compressedBlockStorage_Test() throws Exception {
+        CompressedBlockStorage storage = new CompressedBlockStorage(new ByteArrayStorage(), 64, Deflater.DEFAULT_COMPRESSION);
+        test(storage);
+        insertTest(storage);
+
+        Random r = new Random(1337);
+        ByteArrayStorage reference = new ByteArrayStorage();
+        storage.clear();
+        for(int i=0;i<1500;i++) {
+            long size = reference.contentSize();
+            int op = r.nextInt(4);
+            if(op == 0 && size > 0) {
+                long start = r.nextInt((int) size);
+                long end = start + 1 + r.nextInt((int) Math.min(200, size - start));
+                reference.delete(start, end);
+                storage.delete(start, end);
+            } else if(op == 1) {
+                byte[] val = new byte[r.nextInt(200)];
+                r.nextBytes(val);
+                long at = r.nextInt((int) size + 1);
+                reference.insert(at, val);
+                storage.insert(at, val);
+            } else {
+                byte[] val = new byte[1 + r.nextInt(200)];
+                for(int b=0;b<val.length;b++) val[b] = (byte) r.nextInt(4); //compressible
+                long at = r.nextInt((int) size + 1);
+                reference.set(at, val);
+                storage.set(at, val);
+            }
+            assertEquals(reference.contentSize(), storage.contentSize());
+        }
+        assertArrayEquals(reference.getContent(), storage.getContent());
+        assertTrue(storage.garbageSize() <= storage.storedSize() / 2 + 64);
+
+        File file = new File(System.getProperty("user.home")+"/Desktop/storageTestCompressed.nothing");
+        long raw_size;
+        try(CompressedBlockStorage compressed = new CompressedBlockStorage(new FileStorage(file))) {
+            compressed.clear();
+            LITagBytesEncoder encoder = new LITagBytesEncoder(compressed);
+            for(int i=0;i<2000;i++)
+                encoder.addEntry_nocheck("entry "+i, ("small text entry number "+i+", with some repetitive content").getBytes(StandardCharsets.UTF_8));
+            raw_size = compressed.contentSize();
+        }
+        assertTrue(file.length() * 4 < raw_size);
+        try(CompressedBlockStorage compressed = new CompressedBlockStorage(new FileStorage(file))) { //reopened
+            assertEquals(raw_size, compressed.contentSize());
+            LITagBytesEncoder decoder = new LITagBytesEncoder(compressed);
+            assertEquals("small text entry number 1234, with some repetitive content", new String(decoder.getEntry("entry 1234"), StandardCharsets.UTF_8));
+            decoder.deleteEntry("entry 0");
+            assertEquals(1999, decoder.getTags().length);
+            compressed.clear();
+        }
+    }
+    @Test
+    public void checksummedStorage_Test() throws Exception {
+        ChecksummedStorage storage = new ChecksummedStorage(new ByteArrayStorage(), new ByteArrayStorage(), 64);
+        test(storage);
+        insertTest(storage);
+
+        Random r = new Random(42);
+        ByteArrayStorage reference = new ByteArrayStorage();
+        storage.clear();
+        for(int i=0;i<1500;i++) {
+            long size = reference.contentSize();
+            int op = r.nextInt(3);
+            byte[] val = new byte[1 + r.nextInt(200)];
+            r.nextBytes(val);
+            if(op == 0 && size > 0) {
+                long start = r.nextInt((int) size);
+                long end = start + 1 + r.nextInt((int) Math.min(200, size - start));
+                reference.delete(start, end);
+                storage.delete(start, end);
+            } else if(op == 1) {
+                long at = r.nextInt((int) size + 1);
+                reference.insert(at, val);
+                storage.insert(at, val);
+            } else {
+                long at = r.nextInt((int) size + 1);
+                reference.set(at, val);
+                storage.set(at, val);
+            }
+        }
+        assertArrayEquals(reference.getContent(), storage.getContent());
+        assertTrue(storage.verify().isEmpty());
+
+        File data_file = new File(System.getProperty("user.home")+"/Desktop/storageTestChecksummed.nothing");
+        File crc_file = new File(System.getProperty("user.home")+"/Desktop/storageTestChecksummed.nothing.crc");
+        byte[] content = new byte[1_000_000];
+        r.nextBytes(content);
+        Files.deleteIfExists(crc_file.toPath());
+        try(ChecksummedStorage checked = new ChecksummedStorage(new FileStorage(data_file), new FileStorage(crc_file))) {
+            checked.clear();
+            checked.append(content);
+        }
+        try(RandomAccessFile raf = new RandomAccessFile(data_file, "rw")) { //corrupt two bytes, in two different blocks
+            raf.seek(10_000);
+            raf.write(content[10_000] ^ 0xFF);
+            raf.seek(999_999);
+            raf.write(content[999_999] ^ 0xFF);
+        }
+        try(ChecksummedStorage checked = new ChecksummedStorage(new FileStorage(data_file), new FileStorage(crc_file), 64)) { //persisted block size wins
+            assertEquals(4096, checked.blockSize());
+            List<long[]> bad = checked.verify();
+            assertEquals(2, bad.size());
+            assertArrayEquals(new long[] {8192, 12288}, bad.get(0));
+            assertArrayEquals(new long[] {999_424, 1_000_000}, bad.get(1));
+            assertArrayEquals(Arrays.copyOfRange(content, 0, 8192), checked.sub(0, 8192));
+            try {
+                checked.sub(9_000, 9_010);
+                fail();
+            } catch (StorageSystemException ignored) {}
+            try { //would shift the corrupt blocks and recompute their checksums
+                checked.delete(100, 200);
+                fail();
+            } catch (StorageSystemException ignored) {}
+            try {
+                checked.insert(100, new byte[] {1, 2, 3});
+                fail();
+            } catch (StorageSystemException ignored) {}
+            assertEquals(1_000_000, checked.contentSize()); //nothing altered
+            assertEquals(2, checked.verify().size());
+            checked.clear();
+        }
+    }
+    @Test
+    public void fixedBlockStorage_Test() throws Exception {
+        File file = new File(System.getProperty("user.home")+"/Desktop/storageTestFixedBlocks.nothing");
+        FileStorage underlying = new FileStorage(file);
+        underlying.clear();
+        try(FixedBlockBytesStorage storage = new FixedBlockBytesStorage(underlying, 20, 128)) {
+            int[] ids = new int[20];
+            for(int i=0;i<ids.length;i++) {
+                ids[i] = storage.allocate();
+                byte[] block = new byte[128];
+                Arrays.fill(block, (byte) i);
+                storage.writeBlock(ids[i], block);
+            }
+            assertEquals(20, storage.getUsedBlockCount());
+            try {
+                storage.allocate();
+                fail();
+            } catch (StorageSystemException ignored) {}
+
+            long size_before = underlying.contentSize();
+            storage.free(ids[3]);
+            storage.free(ids[17]);
+            assertEquals(size_before, underlying.contentSize()); //nothing shifted
+            assertEquals(ids[17], storage.allocate()); //reused
+            storage.write(ids[17], 10, new byte[] {1, 2, 3}, 0, 3);
+            byte[] part = new byte[5];
+            storage.read(ids[17], 9, part, 0, 5);
+            assertArrayEquals(new byte[] {17, 1, 2, 3, 17}, part);
+            try {
+                storage.readBlock(ids[3]);
+                fail();
+            } catch (IllegalArgumentException ignored) {}
+            storage.free(ids[19]);
+        }
+        try(FixedBlockBytesStorage storage = new FixedBlockBytesStorage(new FileStorage(file), 1, 1)) { //reopened, persisted facts are used
+            assertEquals(128, storage.getBlockSize());
+            assertEquals(18, storage.getUsedBlockCount());
+            assertFalse(storage.isBlockUsed(3));
+            assertTrue(storage.isBlockUsed(17));
+            byte[] expected = new byte[128];
+            Arrays.fill(expected, (byte) 5);
+            assertArrayEquals(expected, storage.readBlock(5));
+            storage.trimToSize();
+            assertEquals(3, storage.allocate()); //lowest free block first
+            assertEquals(19, storage.allocate());
+            storage.clear();
+            assertEquals(0, storage.getUsedBlockCount());
+            assertEquals(0, storage.allocate());
+        }
+    }
+    @Test
+    public void journaledFileStorage_Test() throws IOException {
+        try(JournaledFileStorage storage = new JournaledFileStorage(new File(System.getProperty("user.home")+"/Desktop/storageTestJournaled.nothing"), 8192, 16)) {
+            test(storage);
+            insertTest(storage);
+        }
+    }
+    @Test
+    public void journaledFileStorage_rollbackTest() throws IOException {
+        File file = new File(System.getProperty("user.home")+"/Desktop/storageTestJournaledRollback.nothing");
+        byte[] committed = new byte[20000];
+        new Random(42).nextBytes(committed);
+
+        JournaledFileStorage crashing = new JournaledFileStorage(file, 1024, 1000);
+        crashing.setContent(committed);
+        crashing.commit();
+        crashing.delete(100, 5000);
+        crashing.insert(50, new byte[3000]);
+        crashing.append(new byte[] {1, 2, 3});
+        crashing.set(10, new byte[] {4, 5, 6});
+        crashing.delete(crashing.contentSize() - 10000, crashing.contentSize());
+        //crash: neither commit, nor close
+
+        try(JournaledFileStorage recovered = new JournaledFileStorage(file)) {
+            assertArrayEquals(committed, recovered.getContent());
+            recovered.append(new byte[] {7});
+        }
+        try(JournaledFileStorage reopened = new JournaledFileStorage(file)) { //close commits
+            assertEquals(committed.length + 1, reopened.contentSize());
+            assertEquals(7, reopened.getByte(committed.length));
+        }
+    }
+    @Test
     public void remoteStorage_Test() throws IOException {
         try(RemoteStorageServer server = new RemoteStorageServer(1552, new File(System.getProperty("user.home")+"/Desktop/storageTestRemoteServer.nothing"));
             RemoteStorage storage = new RemoteStorage("localhost", 1552)) {
@@ -80,6 +521,10 @@ public class GenericTest {
         new Random().nextBytes(random);
         storage.set(1000, random);
         assertArrayEquals(random, storage.sub(1000, 2000));
+        assertEquals(ByteBuffer.wrap(random), storage.view(1000, 2000));
+        assertEquals(ByteBuffer.wrap(random, 10, 20), storage.view(1010, 1030));
+        assertEquals(ByteBuffer.wrap(random, 999, 1), storage.view(1999, 2000));
+        assertEquals(0, storage.view(5, 5).remaining());
 
         assertEquals(compare.size()-1, storage.contentSize());
         storage.clear();
@@ -90,6 +535,14 @@ public class GenericTest {
         storage.set(0, random);
         assertArrayEquals(random, storage.getContent());
 
+        storage.set(500, new byte[] {1, 2}, new byte[0], random, new byte[0]); //gather write: overwrites and appends
+        assertEquals(1502, storage.contentSize());
+        assertArrayEquals(Arrays.copyOfRange(random, 0, 500), storage.sub(0, 500));
+        assertArrayEquals(new byte[] {1, 2}, storage.sub(500, 502));
+        assertArrayEquals(random, storage.sub(502, 1502));
+        storage.set(storage.contentSize(), new byte[] {3}, new byte[] {4, 5});
+        assertArrayEquals(new byte[] {3, 4, 5}, storage.sub(1502, 1505));
+
         storage.clear();
     }
 
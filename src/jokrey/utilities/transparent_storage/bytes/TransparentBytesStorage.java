@@ -3,6 +3,7 @@ package jokrey.utilities.transparent_storage.bytes;
 import jokrey.utilities.transparent_storage.TransparentStorage;
 import jokrey.utilities.transparent_storage.StorageSystemException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Same as {@link TransparentStorage}, but adds some additional functionality for interaction with a transparent storage based on bytes.
@@ -81,6 +82,23 @@ public interface TransparentBytesStorage extends TransparentStorage<byte[]> {
      */
     TransparentBytesStorage copyInto(long start, byte[] b, int off, int len);
 
+    /**
+     * Returns a read only view of the bytes between start and end.
+     * Unlike {@link #sub(long, long)}, implementations may return a view directly onto their internal memory (i.e. without copying).
+     *     Such a view is ONLY valid until the next altering operation on this storage. After that its content is undefined
+     *     (and, for off heap memory, accessing it can crash the vm). So use it for immediate comparisons or reads only.
+     *
+     * Default implementation wraps a copy obtained by {@link #sub(long, long)}.
+     *
+     * @param start The beginning index, inclusive.
+     * @param end The ending index, exclusive. Like in sub, end will be clamped to the content size.
+     * @return read only view, positioned at 0 with a limit of end-start
+     * @throws StorageSystemException if something internally goes wrong
+     */
+    default ByteBuffer view(long start, long end) throws StorageSystemException {
+        return ByteBuffer.wrap(sub(start, end)).asReadOnlyBuffer();
+    }
+
     //overridden so that it returns a TransparentBytesStorage and it's methods are available in the builder pattern.
     TransparentBytesStorage delete(long start, long end) throws StorageSystemException;
     TransparentBytesStorage set(long start, byte[] part, int off, int len) throws StorageSystemException;
@@ -0,0 +1,494 @@
+package jokrey.utilities.transparent_storage.bytes.async;
+
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.file.FileChannelStorage;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Implementation of {@link AsyncTransparentBytesStorage} writing the bytes into a file, using an {@link AsynchronousFileChannel}.
+ * Same file format as {@link FileChannelStorage}.
+ *
+ * Requests are batched:
+ *    While a batch is executed, newly submitted requests queue up. Once the batch is done, all queued requests (up to max_batch_size) form the next batch.
+ *    Within a batch adjacent or overlapping writes are merged into a single write and adjacent or overlapping reads into a single read.
+ *    So many small appends (each li and each value of an encoder) or many small subs (the length indicators of a scan) require only a few channel operations.
+ * A batch never contains a read and a write of overlapping ranges - the later request is deferred to the next batch, that way submission order is kept where it matters.
+ * Structure changing operations (delete, insert, setContent, clear) are always executed alone, between two batches.
+ *
+ * Thread safe.
+ *
+ * @author jokrey
+ */
+public class AsyncFileStorage implements AsyncTransparentBytesStorage {
+    private final AsynchronousFileChannel channel;
+    private final int io_buffer_size;
+    private final int max_batch_size;
+
+    private final ArrayDeque<Request> pending = new ArrayDeque<>();
+    private boolean dispatching = false;
+    private long size; //includes all submitted, but possibly not yet executed, changes
+    private long next_seq = 0;
+
+    /**
+     * Internally creates and opens access to the provided file.
+     * close should be called after one is done using it, to not create a resource leak.
+     *
+     * @param file file to create and read from.
+     * @param io_buffer_size buffer size to use for internal copy operations (namely delete and insert)
+     * @param max_batch_size maximum number of requests executed in a single batch
+     * @param executor executor the channel and completion handlers run on, null for the default thread pool
+     * @throws IOException if the file cannot be opened
+     */
+    public AsyncFileStorage(File file, int io_buffer_size, int max_batch_size, ExecutorService executor) throws IOException {
+        if(io_buffer_size <= 0 || max_batch_size <= 0) throw new IllegalArgumentException("io_buffer_size("+io_buffer_size+"), max_batch_size("+max_batch_size+")");
+        Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        channel = AsynchronousFileChannel.open(file.toPath(), options, executor);
+        this.io_buffer_size = io_buffer_size;
+        this.max_batch_size = max_batch_size;
+        size = channel.size();
+    }
+
+    /**
+     * Same as {@link AsyncFileStorage(File, int, int, ExecutorService)},
+     *    but takes a standard io_buffer_size of 8192(2^13), executes at most 256 requests per batch and uses the default thread pool.
+     *
+     * @param file file to create and read from.
+     * @throws IOException if the file cannot be opened
+     */
+    public AsyncFileStorage(File file) throws IOException {
+        this(file, 8192, 256, null);
+    }
+
+    /**
+     * @return future completed once all previously submitted changes are written to the underlying device
+     */
+    public CompletableFuture<Void> flush() {
+        return submitStructureChange(() -> {
+            channel.force(false);
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Waits for all submitted operations and closes the file
+     * @throws IOException on underlying file close exception
+     */
+    @Override public void close() throws IOException {
+        try {
+            submitStructureChange(() -> CompletableFuture.completedFuture(null)).join(); //executed after everything submitted before
+        } catch (CompletionException ignored) {}
+        channel.close();
+    }
+
+
+    @Override public long contentSize() {
+        synchronized (pending) {
+            return size;
+        }
+    }
+
+    @Override public CompletableFuture<byte[]> sub(long start, long end) {
+        Request r;
+        boolean start_dispatch;
+        synchronized (pending) {
+            if (end > size) end = size; //to satisfy interface doc condition
+            if (start < 0) start = 0;
+            long len = end - start;
+            if (len < 0)
+                throw new StorageSystemException("Cannot create sub of less than 0 bytes.");
+            if (len == 0)
+                return CompletableFuture.completedFuture(new byte[0]);
+            r = new Request(false, start, new byte[(int) len], 0, (int) len, null);
+            start_dispatch = enqueue(r);
+        }
+        if(start_dispatch) dispatch();
+        return r.done.thenApply(v -> r.data);
+    }
+
+    @Override public CompletableFuture<Void> copyInto(long start, byte[] b, int off, int len) {
+        Request r;
+        boolean start_dispatch;
+        synchronized (pending) {
+            if(start < 0 || len < 0 || start + len > size) throw new IndexOutOfBoundsException("size("+size+"), start("+start+"), len("+len+")");
+            if(len == 0) return CompletableFuture.completedFuture(null);
+            r = new Request(false, start, b, off, len, null);
+            start_dispatch = enqueue(r);
+        }
+        if(start_dispatch) dispatch();
+        return r.done;
+    }
+
+    @Override public CompletableFuture<Void> set(long start, byte[] part, int off, int len) {
+        len = Math.min(len, part.length - off);
+        Request r;
+        boolean start_dispatch;
+        synchronized (pending) {
+            if(start < 0 || start > size) throw new IndexOutOfBoundsException("size("+size+"), start("+start+")");
+            if(len <= 0) return CompletableFuture.completedFuture(null);
+            r = new Request(true, start, part, off, len, null);
+            size = Math.max(size, start + len);
+            start_dispatch = enqueue(r);
+        }
+        if(start_dispatch) dispatch();
+        return r.done;
+    }
+
+    @Override public CompletableFuture<Long> append(byte[] val) {
+        long at;
+        Request r;
+        boolean start_dispatch;
+        synchronized (pending) { //the position is reserved atomically
+            at = size;
+            if(val.length == 0) return CompletableFuture.completedFuture(at);
+            r = new Request(true, at, val, 0, val.length, null);
+            size += val.length;
+            start_dispatch = enqueue(r);
+        }
+        if(start_dispatch) dispatch();
+        return r.done.thenApply(v -> at);
+    }
+
+    @Override public CompletableFuture<Void> delete(long start, long end) {
+        long len = end - start;
+        if (len <= 0)
+            throw new StorageSystemException("Cannot delete 0 or less than 0 bytes.");
+        Request r = structureChange(() -> {
+            long file_length = channel.size();
+            return copyFileContent(end, start, file_length - end) //copy data from end of deleted area to start of deleted area, overriding the bytes in between
+                    .thenCompose(v -> truncate(file_length - len));
+        });
+        boolean start_dispatch;
+        synchronized (pending) {
+            if(start < 0 || end > size) throw new IndexOutOfBoundsException("size("+size+"), start("+start+"), end("+end+")");
+            size -= len;
+            start_dispatch = enqueue(r);
+        }
+        if(start_dispatch) dispatch();
+        return r.done;
+    }
+
+    @Override public CompletableFuture<Void> insert(long start, byte[] val) {
+        Request r = structureChange(() -> {
+            long file_length_before = channel.size();
+            return copyFileContent(start, start + val.length, file_length_before - start) //copy data after insert index to end of insert area (extends the file)
+                    .thenCompose(v -> writeFully(ByteBuffer.wrap(val), start));
+        });
+        boolean start_dispatch;
+        synchronized (pending) {
+            if(start < 0 || start > size) throw new IndexOutOfBoundsException("size("+size+"), start("+start+")");
+            size += val.length;
+            start_dispatch = enqueue(r);
+        }
+        if(start_dispatch) dispatch();
+        return r.done;
+    }
+
+    @Override public CompletableFuture<Void> setContent(byte[] content) {
+        Request r = structureChange(() -> truncate(0).thenCompose(v -> writeFully(ByteBuffer.wrap(content), 0)));
+        boolean start_dispatch;
+        synchronized (pending) {
+            size = content.length;
+            start_dispatch = enqueue(r);
+        }
+        if(start_dispatch) dispatch();
+        return r.done;
+    }
+
+    @Override public String toString() {
+        return "[AsyncFileStorage: l=" + contentSize() + ", max_batch_size=" + max_batch_size + "]";
+    }
+
+
+
+    //INTERNAL
+
+    private interface StructureChange {
+        CompletableFuture<Void> execute() throws IOException;
+    }
+
+    private static final class Request {
+        final boolean write;
+        final long start;
+        final byte[] data;
+        final int off;
+        final int len;
+        final StructureChange structure_change; //non null for structure changes, which are executed alone
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        long seq;
+
+        Request(boolean write, long start, byte[] data, int off, int len, StructureChange structure_change) {
+            this.write = write;
+            this.start = start;
+            this.data = data;
+            this.off = off;
+            this.len = len;
+            this.structure_change = structure_change;
+        }
+        long end() {
+            return start + len;
+        }
+        boolean overlaps(Request o) {
+            return start < o.end() && o.start < end();
+        }
+    }
+
+    //caller holds the pending monitor - returns whether the caller has to start dispatching (outside of the monitor)
+    private boolean enqueue(Request r) {
+        r.seq = next_seq++;
+        pending.add(r);
+        if(dispatching) return false;
+        dispatching = true;
+        return true;
+    }
+
+    private static Request structureChange(StructureChange change) {
+        return new Request(true, 0, null, 0, 0, change);
+    }
+
+    private CompletableFuture<Void> submitStructureChange(StructureChange change) {
+        Request r = structureChange(change);
+        boolean start_dispatch;
+        synchronized (pending) {
+            start_dispatch = enqueue(r);
+        }
+        if(start_dispatch) dispatch();
+        return r.done;
+    }
+
+    //executes batches until no more requests are pending - continues asynchronously once a batch does not complete immediately
+    private void dispatch() {
+        while(true) {
+            List<Request> batch;
+            synchronized (pending) {
+                batch = takeBatch();
+                if(batch.isEmpty()) {
+                    dispatching = false;
+                    return;
+                }
+            }
+            CompletableFuture<Void> executed = execute(batch);
+            if(!executed.isDone()) {
+                executed.whenComplete((v, t) -> dispatch());
+                return;
+            }
+        }
+    }
+
+    //caller holds the pending monitor
+    private List<Request> takeBatch() {
+        List<Request> batch = new ArrayList<>();
+        if(!pending.isEmpty() && pending.peek().structure_change != null) {
+            batch.add(pending.poll());
+            return batch;
+        }
+        while(!pending.isEmpty() && batch.size() < max_batch_size) {
+            Request next = pending.peek();
+            if(next.structure_change != null) break;
+            for(Request r : batch)
+                if(r.write != next.write && r.overlaps(next))
+                    return batch; //would depend on the order of execution within the batch
+            batch.add(pending.poll());
+        }
+        return batch;
+    }
+
+    //returns a future that completes (never exceptionally) once all requests in the batch are completed
+    private CompletableFuture<Void> execute(List<Request> batch) {
+        if(batch.get(0).structure_change != null) {
+            Request r = batch.get(0);
+            CompletableFuture<Void> executed;
+            try {
+                executed = r.structure_change.execute();
+            } catch (IOException | RuntimeException e) {
+                executed = failed(e);
+            }
+            return executed.handle((v, t) -> {
+                complete(Collections.singletonList(r), t);
+                return null;
+            });
+        }
+
+        List<Request> reads = new ArrayList<>();
+        List<Request> writes = new ArrayList<>();
+        for(Request r : batch)
+            (r.write ? writes : reads).add(r);
+        List<CompletableFuture<Void>> executed = new ArrayList<>();
+        for(List<Request> run : runs(writes))
+            executed.add(executeWriteRun(run));
+        for(List<Request> run : runs(reads))
+            executed.add(executeReadRun(run));
+        return CompletableFuture.allOf(executed.toArray(new CompletableFuture<?>[0]));
+    }
+
+    //groups the requests into runs of adjacent or overlapping ranges, within a run requests are in submission order
+    private static List<List<Request>> runs(List<Request> requests) {
+        List<Request> sorted = new ArrayList<>(requests);
+        sorted.sort(Comparator.comparingLong((Request r) -> r.start).thenComparingLong(r -> r.seq));
+        List<List<Request>> runs = new ArrayList<>();
+        List<Request> run = null;
+        long run_end = -1;
+        for(Request r : sorted) {
+            if(run == null || r.start > run_end) {
+                run = new ArrayList<>();
+                runs.add(run);
+                run_end = r.end();
+            } else {
+                run_end = Math.max(run_end, r.end());
+            }
+            run.add(r);
+        }
+        for(List<Request> rs : runs)
+            rs.sort(Comparator.comparingLong(r -> r.seq));
+        return runs;
+    }
+
+    private CompletableFuture<Void> executeWriteRun(List<Request> run) {
+        CompletableFuture<Void> written;
+        if(run.size() == 1) {
+            Request w = run.get(0);
+            written = writeFully(ByteBuffer.wrap(w.data, w.off, w.len), w.start);
+        } else {
+            long run_start = Long.MAX_VALUE, run_end = 0;
+            for(Request w : run) {
+                run_start = Math.min(run_start, w.start);
+                run_end = Math.max(run_end, w.end());
+            }
+            byte[] merged = new byte[(int) (run_end - run_start)];
+            for(Request w : run) //in submission order, so later writes win
+                System.arraycopy(w.data, w.off, merged, (int) (w.start - run_start), w.len);
+            written = writeFully(ByteBuffer.wrap(merged), run_start);
+        }
+        return written.handle((v, t) -> {
+            complete(run, t);
+            return null;
+        });
+    }
+
+    private CompletableFuture<Void> executeReadRun(List<Request> run) {
+        CompletableFuture<Void> read;
+        if(run.size() == 1) {
+            Request r = run.get(0);
+            read = readFully(ByteBuffer.wrap(r.data, r.off, r.len), r.start);
+        } else {
+            long run_start = Long.MAX_VALUE, run_end = 0;
+            for(Request r : run) {
+                run_start = Math.min(run_start, r.start);
+                run_end = Math.max(run_end, r.end());
+            }
+            byte[] merged = new byte[(int) (run_end - run_start)];
+            long merged_start = run_start;
+            read = readFully(ByteBuffer.wrap(merged), merged_start).thenRun(() -> {
+                for(Request r : run)
+                    System.arraycopy(merged, (int) (r.start - merged_start), r.data, r.off, r.len);
+            });
+        }
+        return read.handle((v, t) -> {
+            complete(run, t);
+            return null;
+        });
+    }
+
+    private static void complete(List<Request> requests, Throwable t) {
+        if(t instanceof CompletionException && t.getCause() != null)
+            t = t.getCause();
+        for(Request r : requests) {
+            if(t == null)
+                r.done.complete(null);
+            else if(t instanceof StorageSystemException || t instanceof IndexOutOfBoundsException)
+                r.done.completeExceptionally(t);
+            else
+                r.done.completeExceptionally(new StorageSystemException("Internal AsyncFileStorage-Error("+t.getMessage()+")."));
+        }
+    }
+
+    //copies numToCopy bytes from 'from' to 'to', works with overlapping ranges (in both directions) - only called by structure changes, which are executed alone
+    private CompletableFuture<Void> copyFileContent(long from, long to, long numToCopy) {
+        if(numToCopy <= 0 || from == to) return CompletableFuture.completedFuture(null);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(io_buffer_size, numToCopy));
+        return copyChunks(buffer, from, to, numToCopy, 0);
+    }
+    private CompletableFuture<Void> copyChunks(ByteBuffer buffer, long from, long to, long numToCopy, long copied) {
+        if(copied >= numToCopy) return CompletableFuture.completedFuture(null);
+        int chunk = (int) Math.min(buffer.capacity(), numToCopy - copied);
+        long offset = from > to ? copied : numToCopy - copied - chunk; //front to back when moving towards the start, back to front otherwise
+        buffer.clear().limit(chunk);
+        return readFully(buffer, from + offset)
+                .thenCompose(v -> {
+                    buffer.flip();
+                    return writeFully(buffer, to + offset);
+                })
+                .thenCompose(v -> copyChunks(buffer, from, to, numToCopy, copied + chunk));
+    }
+
+    private CompletableFuture<Void> truncate(long new_size) {
+        try {
+            channel.truncate(new_size);
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return failed(e);
+        }
+    }
+
+    private CompletableFuture<Void> readFully(ByteBuffer into, long position) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            channel.read(into, position, position, new CompletionHandler<Integer, Long>() {
+                @Override public void completed(Integer read, Long at) {
+                    if(read < 0)
+                        done.completeExceptionally(new EOFException("file ended before the requested range could be read(position="+at+")"));
+                    else if(into.hasRemaining())
+                        channel.read(into, at + read, at + read, this);
+                    else
+                        done.complete(null);
+                }
+                @Override public void failed(Throwable t, Long at) {
+                    done.completeExceptionally(t);
+                }
+            });
+        } catch (RuntimeException e) {
+            done.completeExceptionally(e);
+        }
+        return done;
+    }
+
+    private CompletableFuture<Void> writeFully(ByteBuffer from, long position) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if(!from.hasRemaining()) {
+            done.complete(null);
+            return done;
+        }
+        try {
+            channel.write(from, position, position, new CompletionHandler<Integer, Long>() {
+                @Override public void completed(Integer written, Long at) {
+                    if(from.hasRemaining())
+                        channel.write(from, at + written, at + written, this);
+                    else
+                        done.complete(null);
+                }
+                @Override public void failed(Throwable t, Long at) {
+                    done.completeExceptionally(t);
+                }
+            });
+        } catch (RuntimeException e) {
+            done.completeExceptionally(e);
+        }
+        return done;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable t) {
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(t);
+        return failed;
+    }
+}
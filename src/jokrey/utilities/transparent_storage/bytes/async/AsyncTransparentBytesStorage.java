@@ -0,0 +1,94 @@
+package jokrey.utilities.transparent_storage.bytes.async;
+
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non blocking variant of {@link TransparentBytesStorage}.
+ *
+ * Every operation returns immediately, the returned future completes once the operation was executed.
+ *    So no thread has to wait for the disk, for example an io thread of a {@link jokrey.utilities.network.mcnp.nbio.MCNP_ServerAIO}
+ *    can chain its response onto the future returned by sub.
+ *
+ * Operations are executed in the order in which they were submitted, as far as they depend on each other
+ *    (i.e. a sub submitted after a set of an overlapping range will see the set bytes).
+ * Illegal arguments (for example out of bounds indices) are thrown directly, failures of the actual io complete the future exceptionally (with a {@link StorageSystemException}).
+ *
+ * Arrays passed into the storage are not copied, they may not be altered until the returned future has completed.
+ * Futures may be completed by internal io threads, dependant stages should not block (use the *Async variants of CompletableFuture otherwise).
+ *
+ * {@link BlockingBytesStorage} exposes any implementation as a blocking {@link TransparentBytesStorage}.
+ *
+ * @author jokrey
+ */
+public interface AsyncTransparentBytesStorage extends AutoCloseable {
+    /**
+     * Includes all changes that were submitted, even if they have not been executed yet.
+     * @return the size of the content
+     */
+    long contentSize();
+
+    /**
+     * @param start The beginning index, inclusive. If smaller than 0 it will be treated as 0.
+     * @param end The ending index, exclusive. If larger than contentSize it will be treated as contentSize.
+     * @return future of the bytes between start and end
+     */
+    CompletableFuture<byte[]> sub(long start, long end);
+
+    /**
+     * Reads len bytes, starting at start into b (starting at off).
+     * @throws IndexOutOfBoundsException if start+len > contentSize()
+     * @return future completed once b is filled
+     */
+    CompletableFuture<Void> copyInto(long start, byte[] b, int off, int len);
+
+    /**
+     * Overrides the bytes from start or appends them.
+     * @throws IndexOutOfBoundsException if start > contentSize()
+     * @return future completed once the bytes were written
+     */
+    CompletableFuture<Void> set(long start, byte[] part, int off, int len);
+    default CompletableFuture<Void> set(long start, byte[] part) {
+        return set(start, part, 0, part.length);
+    }
+
+    /**
+     * Appends val. The position is reserved immediately, so concurrent appends never overlap.
+     * @return future of the index at which val was appended
+     */
+    CompletableFuture<Long> append(byte[] val);
+
+    /**
+     * Removes the bytes between start and end, moving all following bytes.
+     * @throws IndexOutOfBoundsException if the range is not within the content
+     * @return future completed once the bytes were removed
+     */
+    CompletableFuture<Void> delete(long start, long end);
+
+    /**
+     * Inserts val at start, moving all following bytes.
+     * @throws IndexOutOfBoundsException if start > contentSize()
+     * @return future completed once the bytes were inserted
+     */
+    CompletableFuture<Void> insert(long start, byte[] val);
+
+    /**
+     * @return future completed once the entire content was replaced with content
+     */
+    CompletableFuture<Void> setContent(byte[] content);
+
+    /**
+     * @return future completed once the content was removed
+     */
+    default CompletableFuture<Void> clear() {
+        return setContent(new byte[0]);
+    }
+
+    /**
+     * Waits for all submitted operations and closes the storage.
+     * @throws Exception if the underlying resource cannot be closed
+     */
+    @Override void close() throws Exception;
+}
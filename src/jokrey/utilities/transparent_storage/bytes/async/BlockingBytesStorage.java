@@ -0,0 +1,183 @@
+package jokrey.utilities.transparent_storage.bytes.async;
+
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Exposes an {@link AsyncTransparentBytesStorage} as a regular, blocking {@link TransparentBytesStorage}.
+ * Each method waits for the future of the corresponding async operation. So all encoders can be used on top of an async storage,
+ *    while other parts of the program (for example a server) access the same async storage without blocking.
+ *
+ * Stream writes do not wait for each chunk, all chunks are submitted at once and can therefore be batched by the async storage.
+ *
+ * Thread safe, if the async storage is.
+ *
+ * @author jokrey
+ */
+public class BlockingBytesStorage implements TransparentBytesStorage {
+    private static final int STREAM_CHUNK_SIZE = 8192;
+
+    private final AsyncTransparentBytesStorage async;
+
+    /**
+     * @param async storage to wrap
+     */
+    public BlockingBytesStorage(AsyncTransparentBytesStorage async) {
+        this.async = async;
+    }
+
+    /** @return the wrapped async storage */
+    public AsyncTransparentBytesStorage getAsync() {
+        return async;
+    }
+
+    @Override public void close() throws Exception {
+        async.close();
+    }
+
+
+    @Override public void clear() {
+        await(async.clear());
+    }
+
+    @Override public void setContent(byte[] content) {
+        await(async.setContent(content));
+    }
+
+    @Override public byte[] getContent() {
+        long size = async.contentSize();
+        if(size > Integer.MAX_VALUE) throw new IllegalStateException("Content does not fit array, use stream instead.");
+        return await(async.sub(0, size));
+    }
+
+    @Override public BlockingBytesStorage delete(long start, long end) throws StorageSystemException {
+        await(async.delete(start, end));
+        return this;
+    }
+
+    @Override public BlockingBytesStorage insert(long start, byte[] val) {
+        await(async.insert(start, val));
+        return this;
+    }
+
+    @Override public BlockingBytesStorage set(long start, InputStream content, long content_length) throws StorageSystemException {
+        ArrayList<CompletableFuture<Void>> written = new ArrayList<>();
+        try {
+            long expected_bytes_count = content_length;
+            int nRead;
+            byte[] buffer = new byte[(int) Math.max(1, Math.min(STREAM_CHUNK_SIZE, content_length))];
+            while (content_length > 0 && (nRead = content.read(buffer, 0, (int) Math.min(buffer.length, content_length))) != -1) {
+                written.add(async.set(start, buffer, 0, nRead));
+                start += nRead;
+                content_length -= nRead;
+                buffer = new byte[buffer.length]; //the submitted buffer may not be reused until written
+            }
+            content.close();
+            if (content_length > 0)
+                throw new StorageSystemException("The provided stream failed to deliver the promised number of bytes(missing: " + content_length + " of expected " + expected_bytes_count + ")");
+        } catch (IOException ex) {
+            throw new StorageSystemException("IO Exception thrown by provided InputStream(" + ex.getMessage() + ").");
+        } finally {
+            for(CompletableFuture<Void> f : written)
+                await(f);
+        }
+        return this;
+    }
+
+    @Override public BlockingBytesStorage set(long start, byte[] part, int off, int len) throws StorageSystemException {
+        await(async.set(start, part, off, len));
+        return this;
+    }
+
+    @Override public BlockingBytesStorage set(long start, byte part) throws StorageSystemException {
+        return set(start, new byte[] {part}, 0, 1);
+    }
+
+    @Override public BlockingBytesStorage set(long at, byte[]... parts) throws StorageSystemException {
+        ArrayList<CompletableFuture<Void>> written = new ArrayList<>(parts.length);
+        for(byte[] part : parts) { //submitted at once - so they are merged into a single write
+            written.add(async.set(at, part));
+            at += part.length;
+        }
+        for(CompletableFuture<Void> f : written)
+            await(f);
+        return this;
+    }
+
+    @Override public byte[] sub(long start, long end) throws StorageSystemException {
+        return await(async.sub(start, end));
+    }
+
+    @Override public BlockingBytesStorage copyInto(long start, byte[] b, int off, int len) {
+        await(async.copyInto(start, b, off, len));
+        return this;
+    }
+
+    @Override public byte getByte(long index) {
+        byte[] single = new byte[1];
+        copyInto(index, single, 0, 1);
+        return single[0];
+    }
+
+    @Override public InputStream substream(long start, long end_given) throws StorageSystemException {
+        long end = Math.min(end_given, contentSize()); //to satisfy interface doc condition
+        if(start<0) {
+            throw new StorageSystemException("the start position("+start+") has to be greater than 0");
+        } else if (end - start < 0) {
+            throw new StorageSystemException("Cannot create substream of less than 0 bytes");
+        }
+        return new InputStream() {
+            long position = start;
+            @Override public int read() {
+                if(position>=end) return -1;
+                return getByte(position++) & 0xFF;
+            }
+            @Override public int read(byte[] b, int off, int len) {
+                if(position>=end) return -1;
+                len = (int) Math.min(len, end-position);
+                copyInto(position, b, off, len);
+                position += len;
+                return len;
+            }
+            @Override public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, end-position));
+                position += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    @Override public InputStream stream() {
+        return substream(0, contentSize());
+    }
+
+    @Override public long contentSize() {
+        return async.contentSize();
+    }
+
+    @Override public boolean isEmpty() {
+        return contentSize() == 0;
+    }
+
+    @Override public String toString() {
+        return "[BlockingBytesStorage: async=" + async + "]";
+    }
+
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new StorageSystemException("Internal BlockingBytesStorage-Error("+(cause==null?e:cause).getMessage()+").");
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package jokrey.utilities.transparent_storage.bytes.block;
+
+import jokrey.utilities.bitsandbytes.BitHelper;
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Block addressed storage on top of any {@link TransparentBytesStorage}.
+ * Fixed size blocks are allocated and freed in O(1) and identified by their block id - freed blocks are reused by later allocations.
+ *    Nothing is ever shifted. So the cost of overwriting or freeing a block does not depend on the size of the underlying storage.
+ *
+ * Layout of the underlying storage:
+ *    [block size(4), max blocks(4), free block bitmap(ceil(max blocks / 8)), block 0, block 1, ...]
+ *    The bitmap has one bit per block (1 == allocated). Allocating or freeing a block rewrites a single bitmap byte.
+ *    Block i starts at header length + i * block size. The underlying storage only grows as far as the highest allocated block.
+ *
+ * The bitmap is mirrored in memory, together with a stack of free block ids below the highest block ever allocated.
+ *    Both are rebuilt from the persisted bitmap when the storage is opened.
+ *
+ * Not thread safe.
+ *
+ * @author jokrey
+ */
+public class FixedBlockBytesStorage implements AutoCloseable {
+    private static final int FACTS_LENGTH = 8;
+
+    private final TransparentBytesStorage underlying;
+    private final int block_size;
+    private final int max_blocks;
+    private final int header_length;
+
+    private final BitSet used = new BitSet();
+    private int high_water = 0; //number of blocks that are or have been allocated since the last trim
+    private int[] free_stack = new int[16];
+    private int free_count = 0;
+
+    /**
+     * Block size 1024
+     * @see #FixedBlockBytesStorage(TransparentBytesStorage, int, int)
+     */
+    public FixedBlockBytesStorage(TransparentBytesStorage storage, int max_blocks) {
+        this(storage, max_blocks, 1024);
+    }
+
+    /**
+     * If the storage already contains a FixedBlockBytesStorage, the persisted max blocks and block size are used (and the parameters are ignored).
+     * @param storage underlying storage
+     * @param max_blocks maximum number of simultaneously allocated blocks (determines the size of the bitmap)
+     * @param block_size size of each block in bytes
+     */
+    public FixedBlockBytesStorage(TransparentBytesStorage storage, int max_blocks, int block_size) {
+        if(block_size <= 0 || max_blocks <= 0)
+            throw new IllegalArgumentException("block_size("+block_size+") and max_blocks("+max_blocks+") have to be greater than 0");
+        this.underlying = storage;
+        if(storage.contentSize() < FACTS_LENGTH) {
+            this.block_size = block_size;
+            this.max_blocks = max_blocks;
+            this.header_length = FACTS_LENGTH + bitmap_length(max_blocks);
+            storage.clear();
+            storage.set(0, BitHelper.getBytes(block_size), BitHelper.getBytes(max_blocks), new byte[bitmap_length(max_blocks)]);
+        } else {
+            byte[] facts = storage.sub(0, FACTS_LENGTH);
+            this.block_size = BitHelper.getInt32From(facts, 0);
+            this.max_blocks = BitHelper.getInt32From(facts, 4);
+            this.header_length = FACTS_LENGTH + bitmap_length(this.max_blocks);
+            byte[] bitmap = storage.sub(FACTS_LENGTH, header_length);
+            for(int i=0;i<this.max_blocks && i/8<bitmap.length;i++)
+                if((bitmap[i/8] & (1 << (i%8))) != 0)
+                    used.set(i);
+            rebuild_free_stack();
+        }
+    }
+
+    /**
+     * Allocates a block, reusing the most recently freed block if there is one. O(1).
+     * The content of the block is undefined (it may contain the content it had before it was freed).
+     * @return id of the allocated block
+     * @throws StorageSystemException if max blocks are already allocated
+     */
+    public int allocate() throws StorageSystemException {
+        int block_id;
+        if(free_count > 0) {
+            block_id = free_stack[--free_count];
+        } else {
+            if(high_water >= max_blocks)
+                throw new StorageSystemException("All "+max_blocks+" blocks are allocated.");
+            block_id = high_water++;
+        }
+        used.set(block_id);
+        persist_bitmap_byte(block_id);
+        return block_id;
+    }
+
+    /**
+     * Frees the given block, it will be reused by the next allocation. O(1).
+     * @param block_id id of an allocated block
+     */
+    public void free(int block_id) {
+        check_allocated(block_id);
+        used.clear(block_id);
+        persist_bitmap_byte(block_id);
+        if(free_count == free_stack.length)
+            free_stack = Arrays.copyOf(free_stack, free_stack.length * 2);
+        free_stack[free_count++] = block_id;
+    }
+
+    /**
+     * @param block_id a block id
+     * @return whether the block is currently allocated
+     */
+    public boolean isBlockUsed(int block_id) {
+        return used.get(block_id);
+    }
+
+    /**
+     * Reads from within a single allocated block. Bytes that have never been written are read as 0.
+     * @param block_id id of an allocated block
+     * @param in_block_offset offset within the block
+     * @param b target array
+     * @param off offset within the target array
+     * @param len number of bytes to read (in_block_offset + len has to be smaller than or equal to the block size)
+     */
+    public void read(int block_id, int in_block_offset, byte[] b, int off, int len) {
+        check_range(block_id, in_block_offset, len);
+        long start = block_start(block_id) + in_block_offset;
+        long available = Math.max(0, Math.min(len, underlying.contentSize() - start));
+        if(available > 0)
+            underlying.copyInto(start, b, off, (int) available);
+        Arrays.fill(b, off + (int) available, off + len, (byte) 0);
+    }
+
+    /**
+     * @param block_id id of an allocated block
+     * @return the complete content of the block
+     */
+    public byte[] readBlock(int block_id) {
+        byte[] block = new byte[block_size];
+        read(block_id, 0, block, 0, block_size);
+        return block;
+    }
+
+    /**
+     * Writes within a single allocated block. Does not touch any other block.
+     * @param block_id id of an allocated block
+     * @param in_block_offset offset within the block
+     * @param b source array
+     * @param off offset within the source array
+     * @param len number of bytes to write (in_block_offset + len has to be smaller than or equal to the block size)
+     */
+    public void write(int block_id, int in_block_offset, byte[] b, int off, int len) {
+        check_range(block_id, in_block_offset, len);
+        underlying.set(block_start(block_id) + in_block_offset, b, off, len);
+    }
+
+    /**
+     * @param block_id id of an allocated block
+     * @param content new content of the block, at most block size bytes (written from the start of the block)
+     */
+    public void writeBlock(int block_id, byte[] content) {
+        write(block_id, 0, content, 0, content.length);
+    }
+
+    /** Frees all blocks and truncates the underlying storage to the header. */
+    public void clear() {
+        used.clear();
+        underlying.set(FACTS_LENGTH, new byte[bitmap_length(max_blocks)]);
+        if(underlying.contentSize() > header_length)
+            underlying.delete(header_length, underlying.contentSize());
+        high_water = 0;
+        free_count = 0;
+    }
+
+    /**
+     * Truncates the underlying storage after the highest allocated block. O(max blocks).
+     * Freed blocks at the end no longer take up space.
+     */
+    public void trimToSize() {
+        rebuild_free_stack();
+        long end = block_start(high_water);
+        if(underlying.contentSize() > end)
+            underlying.delete(end, underlying.contentSize());
+    }
+
+    public int getBlockSize() {
+        return block_size;
+    }
+    public int getMaxBlocks() {
+        return max_blocks;
+    }
+    /** @return number of currently allocated blocks */
+    public int getUsedBlockCount() {
+        return high_water - free_count;
+    }
+
+    @Override public void close() throws Exception {
+        underlying.close();
+    }
+
+    @Override public String toString() {
+        return "[FixedBlockBytesStorage: block_size=" + block_size + ", used=" + getUsedBlockCount() + "/" + max_blocks + ", underlying=" + underlying + "]";
+    }
+
+
+
+    private static int bitmap_length(int max_blocks) {
+        return (max_blocks + 7) / 8;
+    }
+    private long block_start(int block_id) {
+        return header_length + (long) block_id * block_size;
+    }
+    private void check_allocated(int block_id) {
+        if(block_id < 0 || block_id >= max_blocks || !used.get(block_id))
+            throw new IllegalArgumentException("block("+block_id+") is not allocated");
+    }
+    private void check_range(int block_id, int in_block_offset, int len) {
+        check_allocated(block_id);
+        if(in_block_offset < 0 || len < 0 || in_block_offset + len > block_size)
+            throw new IndexOutOfBoundsException("block_size("+block_size+"), in_block_offset("+in_block_offset+"), len("+len+")");
+    }
+    private void persist_bitmap_byte(int block_id) {
+        int byte_index = block_id / 8;
+        byte bitmap_byte = 0;
+        for(int bit=0;bit<8;bit++)
+            if(used.get(byte_index*8 + bit))
+                bitmap_byte |= 1 << bit;
+        underlying.set(FACTS_LENGTH + byte_index, bitmap_byte);
+    }
+    //free ids are pushed in descending order, so that the lowest ids are reused first (keeps the storage compact)
+    private void rebuild_free_stack() {
+        high_water = used.length();
+        free_count = 0;
+        for(int i=high_water-1;i>=0;i--) {
+            if(!used.get(i)) {
+                if(free_count == free_stack.length)
+                    free_stack = Arrays.copyOf(free_stack, free_stack.length * 2);
+                free_stack[free_count++] = i;
+            }
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package jokrey.utilities.transparent_storage.bytes.file;
+
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Implementation of {@link TransparentBytesStorage} writing the bytes into a file.
+ * Same file format as {@link FileStorage}, but uses positional reads and writes on a {@link FileChannel} (i.e. pread and pwrite) instead of seek+read on a RandomAccessFile.
+ *    Since there is no shared file pointer, readers never block each other (or anyone who only overwrites or appends bytes).
+ *    Only the structure changing operations (delete, insert, setContent and clear) take an exclusive lock, because they move bytes other callers may currently be reading.
+ *
+ * This makes it the file storage of choice when multiple threads read concurrently,
+ *    for example behind the read lock of a {@link jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.thread_safe.SynchronizingTagBasedEncoder}.
+ *
+ * Deletion requires a lot of copying, so whenever possible only call once.
+ *
+ * Querying all content (via {@link #getContent()}) might result in arrays too large for ram.
+ *    That will throw an exception, so generally do not use getContent(). Except for testing(maybe).
+ *
+ * Thread safe and reentrant for all methods.
+ *
+ * @author jokrey
+ */
+public class FileChannelStorage implements TransparentBytesStorage {
+    private final RandomAccessFile raf;
+    protected final FileChannel channel;
+    private final int io_buffer_size;
+    private final ReentrantReadWriteLock structure_lock = new ReentrantReadWriteLock();
+
+    /**
+     * Internally creates and opens access to the provided file.
+     * close should be called after one is done using it, to not create a resource leak.
+     *
+     * io_buffer_size will be used as the buffer size for the internal copy operations (namely delete, insert and set(InputStream))
+     *    For bigger files it should be between (2^12(4096) and 2^16(65536)) or even bigger depending on RAM capabilities.
+     *
+     * @param file file to create and read from.
+     * @param io_buffer_size buffer size to use for internal copy operations
+     * @param mode mode of the underlying RAF (see {@link RandomAccessFile#RandomAccessFile(File, String)})
+     * @throws FileNotFoundException if the file cannot be created
+     */
+    public FileChannelStorage(File file, int io_buffer_size, String mode) throws FileNotFoundException {
+        raf = new RandomAccessFile(file, mode);
+        channel = raf.getChannel();
+        this.io_buffer_size = io_buffer_size;
+    }
+
+    /**
+     * Same as {@link FileChannelStorage(File, int, String)},
+     *    but takes a standard io_buffer_size of 8192(2^13)
+     *    and an optimistic RAF mode of 'rw'
+     *
+     * @param file file to create and read from.
+     * @throws FileNotFoundException if the file cannot be created
+     */
+    public FileChannelStorage(File file) throws FileNotFoundException {
+        this(file, 8192, "rw");
+    }
+
+    /**
+     * Forces all changes (content and length, not necessarily metadata) to be written to the underlying device.
+     */
+    public void flush() {
+        flush(false);
+    }
+
+    /**
+     * Forces all changes to be written to the underlying device.
+     * @param include_metadata whether file metadata (for example the modification time) has to be written as well
+     */
+    public void flush(boolean include_metadata) {
+        try {
+            channel.force(include_metadata);
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal FileChannelStorage-Error("+e.getMessage()+").");
+        }
+    }
+
+    /**
+     * Closes the file
+     * @throws IOException on underlying file close exception
+     */
+    @Override public void close() throws IOException {
+        channel.close();
+        raf.close();
+    }
+
+
+    @Override public void clear() {
+        setContent(new byte[0]);
+    }
+
+    @Override public void setContent(byte[] content) throws StorageSystemException {
+        structure_lock.writeLock().lock();
+        try {
+            channel.truncate(0);
+            writeFully(ByteBuffer.wrap(content), 0);
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal FileChannelStorage-Error("+e.getMessage()+").");
+        } finally {
+            structure_lock.writeLock().unlock();
+        }
+    }
+
+    @Override public byte[] getContent() throws StorageSystemException {
+        structure_lock.readLock().lock();
+        try {
+            long contentSize = channel.size();
+            if(contentSize > Integer.MAX_VALUE) throw new IllegalStateException("File content does not fit array, use stream instead.");
+            byte[] content = new byte[(int) contentSize]; //might throw an exception, which is fine.
+            readFully(ByteBuffer.wrap(content), 0);
+            return content;
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal FileChannelStorage-Error("+e.getMessage()+").");
+        } finally {
+            structure_lock.readLock().unlock();
+        }
+    }
+
+
+    //does only a truncate if end == contentSize()
+    @Override public FileChannelStorage delete(long start, long end) throws StorageSystemException {
+        long len = end - start;
+        if (len <= 0)
+            throw new StorageSystemException("Cannot delete 0 or less than 0 bytes.");
+        structure_lock.writeLock().lock();
+        try {
+            long file_length = channel.size();
+            if(start>=file_length || end > file_length || start < 0) {
+                throw new IndexOutOfBoundsException("file_length("+file_length+"), start("+start+"), end("+end+")");
+            }
+            copyFileContent(end, start, file_length - end);//copy data from end of deleted area to start of deleted area, overriding the bytes in between
+            channel.truncate(file_length - len);
+            return this;
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal FileChannelStorage-Error("+e.getMessage()+").");
+        } finally {
+            structure_lock.writeLock().unlock();
+        }
+    }
+
+    //NOT SAFE IN CRASH
+    @Override public FileChannelStorage insert(long start, byte[] val) {
+        structure_lock.writeLock().lock();
+        try {
+            long file_length_before = channel.size();
+            if(start > file_length_before) throw new IndexOutOfBoundsException();
+            copyFileContent(start, start + val.length, file_length_before - start); //copy data after insert index to end of insert area (extends the file)
+            writeFully(ByteBuffer.wrap(val), start);
+            return this;
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal FileChannelStorage-Error("+e.getMessage()+").");
+        } finally {
+            structure_lock.writeLock().unlock();
+        }
+    }
+
+    @Override public FileChannelStorage set(long start, InputStream content, long content_length) throws StorageSystemException {
+        structure_lock.readLock().lock();
+        try {
+            if(start > channel.size()) throw new IndexOutOfBoundsException();
+            long expected_bytes_count = content_length;
+            byte[] data = new byte[(int) Math.max(1, Math.min(io_buffer_size, content_length))];
+            int nRead;
+            while (content_length > 0 && (nRead = content.read(data, 0, (int) Math.min(data.length, content_length))) != -1) {
+                writeFully(ByteBuffer.wrap(data, 0, nRead), start);
+                start += nRead;
+                content_length -= nRead;
+            }
+            content.close();
+            if (content_length > 0) {
+                //pad, to ensure at least content_length bytes exist at the correct position now.
+                writeFully(ByteBuffer.wrap(new byte[1]), start + content_length - 1);
+                throw new StorageSystemException("the provided stream failed to deliver the promised number of bytes(missing: " + content_length + " of expected " + expected_bytes_count + ")");
+            }
+        } catch (IOException ex) {
+            throw new StorageSystemException("IO Exception thrown by provided InputStream("+ex.getMessage()+")");
+        } finally {
+            structure_lock.readLock().unlock();
+        }
+        return this;
+    }
+
+    @Override public FileChannelStorage set(long start, byte[] part, int off, int len) throws StorageSystemException {
+        structure_lock.readLock().lock();
+        try {
+            writeFully(ByteBuffer.wrap(part, off, Math.min(len, part.length - off)), start);
+        } catch (IOException ex) {
+            throw new StorageSystemException("Internal FileChannelStorage-Error("+ex.getMessage()+").");
+        } finally {
+            structure_lock.readLock().unlock();
+        }
+        return this;
+    }
+
+    @Override public FileChannelStorage set(long start, byte part) throws StorageSystemException {
+        return set(start, new byte[] {part}, 0, 1);
+    }
+
+    @Override public FileChannelStorage set(long at, byte[]... parts) throws StorageSystemException {
+        structure_lock.readLock().lock();
+        try {
+            ByteBuffer[] buffers = new ByteBuffer[parts.length];
+            for(int i=0;i<parts.length;i++)
+                buffers[i] = ByteBuffer.wrap(parts[i]);
+            writeFully(buffers, at);
+        } catch (IOException ex) {
+            throw new StorageSystemException("Internal FileChannelStorage-Error("+ex.getMessage()+").");
+        } finally {
+            structure_lock.readLock().unlock();
+        }
+        return this;
+    }
+
+    @Override public byte[] sub(long start, long end_given) throws StorageSystemException {
+        structure_lock.readLock().lock();
+        try {
+            long end = Math.min(end_given, channel.size()); //to satisfy interface doc condition
+            if (start < 0) start = 0; //to satisfy interface doc condition
+            long len = end - start;
+            if (len > 0) {
+                byte[] subarray = new byte[(int) len];
+                readFully(ByteBuffer.wrap(subarray), start);
+                return subarray;
+            } else if(len==0)
+                return new byte[0];
+            else
+                throw new StorageSystemException("Cannot create sub of less than 0 bytes.");
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal FileChannelStorage-Error("+e.getMessage()+").");
+        } finally {
+            structure_lock.readLock().unlock();
+        }
+    }
+
+    @Override public FileChannelStorage copyInto(long start, byte[] b, int off, int len) {
+        if(len < 0)
+            throw new StorageSystemException("Cannot create sub of less than 0 bytes.");
+        structure_lock.readLock().lock();
+        try {
+            readFully(ByteBuffer.wrap(b, off, len), start);
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal FileChannelStorage-Error("+e.getMessage()+").");
+        } finally {
+            structure_lock.readLock().unlock();
+        }
+        return this;
+    }
+
+    @Override public byte getByte(long index) {
+        byte[] single = new byte[1];
+        copyInto(index, single, 0, 1);
+        return single[0];
+    }
+
+    /**
+     * Unlike the streams returned by {@link FileStorage}, the returned stream does not share a file pointer.
+     *    It is therefore thread safe with respect to other readers - as long as the underlying bytes are not moved (by delete or insert) while the stream is read.
+     * {@inheritDoc}
+     */
+    @Override public InputStream substream(long start, long end_given) throws StorageSystemException {
+        long end = Math.min(end_given, contentSize()); //to satisfy interface doc condition
+        if(start<0) {
+            throw new StorageSystemException("the start position("+start+") has to be greater than 0");
+        } else if (end - start < 0) {
+            throw new StorageSystemException("Cannot create substream of less than 0 bytes");
+        }
+        return new InputStream() {
+            long position = start;
+            @Override public int read() {
+                if(position>=end) return -1;
+                return getByte(position++) & 0xFF;
+            }
+            @Override public int read(byte[] b, int off, int len) {
+                if(position>=end) return -1;
+                len = (int) Math.min(len, end-position);
+                copyInto(position, b, off, len);
+                position += len;
+                return len;
+            }
+            @Override public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, end-position));
+                position += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    @Override public InputStream stream() {
+        return substream(0, contentSize());
+    }
+
+    @Override public long contentSize() throws StorageSystemException {
+        try {
+            return channel.size();
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal FileChannelStorage-Error("+e.getMessage()+").");
+        }
+    }
+
+    @Override public boolean isEmpty() {
+        return contentSize() == 0;
+    }
+
+    //would be too slow to actually use, so prohibit usage
+
+    @Override public boolean equals(Object obj) {
+        throw new UnsupportedOperationException("equals not supported on file storage system");
+    }
+
+    @Override public int hashCode() {
+        throw new UnsupportedOperationException("hashCode not supported on file storage system");
+    }
+
+
+
+    //INTERNAL
+
+    //copies numToCopy bytes from 'from' to 'to', works with overlapping ranges (in both directions) - caller has to hold the write lock
+    private void copyFileContent(long from, long to, long numToCopy) throws IOException {
+        if(numToCopy <= 0 || from == to) return;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(io_buffer_size, numToCopy));
+        if(from > to) {
+            for (long copied = 0; copied < numToCopy; ) {
+                int chunk = (int) Math.min(buffer.capacity(), numToCopy - copied);
+                buffer.clear().limit(chunk);
+                readFully(buffer, from + copied);
+                buffer.flip();
+                writeFully(buffer, to + copied);
+                copied += chunk;
+            }
+        } else {
+            for (long remaining = numToCopy; remaining > 0; ) {
+                int chunk = (int) Math.min(buffer.capacity(), remaining);
+                remaining -= chunk;
+                buffer.clear().limit(chunk);
+                readFully(buffer, from + remaining);
+                buffer.flip();
+                writeFully(buffer, to + remaining);
+            }
+        }
+    }
+
+    private void readFully(ByteBuffer into, long position) throws IOException {
+        while(into.hasRemaining()) {
+            int read = channel.read(into, position);
+            if(read < 0)
+                throw new EOFException("file ended before the requested range could be read(position="+position+")");
+            position += read;
+        }
+    }
+    private void writeFully(ByteBuffer from, long position) throws IOException {
+        while(from.hasRemaining())
+            position += channel.write(from, position);
+    }
+    //gather write: there is no positional variant, so the channel position is used - nothing else in here uses it, but concurrent gather writes have to be serialized
+    private void writeFully(ByteBuffer[] from, long position) throws IOException {
+        long remaining = 0;
+        for(ByteBuffer b:from) remaining += b.remaining();
+        synchronized (channel) {
+            channel.position(position);
+            while(remaining > 0)
+                remaining -= channel.write(from);
+        }
+    }
+}
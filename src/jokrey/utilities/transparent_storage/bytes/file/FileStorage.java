@@ -4,6 +4,8 @@ import jokrey.utilities.transparent_storage.StorageSystemException;
 import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 /**
@@ -231,12 +233,17 @@ public class FileStorage implements TransparentBytesStorage {
 
     @Override public TransparentBytesStorage set(long at, byte[]... parts) throws StorageSystemException {
         try {
-//            long partsLength = 0;
-//            for(byte[] part:parts) partsLength += part.length;
+            long remaining = 0;
+            ByteBuffer[] buffers = new ByteBuffer[parts.length];
+            for(int i=0;i<parts.length;i++) {
+                buffers[i] = ByteBuffer.wrap(parts[i]);
+                remaining += parts[i].length;
+            }
             synchronized (raf) {
-                raf.seek(at);
-                for(byte[] part:parts)
-                    raf.write(part);
+                FileChannel channel = raf.getChannel(); //single gather write, instead of one write call per part
+                channel.position(at);
+                while(remaining > 0)
+                    remaining -= channel.write(buffers);
             }
         } catch (IOException ex) {
             throw new StorageSystemException("IO Exception thrown by provided InputStream("+ex.getMessage()+")");
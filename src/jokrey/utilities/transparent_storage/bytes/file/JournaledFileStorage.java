@@ -0,0 +1,223 @@
+package jokrey.utilities.transparent_storage.bytes.file;
+
+import jokrey.utilities.bitsandbytes.BitHelper;
+import jokrey.utilities.encoder.as_union.li.LIPosition;
+import jokrey.utilities.encoder.as_union.li.bytes.LIbae;
+import jokrey.utilities.transparent_storage.StorageSystemException;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Crash safe variant of {@link FileChannelStorage} (same file format).
+ *
+ * Uses an undo journal (a second file next to the storage file, suffix ".journal"):
+ *    Changes are grouped. The first change of a group writes the current file length into the journal (and forces it to disk).
+ *    Before any change overwrites (or moves, or truncates) bytes that existed when the group began, those bytes are copied into the journal (and the journal is forced to disk).
+ *    Appends to bytes that did not exist when the group began require no journal write at all - they are simply cut off on roll back.
+ *    {@link #commit()} forces the storage file to disk and then empties the journal - the group is now durable.
+ * On open a non empty journal means a crash occurred before the last group was committed.
+ *    The group is rolled back, by writing the journaled bytes back (in reverse order) and restoring the file length. Torn (incomplete) journal records are ignored:
+ *    their data change cannot have started, because the journal is forced before each such change.
+ *
+ * So after a crash the file contains exactly the content of the last commit. Even if the crash happened in the middle of a delete or insert that was moving bytes.
+ *
+ * A group is committed automatically after max_ops_per_group changes and on close. So many small appends (for example the addEntry calls of a {@link jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder})
+ *    share one header write and one commit (i.e. three forces), instead of forcing the file for each of them.
+ * Delete and insert have to journal all bytes after the changed index (just like they have to move them). Prefer deleting from the end of the file.
+ *
+ * Thread safe, changes are serialized.
+ *
+ * @author jokrey
+ */
+public class JournaledFileStorage extends FileChannelStorage {
+    private static final long HEADER_MARKER = -1;
+
+    private final FileChannelStorage journal;
+    private final int io_buffer_size;
+    private final int max_ops_per_group;
+
+    private long group_start_size = -1; //-1 == no open group
+    private int ops_in_group = 0;
+
+    /**
+     * Opens the file and rolls back any uncommitted group found in the journal.
+     * @param file file to create and read from.
+     * @param io_buffer_size buffer size to use for internal copy operations (and the maximum size of a single journal record)
+     * @param max_ops_per_group number of changes after which a group is committed automatically
+     * @throws FileNotFoundException if the file or the journal cannot be created
+     */
+    public JournaledFileStorage(File file, int io_buffer_size, int max_ops_per_group) throws FileNotFoundException {
+        super(file, io_buffer_size, "rw");
+        this.io_buffer_size = io_buffer_size;
+        this.max_ops_per_group = max_ops_per_group;
+        journal = new FileChannelStorage(new File(file.getPath()+".journal"));
+        recover();
+    }
+
+    /**
+     * Same as {@link JournaledFileStorage(File, int, int)},
+     *    but takes a standard io_buffer_size of 8192(2^13) and commits at the latest after 128 changes
+     *
+     * @param file file to create and read from.
+     * @throws FileNotFoundException if the file or the journal cannot be created
+     */
+    public JournaledFileStorage(File file) throws FileNotFoundException {
+        this(file, 8192, 128);
+    }
+
+    /**
+     * Makes all changes since the last commit durable.
+     * Forces the storage file to disk and empties the journal.
+     */
+    public void commit() {
+        synchronized (journal) {
+            if(group_start_size == -1) return;
+            flush();
+            journal.clear();
+            journal.flush();
+            group_start_size = -1;
+            ops_in_group = 0;
+        }
+    }
+
+    /**
+     * Commits and closes both the file and the journal
+     * @throws IOException on underlying file close exception
+     */
+    @Override public void close() throws IOException {
+        commit();
+        journal.close();
+        super.close();
+    }
+
+
+    @Override public void setContent(byte[] content) throws StorageSystemException {
+        synchronized (journal) {
+            beforeChange(0, contentSize());
+            super.setContent(content);
+            afterChange();
+        }
+    }
+
+    @Override public JournaledFileStorage delete(long start, long end) throws StorageSystemException {
+        synchronized (journal) {
+            beforeChange(start, contentSize());
+            super.delete(start, end);
+            afterChange();
+            return this;
+        }
+    }
+
+    @Override public JournaledFileStorage insert(long start, byte[] val) {
+        synchronized (journal) {
+            beforeChange(start, contentSize());
+            super.insert(start, val);
+            afterChange();
+            return this;
+        }
+    }
+
+    @Override public JournaledFileStorage set(long start, InputStream content, long content_length) throws StorageSystemException {
+        synchronized (journal) {
+            beforeChange(start, start + content_length);
+            super.set(start, content, content_length);
+            afterChange();
+            return this;
+        }
+    }
+
+    @Override public JournaledFileStorage set(long start, byte[] part, int off, int len) throws StorageSystemException {
+        synchronized (journal) {
+            beforeChange(start, start + Math.min(len, part.length - off));
+            super.set(start, part, off, len);
+            afterChange();
+            return this;
+        }
+    }
+
+    @Override public JournaledFileStorage set(long at, byte[]... parts) throws StorageSystemException {
+        synchronized (journal) {
+            long partsLength = 0;
+            for(byte[] part:parts) partsLength += part.length;
+            beforeChange(at, at + partsLength);
+            super.set(at, parts);
+            afterChange();
+            return this;
+        }
+    }
+
+
+
+    //INTERNAL - callers hold the journal monitor
+
+    //opens a group if required and journals the bytes in [start, end) that existed when the group began and still exist now
+    private void beforeChange(long start, long end) {
+        if(group_start_size == -1) {
+            group_start_size = contentSize();
+            writeRecord(HEADER_MARKER, BitHelper.getBytes(group_start_size));
+            journal.flush();
+        }
+        end = Math.min(end, Math.min(group_start_size, contentSize()));
+        if(start < 0 || start >= end) return;
+        for(long i = start; i < end; i += io_buffer_size)
+            writeRecord(i, sub(i, Math.min(end, i + io_buffer_size)));
+        journal.flush();
+    }
+    private void afterChange() {
+        ops_in_group++;
+        if(ops_in_group >= max_ops_per_group)
+            commit();
+    }
+
+    //record: li(8 byte offset + bytes) li(crc32 of the first element)
+    private void writeRecord(long offset, byte[] bytes) {
+        byte[] payload = new byte[8 + bytes.length];
+        BitHelper.writeInNBytes(payload, 0, offset, 8);
+        System.arraycopy(bytes, 0, payload, 8, bytes.length);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        byte[] checksum = BitHelper.getBytes((int) crc.getValue());
+        journal.set(journal.contentSize(), LIbae.generateLI(payload.length), payload, LIbae.generateLI(checksum.length), checksum);
+    }
+
+    private void recover() {
+        ArrayList<byte[]> records = new ArrayList<>();
+        LIbae reader = new LIbae(journal);
+        long journal_size = journal.contentSize();
+        LIPosition pos = reader.reset();
+        while(pos.pointer < journal_size) {
+            byte[] payload = reader.decode(pos);
+            byte[] checksum = reader.decode(pos);
+            if(payload == null || checksum == null || payload.length < 8 || checksum.length != 4 || pos.pointer > journal_size) break;
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if((int) crc.getValue() != BitHelper.getInt32From(checksum)) break; //torn record
+            records.add(payload);
+        }
+
+        if(!records.isEmpty() && BitHelper.getIntFromNBytes(records.get(0), 0, 8) == HEADER_MARKER) {
+            long original_size = BitHelper.getIntFromNBytes(records.get(0), 8, 8);
+            for(int i = records.size()-1; i > 0; i--) {
+                byte[] payload = records.get(i);
+                long offset = BitHelper.getIntFromNBytes(payload, 0, 8);
+                byte[] old = new byte[payload.length - 8];
+                System.arraycopy(payload, 8, old, 0, old.length);
+                super.set(offset, old, 0, old.length); //super, so that the roll back itself is not journaled
+            }
+            try {
+                if(contentSize() > original_size)
+                    channel.truncate(original_size);
+            } catch (IOException e) {
+                throw new StorageSystemException("Internal JournaledFileStorage-Error("+e.getMessage()+").");
+            }
+            flush();
+        }
+        journal.clear();
+        journal.flush();
+    }
+}
@@ -0,0 +1,512 @@
+package jokrey.utilities.transparent_storage.bytes.file;
+
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Implementation of {@link TransparentBytesStorage} writing the bytes into a memory mapped file.
+ *
+ * The file is mapped in fixed size segments (each at most segment_size bytes), so the file can grow past the 2GB limit of a single mapping.
+ *    Reads (sub, copyInto, getByte and the streams) are served directly from the mapped pages - i.e. from the os page cache, without a syscall per read.
+ *    The file (and the mapping) is grown ahead of the content: doubling, but by at most one segment at a time.
+ *    So a run of appends only remaps the tail segment O(log(segment_size)) times per segment, instead of on every append.
+ *    (Java cannot explicitly unmap, every replaced mapping stays alive until the gc collects it - too many would exhaust the mappings of the process)
+ *    Deletion and insertion still require moving all bytes after the altered index, but that is done in memory.
+ *
+ * While the storage is open the file may be longer than the content, the content size is tracked separately.
+ *    {@link #flush()} and {@link #close()} truncate the file to exactly the content size. So a (closed or flushed) file written by {@link FileStorage} can be read by this storage and vice versa.
+ *    After a crash the file may contain trailing zeros, which are then considered content.
+ *
+ * Thread safe and reentrant for all methods.
+ *    Readers do not block each other, only operations that grow or shrink the file (i.e. that require a remap) are exclusive.
+ *
+ * Querying all content (via {@link #getContent()}) might result in arrays too large for ram.
+ *    That will throw an exception, so generally do not use getContent(). Except for testing(maybe).
+ *
+ * NOTE: Some operating systems (namely windows) do not allow truncating a file while parts of it are still mapped.
+ *    Since java cannot explicitly unmap, flush and close may fail there until the gc has collected the dropped segments.
+ *
+ * @author jokrey
+ */
+public class MappedFileStorage implements TransparentBytesStorage {
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int segment_size;
+    private final int io_buffer_size;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private static final long MIN_GROWTH = 1 << 12;
+
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0]; //map [0, capacity)
+    private long capacity; //file length
+    private long size; //content size
+    private long high_water; //bytes in [size, high_water) are left over from before a shrink, they have to be zeroed when growing over them
+
+    /**
+     * Internally creates, opens and maps the provided file.
+     * close should be called after one is done using it, to not create a resource leak.
+     *
+     * segment_size determines the size of each mapped region.
+     *    Larger segments mean fewer mappings, but each growth of the file remaps the tail segment, which is more expensive for larger segments.
+     *    Something between 2^20(1MiB) and 2^30(1GiB) is sensible, a multiple of the os page size is strongly recommended.
+     *
+     * @param file file to create, map and read from.
+     * @param segment_size maximum size of each mapped region
+     * @param io_buffer_size buffer size to use for internal copy operations (namely delete, insert and set(InputStream))
+     * @throws FileNotFoundException if the file cannot be created
+     * @throws StorageSystemException if the file cannot be mapped
+     */
+    public MappedFileStorage(File file, int segment_size, int io_buffer_size) throws FileNotFoundException {
+        if(segment_size <= 0) throw new IllegalArgumentException("segment_size("+segment_size+") <= 0");
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        this.segment_size = segment_size;
+        this.io_buffer_size = io_buffer_size;
+        try {
+            long file_length = raf.length();
+            remap(0, file_length);
+            capacity = file_length;
+            size = file_length;
+            high_water = file_length;
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal MappedFileStorage-Error("+e.getMessage()+").");
+        }
+    }
+
+    /**
+     * Same as {@link MappedFileStorage(File, int, int)},
+     *    but takes a standard io_buffer_size of 8192(2^13)
+     *
+     * @param file file to create, map and read from.
+     * @param segment_size maximum size of each mapped region
+     * @throws FileNotFoundException if the file cannot be created
+     */
+    public MappedFileStorage(File file, int segment_size) throws FileNotFoundException {
+        this(file, segment_size, 8192);
+    }
+
+    /**
+     * Same as {@link MappedFileStorage(File, int, int)},
+     *    but takes a standard segment_size of 2^30(1GiB) and a standard io_buffer_size of 8192(2^13)
+     *
+     * @param file file to create, map and read from.
+     * @throws FileNotFoundException if the file cannot be created
+     */
+    public MappedFileStorage(File file) throws FileNotFoundException {
+        this(file, 1 << 30, 8192);
+    }
+
+    /**
+     * Truncates the file to the content size and forces all changes to the mapped segments to be written to the underlying device.
+     */
+    public void flush() {
+        lock.writeLock().lock();
+        try {
+            trim();
+            for(MappedByteBuffer segment:segments)
+                segment.force();
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal MappedFileStorage-Error("+e.getMessage()+").");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Unmaps (by dropping the reference), truncates the file to the content size and closes it
+     * @throws IOException on underlying file close exception
+     */
+    @Override public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            segments = new MappedByteBuffer[0];
+            if(channel.isOpen())
+                raf.setLength(size);
+            size = 0;
+            capacity = 0;
+            high_water = 0;
+            channel.close();
+            raf.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    @Override public void clear() {
+        setContent(new byte[0]);
+    }
+
+    @Override public void setContent(byte[] content) throws StorageSystemException {
+        lock.writeLock().lock();
+        try {
+            resize(0);
+            resize(content.length);
+            write(0, content, 0, content.length);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override public byte[] getContent() throws StorageSystemException {
+        lock.readLock().lock();
+        try {
+            if(size > Integer.MAX_VALUE) throw new IllegalStateException("File content does not fit array, use stream instead.");
+            byte[] content = new byte[(int) size];
+            read(0, content, 0, content.length);
+            return content;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    @Override public MappedFileStorage delete(long start, long end) throws StorageSystemException {
+        long len = end - start;
+        if (len <= 0)
+            throw new StorageSystemException("Cannot delete 0 or less than 0 bytes.");
+        lock.writeLock().lock();
+        try {
+            if(start>=size || end > size || start < 0) {
+                throw new IndexOutOfBoundsException("size("+size+"), start("+start+"), end("+end+")");
+            }
+            move(end, start, size - end);//copy data from end of deleted area to start of deleted area, overriding the bytes in between
+            resize(size - len);
+            return this;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override public MappedFileStorage insert(long start, byte[] val) {
+        lock.writeLock().lock();
+        try {
+            if(start > size) throw new IndexOutOfBoundsException();
+            long size_before = size;
+            resize(size_before + val.length);
+            move(start, start + val.length, size_before - start); //copy data after insert index to end of insert area
+            write(start, val, 0, val.length);
+            return this;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override public MappedFileStorage set(long start, InputStream content, long content_length) throws StorageSystemException {
+        lock.writeLock().lock();
+        try {
+            if(start > size) throw new IndexOutOfBoundsException();
+            ensureSize(start + content_length); //too ensure at least content_length bytes exist at the correct position now.
+            long expected_bytes_count = content_length;
+            byte[] data = new byte[(int) Math.max(1, Math.min(io_buffer_size, content_length))];
+            int nRead;
+            while (content_length > 0 && (nRead = content.read(data, 0, (int) Math.min(data.length, content_length))) != -1) {
+                write(start, data, 0, nRead);
+                start += nRead;
+                content_length -= nRead;
+            }
+            content.close();
+            if (content_length > 0)
+                throw new StorageSystemException("the provided stream failed to deliver the promised number of bytes(missing: " + content_length + " of expected " + expected_bytes_count + ")");
+        } catch (IOException ex) {
+            throw new StorageSystemException("IO Exception thrown by provided InputStream("+ex.getMessage()+")");
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return this;
+    }
+
+    @Override public MappedFileStorage set(long start, byte[] part, int off, int len) throws StorageSystemException {
+        len = Math.min(len, part.length - off);
+        lock.writeLock().lock();
+        try {
+            ensureSize(start + len);
+            write(start, part, off, len);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return this;
+    }
+
+    @Override public MappedFileStorage set(long start, byte part) throws StorageSystemException {
+        lock.writeLock().lock();
+        try {
+            ensureSize(start + 1);
+            segments[segmentOf(start)].put(offsetIn(start), part);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return this;
+    }
+
+    @Override public MappedFileStorage set(long at, byte[]... parts) throws StorageSystemException {
+        long partsLength = 0;
+        for(byte[] part:parts) partsLength += part.length;
+        lock.writeLock().lock();
+        try {
+            ensureSize(at + partsLength);
+            for(byte[] part:parts) {
+                write(at, part, 0, part.length);
+                at += part.length;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return this;
+    }
+
+    @Override public byte[] sub(long start, long end_given) throws StorageSystemException {
+        lock.readLock().lock();
+        try {
+            long end = Math.min(end_given, size); //to satisfy interface doc condition
+            if (start < 0) start = 0; //to satisfy interface doc condition
+            long len = end - start;
+            if (len > 0) {
+                byte[] subarray = new byte[(int) len];
+                read(start, subarray, 0, subarray.length);
+                return subarray;
+            } else if(len==0)
+                return new byte[0];
+            else
+                throw new StorageSystemException("Cannot create sub of less than 0 bytes.");
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Does not copy if the range lies within a single segment - the returned buffer is then a slice of the mapped segment.
+     *    Segments are remapped when the file is resized, so the view must not be used after any altering operation.
+     * {@inheritDoc}
+     */
+    @Override public ByteBuffer view(long start, long end_given) throws StorageSystemException {
+        lock.readLock().lock();
+        try {
+            long end = Math.min(end_given, size); //to satisfy interface doc condition
+            if (start < 0) start = 0; //to satisfy interface doc condition
+            if (end - start < 0)
+                throw new StorageSystemException("Cannot create view of less than 0 bytes.");
+            if (end == start || segmentOf(start) != segmentOf(end - 1))
+                return ByteBuffer.wrap(sub(start, end)).asReadOnlyBuffer();
+            ByteBuffer segment = segments[segmentOf(start)].duplicate();
+            segment.position(offsetIn(start)).limit(offsetIn(start) + (int) (end - start));
+            return segment.slice().asReadOnlyBuffer();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override public MappedFileStorage copyInto(long start, byte[] b, int off, int len) {
+        if(len < 0)
+            throw new StorageSystemException("Cannot create sub of less than 0 bytes.");
+        lock.readLock().lock();
+        try {
+            if(start + len > size) throw new IndexOutOfBoundsException("size("+size+"), start("+start+"), len("+len+")");
+            read(start, b, off, len);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return this;
+    }
+
+    @Override public byte getByte(long index) {
+        lock.readLock().lock();
+        try {
+            if(index < 0 || index >= size) throw new IndexOutOfBoundsException("size("+size+"), index("+index+")");
+            return segments[segmentOf(index)].get(offsetIn(index));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The returned stream reads lazily from the mapped pages, i.e. no bytes are copied before they are read.
+     * Each read obtains the shared read lock, so the stream may be read concurrently to other readers.
+     * {@inheritDoc}
+     */
+    @Override public InputStream substream(long start, long end_given) throws StorageSystemException {
+        long end = Math.min(end_given, contentSize()); //to satisfy interface doc condition
+        if(start<0) {
+            throw new StorageSystemException("the start position("+start+") has to be greater than 0");
+        } else if (end - start < 0) {
+            throw new StorageSystemException("Cannot create substream of less than 0 bytes");
+        }
+        return new InputStream() {
+            long position = start;
+            @Override public int read() {
+                if(position>=end) return -1;
+                return getByte(position++) & 0xFF;
+            }
+            @Override public int read(byte[] b, int off, int len) {
+                if(position>=end) return -1;
+                len = (int) Math.min(len, end-position);
+                copyInto(position, b, off, len);
+                position += len;
+                return len;
+            }
+            @Override public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, end-position));
+                position += skipped;
+                return skipped;
+            }
+            @Override public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, end-position);
+            }
+        };
+    }
+
+    @Override public InputStream stream() {
+        return substream(0, contentSize());
+    }
+
+    @Override public long contentSize() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override public boolean isEmpty() {
+        return contentSize() == 0;
+    }
+
+    //would be too slow to actually use, so prohibit usage
+
+    @Override public boolean equals(Object obj) {
+        throw new UnsupportedOperationException("equals not supported on file storage system");
+    }
+
+    @Override public int hashCode() {
+        throw new UnsupportedOperationException("hashCode not supported on file storage system");
+    }
+
+    @Override public String toString() {
+        return "[MappedFileStorage: l=" + size + ", capacity=" + capacity + ", segment_size=" + segment_size + ", segments=" + segments.length + "]";
+    }
+
+
+
+    //INTERNAL - callers have to hold the appropriate lock
+
+    private int segmentOf(long index) {
+        return (int) (index / segment_size);
+    }
+    private int offsetIn(long index) {
+        return (int) (index % segment_size);
+    }
+
+    private void read(long start, byte[] b, int off, int len) {
+        while(len > 0) {
+            ByteBuffer segment = segments[segmentOf(start)].duplicate(); //duplicate, so that the position is not shared between readers
+            int segment_offset = offsetIn(start);
+            int toRead = Math.min(len, segment_size - segment_offset);
+            segment.position(segment_offset);
+            segment.get(b, off, toRead);
+            start += toRead;
+            off += toRead;
+            len -= toRead;
+        }
+    }
+    private void write(long start, byte[] b, int off, int len) {
+        while(len > 0) {
+            ByteBuffer segment = segments[segmentOf(start)].duplicate();
+            int segment_offset = offsetIn(start);
+            int toWrite = Math.min(len, segment_size - segment_offset);
+            segment.position(segment_offset);
+            segment.put(b, off, toWrite);
+            start += toWrite;
+            off += toWrite;
+            len -= toWrite;
+        }
+    }
+
+    //copies numToCopy bytes from 'from' to 'to', works with overlapping ranges (in both directions)
+    private void move(long from, long to, long numToCopy) {
+        if(numToCopy <= 0 || from == to) return;
+        byte[] buffer = new byte[(int) Math.min(io_buffer_size, numToCopy)];
+        if(from > to) {
+            for (long copied = 0; copied < numToCopy; ) {
+                int chunk = (int) Math.min(buffer.length, numToCopy - copied);
+                read(from + copied, buffer, 0, chunk);
+                write(to + copied, buffer, 0, chunk);
+                copied += chunk;
+            }
+        } else {
+            for (long remaining = numToCopy; remaining > 0; ) {
+                int chunk = (int) Math.min(buffer.length, remaining);
+                remaining -= chunk;
+                read(from + remaining, buffer, 0, chunk);
+                write(to + remaining, buffer, 0, chunk);
+            }
+        }
+    }
+
+    private void ensureSize(long at_least) {
+        if(at_least > size)
+            resize(at_least);
+    }
+
+    //the file is only grown here, never truncated (see trim)
+    private void resize(long new_size) {
+        try {
+            if(new_size > size) {
+                if(new_size > capacity)
+                    grow(new_size);
+                zero(size, Math.min(new_size, high_water));
+                high_water = Math.max(high_water, new_size);
+            }
+            size = new_size;
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal MappedFileStorage-Error("+e.getMessage()+").");
+        }
+    }
+
+    //doubles the capacity, but grows by at most one segment - so that larger files are not over allocated by more than a segment
+    private void grow(long required) throws IOException {
+        long new_capacity = Math.max(required, capacity + Math.min(Math.max(capacity, MIN_GROWTH), segment_size));
+        raf.setLength(new_capacity);
+        remap(capacity, new_capacity);
+        capacity = new_capacity;
+    }
+
+    //truncates the file to the content size
+    private void trim() throws IOException {
+        if(capacity == size) return;
+        //the segments have to be dropped before truncating, accessing a mapping beyond the end of the file is fatal
+        segments = Arrays.copyOf(segments, segmentOf(size));
+        raf.setLength(size);
+        remap((long) segmentOf(size) * segment_size, size);
+        capacity = size;
+        high_water = size;
+    }
+
+    private void zero(long start, long end) {
+        if(end <= start) return;
+        byte[] zeros = new byte[(int) Math.min(io_buffer_size, end - start)];
+        while(start < end) {
+            int part = (int) Math.min(zeros.length, end - start);
+            write(start, zeros, 0, part);
+            start += part;
+        }
+    }
+
+    //maps all segments touched by [from, new_capacity) - previous segments remain mapped
+    private void remap(long from, long new_capacity) throws IOException {
+        int segment_count = segmentOf(new_capacity) + (offsetIn(new_capacity)==0?0:1);
+        MappedByteBuffer[] new_segments = Arrays.copyOf(segments, segment_count);
+        for(int i=segmentOf(from); i<segment_count; i++) {
+            long segment_start = (long) i * segment_size;
+            new_segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, segment_start, Math.min(segment_size, new_capacity - segment_start));
+        }
+        segments = new_segments;
+    }
+}
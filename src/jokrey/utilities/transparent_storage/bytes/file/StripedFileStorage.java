@@ -0,0 +1,470 @@
+package jokrey.utilities.transparent_storage.bytes.file;
+
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Implementation of {@link TransparentBytesStorage} that spreads the bytes over multiple files (ideally on different disks).
+ *
+ * The logical content is split into stripes of stripe_size bytes. Stripe i is stored in file i % N, at offset (i / N) * stripe_size.
+ *    Large reads and writes (sub, copyInto, set and set(InputStream)) are issued to all files in parallel,
+ *    so big entries (for example those added through {@link jokrey.utilities.encoder.tag_based.implementation.paired.length_indicator.bytes.LITagBytesEncoder#addEntry_nocheck(String, InputStream, long)})
+ *    are read and written with the combined throughput of all devices.
+ *    Small accesses (below min_parallel_length) are executed directly by the calling thread.
+ *
+ * The stripe layout is not stored, the same files in the same order and the same stripe_size have to be used when reopening.
+ *
+ * Like {@link FileChannelStorage} only the structure changing operations (delete, insert, setContent and clear) take an exclusive lock.
+ *
+ * Thread safe and reentrant for all methods.
+ *
+ * @author jokrey
+ */
+public class StripedFileStorage implements TransparentBytesStorage {
+    private final RandomAccessFile[] rafs;
+    private final FileChannel[] channels;
+    private final int stripe_size;
+    private final int min_parallel_length;
+    private final ExecutorService executor;
+    private final ReentrantReadWriteLock structure_lock = new ReentrantReadWriteLock();
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * Internally creates and opens access to the provided files.
+     * close should be called after one is done using it, to not create a resource leak.
+     *
+     * @param files files to spread the content over, in this order
+     * @param stripe_size number of consecutive bytes stored in one file
+     * @param min_parallel_length accesses of at least this many bytes are executed on all files in parallel
+     * @throws FileNotFoundException if a file cannot be created
+     */
+    public StripedFileStorage(File[] files, int stripe_size, int min_parallel_length) throws FileNotFoundException {
+        if(files.length == 0 || stripe_size <= 0) throw new IllegalArgumentException("files.length("+files.length+"), stripe_size("+stripe_size+")");
+        this.stripe_size = stripe_size;
+        this.min_parallel_length = min_parallel_length;
+        rafs = new RandomAccessFile[files.length];
+        channels = new FileChannel[files.length];
+        for(int i=0;i<files.length;i++) {
+            rafs[i] = new RandomAccessFile(files[i], "rw");
+            channels[i] = rafs[i].getChannel();
+        }
+        executor = Executors.newFixedThreadPool(files.length, r -> {
+            Thread t = new Thread(r, "StripedFileStorage-io");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            long total = 0;
+            for(FileChannel channel:channels) total += channel.size();
+            size.set(total);
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal StripedFileStorage-Error("+e.getMessage()+").");
+        }
+    }
+
+    /**
+     * Same as {@link StripedFileStorage(File[], int, int)},
+     *    but places one file called name+".stripe"+i in each of the given directories, uses stripes of 65536(2^16) bytes
+     *    and parallelizes accesses of at least 262144(2^18) bytes.
+     *
+     * @param directories directories to spread the content over (ideally on different disks)
+     * @param name base name of the files
+     * @throws FileNotFoundException if a file cannot be created
+     */
+    public StripedFileStorage(File[] directories, String name) throws FileNotFoundException {
+        this(stripeFiles(directories, name), 1 << 16, 1 << 18);
+    }
+    private static File[] stripeFiles(File[] directories, String name) {
+        File[] files = new File[directories.length];
+        for(int i=0;i<directories.length;i++)
+            files[i] = new File(directories[i], name+".stripe"+i);
+        return files;
+    }
+
+    /**
+     * Closes all files
+     * @throws IOException on underlying file close exception
+     */
+    @Override public void close() throws IOException {
+        executor.shutdown();
+        for(int i=0;i<channels.length;i++) {
+            channels[i].close();
+            rafs[i].close();
+        }
+    }
+
+
+    @Override public void clear() {
+        setContent(new byte[0]);
+    }
+
+    @Override public void setContent(byte[] content) throws StorageSystemException {
+        structure_lock.writeLock().lock();
+        try {
+            truncateTo(0);
+            await(write(0, content, 0, content.length));
+            grown(content.length);
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal StripedFileStorage-Error("+e.getMessage()+").");
+        } finally {
+            structure_lock.writeLock().unlock();
+        }
+    }
+
+    @Override public byte[] getContent() throws StorageSystemException {
+        long contentSize = contentSize();
+        if(contentSize > Integer.MAX_VALUE) throw new IllegalStateException("File content does not fit array, use stream instead.");
+        return sub(0, contentSize);
+    }
+
+    //does only a truncate if end == contentSize()
+    @Override public StripedFileStorage delete(long start, long end) throws StorageSystemException {
+        long len = end - start;
+        if (len <= 0)
+            throw new StorageSystemException("Cannot delete 0 or less than 0 bytes.");
+        structure_lock.writeLock().lock();
+        try {
+            long content_size = size.get();
+            if(start>=content_size || end > content_size || start < 0) {
+                throw new IndexOutOfBoundsException("content_size("+content_size+"), start("+start+"), end("+end+")");
+            }
+            copyContent(end, start, content_size - end);//copy data from end of deleted area to start of deleted area, overriding the bytes in between
+            truncateTo(content_size - len);
+            return this;
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal StripedFileStorage-Error("+e.getMessage()+").");
+        } finally {
+            structure_lock.writeLock().unlock();
+        }
+    }
+
+    //NOT SAFE IN CRASH
+    @Override public StripedFileStorage insert(long start, byte[] val) {
+        structure_lock.writeLock().lock();
+        try {
+            long content_size_before = size.get();
+            if(start > content_size_before) throw new IndexOutOfBoundsException();
+            copyContent(start, start + val.length, content_size_before - start); //copy data after insert index to end of insert area (extends the content)
+            await(write(start, val, 0, val.length));
+            grown(content_size_before + val.length);
+            return this;
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal StripedFileStorage-Error("+e.getMessage()+").");
+        } finally {
+            structure_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads one row (stripe_size * N bytes) while the previous row is written to all files in parallel.
+     * {@inheritDoc}
+     */
+    @Override public StripedFileStorage set(long start, InputStream content, long content_length) throws StorageSystemException {
+        structure_lock.readLock().lock();
+        try {
+            if(start > size.get()) throw new IndexOutOfBoundsException();
+            long expected_bytes_count = content_length;
+            int row_size = (int) Math.max(1, Math.min((long) stripe_size * channels.length, content_length));
+            byte[] reading = new byte[row_size];
+            byte[] writing = new byte[row_size];
+            List<Future<Void>> in_progress = new ArrayList<>();
+            while (content_length > 0) {
+                int nRead = readRow(content, reading, (int) Math.min(reading.length, content_length));
+                if(nRead <= 0) break;
+                await(in_progress); //the previous row has to be written before its buffer can be reused
+                grown(start);
+                byte[] swap = writing; writing = reading; reading = swap;
+                in_progress = write(start, writing, 0, nRead);
+                start += nRead;
+                content_length -= nRead;
+            }
+            await(in_progress);
+            grown(start);
+            content.close();
+            if (content_length > 0) {
+                //pad, to ensure at least content_length bytes exist at the correct position now.
+                await(write(start + content_length - 1, new byte[1], 0, 1));
+                grown(start + content_length);
+                throw new StorageSystemException("the provided stream failed to deliver the promised number of bytes(missing: " + content_length + " of expected " + expected_bytes_count + ")");
+            }
+        } catch (IOException ex) {
+            throw new StorageSystemException("IO Exception thrown by provided InputStream("+ex.getMessage()+")");
+        } finally {
+            structure_lock.readLock().unlock();
+        }
+        return this;
+    }
+
+    @Override public StripedFileStorage set(long start, byte[] part, int off, int len) throws StorageSystemException {
+        structure_lock.readLock().lock();
+        try {
+            len = Math.min(len, part.length - off);
+            await(write(start, part, off, len));
+            grown(start + len);
+        } catch (IOException ex) {
+            throw new StorageSystemException("Internal StripedFileStorage-Error("+ex.getMessage()+").");
+        } finally {
+            structure_lock.readLock().unlock();
+        }
+        return this;
+    }
+
+    @Override public StripedFileStorage set(long start, byte part) throws StorageSystemException {
+        return set(start, new byte[] {part}, 0, 1);
+    }
+
+    @Override public StripedFileStorage set(long at, byte[]... parts) throws StorageSystemException {
+        structure_lock.readLock().lock();
+        try {
+            List<Future<Void>> in_progress = new ArrayList<>();
+            for(byte[] part:parts) {
+                in_progress.addAll(write(at, part, 0, part.length));
+                at += part.length;
+            }
+            await(in_progress);
+            grown(at);
+        } catch (IOException ex) {
+            throw new StorageSystemException("Internal StripedFileStorage-Error("+ex.getMessage()+").");
+        } finally {
+            structure_lock.readLock().unlock();
+        }
+        return this;
+    }
+
+    @Override public byte[] sub(long start, long end_given) throws StorageSystemException {
+        structure_lock.readLock().lock();
+        try {
+            long end = Math.min(end_given, size.get()); //to satisfy interface doc condition
+            if (start < 0) start = 0; //to satisfy interface doc condition
+            long len = end - start;
+            if (len > 0) {
+                byte[] subarray = new byte[(int) len];
+                await(read(start, subarray, 0, (int) len));
+                return subarray;
+            } else if(len==0)
+                return new byte[0];
+            else
+                throw new StorageSystemException("Cannot create sub of less than 0 bytes.");
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal StripedFileStorage-Error("+e.getMessage()+").");
+        } finally {
+            structure_lock.readLock().unlock();
+        }
+    }
+
+    @Override public StripedFileStorage copyInto(long start, byte[] b, int off, int len) {
+        if(len < 0)
+            throw new StorageSystemException("Cannot create sub of less than 0 bytes.");
+        structure_lock.readLock().lock();
+        try {
+            if(start + len > size.get()) throw new IndexOutOfBoundsException("size("+size.get()+"), start("+start+"), len("+len+")");
+            await(read(start, b, off, len));
+        } catch (IOException e) {
+            throw new StorageSystemException("Internal StripedFileStorage-Error("+e.getMessage()+").");
+        } finally {
+            structure_lock.readLock().unlock();
+        }
+        return this;
+    }
+
+    @Override public byte getByte(long index) {
+        byte[] single = new byte[1];
+        copyInto(index, single, 0, 1);
+        return single[0];
+    }
+
+    @Override public InputStream substream(long start, long end_given) throws StorageSystemException {
+        long end = Math.min(end_given, contentSize()); //to satisfy interface doc condition
+        if(start<0) {
+            throw new StorageSystemException("the start position("+start+") has to be greater than 0");
+        } else if (end - start < 0) {
+            throw new StorageSystemException("Cannot create substream of less than 0 bytes");
+        }
+        return new InputStream() {
+            long position = start;
+            @Override public int read() {
+                if(position>=end) return -1;
+                return getByte(position++) & 0xFF;
+            }
+            @Override public int read(byte[] b, int off, int len) {
+                if(position>=end) return -1;
+                len = (int) Math.min(len, end-position);
+                copyInto(position, b, off, len);
+                position += len;
+                return len;
+            }
+            @Override public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, end-position));
+                position += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    @Override public InputStream stream() {
+        return substream(0, contentSize());
+    }
+
+    @Override public long contentSize() {
+        return size.get();
+    }
+
+    @Override public boolean isEmpty() {
+        return contentSize() == 0;
+    }
+
+    //would be too slow to actually use, so prohibit usage
+
+    @Override public boolean equals(Object obj) {
+        throw new UnsupportedOperationException("equals not supported on file storage system");
+    }
+
+    @Override public int hashCode() {
+        throw new UnsupportedOperationException("hashCode not supported on file storage system");
+    }
+
+    @Override public String toString() {
+        return "[StripedFileStorage: l=" + contentSize() + ", files=" + channels.length + ", stripe_size=" + stripe_size + "]";
+    }
+
+
+
+    //INTERNAL
+
+    private interface SegmentAccess {
+        void access(FileChannel channel, long file_position, ByteBuffer buffer) throws IOException;
+    }
+
+    //splits [start, start+len) into its stripes - large ranges are accessed in parallel (one task per file), otherwise directly
+    //returns the tasks still in progress, which have to be awaited
+    private List<Future<Void>> access(long start, byte[] b, int off, int len, SegmentAccess access) throws IOException {
+        List<List<Object[]>> per_file = new ArrayList<>(channels.length);
+        for(int i=0;i<channels.length;i++) per_file.add(new ArrayList<>());
+        boolean parallel = len >= min_parallel_length;
+        while(len > 0) {
+            long stripe = start / stripe_size;
+            int in_stripe = (int) (start % stripe_size);
+            int chunk = Math.min(len, stripe_size - in_stripe);
+            int file = (int) (stripe % channels.length);
+            long file_position = (stripe / channels.length) * stripe_size + in_stripe;
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, chunk);
+            if(parallel)
+                per_file.get(file).add(new Object[] {file_position, buffer});
+            else
+                access.access(channels[file], file_position, buffer);
+            start += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+
+        List<Future<Void>> tasks = new ArrayList<>();
+        if(parallel) {
+            for(int i=0;i<channels.length;i++) {
+                FileChannel channel = channels[i];
+                List<Object[]> segments = per_file.get(i);
+                if(segments.isEmpty()) continue;
+                tasks.add(executor.submit(() -> {
+                    for(Object[] segment : segments)
+                        access.access(channel, (Long) segment[0], (ByteBuffer) segment[1]);
+                    return null;
+                }));
+            }
+        }
+        return tasks;
+    }
+
+    private List<Future<Void>> read(long start, byte[] b, int off, int len) throws IOException {
+        return access(start, b, off, len, (channel, position, buffer) -> {
+            while(buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if(read < 0)
+                    throw new EOFException("file ended before the requested range could be read(position="+position+")");
+                position += read;
+            }
+        });
+    }
+
+    //callers have to call grown once the returned tasks are done, so that readers never observe the new size before the bytes
+    private List<Future<Void>> write(long start, byte[] b, int off, int len) throws IOException {
+        return access(start, b, off, len, (channel, position, buffer) -> {
+            while(buffer.hasRemaining())
+                position += channel.write(buffer, position);
+        });
+    }
+    private void grown(long end) {
+        size.accumulateAndGet(end, Math::max);
+    }
+
+    private static void await(List<Future<Void>> tasks) throws IOException {
+        IOException first = null;
+        for(Future<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if(first == null)
+                    first = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if(first == null) first = new InterruptedIOException(e.getMessage());
+            }
+        }
+        if(first != null) throw first;
+    }
+
+    //copies numToCopy bytes from 'from' to 'to', works with overlapping ranges (in both directions) - caller has to hold the write lock
+    private void copyContent(long from, long to, long numToCopy) throws IOException {
+        if(numToCopy <= 0 || from == to) return;
+        byte[] buffer = new byte[(int) Math.min((long) stripe_size * channels.length, numToCopy)]; //one row, so each chunk uses all files
+        if(from > to) {
+            for (long copied = 0; copied < numToCopy; ) {
+                int chunk = (int) Math.min(buffer.length, numToCopy - copied);
+                await(read(from + copied, buffer, 0, chunk));
+                await(write(to + copied, buffer, 0, chunk));
+                copied += chunk;
+                grown(to + copied);
+            }
+        } else {
+            for (long remaining = numToCopy; remaining > 0; ) {
+                int chunk = (int) Math.min(buffer.length, remaining);
+                remaining -= chunk;
+                await(read(from + remaining, buffer, 0, chunk));
+                await(write(to + remaining, buffer, 0, chunk));
+            }
+            grown(to + numToCopy);
+        }
+    }
+
+    //caller has to hold the write lock
+    private void truncateTo(long new_size) throws IOException {
+        long full_stripes = new_size / stripe_size;
+        int remainder = (int) (new_size % stripe_size);
+        for(int i=0;i<channels.length;i++) {
+            long stripes_in_file = full_stripes / channels.length + (i < full_stripes % channels.length ? 1 : 0);
+            long file_length = stripes_in_file * stripe_size + (i == full_stripes % channels.length ? remainder : 0);
+            channels[i].truncate(file_length);
+        }
+        size.set(new_size);
+    }
+
+    private static int readRow(InputStream content, byte[] row, int len) throws IOException {
+        int total = 0;
+        while(total < len) {
+            int nRead = content.read(row, total, len - total);
+            if(nRead == -1) break;
+            total += nRead;
+        }
+        return total;
+    }
+}
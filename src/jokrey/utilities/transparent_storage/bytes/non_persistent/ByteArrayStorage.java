@@ -8,6 +8,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -17,6 +18,8 @@ import java.util.Arrays;
  * Read only access should be thread safe (even though not locking or synchronization is done).
  *    Write access is NOT thread safe for performance reasons.
  *
+ * Supports cheap point in time snapshots (see {@link #snapshot()}), which can be read while this storage is altered.
+ *
  * @author jokrey
  */
 public class ByteArrayStorage implements TransparentBytesStorage {
@@ -44,10 +47,17 @@ public class ByteArrayStorage implements TransparentBytesStorage {
         }
     }
 
+    /** @return the os page size queried at class load (or 4096 if that is not possible) */
+    public static int getAssumedPageSize() {
+        return assumed_page_size;
+    }
+
     public byte[] content;
     public int size; //always smaller or equal to content.length
 
     private final boolean memory_over_performance;
+    private final boolean read_only;
+    private int shared_until = 0; //bytes [0, shared_until) of content are shared with at least one snapshot
 
     /**
      * Default, no-arg constructor.
@@ -98,6 +108,7 @@ public class ByteArrayStorage implements TransparentBytesStorage {
      */
     public ByteArrayStorage(boolean memory_over_performance, byte[] initial_buf, int initial_size) {
         this.memory_over_performance = memory_over_performance;
+        this.read_only = false;
         setContent(initial_buf);
         this.size = initial_size;
         if(initial_size > content.length)
@@ -105,15 +116,50 @@ public class ByteArrayStorage implements TransparentBytesStorage {
     }
 
 
+    //snapshot constructor
+    private ByteArrayStorage(byte[] shared_content, int size) {
+        this.memory_over_performance = false;
+        this.read_only = true;
+        this.content = shared_content;
+        this.size = size;
+    }
+
+    /**
+     * Creates a point in time, read only view of this storage - without copying anything.
+     * The snapshot shares the internal array. Copy on write:
+     *    Only when this storage is altered within the shared range (overwrite, delete or insert before the snapshots end), the array is copied once (for all snapshots taken up to that point).
+     *    Appends never require a copy (they are not within the range of the snapshot).
+     * So it is cheap to take a snapshot and read it for a long time (without holding any lock), while this storage continues to be altered by a single writer.
+     *
+     * Taking the snapshot is not synchronized with writes: it has to be called on the writer thread or under the lock the caller uses for writes
+     *    (as {@link jokrey.utilities.encoder.tag_based.additional.functionality.wrapper.delegation.thread_safe.SynchronizingTagBasedEncoderBytes#snapshot()} does).
+     *
+     * All altering methods of the snapshot throw an {@link UnsupportedOperationException}.
+     * @return an immutable snapshot of the current content
+     */
+    public ByteArrayStorage snapshot() {
+        shared_until = Math.max(shared_until, size);
+        return new ByteArrayStorage(content, size);
+    }
+
+    /** @return whether this is a snapshot (see {@link #snapshot()}) */
+    public boolean isReadOnly() {
+        return read_only;
+    }
+
     @Override public void clear() {
+        before_write(Long.MAX_VALUE);
         content = new byte[64];
         size = 0;
+        shared_until = 0;
     }
 
 
     @Override public void setContent(byte[] content) {
+        before_write(Long.MAX_VALUE);
         this.content = content;
         size = this.content.length;
+        shared_until = 0;
     }
 
 
@@ -128,6 +174,7 @@ public class ByteArrayStorage implements TransparentBytesStorage {
             if(start>=size || end > size || start < 0 || end < 0) {
                 throw new IndexOutOfBoundsException("size("+size+"), start("+start+"), end("+end+")");
             }
+            before_write(start);
 
             System.arraycopy(content, (int) start + len, content, (int) start, (int) (this.size - end));  //override delete section with rest of array
             size -= len;
@@ -145,12 +192,12 @@ public class ByteArrayStorage implements TransparentBytesStorage {
         if(start_long > contentSize()) throw new IndexOutOfBoundsException();
         if (start_long + val.length > Integer.MAX_VALUE)
             throw new StorageSystemException("ByteArrayStorage cannot store this many bytes");
+        before_write(start_long);
         int start = (int) start_long;
         int end = start + val.length;
-        int requiredSize = start + val.length;
-        grow_to_at_least(requiredSize);
-
         int size_before = size;
+        grow_to_at_least(size_before + val.length);
+
         size = size_before + val.length;
 
         System.arraycopy(content, start, content, end, size_before - start); //copy data start of insert area to end insert area
@@ -163,6 +210,7 @@ public class ByteArrayStorage implements TransparentBytesStorage {
         if(start_long > contentSize()) throw new IndexOutOfBoundsException();
         if (start_long + content_length_long > Integer.MAX_VALUE)
             throw new StorageSystemException("ByteArrayStorage cannot store InputStream of length: " + content_length_long);
+        before_write(start_long);
         int start = (int) start_long;
         int promised_content_length = (int) content_length_long;
 
@@ -210,9 +258,22 @@ public class ByteArrayStorage implements TransparentBytesStorage {
             throw new StorageSystemException("Cannot create a byte array with less than 0 bytes. - sub: start="+start+", end="+end);
     }
 
+    /**
+     * Does not copy, the returned buffer wraps the internal array.
+     * {@inheritDoc}
+     */
+    @Override public ByteBuffer view(long start, long end) throws StorageSystemException {
+        if (end > size) end = size; //to satisfy interface doc condition
+        if (start < 0) start = 0;
+        if (end - start < 0)
+            throw new StorageSystemException("Cannot create a view of less than 0 bytes. - view: start="+start+", end="+end);
+        return ByteBuffer.wrap(content, (int) start, (int) (end - start)).slice().asReadOnlyBuffer();
+    }
+
     @Override public ByteArrayStorage set(long start, byte[] part, int off, int len) throws StorageSystemException {
 //        if(start > size) throw new StorageSystemException("Too large, start("+start+") > size("+size+")"); //would limit appending...
 //        System.out.println("set - start = " + start + ", part.length = " + part.length + ", off = " + off + ", len = " + len);
+        before_write(start);
         long requiredSizeOfAttachedPart = start+len;
         grow_to_at_least(requiredSizeOfAttachedPart);
         System.arraycopy(part, off, content, (int) start, Math.min(part.length, len));
@@ -222,6 +283,7 @@ public class ByteArrayStorage implements TransparentBytesStorage {
     }
 
     @Override public ByteArrayStorage set(long start, byte part) throws StorageSystemException {
+        before_write(start);
         long requiredSizeOfAttachedPart = start+1;
         grow_to_at_least(requiredSizeOfAttachedPart);
         content[(int) start] = part;
@@ -229,11 +291,18 @@ public class ByteArrayStorage implements TransparentBytesStorage {
         return this;
     }
 
-    @Override public TransparentBytesStorage set(long at, byte[]... parts) throws StorageSystemException {
+    @Override public ByteArrayStorage set(long at, byte[]... parts) throws StorageSystemException {
+        long partsLength = 0;
+        for(byte[] part:parts) partsLength += part.length;
+        before_write(at);
+        long requiredSizeOfAttachedParts = at + partsLength;
+        grow_to_at_least(requiredSizeOfAttachedParts); //grow only once for all parts
         for(byte[] part : parts) {
-            set(at, part);
+            System.arraycopy(part, 0, content, (int) at, part.length);
             at += part.length;
         }
+        if(requiredSizeOfAttachedParts > size)
+            size = (int) requiredSizeOfAttachedParts;
         return this;
     }
 
@@ -242,7 +311,7 @@ public class ByteArrayStorage implements TransparentBytesStorage {
     }
 
     @Override public InputStream stream() {
-        return new ByteArrayInputStream(content);
+        return new ByteArrayInputStream(content, 0, size);
     }
 
     @Override public ByteArrayStorage copyInto(long start, byte[] b, int off, int len) {
@@ -284,6 +353,16 @@ public class ByteArrayStorage implements TransparentBytesStorage {
     }
 
 
+    //copy on write - called before any change to the bytes from index 'from' onwards
+    private void before_write(long from) {
+        if(read_only)
+            throw new UnsupportedOperationException("snapshots are read only");
+        if(from < shared_until) {
+            content = Arrays.copyOf(content, content.length);
+            shared_until = 0;
+        }
+    }
+
     private void shrink_if_required() {
         if(memory_over_performance) {
             resize_to_next_bigger_page_size(size);
@@ -301,7 +380,9 @@ public class ByteArrayStorage implements TransparentBytesStorage {
     }
 
     public void grow_to_at_least(long at_least) {
+        byte[] before = content;
         content = grow_to_at_least(content, size, at_least, memory_over_performance);
+        if(content != before) shared_until = 0; //new array, no longer shared
     }
     public static byte[] grow_to_at_least(byte[] orig, int orig_len, long at_least, boolean memory_over_performance) {
         if(at_least <= orig.length) return orig;
@@ -360,7 +441,9 @@ public class ByteArrayStorage implements TransparentBytesStorage {
     }
 
     private void resize_to_next_bigger_page_size(long from) {
+        byte[] before = content;
         content = resize_to_next_bigger_page_size(content, size, from);
+        if(content != before) shared_until = 0; //new array, no longer shared
     }
     public static byte[] resize_to_next_bigger_page_size(byte[] orig, int orig_len, long from) {
         // Thanks to the magic of integer division this is NOT the same as: "at_least + pageSize"  (which would be wrong)
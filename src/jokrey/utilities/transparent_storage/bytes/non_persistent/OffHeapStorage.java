@@ -0,0 +1,399 @@
+package jokrey.utilities.transparent_storage.bytes.non_persistent;
+
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Implementation of {@link TransparentBytesStorage} writing the bytes into RAM, but outside of the java heap.
+ * Uses a list of fixed size, direct {@link ByteBuffer}s (chunks) to store the data.
+ *
+ * Unlike {@link ByteArrayStorage}:
+ *    - the size is a long, so more than 2GB can be stored
+ *    - growing only allocates new chunks, existing chunks (and their content) are never copied
+ *    - the data is invisible to the gc, so even multi gigabyte storages do not cause long (full) gc pauses
+ * Deletion and insertion still have to move all bytes after the altered index.
+ *
+ * The memory is freed when {@link #close()} is called (or when chunks are no longer required after a delete or clear).
+ *    Not calling close will eventually free the memory too, but only once the gc decides to collect this object - which may be never.
+ *    So do call close.
+ *
+ * Not thread safe, no locking or synchronization is done for performance reasons.
+ *    Concurrent reads are fine as long as no write runs at the same time.
+ *    Unlike with {@link ByteArrayStorage} a read concurrent to a shrinking write (delete, clear, setContent) is not just racy:
+ *    it may access a chunk that was already freed, which can crash the jvm. So external synchronization is required for any concurrent writes.
+ *
+ * @author jokrey
+ */
+public class OffHeapStorage implements TransparentBytesStorage {
+    private final int chunk_size;
+    private final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+    private long size = 0;
+    private long high_water = 0; //bytes in [size, high_water) of the kept chunks are left over from before a shrink
+
+    /**
+     * Default, no-arg constructor.
+     * Uses chunks of 2^20 (1MiB)
+     */
+    public OffHeapStorage() {
+        this(1 << 20);
+    }
+
+    /**
+     * @param chunk_size size of each allocated, direct chunk.
+     *                   Larger chunks mean fewer allocations, but up to chunk_size-1 bytes are allocated, but unused.
+     */
+    public OffHeapStorage(int chunk_size) {
+        if(chunk_size <= 0) throw new IllegalArgumentException("chunk_size("+chunk_size+") <= 0");
+        this.chunk_size = chunk_size;
+    }
+
+    /**
+     * Frees all allocated memory.
+     * Any other method may fail after this was called.
+     */
+    @Override public void close() {
+        for(ByteBuffer chunk:chunks)
+            free(chunk);
+        chunks.clear();
+        size = -1;
+        high_water = 0;
+    }
+
+
+    @Override public void clear() {
+        resize(0);
+    }
+
+    @Override public void setContent(byte[] content) {
+        resize(0);
+        set(0, content);
+    }
+
+    @Override public byte[] getContent() {
+        if(size > Integer.MAX_VALUE) throw new IllegalStateException("Content does not fit array, use stream instead.");
+        byte[] content = new byte[(int) size];
+        read(0, content, 0, content.length);
+        return content;
+    }
+
+
+    @Override public OffHeapStorage delete(long start, long end) throws StorageSystemException {
+        long len = end - start;
+        if (len > 0) {
+            if(start>=size || end > size || start < 0) {
+                throw new IndexOutOfBoundsException("size("+size+"), start("+start+"), end("+end+")");
+            }
+            move(end, start, size - end);  //override delete section with rest of content
+            resize(size - len);
+            return this;
+        } else {
+            throw new StorageSystemException("Cannot delete 0 or less than 0 bytes(delAttemptRange=["+start+", "+end+"]).");
+        }
+    }
+
+    @Override public OffHeapStorage insert(long start, byte[] val) {
+        if(start > size) throw new IndexOutOfBoundsException();
+        long size_before = size;
+        resize(size_before + val.length);
+        move(start, start + val.length, size_before - start); //copy data after insert index to end of insert area
+        write(start, val, 0, val.length);
+        return this;
+    }
+
+    @Override public OffHeapStorage set(long start, InputStream content, long content_length) throws StorageSystemException {
+        if(start > size) throw new IndexOutOfBoundsException();
+        ensureSize(start + content_length); //even if stream fails libae will still be able to continue.
+        try {
+            long expected_bytes_count = content_length;
+            byte[] buffer = new byte[(int) Math.max(1, Math.min(chunk_size, content_length))];
+            int nRead;
+            while (content_length > 0 && (nRead = content.read(buffer, 0, (int) Math.min(buffer.length, content_length))) != -1) {
+                write(start, buffer, 0, nRead);
+                start += nRead;
+                content_length -= nRead;
+            }
+            content.close();
+            if (content_length > 0)
+                throw new StorageSystemException("The provided stream failed to deliver the promised number of bytes(missing: " + content_length + " of expected " + expected_bytes_count + ")");
+        } catch (IOException ex) {
+            throw new StorageSystemException("IO Exception thrown by provided InputStream(" + ex.getMessage() + ").");
+        }
+        return this;
+    }
+
+    @Override public OffHeapStorage set(long start, byte[] part, int off, int len) throws StorageSystemException {
+        len = Math.min(len, part.length - off);
+        ensureSize(start + len);
+        write(start, part, off, len);
+        return this;
+    }
+
+    @Override public OffHeapStorage set(long start, byte part) throws StorageSystemException {
+        ensureSize(start + 1);
+        chunks.get(chunkOf(start)).put(offsetIn(start), part);
+        return this;
+    }
+
+    @Override public OffHeapStorage set(long at, byte[]... parts) throws StorageSystemException {
+        long partsLength = 0;
+        for(byte[] part:parts) partsLength += part.length;
+        ensureSize(at + partsLength);
+        for(byte[] part : parts) {
+            write(at, part, 0, part.length);
+            at += part.length;
+        }
+        return this;
+    }
+
+    @Override public byte[] sub(long start, long end) throws StorageSystemException {
+        if (end > size) end = size; //to satisfy interface doc condition
+        if (start < 0) start = 0;
+        long len = end - start;
+        if (len > 0) {
+            byte[] sub = new byte[(int) len];
+            read(start, sub, 0, sub.length);
+            return sub;
+        } else if (len == 0)
+            return new byte[0];
+        else
+            throw new StorageSystemException("Cannot create a byte array with less than 0 bytes. - sub: start="+start+", end="+end);
+    }
+
+    /**
+     * Does not copy if the range lies within a single chunk - the returned buffer is then a slice of that chunk.
+     *    Since chunks are freed on delete, clear and close, the view must not be used after any of those.
+     * {@inheritDoc}
+     */
+    @Override public ByteBuffer view(long start, long end) throws StorageSystemException {
+        if (end > size) end = size; //to satisfy interface doc condition
+        if (start < 0) start = 0;
+        if (end - start < 0)
+            throw new StorageSystemException("Cannot create a view of less than 0 bytes. - view: start="+start+", end="+end);
+        if (end == start || chunkOf(start) != chunkOf(end - 1))
+            return ByteBuffer.wrap(sub(start, end)).asReadOnlyBuffer();
+        ByteBuffer chunk = chunks.get(chunkOf(start)).duplicate();
+        chunk.position(offsetIn(start)).limit(offsetIn(start) + (int) (end - start));
+        return chunk.slice().asReadOnlyBuffer();
+    }
+
+    @Override public OffHeapStorage copyInto(long start, byte[] b, int off, int len) {
+        if(start + len > size) throw new IndexOutOfBoundsException("size("+size+"), start("+start+"), len("+len+")");
+        read(start, b, off, len);
+        return this;
+    }
+
+    @Override public byte getByte(long index) {
+        if(index < 0 || index >= size) throw new IndexOutOfBoundsException("size("+size+"), index("+index+")");
+        return chunks.get(chunkOf(index)).get(offsetIn(index));
+    }
+
+    /**
+     * The returned stream reads lazily from the chunks, i.e. no bytes are copied before they are read.
+     * {@inheritDoc}
+     */
+    @Override public InputStream substream(long start, long end_given) throws StorageSystemException {
+        long end = Math.min(end_given, size); //to satisfy interface doc condition
+        if(start<0) {
+            throw new StorageSystemException("the start position("+start+") has to be greater than 0");
+        } else if (end - start < 0) {
+            throw new StorageSystemException("Cannot create substream of less than 0 bytes");
+        }
+        return new InputStream() {
+            long position = start;
+            @Override public int read() {
+                if(position>=end) return -1;
+                return getByte(position++) & 0xFF;
+            }
+            @Override public int read(byte[] b, int off, int len) {
+                if(position>=end) return -1;
+                len = (int) Math.min(len, end-position);
+                copyInto(position, b, off, len);
+                position += len;
+                return len;
+            }
+            @Override public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, end-position));
+                position += skipped;
+                return skipped;
+            }
+            @Override public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, end-position);
+            }
+        };
+    }
+
+    @Override public InputStream stream() {
+        return substream(0, size);
+    }
+
+    @Override public long contentSize() {
+        return size;
+    }
+
+    @Override public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return number of bytes currently allocated off heap (always a multiple of the chunk size) */
+    public long allocatedSize() {
+        return (long) chunks.size() * chunk_size;
+    }
+
+    @Override public int hashCode() {
+        int result = Long.hashCode(size);
+        for (long i=0;i<size;i++)
+            result = 31 * result + getByte(i);
+        return result;
+    }
+    @Override public boolean equals(Object o) {
+        if(! (o instanceof OffHeapStorage)) return false;
+        OffHeapStorage that = ((OffHeapStorage) o);
+        if(size != that.size) return false;
+        for(long i=0;i<size;i++)
+            if(getByte(i) != that.getByte(i))
+                return false;
+        return true;
+    }
+
+    @Override public String toString() {
+        return "[OffHeapStorage: l=" + size + ", chunk_size=" + chunk_size + ", chunks=" + chunks.size() + "]";
+    }
+
+
+
+    //INTERNAL
+
+    private int chunkOf(long index) {
+        return (int) (index / chunk_size);
+    }
+    private int offsetIn(long index) {
+        return (int) (index % chunk_size);
+    }
+
+    private void read(long start, byte[] b, int off, int len) {
+        while(len > 0) {
+            ByteBuffer chunk = chunks.get(chunkOf(start)).duplicate(); //duplicate, so that the position is not shared between readers
+            int chunk_offset = offsetIn(start);
+            int toRead = Math.min(len, chunk_size - chunk_offset);
+            chunk.position(chunk_offset);
+            chunk.get(b, off, toRead);
+            start += toRead;
+            off += toRead;
+            len -= toRead;
+        }
+    }
+    private void write(long start, byte[] b, int off, int len) {
+        while(len > 0) {
+            ByteBuffer chunk = chunks.get(chunkOf(start)).duplicate();
+            int chunk_offset = offsetIn(start);
+            int toWrite = Math.min(len, chunk_size - chunk_offset);
+            chunk.position(chunk_offset);
+            chunk.put(b, off, toWrite);
+            start += toWrite;
+            off += toWrite;
+            len -= toWrite;
+        }
+    }
+
+    //copies numToCopy bytes from 'from' to 'to', works with overlapping ranges (in both directions)
+    private void move(long from, long to, long numToCopy) {
+        if(numToCopy <= 0 || from == to) return;
+        byte[] buffer = new byte[(int) Math.min(Math.min(chunk_size, 1 << 16), numToCopy)];
+        if(from > to) {
+            for (long copied = 0; copied < numToCopy; ) {
+                int part = (int) Math.min(buffer.length, numToCopy - copied);
+                read(from + copied, buffer, 0, part);
+                write(to + copied, buffer, 0, part);
+                copied += part;
+            }
+        } else {
+            for (long remaining = numToCopy; remaining > 0; ) {
+                int part = (int) Math.min(buffer.length, remaining);
+                remaining -= part;
+                read(from + remaining, buffer, 0, part);
+                write(to + remaining, buffer, 0, part);
+            }
+        }
+    }
+
+    //kept chunks may still contain bytes past the current end (from before a delete or clear), those have to read as 0 once the storage grows again
+    private void zero(long start, long end) {
+        if(end <= start) return;
+        byte[] zeros = new byte[(int) Math.min(Math.min(chunk_size, 1 << 16), end - start)];
+        while(start < end) {
+            int part = (int) Math.min(zeros.length, end - start);
+            write(start, zeros, 0, part);
+            start += part;
+        }
+    }
+
+    private void ensureSize(long at_least) {
+        if(at_least > size)
+            resize(at_least);
+    }
+
+    //allocates missing or frees no longer required chunks - existing chunks are never copied
+    private void resize(long new_size) {
+        if(new_size > size) {
+            zero(size, Math.min(new_size, high_water)); //only the stale bytes - new chunks and never used bytes of kept chunks are already zeroed
+            high_water = Math.max(high_water, new_size);
+        }
+        int required_chunks = chunkOf(new_size) + (offsetIn(new_size)==0?0:1);
+        while(chunks.size() > required_chunks)
+            free(chunks.remove(chunks.size()-1));
+        while(chunks.size() < required_chunks)
+            chunks.add(ByteBuffer.allocateDirect(chunk_size));
+        high_water = Math.min(high_water, allocatedSize()); //freed chunks take their stale bytes with them
+        size = new_size;
+    }
+
+
+    private static final Method invokeCleaner;
+    private static final Object unsafe;
+    static {
+        Method m = null;
+        Object u = null;
+        try { //java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            m = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field f = unsafeClass.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            u = f.get(null);
+        } catch (Throwable ignored) { //java 8 or unsafe unavailable - free will fall back to the cleaner of the buffer or the gc
+            m = null;
+            u = null;
+        }
+        invokeCleaner = m;
+        unsafe = u;
+    }
+
+    /**
+     * Attempts to free the memory of the given direct buffer immediately.
+     * If that is not possible on this jvm, the memory is freed when the gc collects the buffer.
+     * The given buffer may not be used after this call.
+     * @param buffer a direct buffer
+     */
+    static void free(ByteBuffer buffer) {
+        if(!buffer.isDirect()) return;
+        try {
+            if(invokeCleaner != null) {
+                invokeCleaner.invoke(unsafe, buffer);
+            } else { //java 8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if(cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Throwable ignored) {
+            //the gc will eventually take care of it
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package jokrey.utilities.transparent_storage.bytes.wrapper;
+
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Page cache in front of any {@link TransparentBytesStorage}.
+ *
+ * The content of the wrapped storage is divided into fixed size pages. Reads load the required pages into memory,
+ *    later reads of the same pages (for example the many small 9 byte reads of the length indicators during an LI search) do not reach the wrapped storage at all.
+ *    That makes a huge difference for storages for which each access is expensive, i.e. file and remote storages.
+ * The number of cached pages is limited by a memory budget, the least recently used page is evicted first.
+ *
+ * Writes are either:
+ *    write-through: written to the wrapped storage immediately (cached pages are updated)
+ *    write-back: only written to the cached pages, which are marked dirty. Dirty pages are written to the wrapped storage when they are evicted, on {@link #flush()} and on {@link #close()}.
+ *                Until then the wrapped storage may not reflect all changes.
+ * Structure changing operations (delete, insert, setContent, clear) flush all dirty pages, are executed on the wrapped storage directly and invalidate the cache.
+ *
+ * The wrapped storage may not be altered directly while wrapped.
+ *
+ * Thread safe, all methods synchronize on this.
+ *
+ * @author jokrey
+ */
+public class CachingBytesStorage implements TransparentBytesStorage {
+    private final TransparentBytesStorage delegate;
+    private final int page_size;
+    private final int max_pages;
+    private final boolean write_back;
+    private final LinkedHashMap<Long, Page> pages;
+
+    private long size; //logical size - can be larger than the size of the delegate in write-back mode
+    private long delegate_size;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param delegate storage to cache
+     * @param page_size size of a single page in bytes
+     * @param memory_budget maximum number of bytes used for cached pages (at least one page is always cached)
+     * @param write_back whether changes are written to the delegate lazily (see class doc)
+     */
+    public CachingBytesStorage(TransparentBytesStorage delegate, int page_size, long memory_budget, boolean write_back) {
+        if(page_size <= 0) throw new IllegalArgumentException("page_size("+page_size+") <= 0");
+        this.delegate = delegate;
+        this.page_size = page_size;
+        this.max_pages = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memory_budget / page_size));
+        this.write_back = write_back;
+        this.pages = new LinkedHashMap<>(16, 0.75f, true); //access order == lru order
+        size = delegate_size = delegate.contentSize();
+    }
+
+    /**
+     * Write-through cache of 4096 byte pages with a memory budget of 16MiB.
+     * @param delegate storage to cache
+     */
+    public CachingBytesStorage(TransparentBytesStorage delegate) {
+        this(delegate, 4096, 1 << 24, false);
+    }
+
+    /**
+     * Writes all dirty pages to the wrapped storage (in order).
+     * Does nothing in write-through mode.
+     */
+    public synchronized void flush() {
+        if(!write_back) return;
+        ArrayList<Long> dirty = new ArrayList<>();
+        for(Map.Entry<Long, Page> e : pages.entrySet())
+            if(e.getValue().dirty)
+                dirty.add(e.getKey());
+        Collections.sort(dirty);
+        for(long page_index:dirty)
+            writeBack(page_index, pages.get(page_index));
+    }
+
+    /**
+     * Flushes and closes the wrapped storage.
+     * @throws Exception if the wrapped storage throws on close
+     */
+    @Override public synchronized void close() throws Exception {
+        flush();
+        pages.clear();
+        delegate.close();
+    }
+
+    /** @return number of page accesses that were answered from memory */
+    public synchronized long hitCount() {
+        return hits;
+    }
+    /** @return number of page accesses that required loading the page from the wrapped storage */
+    public synchronized long missCount() {
+        return misses;
+    }
+
+
+    @Override public synchronized void clear() {
+        pages.clear();
+        delegate.clear();
+        size = delegate_size = delegate.contentSize();
+    }
+
+    @Override public synchronized void setContent(byte[] content) {
+        pages.clear();
+        delegate.setContent(content);
+        size = delegate_size = delegate.contentSize();
+    }
+
+    @Override public synchronized byte[] getContent() {
+        if(size > Integer.MAX_VALUE) throw new IllegalStateException("Content does not fit array, use stream instead.");
+        byte[] content = new byte[(int) size];
+        read(0, content, 0, content.length);
+        return content;
+    }
+
+    @Override public synchronized CachingBytesStorage delete(long start, long end) throws StorageSystemException {
+        flush();
+        pages.clear();
+        delegate.delete(start, end);
+        size = delegate_size = delegate.contentSize();
+        return this;
+    }
+
+    @Override public synchronized CachingBytesStorage insert(long start, byte[] val) {
+        flush();
+        pages.clear();
+        delegate.insert(start, val);
+        size = delegate_size = delegate.contentSize();
+        return this;
+    }
+
+    @Override public synchronized CachingBytesStorage set(long start, InputStream content, long content_length) throws StorageSystemException {
+        if(start > size) throw new IndexOutOfBoundsException();
+        try {
+            long expected_bytes_count = content_length;
+            byte[] buffer = new byte[(int) Math.max(1, Math.min(page_size, content_length))];
+            int nRead;
+            while (content_length > 0 && (nRead = content.read(buffer, 0, (int) Math.min(buffer.length, content_length))) != -1) {
+                set(start, buffer, 0, nRead);
+                start += nRead;
+                content_length -= nRead;
+            }
+            content.close();
+            if (content_length > 0)
+                throw new StorageSystemException("The provided stream failed to deliver the promised number of bytes(missing: " + content_length + " of expected " + expected_bytes_count + ")");
+        } catch (IOException ex) {
+            throw new StorageSystemException("IO Exception thrown by provided InputStream(" + ex.getMessage() + ").");
+        }
+        return this;
+    }
+
+    @Override public synchronized CachingBytesStorage set(long start, byte[] part, int off, int len) throws StorageSystemException {
+        len = Math.min(len, part.length - off);
+        if(start > size) throw new IndexOutOfBoundsException("size("+size+"), start("+start+")");
+        if(!write_back) {
+            delegate.set(start, part, off, len);
+            delegate_size = Math.max(delegate_size, start + len);
+        }
+        size = Math.max(size, start + len);
+        write(start, part, off, len);
+        return this;
+    }
+
+    @Override public synchronized CachingBytesStorage set(long start, byte part) throws StorageSystemException {
+        return set(start, new byte[] {part}, 0, 1);
+    }
+
+    @Override public synchronized CachingBytesStorage set(long at, byte[]... parts) throws StorageSystemException {
+        if(at > size) throw new IndexOutOfBoundsException("size("+size+"), start("+at+")");
+        if(!write_back) { //a single (gather) write to the wrapped storage
+            long partsLength = 0;
+            for(byte[] part:parts) partsLength += part.length;
+            delegate.set(at, parts);
+            delegate_size = Math.max(delegate_size, at + partsLength);
+            size = Math.max(size, at + partsLength);
+            for(byte[] part : parts) {
+                write(at, part, 0, part.length);
+                at += part.length;
+            }
+            return this;
+        }
+        for(byte[] part : parts) {
+            set(at, part, 0, part.length);
+            at += part.length;
+        }
+        return this;
+    }
+
+    @Override public synchronized byte[] sub(long start, long end) throws StorageSystemException {
+        if (end > size) end = size; //to satisfy interface doc condition
+        if (start < 0) start = 0;
+        long len = end - start;
+        if (len > 0) {
+            byte[] sub = new byte[(int) len];
+            read(start, sub, 0, sub.length);
+            return sub;
+        } else if (len == 0)
+            return new byte[0];
+        else
+            throw new StorageSystemException("Cannot create a byte array with less than 0 bytes. - sub: start="+start+", end="+end);
+    }
+
+    @Override public synchronized CachingBytesStorage copyInto(long start, byte[] b, int off, int len) {
+        if(start + len > size) throw new IndexOutOfBoundsException("size("+size+"), start("+start+"), len("+len+")");
+        read(start, b, off, len);
+        return this;
+    }
+
+    @Override public synchronized byte getByte(long index) {
+        if(index < 0 || index >= size) throw new IndexOutOfBoundsException("size("+size+"), index("+index+")");
+        return page(index / page_size).data[(int) (index % page_size)];
+    }
+
+    /**
+     * The returned stream reads lazily through the cache.
+     * {@inheritDoc}
+     */
+    @Override public synchronized InputStream substream(long start, long end_given) throws StorageSystemException {
+        long end = Math.min(end_given, size); //to satisfy interface doc condition
+        if(start<0) {
+            throw new StorageSystemException("the start position("+start+") has to be greater than 0");
+        } else if (end - start < 0) {
+            throw new StorageSystemException("Cannot create substream of less than 0 bytes");
+        }
+        return new InputStream() {
+            long position = start;
+            @Override public int read() {
+                if(position>=end) return -1;
+                return getByte(position++) & 0xFF;
+            }
+            @Override public int read(byte[] b, int off, int len) {
+                if(position>=end) return -1;
+                len = (int) Math.min(len, end-position);
+                copyInto(position, b, off, len);
+                position += len;
+                return len;
+            }
+            @Override public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, end-position));
+                position += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    @Override public synchronized InputStream stream() {
+        return substream(0, size);
+    }
+
+    @Override public synchronized long contentSize() {
+        return size;
+    }
+
+    @Override public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override public String toString() {
+        return "[CachingBytesStorage: l=" + size + ", page_size=" + page_size + ", cached_pages=" + pages.size() + "/" + max_pages + ", write_back=" + write_back + ", delegate=" + delegate + "]";
+    }
+
+
+
+    //INTERNAL - callers hold the monitor
+
+    private static class Page {
+        final byte[] data;
+        boolean dirty = false;
+        Page(int page_size) {
+            data = new byte[page_size];
+        }
+    }
+
+    private void read(long start, byte[] b, int off, int len) {
+        while(len > 0) {
+            int page_offset = (int) (start % page_size);
+            int toRead = Math.min(len, page_size - page_offset);
+            System.arraycopy(page(start / page_size).data, page_offset, b, off, toRead);
+            start += toRead;
+            off += toRead;
+            len -= toRead;
+        }
+    }
+    private void write(long start, byte[] b, int off, int len) {
+        while(len > 0) {
+            long page_index = start / page_size;
+            int page_offset = (int) (start % page_size);
+            int toWrite = Math.min(len, page_size - page_offset);
+            Page page = write_back ? page(page_index) : pages.get(page_index); //write-through does not need to load uncached pages
+            if(page != null) {
+                System.arraycopy(b, off, page.data, page_offset, toWrite);
+                page.dirty = write_back;
+            }
+            start += toWrite;
+            off += toWrite;
+            len -= toWrite;
+        }
+    }
+
+    private Page page(long page_index) {
+        Page page = pages.get(page_index);
+        if(page != null) {
+            hits++;
+            return page;
+        }
+        misses++;
+        page = new Page(page_size);
+        long page_start = page_index * page_size;
+        int available = (int) Math.max(0, Math.min(page_size, delegate_size - page_start));
+        if(available > 0)
+            delegate.copyInto(page_start, page.data, 0, available);
+        pages.put(page_index, page);
+        evictIfRequired();
+        return page;
+    }
+
+    private void evictIfRequired() {
+        while(pages.size() > max_pages) {
+            Iterator<Map.Entry<Long, Page>> it = pages.entrySet().iterator();
+            Map.Entry<Long, Page> eldest = it.next();
+            if(eldest.getValue().dirty)
+                writeBack(eldest.getKey(), eldest.getValue());
+            pages.remove(eldest.getKey());
+        }
+    }
+
+    //the delegate cannot have gaps, so all dirty pages before the given one are written first (they are all cached, because dirty pages are only evicted after being written)
+    private void writeBack(long page_index, Page page) {
+        long page_start = page_index * page_size;
+        while(delegate_size < page_start) {
+            long missing_index = delegate_size / page_size;
+            Page missing = pages.get(missing_index);
+            if(missing == null) throw new IllegalStateException("dirty page("+missing_index+") not cached - wrapped storage altered externally?");
+            writeBack(missing_index, missing);
+        }
+        int length = (int) Math.min(page_size, size - page_start);
+        if(length > 0) {
+            delegate.set(page_start, page.data, 0, length);
+            delegate_size = Math.max(delegate_size, page_start + length);
+        }
+        page.dirty = false;
+    }
+}
@@ -0,0 +1,492 @@
+package jokrey.utilities.transparent_storage.bytes.wrapper;
+
+import jokrey.utilities.bitsandbytes.BitHelper;
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32C;
+
+/**
+ * Integrity checking wrapper around any {@link TransparentBytesStorage}.
+ *
+ * Idea:
+ *    The content is cut into fixed size blocks, for each block a CRC32C checksum (hardware accelerated on most cpus) is kept in a sidecar storage (4 bytes per block).
+ *    Layout of the sidecar: [block size(4), checksum of block 0(4), checksum of block 1(4), ...]
+ *    All reads verify the checksums of the blocks they touch and throw a {@link StorageSystemException} on a mismatch,
+ *       so corruption is detected where it occurs instead of as garbage lengths deep within an encoder.
+ *    All writes update the checksums of the blocks they touch. Partially overwritten blocks are verified before they are altered.
+ *    Delete and insert shift all following blocks, so those are verified first (throwing on a mismatch, before anything is altered) and their checksums are recomputed afterwards.
+ *    {@link #verify()} checks all blocks in parallel (without decoding anything) and reports the corrupt ranges.
+ *
+ * The last read or written block is kept in memory (verified), so small sequential reads (for example length indicators) and appends do not reread the block.
+ *
+ * NOTE: Changing the wrapped storages directly while they are wrapped, results in undefined behaviour.
+ *
+ * Not thread safe (except for {@link #verify()}, which only requires thread safe reads from the wrapped storage - as provided by the file storages).
+ *
+ * @author jokrey
+ */
+public class ChecksummedStorage implements TransparentBytesStorage {
+    private static final int BLOCKS_PER_CHUNK = 64;
+    private static final int HEADER_LENGTH = 4;
+
+    private final TransparentBytesStorage data;
+    private final TransparentBytesStorage checksums;
+    private final int block_size;
+
+    private int[] crcs;
+    private int crc_count;
+
+    private int cached_block = -1;
+    private final byte[] cached_content;
+
+    /**
+     * Block size 4096
+     * @see #ChecksummedStorage(TransparentBytesStorage, TransparentBytesStorage, int)
+     */
+    public ChecksummedStorage(TransparentBytesStorage data, TransparentBytesStorage checksums) {
+        this(data, checksums, 4096);
+    }
+
+    /**
+     * If the checksum storage is empty, the checksums of the current content of data are calculated (i.e. existing content is adopted).
+     * If the checksum storage already contains checksums, the persisted block size is used (and the parameter is ignored).
+     * @param data the storage holding the actual content
+     * @param checksums sidecar storage holding a small header and 4 bytes per block
+     * @param block_size number of bytes covered by a single checksum
+     */
+    public ChecksummedStorage(TransparentBytesStorage data, TransparentBytesStorage checksums, int block_size) {
+        if(block_size <= 0) throw new IllegalArgumentException("block_size("+block_size+") has to be greater than 0");
+        this.data = data;
+        this.checksums = checksums;
+        if(checksums.contentSize() < HEADER_LENGTH) {
+            this.block_size = block_size;
+            this.cached_content = new byte[block_size];
+            checksums.setContent(BitHelper.getBytes(block_size));
+            crcs = new int[16];
+            crc_count = 0;
+            recompute_from(0);
+        } else {
+            byte[] raw = checksums.getContent();
+            this.block_size = BitHelper.getInt32From(raw, 0);
+            if(this.block_size <= 0) throw new StorageSystemException("Corrupt checksum header, block size("+this.block_size+")");
+            this.cached_content = new byte[this.block_size];
+            crc_count = (raw.length - HEADER_LENGTH) / 4;
+            crcs = new int[Math.max(16, crc_count)];
+            for(int i=0;i<crc_count;i++)
+                crcs[i] = BitHelper.getInt32From(raw, HEADER_LENGTH + i*4);
+        }
+    }
+
+    /**
+     * Verifies all blocks, in parallel on the common fork join pool.
+     * @return the corrupt ranges as [start, end) byte index pairs (adjacent ranges are merged), empty if the content is intact
+     */
+    public List<long[]> verify() {
+        return verify(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Verifies all blocks, in parallel on the given pool.
+     * @param pool pool to execute the verification on
+     * @return the corrupt ranges as [start, end) byte index pairs (adjacent ranges are merged), empty if the content is intact
+     */
+    public List<long[]> verify(ForkJoinPool pool) {
+        long size = contentSize();
+        return pool.invoke(new VerifyTask(this, size, 0, block_count(size)));
+    }
+
+    /** @return the number of bytes covered by a single checksum */
+    public int blockSize() {
+        return block_size;
+    }
+
+    @Override public void close() throws Exception {
+        data.close();
+        checksums.close();
+    }
+
+
+    @Override public void clear() {
+        data.clear();
+        checksums.setContent(BitHelper.getBytes(block_size));
+        crc_count = 0;
+        cached_block = -1;
+    }
+
+    @Override public void setContent(byte[] content) {
+        clear();
+        set(0, content);
+    }
+
+    @Override public byte[] getContent() {
+        long size = contentSize();
+        if(size > Integer.MAX_VALUE) throw new IllegalStateException("Content does not fit array, use stream instead.");
+        return sub(0, size);
+    }
+
+    @Override public ChecksummedStorage delete(long start, long end) throws StorageSystemException {
+        if(end - start > 0 && start >= 0)
+            verify_from((int) (start / block_size)); //the shifted bytes would otherwise receive fresh, valid checksums
+        data.delete(start, end);
+        recompute_from((int) (start / block_size));
+        return this;
+    }
+
+    @Override public ChecksummedStorage insert(long start, byte[] val) {
+        long size = contentSize();
+        if(start > size) throw new IndexOutOfBoundsException();
+        if(val.length == 0) return this;
+        verify_from((int) (start / block_size)); //the shifted bytes would otherwise receive fresh, valid checksums
+        data.insert(start, val);
+        recompute_from((int) (start / block_size));
+        return this;
+    }
+
+    @Override public ChecksummedStorage set(long start, InputStream content, long content_length) throws StorageSystemException {
+        try {
+            long expected_bytes_count = content_length;
+            int nRead;
+            byte[] buffer = new byte[block_size];
+            while (content_length > 0) {
+                int chunk = (int) Math.min(block_size - start % block_size, content_length); //aligned, so each block is only checksummed once
+                int filled = 0;
+                while(filled < chunk && (nRead = content.read(buffer, filled, chunk - filled)) != -1)
+                    filled += nRead;
+                if(filled == 0) break;
+                write(start, buffer, 0, filled);
+                start += filled;
+                content_length -= filled;
+                if(filled < chunk) break;
+            }
+            content.close();
+            if (content_length > 0)
+                throw new StorageSystemException("The provided stream failed to deliver the promised number of bytes(missing: " + content_length + " of expected " + expected_bytes_count + ")");
+        } catch (IOException ex) {
+            throw new StorageSystemException("IO Exception thrown by provided InputStream(" + ex.getMessage() + ").");
+        }
+        return this;
+    }
+
+    @Override public ChecksummedStorage set(long start, byte[] part, int off, int len) throws StorageSystemException {
+        len = Math.min(len, part.length - off);
+        write(start, part, off, len);
+        return this;
+    }
+
+    @Override public ChecksummedStorage set(long start, byte part) throws StorageSystemException {
+        return set(start, new byte[] {part}, 0, 1);
+    }
+
+    //concatenated, so that the touched blocks are only checksummed once
+    @Override public ChecksummedStorage set(long at, byte[]... parts) throws StorageSystemException {
+        int partsLength = 0;
+        for(byte[] part:parts) partsLength += part.length;
+        byte[] concatenated = new byte[partsLength];
+        int position = 0;
+        for(byte[] part:parts) {
+            System.arraycopy(part, 0, concatenated, position, part.length);
+            position += part.length;
+        }
+        write(at, concatenated, 0, concatenated.length);
+        return this;
+    }
+
+    @Override public byte[] sub(long start, long end) throws StorageSystemException {
+        long size = contentSize();
+        if (end > size) end = size; //to satisfy interface doc condition
+        if (start < 0) start = 0;
+        long len = end - start;
+        if (len > 0) {
+            byte[] sub = new byte[(int) len];
+            read(start, sub, 0, sub.length);
+            return sub;
+        } else if (len == 0)
+            return new byte[0];
+        else
+            throw new StorageSystemException("Cannot create a byte array with less than 0 bytes. - sub: start="+start+", end="+end);
+    }
+
+    @Override public ChecksummedStorage copyInto(long start, byte[] b, int off, int len) {
+        if(start + len > contentSize()) throw new IndexOutOfBoundsException("size("+contentSize()+"), start("+start+"), len("+len+")");
+        read(start, b, off, len);
+        return this;
+    }
+
+    @Override public byte getByte(long index) {
+        if(index < 0 || index >= contentSize()) throw new IndexOutOfBoundsException("size("+contentSize()+"), index("+index+")");
+        verified_block((int) (index / block_size));
+        return cached_content[(int) (index % block_size)];
+    }
+
+    @Override public InputStream substream(long start, long end) throws StorageSystemException {
+        long size = contentSize();
+        long end_bound = Math.min(end, size);
+        if(start < 0)
+            throw new StorageSystemException("the start position("+start+") has to be greater than 0");
+        if(end_bound - start < 0)
+            throw new StorageSystemException("Cannot create substream of less than 0 bytes");
+        if(end_bound - start <= block_size)
+            return new ByteArrayInputStream(sub(start, end_bound));
+        return new InputStream() {
+            long position = start;
+            @Override public int read() {
+                if(position>=end_bound) return -1;
+                return getByte(position++) & 0xFF;
+            }
+            @Override public int read(byte[] b, int off, int len) {
+                if(position>=end_bound) return -1;
+                len = (int) Math.min(len, end_bound-position);
+                copyInto(position, b, off, len);
+                position += len;
+                return len;
+            }
+            @Override public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, end_bound-position));
+                position += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    @Override public InputStream stream() {
+        return substream(0, contentSize());
+    }
+
+    @Override public long contentSize() {
+        return data.contentSize();
+    }
+
+    @Override public boolean isEmpty() {
+        return data.isEmpty();
+    }
+
+    @Override public int hashCode() {
+        return Arrays.hashCode(getContent());
+    }
+    @Override public boolean equals(Object o) {
+        return o instanceof ChecksummedStorage && Arrays.equals(getContent(), ((ChecksummedStorage) o).getContent());
+    }
+
+    @Override public String toString() {
+        return "[ChecksummedStorage: l=" + contentSize() + ", blocks=" + crc_count + ", data=" + data + "]";
+    }
+
+
+
+    //BLOCKS
+
+    private int block_count(long size) {
+        return (int) ((size + block_size - 1) / block_size);
+    }
+
+    private static int crc(byte[] b, int off, int len) {
+        CRC32C crc = new CRC32C();
+        crc.update(b, off, len);
+        return (int) crc.getValue();
+    }
+
+    private void check(int block, byte[] b, int off, int len) {
+        if(block >= crc_count || crcs[block] != crc(b, off, len))
+            throw new StorageSystemException("Checksum mismatch in block "+block+" (bytes ["+((long) block*block_size)+", "+((long) block*block_size+len)+")).");
+    }
+
+    //reads and verifies the given block into the cache (if it is not already cached)
+    private void verified_block(int block) {
+        if(cached_block != block) {
+            cached_block = -1;
+            long block_start = (long) block * block_size;
+            int length = (int) Math.min(block_size, contentSize() - block_start);
+            data.copyInto(block_start, cached_content, 0, length);
+            check(block, cached_content, 0, length);
+            cached_block = block;
+        }
+    }
+
+    private void read(long start, byte[] b, int off, int len) {
+        while(len > 0) {
+            int block = (int) (start / block_size);
+            long block_start = (long) block * block_size;
+            int in_block = (int) (start - block_start);
+            int block_length = (int) Math.min(block_size, contentSize() - block_start);
+            int chunk = Math.min(len, block_length - in_block);
+            if(block != cached_block && in_block == 0 && chunk == block_length) { //whole block - read directly into the target
+                data.copyInto(block_start, b, off, chunk);
+                check(block, b, off, chunk);
+            } else {
+                verified_block(block);
+                System.arraycopy(cached_content, in_block, b, off, chunk);
+            }
+            start += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    //overwrites or appends, zero pads if start is beyond the current size
+    private void write(long start, byte[] b, int off, int len) {
+        long size = contentSize();
+        if(start > size) {
+            byte[] zeros = new byte[block_size];
+            while(size < start) {
+                int chunk = (int) Math.min(block_size - size % block_size, start - size);
+                write(size, zeros, 0, chunk);
+                size += chunk;
+            }
+        }
+        if(len <= 0) return;
+
+        int first = (int) (start / block_size);
+        int last = (int) ((start + len - 1) / block_size);
+        int[] new_crcs = new int[last - first + 1];
+        byte[] last_content = null;
+        int last_length = 0;
+        for(int block = first; block <= last; block++) {
+            long block_start = (long) block * block_size;
+            int existing_length = (int) Math.max(0, Math.min(block_size, size - block_start));
+            long write_from = Math.max(start, block_start);
+            long write_to = Math.min(start + len, block_start + block_size);
+            int new_length = (int) Math.max(existing_length, write_to - block_start);
+            if(write_from == block_start && write_to - block_start >= existing_length) { //whole block replaced
+                new_crcs[block - first] = crc(b, (int) (off + block_start - start), new_length);
+            } else { //partially replaced - verify the remaining bytes first
+                byte[] content = new byte[block_size];
+                if(existing_length > 0) {
+                    verified_block(block);
+                    System.arraycopy(cached_content, 0, content, 0, existing_length);
+                }
+                System.arraycopy(b, (int) (off + write_from - start), content, (int) (write_from - block_start), (int) (write_to - write_from));
+                new_crcs[block - first] = crc(content, 0, new_length);
+                if(block == last) {
+                    last_content = content;
+                    last_length = new_length;
+                }
+            }
+        }
+
+        cached_block = -1;
+        data.set(start, b, off, len);
+
+        if(last >= crcs.length)
+            crcs = Arrays.copyOf(crcs, Math.max(last + 1, crcs.length * 2));
+        byte[] raw = new byte[new_crcs.length * 4];
+        for(int i=0;i<new_crcs.length;i++) {
+            crcs[first + i] = new_crcs[i];
+            BitHelper.writeInNBytes(raw, i*4, new_crcs[i], 4);
+        }
+        crc_count = Math.max(crc_count, last + 1);
+        checksums.set(crc_position(first), raw);
+
+        if(last_content != null) { //typically the open tail block, keep it for the next append
+            System.arraycopy(last_content, 0, cached_content, 0, last_length);
+            cached_block = last;
+        }
+    }
+
+    //verifies all blocks from the given block onwards against the current checksums, throws on the first mismatch
+    private void verify_from(int from_block) {
+        long size = contentSize();
+        int count = block_count(size);
+        byte[] buffer = new byte[BLOCKS_PER_CHUNK * block_size];
+        for(int chunk_first = from_block; chunk_first < count; chunk_first += BLOCKS_PER_CHUNK) {
+            long chunk_start = (long) chunk_first * block_size;
+            int chunk_length = (int) Math.min(buffer.length, size - chunk_start);
+            data.copyInto(chunk_start, buffer, 0, chunk_length);
+            for(int i=0;i<block_count(chunk_length);i++) {
+                int in_chunk = i * block_size;
+                check(chunk_first + i, buffer, in_chunk, Math.min(block_size, chunk_length - in_chunk));
+            }
+        }
+    }
+
+    //recalculates all checksums from the given block onwards (from the content as it is now)
+    private void recompute_from(int from_block) {
+        cached_block = -1;
+        long size = contentSize();
+        int new_count = block_count(size);
+        if(new_count > crcs.length)
+            crcs = Arrays.copyOf(crcs, Math.max(new_count, crcs.length * 2));
+        byte[] buffer = new byte[BLOCKS_PER_CHUNK * block_size];
+        for(int chunk_first = from_block; chunk_first < new_count; chunk_first += BLOCKS_PER_CHUNK) {
+            long chunk_start = (long) chunk_first * block_size;
+            int chunk_length = (int) Math.min(buffer.length, size - chunk_start);
+            data.copyInto(chunk_start, buffer, 0, chunk_length);
+            int chunk_blocks = block_count(chunk_length);
+            byte[] raw = new byte[chunk_blocks * 4];
+            for(int i=0;i<chunk_blocks;i++) {
+                int in_chunk = i * block_size;
+                crcs[chunk_first + i] = crc(buffer, in_chunk, Math.min(block_size, chunk_length - in_chunk));
+                BitHelper.writeInNBytes(raw, i*4, crcs[chunk_first + i], 4);
+            }
+            checksums.set(crc_position(chunk_first), raw);
+        }
+        crc_count = new_count;
+        if(checksums.contentSize() > crc_position(new_count))
+            checksums.delete(crc_position(new_count), checksums.contentSize());
+    }
+
+    private static long crc_position(int block) {
+        return HEADER_LENGTH + (long) block * 4;
+    }
+
+    private static class VerifyTask extends RecursiveTask<List<long[]>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient ChecksummedStorage storage;
+        private final long size;
+        private final int from_block, to_block;
+        private VerifyTask(ChecksummedStorage storage, long size, int from_block, int to_block) {
+            this.storage = storage;
+            this.size = size;
+            this.from_block = from_block;
+            this.to_block = to_block;
+        }
+
+        @Override protected List<long[]> compute() {
+            if(to_block - from_block > BLOCKS_PER_CHUNK) {
+                int middle = (from_block + to_block) >>> 1;
+                VerifyTask right = new VerifyTask(storage, size, middle, to_block);
+                right.fork();
+                List<long[]> bad = new VerifyTask(storage, size, from_block, middle).compute();
+                List<long[]> bad_right = right.join();
+                for(long[] range : bad_right)
+                    add_merged(bad, range[0], range[1]);
+                return bad;
+            }
+
+            int block_size = storage.block_size;
+            List<long[]> bad = new ArrayList<>();
+            long chunk_start = (long) from_block * block_size;
+            int chunk_length = (int) Math.min((long) (to_block - from_block) * block_size, size - chunk_start);
+            byte[] buffer = new byte[Math.max(0, chunk_length)];
+            try {
+                storage.data.copyInto(chunk_start, buffer, 0, buffer.length);
+            } catch (RuntimeException e) { //unreadable, all corrupt
+                add_merged(bad, chunk_start, chunk_start + buffer.length);
+                return bad;
+            }
+            for(int block = from_block; block < to_block; block++) {
+                int in_chunk = (block - from_block) * block_size;
+                int length = Math.min(block_size, chunk_length - in_chunk);
+                if(block >= storage.crc_count || storage.crcs[block] != crc(buffer, in_chunk, length))
+                    add_merged(bad, chunk_start + in_chunk, chunk_start + in_chunk + length);
+            }
+            return bad;
+        }
+
+        private static void add_merged(List<long[]> ranges, long start, long end) {
+            if(!ranges.isEmpty() && ranges.get(ranges.size() - 1)[1] == start)
+                ranges.get(ranges.size() - 1)[1] = end;
+            else
+                ranges.add(new long[] {start, end});
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package jokrey.utilities.transparent_storage.bytes.wrapper;
+
+import jokrey.utilities.bitsandbytes.BitHelper;
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Transparently compressing wrapper around any {@link TransparentBytesStorage}.
+ *
+ * Idea:
+ *    The logical content is cut into fixed size blocks, each block is deflated independently.
+ *    The wrapped storage holds a header (the block size) followed by a log of records: [block index(4), logical length(4), stored length(4), stored bytes].
+ *       Blocks that do not compress are stored raw (stored length == logical length).
+ *       A rewritten block is appended as a new record, the old record becomes garbage. A rewritten block whose record is the last one is rewritten in place.
+ *       A truncate record (block index -1, logical length = new block count) marks all following block indices as removed.
+ *    An in memory index (block index -> record offset) is rebuilt by scanning the records when the storage is opened.
+ *    Garbage is removed in place by {@link #compact()}, which is called automatically once there is more garbage than live data.
+ *
+ * Random reads (sub, copyInto, getByte) only decompress the blocks they touch (the last accessed block is kept decompressed).
+ * Appends fill the open tail block, which stays decompressed in memory and whose record is rewritten in place at the end of the log.
+ * Delete and insert have to shift (and therefore recompress) all following blocks.
+ *
+ * Compared to compressing each entry on its own (see DeflateContentCompressingBytesEncoder) this compresses many small entries well
+ *    and keeps the encoding (for example length indicators) readable without decompressing the entries.
+ *
+ * NOTE: Changing the wrapped storage directly while it is wrapped, results in undefined behaviour.
+ *
+ * Not thread safe.
+ *
+ * @author jokrey
+ */
+public class CompressedBlockStorage implements TransparentBytesStorage {
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int TRUNCATE_MARKER = -1;
+
+    private final TransparentBytesStorage delegate;
+    private final int block_size;
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+
+    private long[] record_offsets = new long[16];
+    private int[] stored_lengths = new int[16];
+    private int[] block_lengths = new int[16];
+    private int block_count = 0;
+    private long garbage = 0;
+
+    private int cached_block = -1;
+    private final byte[] cached_content;
+
+    /**
+     * Block size 8192 and default compression level
+     * @param delegate storage to hold the compressed blocks (may contain a previously written CompressedBlockStorage)
+     */
+    public CompressedBlockStorage(TransparentBytesStorage delegate) {
+        this(delegate, 8192, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param delegate storage to hold the compressed blocks (may contain a previously written CompressedBlockStorage)
+     * @param block_size logical size of a block, larger blocks compress better, smaller blocks make random reads and appends cheaper
+     *                   (ignored if the delegate already contains content, then the block size persisted in it is used)
+     * @param compression_level between 0-9 {@link Deflater#Deflater(int)}
+     */
+    public CompressedBlockStorage(TransparentBytesStorage delegate, int block_size, int compression_level) {
+        if(block_size <= 0) throw new IllegalArgumentException("block_size("+block_size+") has to be greater than 0");
+        this.delegate = delegate;
+        this.deflater = new Deflater(compression_level);
+        if(delegate.contentSize() < HEADER_SIZE) {
+            delegate.clear();
+            delegate.append(BitHelper.getBytes(block_size));
+            this.block_size = block_size;
+        } else {
+            this.block_size = BitHelper.getInt32From(delegate.sub(0, HEADER_SIZE));
+            scan();
+        }
+        cached_content = new byte[this.block_size];
+    }
+
+    /**
+     * Removes all garbage records from the wrapped storage (in place, live records only ever move to a lower index).
+     */
+    public void compact() {
+        Integer[] order = new Integer[block_count];
+        for(int i=0;i<block_count;i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(record_offsets[a], record_offsets[b]));
+        long write_position = HEADER_SIZE;
+        for(int block : order) {
+            long record_length = RECORD_HEADER_SIZE + stored_lengths[block];
+            if(record_offsets[block] != write_position)
+                delegate.set(write_position, delegate.sub(record_offsets[block], record_offsets[block] + record_length));
+            record_offsets[block] = write_position;
+            write_position += record_length;
+        }
+        if(delegate.contentSize() > write_position)
+            delegate.delete(write_position, delegate.contentSize());
+        garbage = 0;
+    }
+
+    /** @return the number of bytes actually used in the wrapped storage, including garbage */
+    public long storedSize() {
+        return delegate.contentSize();
+    }
+
+    /** @return the number of garbage bytes in the wrapped storage, that would be removed by {@link #compact()} */
+    public long garbageSize() {
+        return garbage;
+    }
+
+    /** @return the logical size of a block */
+    public int blockSize() {
+        return block_size;
+    }
+
+    @Override public void close() throws Exception {
+        compact();
+        delegate.close();
+        deflater.end();
+        inflater.end();
+    }
+
+
+    @Override public void clear() {
+        delegate.clear();
+        delegate.append(BitHelper.getBytes(block_size));
+        block_count = 0;
+        garbage = 0;
+        cached_block = -1;
+    }
+
+    @Override public void setContent(byte[] content) {
+        clear();
+        set(0, content);
+    }
+
+    @Override public byte[] getContent() {
+        long size = contentSize();
+        if(size > Integer.MAX_VALUE) throw new IllegalStateException("Content does not fit array, use stream instead.");
+        return sub(0, size);
+    }
+
+    //all following blocks have to be shifted left, done in chunks aligned to the destination blocks - so that each is only recompressed once
+    @Override public CompressedBlockStorage delete(long start, long end) throws StorageSystemException {
+        long size = contentSize();
+        if (end - start <= 0)
+            throw new StorageSystemException("Cannot delete 0 or less than 0 bytes(delAttemptRange=["+start+", "+end+"]).");
+        if(start>=size || end > size || start < 0)
+            throw new IndexOutOfBoundsException("size("+size+"), start("+start+"), end("+end+")");
+        long shift = end - start;
+        byte[] buffer = new byte[block_size];
+        for(long to = start; to + shift < size; ) {
+            int chunk = (int) Math.min(block_size - to % block_size, size - shift - to);
+            read(to + shift, buffer, 0, chunk);
+            write(to, buffer, 0, chunk);
+            to += chunk;
+        }
+        truncate(size - shift);
+        return this;
+    }
+
+    //all following blocks have to be shifted right, done back to front in chunks aligned to the destination blocks
+    @Override public CompressedBlockStorage insert(long start, byte[] val) {
+        long size = contentSize();
+        if(start > size) throw new IndexOutOfBoundsException();
+        if(val.length == 0) return this;
+        long shift = val.length;
+        byte[] buffer = new byte[block_size];
+        for(long to_end = size + shift; to_end > start + shift; ) {
+            long to = Math.max(start + shift, (to_end - 1) / block_size * block_size);
+            int chunk = (int) (to_end - to);
+            read(to - shift, buffer, 0, chunk);
+            write(to, buffer, 0, chunk);
+            to_end = to;
+        }
+        write(start, val, 0, val.length);
+        return this;
+    }
+
+    @Override public CompressedBlockStorage set(long start, InputStream content, long content_length) throws StorageSystemException {
+        try {
+            long expected_bytes_count = content_length;
+            int nRead;
+            byte[] buffer = new byte[block_size];
+            while (content_length > 0) {
+                int chunk = (int) Math.min(block_size - start % block_size, content_length); //aligned, so each block is only recompressed once
+                int filled = 0;
+                while(filled < chunk && (nRead = content.read(buffer, filled, chunk - filled)) != -1)
+                    filled += nRead;
+                if(filled == 0) break;
+                write(start, buffer, 0, filled);
+                start += filled;
+                content_length -= filled;
+                if(filled < chunk) break;
+            }
+            content.close();
+            if (content_length > 0)
+                throw new StorageSystemException("The provided stream failed to deliver the promised number of bytes(missing: " + content_length + " of expected " + expected_bytes_count + ")");
+        } catch (IOException ex) {
+            throw new StorageSystemException("IO Exception thrown by provided InputStream(" + ex.getMessage() + ").");
+        }
+        return this;
+    }
+
+    @Override public CompressedBlockStorage set(long start, byte[] part, int off, int len) throws StorageSystemException {
+        len = Math.min(len, part.length - off);
+        write(start, part, off, len);
+        return this;
+    }
+
+    @Override public CompressedBlockStorage set(long start, byte part) throws StorageSystemException {
+        return set(start, new byte[] {part}, 0, 1);
+    }
+
+    //concatenated, so that the touched blocks are only recompressed once
+    @Override public CompressedBlockStorage set(long at, byte[]... parts) throws StorageSystemException {
+        int partsLength = 0;
+        for(byte[] part:parts) partsLength += part.length;
+        byte[] concatenated = new byte[partsLength];
+        int position = 0;
+        for(byte[] part:parts) {
+            System.arraycopy(part, 0, concatenated, position, part.length);
+            position += part.length;
+        }
+        write(at, concatenated, 0, concatenated.length);
+        return this;
+    }
+
+    @Override public byte[] sub(long start, long end) throws StorageSystemException {
+        long size = contentSize();
+        if (end > size) end = size; //to satisfy interface doc condition
+        if (start < 0) start = 0;
+        long len = end - start;
+        if (len > 0) {
+            byte[] sub = new byte[(int) len];
+            read(start, sub, 0, sub.length);
+            return sub;
+        } else if (len == 0)
+            return new byte[0];
+        else
+            throw new StorageSystemException("Cannot create a byte array with less than 0 bytes. - sub: start="+start+", end="+end);
+    }
+
+    @Override public CompressedBlockStorage copyInto(long start, byte[] b, int off, int len) {
+        if(start + len > contentSize()) throw new IndexOutOfBoundsException("size("+contentSize()+"), start("+start+"), len("+len+")");
+        read(start, b, off, len);
+        return this;
+    }
+
+    @Override public byte getByte(long index) {
+        if(index < 0 || index >= contentSize()) throw new IndexOutOfBoundsException("size("+contentSize()+"), index("+index+")");
+        return block((int) (index / block_size))[(int) (index % block_size)];
+    }
+
+    @Override public InputStream substream(long start, long end) throws StorageSystemException {
+        long size = contentSize();
+        long end_bound = Math.min(end, size);
+        if(start < 0)
+            throw new StorageSystemException("the start position("+start+") has to be greater than 0");
+        if(end_bound - start < 0)
+            throw new StorageSystemException("Cannot create substream of less than 0 bytes");
+        if(end_bound - start <= block_size)
+            return new ByteArrayInputStream(sub(start, end_bound));
+        return new InputStream() {
+            long position = start;
+            @Override public int read() {
+                if(position>=end_bound) return -1;
+                return getByte(position++) & 0xFF;
+            }
+            @Override public int read(byte[] b, int off, int len) {
+                if(position>=end_bound) return -1;
+                len = (int) Math.min(len, end_bound-position);
+                copyInto(position, b, off, len);
+                position += len;
+                return len;
+            }
+            @Override public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, end_bound-position));
+                position += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    @Override public InputStream stream() {
+        return substream(0, contentSize());
+    }
+
+    @Override public long contentSize() {
+        return block_count==0? 0 : (long) (block_count - 1) * block_size + block_lengths[block_count - 1];
+    }
+
+    @Override public boolean isEmpty() {
+        return block_count == 0;
+    }
+
+    @Override public int hashCode() {
+        return Arrays.hashCode(getContent());
+    }
+    @Override public boolean equals(Object o) {
+        return o instanceof CompressedBlockStorage && Arrays.equals(getContent(), ((CompressedBlockStorage) o).getContent());
+    }
+
+    @Override public String toString() {
+        return "[CompressedBlockStorage: l=" + contentSize() + ", blocks=" + block_count + ", stored=" + storedSize() + ", garbage=" + garbage + ", delegate=" + delegate + "]";
+    }
+
+
+
+    //BLOCKS
+
+    private void read(long start, byte[] b, int off, int len) {
+        while(len > 0) {
+            int block = (int) (start / block_size);
+            int in_block = (int) (start % block_size);
+            int chunk = Math.min(len, block_lengths[block] - in_block);
+            System.arraycopy(block(block), in_block, b, off, chunk);
+            start += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    //overwrites or appends, zero pads if start is beyond the current size
+    private void write(long start, byte[] b, int off, int len) {
+        long size = contentSize();
+        if(start > size) {
+            byte[] zeros = new byte[block_size];
+            while(size < start) {
+                int chunk = (int) Math.min(block_size - size % block_size, start - size);
+                write(size, zeros, 0, chunk);
+                size += chunk;
+            }
+        }
+        while(len > 0) {
+            int block = (int) (start / block_size);
+            int in_block = (int) (start % block_size);
+            int chunk = Math.min(len, block_size - in_block);
+            byte[] content = block < block_count? block(block) : cached_content;
+            int new_length = block < block_count? Math.max(block_lengths[block], in_block + chunk) : in_block + chunk;
+            cached_block = -1; //until persisted
+            System.arraycopy(b, off, content, in_block, chunk);
+            writeBlock(block, content, new_length);
+            start += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+        if(garbage > block_size && garbage > delegate.contentSize() - garbage)
+            compact();
+    }
+
+    private void truncate(long new_size) {
+        int new_block_count = (int) ((new_size + block_size - 1) / block_size);
+        if(new_block_count > 0) {
+            int new_last_length = (int) (new_size - (long) (new_block_count - 1) * block_size);
+            if(new_last_length < block_lengths[new_block_count - 1])
+                writeBlock(new_block_count - 1, block(new_block_count - 1), new_last_length);
+        }
+        if(new_block_count < block_count) {
+            long log_end = delegate.contentSize();
+            for(int i=new_block_count;i<block_count;i++)
+                garbage += RECORD_HEADER_SIZE + stored_lengths[i];
+            byte[] marker = new byte[RECORD_HEADER_SIZE];
+            BitHelper.writeInNBytes(marker, 0, TRUNCATE_MARKER, 4);
+            BitHelper.writeInNBytes(marker, 4, new_block_count, 4);
+            delegate.set(log_end, marker);
+            garbage += RECORD_HEADER_SIZE; //only required until the next compaction
+            block_count = new_block_count;
+            if(cached_block >= block_count) cached_block = -1;
+        }
+        if(garbage > block_size && garbage > delegate.contentSize() - garbage)
+            compact();
+    }
+
+    //returns the decompressed content of the given block, the returned array is only valid until the next block access
+    private byte[] block(int block) {
+        if(cached_block != block) {
+            byte[] stored = delegate.sub(record_offsets[block] + RECORD_HEADER_SIZE, record_offsets[block] + RECORD_HEADER_SIZE + stored_lengths[block]);
+            if(stored.length == block_lengths[block]) {
+                System.arraycopy(stored, 0, cached_content, 0, stored.length);
+            } else {
+                try {
+                    inflater.reset();
+                    inflater.setInput(stored);
+                    int inflated = 0;
+                    while (inflated < block_lengths[block] && !inflater.finished()) {
+                        int n = inflater.inflate(cached_content, inflated, block_lengths[block] - inflated);
+                        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                            throw new StorageSystemException("Internal CompressedBlockStorage-Error(block " + block + " is truncated).");
+                        inflated += n;
+                    }
+                    if(inflated < block_lengths[block])
+                        throw new StorageSystemException("Internal CompressedBlockStorage-Error(block " + block + " is truncated).");
+                } catch (DataFormatException e) {
+                    cached_block = -1;
+                    throw new StorageSystemException("Internal CompressedBlockStorage-Error(" + e.getMessage() + ").");
+                }
+            }
+            cached_block = block;
+        }
+        return cached_content;
+    }
+
+    //compresses and persists the block, content is typically the cache array - the block becomes the cached block
+    private void writeBlock(int block, byte[] content, int length) {
+        byte[] stored = deflate(content, length);
+        byte[] header = new byte[RECORD_HEADER_SIZE];
+        BitHelper.writeInNBytes(header, 0, block, 4);
+        BitHelper.writeInNBytes(header, 4, length, 4);
+        BitHelper.writeInNBytes(header, 8, stored.length, 4);
+
+        long log_end = delegate.contentSize();
+        long record_offset;
+        if(block < block_count && record_offsets[block] + RECORD_HEADER_SIZE + stored_lengths[block] == log_end) {
+            record_offset = record_offsets[block]; //last record - rewrite in place (the open tail block)
+            delegate.set(record_offset, header, stored);
+            long new_log_end = record_offset + RECORD_HEADER_SIZE + stored.length;
+            if(new_log_end < log_end)
+                delegate.delete(new_log_end, log_end);
+        } else {
+            if(block < block_count)
+                garbage += RECORD_HEADER_SIZE + stored_lengths[block];
+            record_offset = log_end;
+            delegate.set(record_offset, header, stored);
+        }
+
+        if(block >= block_count) {
+            ensure_capacity(block + 1);
+            block_count = block + 1;
+        }
+        record_offsets[block] = record_offset;
+        stored_lengths[block] = stored.length;
+        block_lengths[block] = length;
+        if(content != cached_content)
+            System.arraycopy(content, 0, cached_content, 0, length);
+        cached_block = block;
+    }
+
+    private byte[] deflate(byte[] content, int length) {
+        deflater.reset();
+        deflater.setInput(content, 0, length);
+        deflater.finish();
+        byte[] out = new byte[length];
+        int deflated = 0;
+        while(!deflater.finished() && deflated < out.length)
+            deflated += deflater.deflate(out, deflated, out.length - deflated);
+        if(!deflater.finished() || deflated >= length) //does not compress - store raw
+            return Arrays.copyOf(content, length);
+        return Arrays.copyOf(out, deflated);
+    }
+
+    //rebuilds the index from the records in the delegate
+    private void scan() {
+        long log_end = delegate.contentSize();
+        long position = HEADER_SIZE;
+        long live = 0;
+        byte[] header = new byte[RECORD_HEADER_SIZE];
+        while(position + RECORD_HEADER_SIZE <= log_end) {
+            delegate.copyInto(position, header, 0, RECORD_HEADER_SIZE);
+            int block = BitHelper.getInt32From(header, 0);
+            int length = BitHelper.getInt32From(header, 4);
+            int stored_length = BitHelper.getInt32From(header, 8);
+            if(position + RECORD_HEADER_SIZE + stored_length > log_end)
+                break; //torn record
+            if(block == TRUNCATE_MARKER) {
+                for(int i=length;i<block_count;i++)
+                    live -= RECORD_HEADER_SIZE + stored_lengths[i];
+                block_count = Math.min(block_count, length);
+            } else {
+                if(block < block_count) {
+                    live -= RECORD_HEADER_SIZE + stored_lengths[block];
+                } else {
+                    ensure_capacity(block + 1);
+                    block_count = block + 1;
+                }
+                record_offsets[block] = position;
+                stored_lengths[block] = stored_length;
+                block_lengths[block] = length;
+                live += RECORD_HEADER_SIZE + stored_length;
+            }
+            position += RECORD_HEADER_SIZE + stored_length;
+        }
+        if(position < log_end)
+            delegate.delete(position, log_end);
+        garbage = position - HEADER_SIZE - live;
+    }
+
+    private void ensure_capacity(int capacity) {
+        if(capacity > record_offsets.length) {
+            int new_capacity = Math.max(capacity, record_offsets.length * 2);
+            record_offsets = Arrays.copyOf(record_offsets, new_capacity);
+            stored_lengths = Arrays.copyOf(stored_lengths, new_capacity);
+            block_lengths = Arrays.copyOf(block_lengths, new_capacity);
+        }
+    }
+}
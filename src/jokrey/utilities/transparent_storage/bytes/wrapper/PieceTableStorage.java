@@ -0,0 +1,428 @@
+package jokrey.utilities.transparent_storage.bytes.wrapper;
+
+import jokrey.utilities.transparent_storage.StorageSystemException;
+import jokrey.utilities.transparent_storage.bytes.TransparentBytesStorage;
+import jokrey.utilities.transparent_storage.bytes.non_persistent.ByteArrayStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Piece table wrapper around any {@link TransparentBytesStorage}.
+ *
+ * Idea:
+ *    The logical content is described by a sequence of pieces. Each piece references a range in one of two storages:
+ *       the original storage (the wrapped storage, as it was when this wrapper was created or last compacted)
+ *       or the added storage (an append only storage that receives all newly written bytes).
+ *    Neither storage is ever altered in place (until compaction). Instead:
+ *       delete removes (or cuts) the pieces covering the deleted range,
+ *       insert appends the inserted bytes to the added storage and links a new piece in at the insert position,
+ *       set does both: it cuts the overwritten range and links a new piece in.
+ *    The pieces are stored in an implicit treap (randomized balanced binary tree ordered by content position, with subtree lengths),
+ *       so all of those operations take O(log p) piece operations, where p is the number of pieces - independent of the number of bytes moved.
+ *    Reads (sub, copyInto, getByte) find the first piece in O(log p) and then read piece by piece.
+ *
+ * This makes delete and insert heavy workloads cheap, for example repeatedly replacing a tag near the front of a large LITagBytesEncoder.
+ *    With ByteArrayStorage or FileStorage each such replace moves all following bytes.
+ *    The downside is fragmentation: over time the number of pieces grows and reads get slower (and the added storage grows with every write).
+ *    {@link #compact()} flattens all pieces back into the original storage (in place, without requiring additional memory or storage).
+ *
+ * NOTE: The wrapped storage does not reflect any changes until compact (or close) is called.
+ *       Changing the wrapped storage directly while it is wrapped, results in undefined behaviour.
+ *
+ * Not thread safe.
+ *
+ * @author jokrey
+ */
+public class PieceTableStorage implements TransparentBytesStorage {
+    private final TransparentBytesStorage original;
+    private final TransparentBytesStorage added;
+    private final int io_buffer_size;
+    private final Random random = new Random();
+
+    private Piece root;
+
+    /**
+     * Wraps the given storage, new bytes are written into a {@link ByteArrayStorage} until {@link #compact()} is called.
+     * @param original storage whose current content is the initial content of this storage
+     */
+    public PieceTableStorage(TransparentBytesStorage original) {
+        this(original, new ByteArrayStorage(), 8192);
+    }
+
+    /**
+     * @param original storage whose current content is the initial content of this storage
+     * @param added append only storage into which all new bytes are written until {@link #compact()} is called (will be cleared)
+     * @param io_buffer_size buffer size to use for internal copy operations (namely compact)
+     */
+    public PieceTableStorage(TransparentBytesStorage original, TransparentBytesStorage added, int io_buffer_size) {
+        this.original = original;
+        this.added = added;
+        this.io_buffer_size = io_buffer_size;
+        added.clear();
+        long original_size = original.contentSize();
+        root = original_size==0? null : new Piece(false, 0, original_size, random.nextInt());
+    }
+
+    /**
+     * Flattens all pieces into the original storage and clears the added storage.
+     * After this call the original storage contains exactly the content of this storage and there is at most a single piece left.
+     *
+     * The flattening is done in place:
+     *    pieces from the original storage never change their relative order, so they can be moved in two passes (first those moving to a lower index in order, then those moving to a higher index in reverse order) without overwriting bytes that still have to be moved.
+     *    Afterwards the pieces from the added storage are written.
+     *
+     * Runs in O(n), where n is the number of bytes in the content.
+     */
+    public void compact() {
+        long size = contentSize();
+        if(root != null && root.left == null && root.right == null && !root.added && root.buffer_start == 0 && original.contentSize() == size) {
+            added.clear(); //already flat
+            return;
+        }
+
+        ArrayList<long[]> pieces = new ArrayList<>(); // [is_added, buffer_start, length, content_position]
+        collect(root, 0, pieces);
+
+        long original_size = original.contentSize();
+        if(size > original_size) { //pre ensure length met
+            byte[] zeros = new byte[(int) Math.min(io_buffer_size, size - original_size)];
+            for(long i = original_size; i < size; i += zeros.length)
+                original.set(i, zeros, 0, (int) Math.min(zeros.length, size - i));
+        }
+
+        byte[] buffer = new byte[io_buffer_size];
+        for(long[] p:pieces) //moving left (or not at all), in order
+            if(p[0]==0 && p[3] <= p[1])
+                moveInOriginal(p[1], p[3], p[2], buffer);
+        for(int i=pieces.size()-1; i>=0; i--) { //moving right, in reverse order
+            long[] p = pieces.get(i);
+            if(p[0]==0 && p[3] > p[1])
+                moveInOriginal(p[1], p[3], p[2], buffer);
+        }
+        for(long[] p:pieces) { //from added
+            if(p[0]==1) {
+                for(long copied = 0; copied < p[2]; ) {
+                    int chunk = (int) Math.min(buffer.length, p[2] - copied);
+                    added.copyInto(p[1] + copied, buffer, 0, chunk);
+                    original.set(p[3] + copied, buffer, 0, chunk);
+                    copied += chunk;
+                }
+            }
+        }
+
+        if(original.contentSize() > size)
+            original.delete(size, original.contentSize());
+        added.clear();
+        root = size==0? null : new Piece(false, 0, size, random.nextInt());
+    }
+
+    /** @return the current number of pieces - i.e. a measure of fragmentation that can be used to decide when to call {@link #compact()} */
+    public int pieceCount() {
+        return count(root);
+    }
+
+    /**
+     * Compacts and closes both the original and the added storage.
+     * @throws Exception if closing either storage fails
+     */
+    @Override public void close() throws Exception {
+        compact();
+        original.close();
+        added.close();
+        root = null;
+    }
+
+
+    @Override public void clear() {
+        root = null;
+        added.clear();
+    }
+
+    @Override public void setContent(byte[] content) {
+        clear();
+        set(0, content);
+    }
+
+    @Override public byte[] getContent() {
+        long size = contentSize();
+        if(size > Integer.MAX_VALUE) throw new IllegalStateException("Content does not fit array, use stream instead.");
+        return sub(0, size);
+    }
+
+    @Override public PieceTableStorage delete(long start, long end) throws StorageSystemException {
+        long size = contentSize();
+        if (end - start <= 0)
+            throw new StorageSystemException("Cannot delete 0 or less than 0 bytes(delAttemptRange=["+start+", "+end+"]).");
+        if(start>=size || end > size || start < 0)
+            throw new IndexOutOfBoundsException("size("+size+"), start("+start+"), end("+end+")");
+        Piece[] l_r = split(root, start);
+        Piece[] m_r = split(l_r[1], end - start);
+        root = merge(l_r[0], m_r[1]);
+        return this;
+    }
+
+    @Override public PieceTableStorage insert(long start, byte[] val) {
+        if(start > contentSize()) throw new IndexOutOfBoundsException();
+        if(val.length == 0) return this;
+        long added_start = added.contentSize();
+        added.append(val);
+        link(start, 0, new Piece(true, added_start, val.length, random.nextInt()));
+        return this;
+    }
+
+    @Override public PieceTableStorage set(long start, InputStream content, long content_length) throws StorageSystemException {
+        if(start > contentSize()) throw new IndexOutOfBoundsException();
+        long added_start = added.contentSize();
+        added.append(content, content_length);
+        overwrite(start, new Piece(true, added_start, content_length, random.nextInt()));
+        return this;
+    }
+
+    @Override public PieceTableStorage set(long start, byte[] part, int off, int len) throws StorageSystemException {
+        len = Math.min(len, part.length - off);
+        long added_start = added.contentSize();
+        added.set(added_start, part, off, len);
+        overwrite(start, new Piece(true, added_start, len, random.nextInt()));
+        return this;
+    }
+
+    @Override public PieceTableStorage set(long start, byte part) throws StorageSystemException {
+        return set(start, new byte[] {part}, 0, 1);
+    }
+
+    //all parts are appended to the added storage consecutively, so they only require a single piece
+    @Override public PieceTableStorage set(long at, byte[]... parts) throws StorageSystemException {
+        long partsLength = 0;
+        for(byte[] part:parts) partsLength += part.length;
+        long added_start = added.contentSize();
+        added.set(added_start, parts);
+        overwrite(at, new Piece(true, added_start, partsLength, random.nextInt()));
+        return this;
+    }
+
+    @Override public byte[] sub(long start, long end) throws StorageSystemException {
+        long size = contentSize();
+        if (end > size) end = size; //to satisfy interface doc condition
+        if (start < 0) start = 0;
+        long len = end - start;
+        if (len > 0) {
+            byte[] sub = new byte[(int) len];
+            read(root, start, end, sub, 0);
+            return sub;
+        } else if (len == 0)
+            return new byte[0];
+        else
+            throw new StorageSystemException("Cannot create a byte array with less than 0 bytes. - sub: start="+start+", end="+end);
+    }
+
+    @Override public PieceTableStorage copyInto(long start, byte[] b, int off, int len) {
+        if(start + len > contentSize()) throw new IndexOutOfBoundsException("size("+contentSize()+"), start("+start+"), len("+len+")");
+        read(root, start, start + len, b, off);
+        return this;
+    }
+
+    @Override public byte getByte(long index) {
+        if(index < 0 || index >= contentSize()) throw new IndexOutOfBoundsException("size("+contentSize()+"), index("+index+")");
+        Piece t = root;
+        while(true) {
+            long left_length = length(t.left);
+            if(index < left_length) {
+                t = t.left;
+            } else if(index < left_length + t.length) {
+                return buffer(t).getByte(t.buffer_start + index - left_length);
+            } else {
+                index -= left_length + t.length;
+                t = t.right;
+            }
+        }
+    }
+
+    @Override public InputStream substream(long start, long end) throws StorageSystemException {
+        long size = contentSize();
+        long end_bound = Math.min(end, size);
+        if(start < 0)
+            throw new StorageSystemException("the start position("+start+") has to be greater than 0");
+        if(end_bound - start < 0)
+            throw new StorageSystemException("Cannot create substream of less than 0 bytes");
+        if(end_bound - start <= io_buffer_size)
+            return new ByteArrayInputStream(sub(start, end_bound));
+        return new InputStream() {
+            long position = start;
+            @Override public int read() {
+                if(position>=end_bound) return -1;
+                return getByte(position++) & 0xFF;
+            }
+            @Override public int read(byte[] b, int off, int len) {
+                if(position>=end_bound) return -1;
+                len = (int) Math.min(len, end_bound-position);
+                copyInto(position, b, off, len);
+                position += len;
+                return len;
+            }
+            @Override public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, end_bound-position));
+                position += skipped;
+                return skipped;
+            }
+        };
+    }
+
+    @Override public InputStream stream() {
+        return substream(0, contentSize());
+    }
+
+    @Override public long contentSize() {
+        return length(root);
+    }
+
+    @Override public boolean isEmpty() {
+        return root == null;
+    }
+
+    @Override public int hashCode() {
+        return Arrays.hashCode(getContent());
+    }
+    @Override public boolean equals(Object o) {
+        return o instanceof PieceTableStorage && Arrays.equals(getContent(), ((PieceTableStorage) o).getContent());
+    }
+
+    @Override public String toString() {
+        return "[PieceTableStorage: l=" + contentSize() + ", pieces=" + pieceCount() + ", original=" + original + "]";
+    }
+
+
+
+    //TREAP
+
+    private static class Piece {
+        final boolean added;
+        final long buffer_start;
+        final long length;
+        final int priority;
+        long subtree_length;
+        Piece left, right;
+        Piece(boolean added, long buffer_start, long length, int priority) {
+            this.added = added;
+            this.buffer_start = buffer_start;
+            this.length = length;
+            this.priority = priority;
+            this.subtree_length = length;
+        }
+        void update() {
+            subtree_length = length(left) + length + length(right);
+        }
+    }
+
+    private static long length(Piece t) {
+        return t==null? 0 : t.subtree_length;
+    }
+    private static int count(Piece t) {
+        return t==null? 0 : count(t.left) + 1 + count(t.right);
+    }
+    private TransparentBytesStorage buffer(Piece t) {
+        return t.added? added : original;
+    }
+
+    //replaces the bytes [start, start+piece.length) with the given piece (appending and zero padding if required)
+    private void overwrite(long start, Piece piece) {
+        if(piece.length == 0) return;
+        long size = contentSize();
+        if(start > size) {
+            long gap = start - size;
+            long added_start = added.contentSize();
+            added.set(added_start, new byte[(int) gap]);
+            link(size, 0, new Piece(true, added_start, gap, random.nextInt()));
+        }
+        link(start, Math.min(piece.length, contentSize() - start), piece);
+    }
+    //replaces the overwritten_length bytes at start with the given piece
+    private void link(long start, long overwritten_length, Piece piece) {
+        Piece[] l_r = split(root, start);
+        Piece right = l_r[1];
+        if(overwritten_length > 0)
+            right = split(right, overwritten_length)[1];
+        root = merge(merge(l_r[0], piece), right);
+    }
+
+    // [0] contains the first pos bytes, [1] all after - cuts a piece in two if required
+    private Piece[] split(Piece t, long pos) {
+        if(t == null) return new Piece[] {null, null};
+        long left_length = length(t.left);
+        if(pos <= left_length) {
+            Piece[] s = split(t.left, pos);
+            t.left = s[1];
+            t.update();
+            return new Piece[] {s[0], t};
+        } else if(pos >= left_length + t.length) {
+            Piece[] s = split(t.right, pos - left_length - t.length);
+            t.right = s[0];
+            t.update();
+            return new Piece[] {t, s[1]};
+        } else {
+            long k = pos - left_length;
+            Piece a = new Piece(t.added, t.buffer_start, k, random.nextInt());
+            Piece b = new Piece(t.added, t.buffer_start + k, t.length - k, random.nextInt());
+            return new Piece[] {merge(t.left, a), merge(b, t.right)};
+        }
+    }
+    private static Piece merge(Piece a, Piece b) {
+        if(a == null) return b;
+        if(b == null) return a;
+        if(a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            a.update();
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            b.update();
+            return b;
+        }
+    }
+
+    //reads [start, end) of the subtree t into b at off
+    private void read(Piece t, long start, long end, byte[] b, int off) {
+        if(t == null || start >= end) return;
+        long left_length = length(t.left);
+        long piece_end = left_length + t.length;
+        if(start < left_length)
+            read(t.left, start, Math.min(end, left_length), b, off);
+        long s = Math.max(start, left_length);
+        long e = Math.min(end, piece_end);
+        if(s < e)
+            buffer(t).copyInto(t.buffer_start + (s - left_length), b, off + (int) (s - start), (int) (e - s));
+        if(end > piece_end) {
+            long right_start = Math.max(start, piece_end);
+            read(t.right, right_start - piece_end, end - piece_end, b, off + (int) (right_start - start));
+        }
+    }
+
+    private static long collect(Piece t, long position, ArrayList<long[]> into) {
+        if(t == null) return position;
+        position = collect(t.left, position, into);
+        into.add(new long[] {t.added?1:0, t.buffer_start, t.length, position});
+        return collect(t.right, position + t.length, into);
+    }
+
+    private void moveInOriginal(long from, long to, long len, byte[] buffer) {
+        if(from == to) return;
+        if(from > to) {
+            for (long copied = 0; copied < len; ) {
+                int chunk = (int) Math.min(buffer.length, len - copied);
+                original.copyInto(from + copied, buffer, 0, chunk);
+                original.set(to + copied, buffer, 0, chunk);
+                copied += chunk;
+            }
+        } else {
+            for (long remaining = len; remaining > 0; ) {
+                int chunk = (int) Math.min(buffer.length, remaining);
+                remaining -= chunk;
+                original.copyInto(from + remaining, buffer, 0, chunk);
+                original.set(to + remaining, buffer, 0, chunk);
+            }
+        }
+    }
+}